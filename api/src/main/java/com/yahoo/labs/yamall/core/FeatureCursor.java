@@ -0,0 +1,198 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.core;
+
+import java.util.Iterator;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+
+/**
+ * Cursor over the features of an instance, including the crossed ones.
+ * <p>
+ * The first-order features are returned first, followed by the ones generated by the interactions of the instance, if
+ * any. The crossed features are computed on the fly, without building the crossed vector. Typical use:
+ * 
+ * <pre>
+ * FeatureCursor cursor = sample.features();
+ * while (cursor.next()) {
+ *     int key = cursor.key();
+ *     double x = cursor.value();
+ *     ...
+ * }
+ * </pre>
+ * 
+ * The same index can be returned more than once, if two crossed features collide. When the cursor reaches the end,
+ * the number of features it returned is recorded in the instance, see {@link Instance#getNumberVisitedFeatures()}.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class FeatureCursor {
+    /*
+     * Each combination of namespace ranges to cross is stored in tuples as
+     * arity, start0, end0, start1, end1, start2, end2, positions in the features of the namespaces.
+     */
+    private static final int STRIDE = 7;
+
+    private final Instance instance;
+    private final Iterator<Int2DoubleMap.Entry> iterator;
+    private final Interactions interactions;
+    private final int[] keys;
+    private final double[] values;
+    private int[] tuples;
+    private int numTuples = 0;
+
+    private int tuple = 0;
+    private boolean started = false;
+    private int i0, i1, i2;
+
+    private int key;
+    private double value;
+    private int count = 0;
+
+    FeatureCursor(
+            Instance instance, SparseVector sv, int[] namespaces, int numNamespaces, int[] namespaceKeys,
+            double[] namespaceValues, Interactions interactions) {
+        this.instance = instance;
+        iterator = sv.int2DoubleEntrySet().iterator();
+        this.interactions = interactions;
+        this.keys = namespaceKeys;
+        this.values = namespaceValues;
+        if (interactions != null && numNamespaces > 0)
+            buildTuples(namespaces, numNamespaces);
+    }
+
+    private void buildTuples(int[] namespaces, int numNamespaces) {
+        tuples = new int[STRIDE * 4];
+        for (int t = 0; t < interactions.size(); t++) {
+            char[] term = interactions.getTerm(t);
+            for (int a = 0; a < numNamespaces; a++) {
+                if (namespaces[3 * a] != term[0])
+                    continue;
+                for (int b = 0; b < numNamespaces; b++) {
+                    if (namespaces[3 * b] != term[1])
+                        continue;
+                    if (term.length == 2) {
+                        addTuple(2, namespaces, a, b, b);
+                        continue;
+                    }
+                    for (int c = 0; c < numNamespaces; c++) {
+                        if (namespaces[3 * c] == term[2])
+                            addTuple(3, namespaces, a, b, c);
+                    }
+                }
+            }
+        }
+    }
+
+    private void addTuple(int arity, int[] namespaces, int a, int b, int c) {
+        if (STRIDE * (numTuples + 1) > tuples.length) {
+            int[] tmp = new int[tuples.length * 2];
+            System.arraycopy(tuples, 0, tmp, 0, tuples.length);
+            tuples = tmp;
+        }
+        int o = STRIDE * numTuples;
+        tuples[o] = arity;
+        tuples[o + 1] = namespaces[3 * a + 1];
+        tuples[o + 2] = namespaces[3 * a + 2];
+        tuples[o + 3] = namespaces[3 * b + 1];
+        tuples[o + 4] = namespaces[3 * b + 2];
+        tuples[o + 5] = namespaces[3 * c + 1];
+        tuples[o + 6] = namespaces[3 * c + 2];
+        numTuples++;
+    }
+
+    /**
+     * Moves to the next feature.
+     *
+     * @return false if there are no more features.
+     */
+    public boolean next() {
+        if (iterator.hasNext()) {
+            Int2DoubleMap.Entry entry = iterator.next();
+            key = entry.getIntKey();
+            value = entry.getDoubleValue();
+            count++;
+            return true;
+        }
+        if (nextCross()) {
+            count++;
+            return true;
+        }
+        instance.setNumberVisitedFeatures(count);
+        return false;
+    }
+
+    /*
+     * Within a namespace crossed with itself only the pairs with increasing positions are generated.
+     */
+    private int start1(int o) {
+        return tuples[o + 3] == tuples[o + 1] ? i0 + 1 : tuples[o + 3];
+    }
+
+    private int start2(int o) {
+        return tuples[o + 5] == tuples[o + 3] ? i1 + 1 : tuples[o + 5];
+    }
+
+    private boolean nextCross() {
+        while (tuple < numTuples) {
+            final int o = STRIDE * tuple;
+            final int arity = tuples[o];
+            if (!started) {
+                i0 = tuples[o + 1];
+                i1 = start1(o);
+                i2 = start2(o);
+                started = true;
+            }
+            else if (arity == 3)
+                i2++;
+            else
+                i1++;
+
+            // carry the positions that went past the end of their namespace
+            while (i0 < tuples[o + 2]) {
+                if (i1 >= tuples[o + 4]) {
+                    i0++;
+                    i1 = start1(o);
+                    i2 = start2(o);
+                }
+                else if (arity == 3 && i2 >= tuples[o + 6]) {
+                    i1++;
+                    i2 = start2(o);
+                }
+                else
+                    break;
+            }
+
+            if (i0 < tuples[o + 2]) {
+                if (arity == 2) {
+                    key = interactions.cross(keys[i0], keys[i1]);
+                    value = values[i0] * values[i1];
+                }
+                else {
+                    key = interactions.cross(keys[i0], keys[i1], keys[i2]);
+                    value = values[i0] * values[i1] * values[i2];
+                }
+                return true;
+            }
+            tuple++;
+            started = false;
+        }
+        return false;
+    }
+
+    /**
+     * @return the index of the current feature.
+     */
+    public int key() {
+        return key;
+    }
+
+    /**
+     * @return the value of the current feature.
+     */
+    public double value() {
+        return value;
+    }
+}
@@ -4,14 +4,20 @@
 package com.yahoo.labs.yamall.core;
 
 import java.io.Serializable;
+import java.util.Arrays;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
 
 /**
  * Representation of an instance.
  * <p>
  * An instance is defined by a label, a weight, a tag, and a vector.
+ * <p>
+ * Optionally, the instance records the features of each namespace and the interactions to generate between them. In this case, the features of the instance are the ones of the vector plus the crossed ones, and the learners
+ * access them through {@link #features()} and the other methods of this class instead of the vector.
  * 
  * @author Francesco Orabona
- * @version 1.0
+ * @version 1.1
  */
 @SuppressWarnings("serial")
 public class Instance implements Serializable {
@@ -19,6 +25,17 @@ public class Instance implements Serializable {
     private double weight;
     private String tag;
     private SparseVector sv;
+    private SparseVector costs = null;
+    private Interactions interactions = null;
+    // first character, start and end position in the namespace features of each namespace
+    private int[] namespaces = null;
+    private int numNamespaces = 0;
+    // features of the namespaces, kept apart from the vector where colliding features are merged
+    private int[] namespaceKeys = null;
+    private double[] namespaceValues = null;
+    private int numNamespaceFeatures = 0;
+    // features returned by the last cursor that reached the end, -1 if none
+    private transient int visitedFeatures = -1;
 
     /**
      * @return the label
@@ -78,6 +95,271 @@ public class Instance implements Serializable {
      */
     public void setVector(SparseVector vector) {
         this.sv = vector;
+        visitedFeatures = -1;
+    }
+
+    /**
+     * @return the costs of the classes of a cost-sensitive label, indexed by class, null if none
+     */
+    public SparseVector getCosts() {
+        return costs;
+    }
+
+    /**
+     * @param costs
+     *            the costs of the classes of a cost-sensitive label, indexed by class, null for none
+     */
+    public void setCosts(SparseVector costs) {
+        this.costs = costs;
+    }
+
+    /**
+     * @return the interactions, null if none
+     */
+    public Interactions getInteractions() {
+        return interactions;
+    }
+
+    /**
+     * @param interactions
+     *            the interactions to generate, null for none
+     */
+    public void setInteractions(Interactions interactions) {
+        this.interactions = interactions;
+        visitedFeatures = -1;
+    }
+
+    /**
+     * Records a feature of the namespace being built.
+     * <p>
+     * The feature must be added to the vector as well: the features of the namespaces are only used to generate the
+     * crossed ones, and they are kept even if their indexes collide in the vector.
+     * 
+     * @param key
+     *            index of the feature.
+     * @param value
+     *            value of the feature.
+     * @see #addNamespace(char)
+     */
+    public void addNamespaceFeature(int key, double value) {
+        if (namespaceKeys == null) {
+            namespaceKeys = new int[16];
+            namespaceValues = new double[16];
+        }
+        else if (numNamespaceFeatures == namespaceKeys.length) {
+            namespaceKeys = Arrays.copyOf(namespaceKeys, 2 * numNamespaceFeatures);
+            namespaceValues = Arrays.copyOf(namespaceValues, 2 * numNamespaceFeatures);
+        }
+        namespaceKeys[numNamespaceFeatures] = key;
+        namespaceValues[numNamespaceFeatures++] = value;
+    }
+
+    /**
+     * Records a namespace.
+     * <p>
+     * The features of the namespace are the ones added with {@link #addNamespaceFeature(int, double)} after the
+     * previous namespace was recorded.
+     * 
+     * @param name
+     *            first character of the name of the namespace.
+     */
+    public void addNamespace(char name) {
+        int start = numNamespaces == 0 ? 0 : namespaces[3 * numNamespaces - 1];
+        if (namespaces == null)
+            namespaces = new int[3 * 4];
+        else if (3 * (numNamespaces + 1) > namespaces.length) {
+            int[] tmp = new int[namespaces.length * 2];
+            System.arraycopy(namespaces, 0, tmp, 0, namespaces.length);
+            namespaces = tmp;
+        }
+        namespaces[3 * numNamespaces] = name;
+        namespaces[3 * numNamespaces + 1] = start;
+        namespaces[3 * numNamespaces + 2] = numNamespaceFeatures;
+        numNamespaces++;
+        visitedFeatures = -1;
+    }
+
+    /**
+     * @return the number of recorded namespaces
+     */
+    public int getNumberNamespaces() {
+        return numNamespaces;
+    }
+
+    /*
+     * Name, start and end of each namespace, in groups of 3, possibly followed by unused entries.
+     */
+    int[] getNamespaces() {
+        return namespaces;
+    }
+
+    /*
+     * Indexes and values of the features of the namespaces, possibly followed by unused entries.
+     */
+    int[] getNamespaceKeys() {
+        return namespaceKeys;
+    }
+
+    double[] getNamespaceValues() {
+        return namespaceValues;
+    }
+
+    int getNumberNamespaceFeatures() {
+        return numNamespaceFeatures;
+    }
+
+    /**
+     * Returns a copy of the instance with a subset of its first-order features.
+     * <p>
+     * The namespaces keep only the features whose index is kept and the interactions are preserved, so that the crossed
+     * features are generated only from the kept ones.
+     *
+     * @param keep
+     *            for each feature of the vector, in insertion order, true if it is kept.
+     * @return the new instance, with the same label, costs, weight, and tag.
+     */
+    public Instance select(boolean[] keep) {
+        int n = 0;
+        for (int i = 0; i < sv.size(); i++)
+            if (keep[i])
+                n++;
+        int[] keys = new int[n];
+        double[] values = new double[n];
+        int i = 0;
+        int j = 0;
+        for (Int2DoubleMap.Entry entry : sv.int2DoubleEntrySet()) {
+            if (keep[i++]) {
+                keys[j] = entry.getIntKey();
+                values[j++] = entry.getDoubleValue();
+            }
+        }
+
+        Instance sample = new Instance(label);
+        sample.weight = weight;
+        sample.tag = tag;
+        sample.costs = costs;
+        sample.sv = new SparseVector(keys, values);
+        if (numNamespaces > 0) {
+            int[] sorted = keys.clone();
+            Arrays.sort(sorted);
+            for (int k = 0; k < numNamespaces; k++) {
+                for (int f = namespaces[3 * k + 1]; f < namespaces[3 * k + 2]; f++)
+                    if (Arrays.binarySearch(sorted, namespaceKeys[f]) >= 0)
+                        sample.addNamespaceFeature(namespaceKeys[f], namespaceValues[f]);
+                sample.addNamespace((char) namespaces[3 * k]);
+            }
+        }
+        sample.interactions = interactions;
+        return sample;
+    }
+
+    private boolean hasInteractions() {
+        return interactions != null && numNamespaces > 0;
+    }
+
+    /**
+     * Returns a cursor over the features of the instance, including the crossed ones.
+     * 
+     * @return the cursor.
+     */
+    public FeatureCursor features() {
+        return new FeatureCursor(this, sv, namespaces, numNamespaces, namespaceKeys, namespaceValues, interactions);
+    }
+
+    /**
+     * Dot product between the features of the instance and a dense vector.
+     * 
+     * @param other
+     *            dense vector.
+     * @return the result of the dot product.
+     */
+    public double dot(double[] other) {
+        if (!hasInteractions())
+            return sv.dot(other);
+        double result = 0.0;
+        FeatureCursor cursor = features();
+        while (cursor.next()) {
+            double val = other[cursor.key()];
+            if (val != 0)
+                result += (cursor.value() * val);
+        }
+        return result;
+    }
+
+    /**
+     * Add the features of the instance multiplied by a constant to a dense vector and put the result in the dense
+     * vector.
+     * 
+     * @param other
+     *            dense vector.
+     * @param scaling
+     *            scaling to the features.
+     */
+    public void addScaledToDenseVector(double[] other, double scaling) {
+        if (!hasInteractions()) {
+            sv.addScaledSparseVectorToDenseVector(other, scaling);
+            return;
+        }
+        FeatureCursor cursor = features();
+        while (cursor.next())
+            other[cursor.key()] += scaling * cursor.value();
+    }
+
+    /**
+     * Squared L2 norm of the features of the instance.
+     * 
+     * @return squared L2 norm.
+     */
+    public double squaredL2Norm() {
+        if (!hasInteractions())
+            return sv.squaredL2Norm();
+        double result = 0.0;
+        FeatureCursor cursor = features();
+        while (cursor.next())
+            result += cursor.value() * cursor.value();
+        return result;
+    }
+
+    /**
+     * Number of features of the instance, including the crossed ones.
+     * 
+     * @return number of features.
+     */
+    public int numFeatures() {
+        if (!hasInteractions())
+            return sv.size();
+        int count = 0;
+        FeatureCursor cursor = features();
+        while (cursor.next())
+            count++;
+        return count;
+    }
+
+    /**
+     * Number of features processed by the learner or the predictor that used the instance last, without walking them
+     * again.
+     * <p>
+     * It is the number of features returned by the last cursor over the features of the instance that reached their
+     * end, or the one set with {@link #setNumberVisitedFeatures(int)}. If there is none, it is the number of features
+     * of the instance, computed with {@link #numFeatures()} if there are interactions.
+     * 
+     * @return number of features.
+     */
+    public int getNumberVisitedFeatures() {
+        if (visitedFeatures >= 0)
+            return visitedFeatures;
+        return numFeatures();
+    }
+
+    /**
+     * Sets the number of features processed, for the learners that process a copy of the instance.
+     * 
+     * @param visitedFeatures
+     *            number of features.
+     * @see #getNumberVisitedFeatures()
+     */
+    public void setNumberVisitedFeatures(int visitedFeatures) {
+        this.visitedFeatures = visitedFeatures;
     }
 
     /**
@@ -0,0 +1,257 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.core;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+
+/**
+ * Compact in-memory store of instances, for multiple passes over the same data.
+ * <p>
+ * The instances are stored by column: the indexes of the features of all the instances in a single int array, their
+ * values in a single float array, and the offsets, labels, weights, tags, and namespaces in other arrays. The features
+ * of the namespaces of an instance follow the ones of its vector. The values
+ * are stored as doubles only if some of them cannot be represented exactly as floats, so the instances returned by
+ * {@link #get(int)} are always identical to the stored ones. All the instances must share the same interactions.
+ * <p>
+ * The memory used by the arrays never exceeds the given budget: {@link #add(Instance)} returns false when an instance
+ * does not fit, so that the caller can move to another storage.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class InstanceStore {
+
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private final long maxBytes;
+    private long tagBytes = 0;
+
+    private int size = 0;
+    private int numFeatures = 0;
+    private int numNamespaceEntries = 0;
+    private Interactions interactions = null;
+
+    private int[] keys = new int[1024];
+    private float[] floatValues = new float[1024];
+    private double[] doubleValues = null;
+    private int[] featureOffsets = new int[65];
+    private double[] labels = new double[64];
+    private double[] weights = new double[64];
+    private String[] tags = new String[64];
+    private int[] namespaceOffsets = new int[65];
+    private int[] namespaces = new int[64];
+
+    /**
+     * Store with a memory budget.
+     *
+     * @param maxBytes
+     *            maximum memory used by the store, in bytes.
+     */
+    public InstanceStore(
+            long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the number of stored instances.
+     *
+     * @return the number of instances.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the memory used by the store.
+     *
+     * @return the estimated memory, in bytes.
+     */
+    public long bytes() {
+        return bytes(keys.length, valueBytes(), labels.length, namespaces.length) + tagBytes;
+    }
+
+    private long valueBytes() {
+        return doubleValues != null ? 8L * doubleValues.length : 4L * floatValues.length;
+    }
+
+    private static long bytes(long featureCapacity, long valueBytes, long instanceCapacity, long namespaceCapacity) {
+        // keys, values, and for each instance two offsets, label, weight, and tag reference
+        return 4 * featureCapacity + valueBytes + (4 + 4 + 8 + 8 + 8) * instanceCapacity + 4 * namespaceCapacity;
+    }
+
+    /**
+     * Adds an instance.
+     *
+     * @param sample
+     *            instance to add.
+     * @return false if the instance does not fit in the memory budget, or its interactions are different from the
+     *         ones of the other instances. In this case the store is not modified.
+     */
+    public boolean add(Instance sample) {
+        SparseVector sv = sample.getVector();
+        int m = sample.getNumberNamespaceFeatures();
+        int n = sv.size() + m;
+        int numEntries = 3 * sample.getNumberNamespaces();
+        if (size == 0)
+            interactions = sample.getInteractions();
+        else if (sample.getInteractions() != interactions)
+            return false;
+        if ((long) numFeatures + n > MAX_ARRAY_SIZE || (long) numNamespaceEntries + numEntries > MAX_ARRAY_SIZE
+                || size + 2 > MAX_ARRAY_SIZE)
+            return false;
+        boolean needsDoubles = doubleValues == null
+                && !(floatValues(sv) && floatValues(sample.getNamespaceValues(), m));
+        String tag = sample.getTag();
+        long newTagBytes = tag == null || tag.isEmpty() ? 0 : 40 + 2L * tag.length();
+
+        // new capacities, grown by 1.5 times
+        int featureCapacity = grow(keys.length, numFeatures + n);
+        int instanceCapacity = grow(labels.length, size + 1);
+        int namespaceCapacity = grow(namespaces.length, numNamespaceEntries + numEntries);
+        boolean doubles = doubleValues != null || needsDoubles;
+        long required = bytes(featureCapacity, (doubles ? 8L : 4L) * featureCapacity, instanceCapacity,
+                namespaceCapacity) + tagBytes + newTagBytes;
+        if (required > maxBytes) {
+            // try without the extra capacity
+            featureCapacity = Math.max(keys.length, numFeatures + n);
+            instanceCapacity = Math.max(labels.length, size + 1);
+            namespaceCapacity = Math.max(namespaces.length, numNamespaceEntries + numEntries);
+            required = bytes(featureCapacity, (doubles ? 8L : 4L) * featureCapacity, instanceCapacity,
+                    namespaceCapacity) + tagBytes + newTagBytes;
+            if (required > maxBytes)
+                return false;
+        }
+
+        if (needsDoubles) {
+            doubleValues = new double[keys.length];
+            for (int i = 0; i < numFeatures; i++)
+                doubleValues[i] = floatValues[i];
+            floatValues = null;
+        }
+        if (featureCapacity > keys.length) {
+            keys = copyOf(keys, featureCapacity);
+            if (doubleValues != null)
+                doubleValues = copyOf(doubleValues, featureCapacity);
+            else
+                floatValues = copyOf(floatValues, featureCapacity);
+        }
+        if (instanceCapacity > labels.length) {
+            labels = copyOf(labels, instanceCapacity);
+            weights = copyOf(weights, instanceCapacity);
+            String[] tmp = new String[instanceCapacity];
+            System.arraycopy(tags, 0, tmp, 0, size);
+            tags = tmp;
+            featureOffsets = copyOf(featureOffsets, instanceCapacity + 1);
+            namespaceOffsets = copyOf(namespaceOffsets, instanceCapacity + 1);
+        }
+        if (namespaceCapacity > namespaces.length)
+            namespaces = copyOf(namespaces, namespaceCapacity);
+
+        int pos = numFeatures;
+        for (Int2DoubleMap.Entry entry : sv.int2DoubleEntrySet()) {
+            keys[pos] = entry.getIntKey();
+            if (doubleValues != null)
+                doubleValues[pos] = entry.getDoubleValue();
+            else
+                floatValues[pos] = (float) entry.getDoubleValue();
+            pos++;
+        }
+        if (m > 0) {
+            System.arraycopy(sample.getNamespaceKeys(), 0, keys, pos, m);
+            double[] values = sample.getNamespaceValues();
+            for (int i = 0; i < m; i++) {
+                if (doubleValues != null)
+                    doubleValues[pos + i] = values[i];
+                else
+                    floatValues[pos + i] = (float) values[i];
+            }
+        }
+        if (numEntries > 0)
+            System.arraycopy(sample.getNamespaces(), 0, namespaces, numNamespaceEntries, numEntries);
+        labels[size] = sample.getLabel();
+        weights[size] = sample.getWeight();
+        tags[size] = tag;
+        numFeatures += n;
+        numNamespaceEntries += numEntries;
+        tagBytes += newTagBytes;
+        size++;
+        featureOffsets[size] = numFeatures;
+        namespaceOffsets[size] = numNamespaceEntries;
+        return true;
+    }
+
+    private static boolean floatValues(SparseVector sv) {
+        for (Int2DoubleMap.Entry entry : sv.int2DoubleEntrySet()) {
+            double value = entry.getDoubleValue();
+            if ((double) (float) value != value)
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean floatValues(double[] values, int n) {
+        for (int i = 0; i < n; i++)
+            if ((double) (float) values[i] != values[i])
+                return false;
+        return true;
+    }
+
+    private static int grow(int capacity, int needed) {
+        if (needed <= capacity)
+            return capacity;
+        return (int) Math.min(Math.max((long) capacity + (capacity >> 1), needed), MAX_ARRAY_SIZE);
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+        int[] tmp = new int[length];
+        System.arraycopy(array, 0, tmp, 0, Math.min(array.length, length));
+        return tmp;
+    }
+
+    private static float[] copyOf(float[] array, int length) {
+        float[] tmp = new float[length];
+        System.arraycopy(array, 0, tmp, 0, Math.min(array.length, length));
+        return tmp;
+    }
+
+    private static double[] copyOf(double[] array, int length) {
+        double[] tmp = new double[length];
+        System.arraycopy(array, 0, tmp, 0, Math.min(array.length, length));
+        return tmp;
+    }
+
+    /**
+     * Returns a stored instance.
+     *
+     * @param i
+     *            position of the instance, in insertion order.
+     * @return a new instance equal to the stored one.
+     */
+    public Instance get(int i) {
+        int start = featureOffsets[i];
+        // the namespace features are at the end, the last namespace ends after all of them
+        int m = namespaceOffsets[i + 1] > namespaceOffsets[i] ? namespaces[namespaceOffsets[i + 1] - 1] : 0;
+        int n = featureOffsets[i + 1] - start - m;
+        int[] k = new int[n];
+        double[] v = new double[n];
+        System.arraycopy(keys, start, k, 0, n);
+        if (doubleValues != null)
+            System.arraycopy(doubleValues, start, v, 0, n);
+        else
+            for (int j = 0; j < n; j++)
+                v[j] = floatValues[start + j];
+
+        Instance sample = new Instance(labels[i]);
+        sample.setWeight(weights[i]);
+        sample.setTag(tags[i]);
+        sample.setVector(new SparseVector(k, v));
+        for (int j = namespaceOffsets[i]; j < namespaceOffsets[i + 1]; j += 3) {
+            for (int f = start + n + namespaces[j + 1]; f < start + n + namespaces[j + 2]; f++)
+                sample.addNamespaceFeature(keys[f], doubleValues != null ? doubleValues[f] : floatValues[f]);
+            sample.addNamespace((char) namespaces[j]);
+        }
+        sample.setInteractions(interactions);
+        return sample;
+    }
+}
@@ -0,0 +1,115 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.core;
+
+import java.io.Serializable;
+
+/**
+ * Quadratic and cubic interactions between namespaces.
+ * <p>
+ * Each interaction is defined by the first characters of the namespaces to cross, e.g. "ab" crosses all the features
+ * in namespaces starting with 'a' with the ones in namespaces starting with 'b', and "abc" is a cubic interaction. The
+ * crossed features are never stored: they are generated on the fly by {@link FeatureCursor} from the hashed indexes of
+ * the features and the ranges of the namespaces recorded by the parser, as in VW:
+ * <tt>(i1 * 16777619) ^ i2</tt>, masked to the number of bits of the hashing, and their value is the product of the
+ * values of the crossed features.
+ * <p>
+ * When a namespace is crossed with itself, each unordered pair of distinct features is generated once.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+@SuppressWarnings("serial")
+public class Interactions implements Serializable {
+    /**
+     * Prime used to combine the indexes of the crossed features.
+     */
+    public static final int FNV_PRIME = 16777619;
+
+    private final char[][] terms;
+    private final int mask;
+
+    /**
+     * Interactions between namespaces.
+     *
+     * @param terms
+     *            interactions to generate, each one 2 or 3 characters long.
+     * @param bits
+     *            number of bits of the hashing.
+     * @throws IllegalArgumentException
+     *             if an interaction is not 2 or 3 characters long.
+     */
+    public Interactions(
+            String[] terms, int bits) {
+        this.terms = new char[terms.length][];
+        for (int i = 0; i < terms.length; i++) {
+            if (terms[i].length() != 2 && terms[i].length() != 3)
+                throw new IllegalArgumentException("Interactions must have 2 or 3 namespaces: " + terms[i]);
+            this.terms[i] = terms[i].toCharArray();
+        }
+        if (bits > 31)
+            bits = 31;
+        else if (bits < 1)
+            bits = 1;
+        mask = (1 << bits) - 1;
+    }
+
+    /**
+     * @return the number of interactions.
+     */
+    public int size() {
+        return terms.length;
+    }
+
+    /**
+     * @param i
+     *            index of the interaction.
+     * @return the first characters of the namespaces of the interaction.
+     */
+    public char[] getTerm(int i) {
+        return terms[i];
+    }
+
+    /**
+     * @return the mask applied to the indexes of the crossed features.
+     */
+    public int getMask() {
+        return mask;
+    }
+
+    /**
+     * Index of the cross of two features.
+     *
+     * @param i1
+     *            index of the first feature.
+     * @param i2
+     *            index of the second feature.
+     * @return the masked index of the crossed feature.
+     */
+    public int cross(int i1, int i2) {
+        return ((i1 * FNV_PRIME) ^ i2) & mask;
+    }
+
+    /**
+     * Index of the cross of three features.
+     *
+     * @param i1
+     *            index of the first feature.
+     * @param i2
+     *            index of the second feature.
+     * @param i3
+     *            index of the third feature.
+     * @return the masked index of the crossed feature.
+     */
+    public int cross(int i1, int i2, int i3) {
+        return ((((i1 * FNV_PRIME) ^ i2) * FNV_PRIME) ^ i3) & mask;
+    }
+
+    public String toString() {
+        String s = "";
+        for (char[] term : terms)
+            s += new String(term) + " ";
+        return s.trim();
+    }
+}
@@ -0,0 +1,67 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.ml;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.util.CountMinSketch;
+
+/**
+ * Predictor of a {@link FeatureAdmission} learner.
+ * <p>
+ * The samples are scored by the predictor of the wrapped learner using only the admitted features, so that the crossed
+ * features are generated only from the admitted ones, as in {@link FeatureAdmission#predict(Instance)}. The counts of
+ * the features are a copy of the ones of the learner at the time of the compilation. The samples without interactions
+ * are scored directly, since the features never admitted have no weight.
+ * <p>
+ * The pre-hashed features are scored directly as well: they cannot be told apart from the crossed ones, so they must
+ * not include the crossed features of the features not admitted.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+@SuppressWarnings("serial")
+public class AdmissionPredictor extends Predictor {
+    private final Predictor predictor;
+    private final CountMinSketch sketch;
+    private final int minCount;
+
+    AdmissionPredictor(
+            Predictor predictor, CountMinSketch sketch, int minCount) {
+        super(predictor);
+        this.predictor = predictor;
+        this.sketch = sketch;
+        this.minCount = minCount;
+    }
+
+    /**
+     * Predictor with the same admitted features of this one, scoring them with another predictor.
+     *
+     * @param other
+     *            predictor of the wrapped learner, for example this one quantized.
+     * @return the new predictor, with the link function, clipping, and offset of the scores of the other one.
+     */
+    public AdmissionPredictor withPredictor(Predictor other) {
+        return new AdmissionPredictor(other, sketch, minCount);
+    }
+
+    /**
+     * @return the predictor of the wrapped learner, which does not filter the features.
+     */
+    public Predictor getPredictor() {
+        return predictor;
+    }
+
+    protected double rawScore(int[] keys, double[] values, int size) {
+        return predictor.rawScore(keys, values, size);
+    }
+
+    protected double rawScore(Instance sample) {
+        if (sample.getInteractions() == null)
+            return predictor.rawScore(sample);
+        Instance admitted = FeatureAdmission.admitted(sample, sketch, minCount);
+        double score = predictor.rawScore(admitted);
+        sample.setNumberVisitedFeatures(admitted.getNumberVisitedFeatures());
+        return score;
+    }
+}
@@ -0,0 +1,206 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.ml;
+
+import java.io.Serializable;
+
+/**
+ * Streaming evaluation metrics of binary predictions, in bounded memory.
+ * <p>
+ * The scores, before the link function, are counted in fixed-width buckets, one histogram for the positive examples
+ * and one for the negative ones, so the AUC is computed without sorting the predictions. The AUC is exact up to the
+ * pairs of examples falling in the same bucket, which are counted as ties. Scores outside the range of the buckets are
+ * clipped to the first and last bucket.
+ * <p>
+ * The scores are also interpreted as logits to compute the log loss and the calibration of the predicted
+ * probabilities, in buckets of equal width in [0,1].
+ * <p>
+ * Recording an example takes constant time. An instance must be used by a single thread, the metrics of different
+ * threads can be combined with {@link #merge(BinaryMetrics)}.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+@SuppressWarnings("serial")
+public class BinaryMetrics implements Serializable {
+
+    private final int numBuckets;
+    private final double maxScore;
+    private final double bucketsPerUnit;
+    private final double[] positives;
+    private final double[] negatives;
+
+    private final double[] calibrationWeight;
+    private final double[] calibrationPredicted;
+    private final double[] calibrationPositives;
+
+    private double sumLogLoss = 0;
+    private double sumPositives = 0;
+    private double sumNegatives = 0;
+
+    /**
+     * Metrics with 65536 buckets of scores in [-16,16] and 10 calibration buckets.
+     */
+    public BinaryMetrics() {
+        this(1 << 16, 16, 10);
+    }
+
+    /**
+     * Metrics with the given buckets.
+     *
+     * @param numBuckets
+     *            number of buckets of the scores.
+     * @param maxScore
+     *            the buckets cover the scores in [-maxScore,maxScore].
+     * @param numCalibrationBuckets
+     *            number of buckets of the predicted probabilities.
+     */
+    public BinaryMetrics(
+            int numBuckets, double maxScore, int numCalibrationBuckets) {
+        this.numBuckets = numBuckets;
+        this.maxScore = maxScore;
+        bucketsPerUnit = numBuckets / (2 * maxScore);
+        positives = new double[numBuckets];
+        negatives = new double[numBuckets];
+        calibrationWeight = new double[numCalibrationBuckets];
+        calibrationPredicted = new double[numCalibrationBuckets];
+        calibrationPositives = new double[numCalibrationBuckets];
+    }
+
+    /**
+     * Records a prediction.
+     *
+     * @param score
+     *            prediction, before the link function.
+     * @param label
+     *            label of the example, positive if greater than 0.
+     * @param weight
+     *            weight of the example.
+     */
+    public void add(double score, double label, double weight) {
+        int bucket = (int) ((score + maxScore) * bucketsPerUnit);
+        if (bucket < 0 || score != score)
+            bucket = 0;
+        else if (bucket >= numBuckets)
+            bucket = numBuckets - 1;
+
+        double prob = 1.0 / (1.0 + Math.exp(-score));
+        int calibrationBucket = Math.min((int) (prob * calibrationWeight.length), calibrationWeight.length - 1);
+        calibrationWeight[calibrationBucket] += weight;
+        calibrationPredicted[calibrationBucket] += prob * weight;
+
+        if (label > 0) {
+            positives[bucket] += weight;
+            sumPositives += weight;
+            calibrationPositives[calibrationBucket] += weight;
+            sumLogLoss += weight * log1pexp(-score);
+        }
+        else {
+            negatives[bucket] += weight;
+            sumNegatives += weight;
+            sumLogLoss += weight * log1pexp(score);
+        }
+    }
+
+    /*
+     * log(1+exp(x)) without overflow.
+     */
+    private static double log1pexp(double x) {
+        return x > 0 ? x + Math.log1p(Math.exp(-x)) : Math.log1p(Math.exp(x));
+    }
+
+    /**
+     * Adds the predictions recorded by other metrics with the same buckets.
+     *
+     * @param other
+     *            metrics to add.
+     */
+    public void merge(BinaryMetrics other) {
+        if (other.numBuckets != numBuckets || other.maxScore != maxScore
+                || other.calibrationWeight.length != calibrationWeight.length)
+            throw new IllegalArgumentException("Metrics with different buckets cannot be merged");
+        for (int i = 0; i < numBuckets; i++) {
+            positives[i] += other.positives[i];
+            negatives[i] += other.negatives[i];
+        }
+        for (int i = 0; i < calibrationWeight.length; i++) {
+            calibrationWeight[i] += other.calibrationWeight[i];
+            calibrationPredicted[i] += other.calibrationPredicted[i];
+            calibrationPositives[i] += other.calibrationPositives[i];
+        }
+        sumLogLoss += other.sumLogLoss;
+        sumPositives += other.sumPositives;
+        sumNegatives += other.sumNegatives;
+    }
+
+    /**
+     * Returns the area under the ROC curve.
+     *
+     * @return the weighted AUC, NaN if there are no positive or no negative examples.
+     */
+    public double auc() {
+        if (sumPositives == 0 || sumNegatives == 0)
+            return Double.NaN;
+        double area = 0;
+        double negativesBelow = 0;
+        for (int i = 0; i < numBuckets; i++) {
+            area += positives[i] * (negativesBelow + 0.5 * negatives[i]);
+            negativesBelow += negatives[i];
+        }
+        return area / (sumPositives * sumNegatives);
+    }
+
+    /**
+     * Returns the log loss of the scores interpreted as logits.
+     *
+     * @return the weighted average log loss.
+     */
+    public double logLoss() {
+        return sumLogLoss / (sumPositives + sumNegatives);
+    }
+
+    /**
+     * Returns the ratio between the sum of the predicted probabilities and the number of positive examples.
+     *
+     * @return the calibration ratio, 1 for calibrated predictions.
+     */
+    public double calibration() {
+        double predicted = 0;
+        for (int i = 0; i < calibrationPredicted.length; i++)
+            predicted += calibrationPredicted[i];
+        return predicted / sumPositives;
+    }
+
+    /**
+     * Returns the weight of the examples recorded.
+     *
+     * @return the sum of the weights.
+     */
+    public double getWeight() {
+        return sumPositives + sumNegatives;
+    }
+
+    /**
+     * Returns the table of the calibration buckets: for each bucket of predicted probabilities, the weight of its
+     * examples, their average predicted probability and their fraction of positive examples.
+     *
+     * @return the calibration table.
+     */
+    public String calibrationTable() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("probability          weight  predicted   observed\n");
+        for (int i = 0; i < calibrationWeight.length; i++) {
+            if (calibrationWeight[i] == 0)
+                continue;
+            sb.append(String.format("[%.2f,%.2f] %15.1f   %.6f   %.6f\n", (double) i / calibrationWeight.length,
+                    (double) (i + 1) / calibrationWeight.length, calibrationWeight[i],
+                    calibrationPredicted[i] / calibrationWeight[i], calibrationPositives[i] / calibrationWeight[i]));
+        }
+        return sb.toString();
+    }
+
+    public String toString() {
+        return String.format("AUC = %.6f, log loss = %.6f, calibration = %.6f", auc(), logLoss(), calibration());
+    }
+}
@@ -28,14 +28,14 @@ public class COCOB implements Learner {
     }
 
     public double update(Instance sample) {
-        double squaredNormSample = sample.getVector().squaredL2Norm();
+        double squaredNormSample = sample.squaredL2Norm();
         double normSample = Math.sqrt(squaredNormSample);
         double normTheta = Math.sqrt(squaredNormTheta);
 
         if (maxNormGrad < normSample)
             maxNormGrad = normSample;
 
-        double dotproduct = sample.getVector().dot(theta);
+        double dotproduct = sample.dot(theta);
         double beta = shrink(2 * maxNormGrad * normTheta / (sumAbsGradientScale + maxNormGrad * maxNormGrad + 1.0));
         double pred = dotproduct * beta * (reward + initialWealth) / (maxNormGrad * (normTheta + 1e-10));
 
@@ -45,7 +45,7 @@ public class COCOB implements Learner {
 
         sumAbsGradientScale = sumAbsGradientScale + Math.abs(negativeGrad) * normSample * maxNormGrad;
 
-        sample.getVector().addScaledSparseVectorToDenseVector(theta, negativeGrad);
+        sample.addScaledToDenseVector(theta, negativeGrad);
         squaredNormTheta += 2 * negativeGrad * dotproduct + negativeGrad * negativeGrad * squaredNormSample;
 
         return pred;
@@ -58,7 +58,7 @@ public class COCOB implements Learner {
     }
 
     public double predict(Instance sample) {
-        double dotproduct = sample.getVector().dot(theta);
+        double dotproduct = sample.dot(theta);
         double normTheta = Math.sqrt(squaredNormTheta);
         double beta = shrink(2 * maxNormGrad * normTheta / (sumAbsGradientScale + maxNormGrad * maxNormGrad + 1.0));
         return dotproduct * beta * (reward + initialWealth) / (maxNormGrad * (normTheta + 1e-10));
@@ -0,0 +1,160 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.ml;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import com.yahoo.labs.yamall.core.FeatureCursor;
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.core.SparseVector;
+
+/**
+ * Predictor of two way Factorization Machines.
+ * <p>
+ * Only the factors of the features seen in training are kept, stored one after the other in a single array. The
+ * features never seen in training contribute neither to the linear part nor to the interactions.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+@SuppressWarnings("serial")
+public class FMPredictor extends Predictor {
+    private final int numFactors;
+    private transient double[] w;
+    private transient int[] row;
+    private transient double[] v;
+
+    /**
+     * Factorization Machines predictor.
+     *
+     * @param fm
+     *            learner to copy the weights from.
+     * @param link
+     *            link function applied to the scores.
+     * @param minPrediction
+     *            smallest score, before the link function.
+     * @param maxPrediction
+     *            largest score, before the link function.
+     */
+    public FMPredictor(
+            SGD_FM fm, LinkFunction link, double minPrediction, double maxPrediction) {
+        this(fm, link, minPrediction, maxPrediction, 0);
+    }
+
+    /**
+     * Factorization Machines predictor with an offset.
+     *
+     * @param fm
+     *            learner to copy the weights from.
+     * @param link
+     *            link function applied to the scores.
+     * @param minPrediction
+     *            smallest score, before the link function.
+     * @param maxPrediction
+     *            largest score, before the link function.
+     * @param offset
+     *            offset added to the scores, before clipping.
+     */
+    public FMPredictor(
+            SGD_FM fm, LinkFunction link, double minPrediction, double maxPrediction, double offset) {
+        super(link, minPrediction, maxPrediction, offset);
+        numFactors = fm.getNumberFactors();
+        w = fm.getLinearWeights().clone();
+        int[] features = fm.getFeatures();
+        row = new int[w.length];
+        Arrays.fill(row, -1);
+        v = new double[features.length * numFactors];
+        for (int i = 0; i < features.length; i++) {
+            row[features[i]] = i * numFactors;
+            fm.getFactors(features[i], v, i * numFactors);
+        }
+    }
+
+    protected double rawScore(int[] keys, double[] values, int size) {
+        double[] sum = new double[numFactors];
+        double pred = 0;
+        double sumSquares = 0;
+        for (int i = 0; i < size; i++) {
+            int key = keys[i];
+            if (key < w.length) {
+                double x_i = values[i];
+                pred += w[key] * x_i;
+                int offset = row[key];
+                if (offset >= 0) {
+                    for (int f = 0; f < numFactors; f++) {
+                        double prod = v[offset + f] * x_i;
+                        sum[f] += prod;
+                        sumSquares += prod * prod;
+                    }
+                }
+            }
+        }
+        return pred + interactions(sum, sumSquares);
+    }
+
+    protected double rawScore(Instance sample) {
+        double[] sum = new double[numFactors];
+        double pred = 0;
+        double sumSquares = 0;
+        for (FeatureCursor cursor = sample.features(); cursor.next();) {
+            int key = cursor.key();
+            if (key < w.length) {
+                double x_i = cursor.value();
+                pred += w[key] * x_i;
+                int offset = row[key];
+                if (offset >= 0) {
+                    for (int f = 0; f < numFactors; f++) {
+                        double prod = v[offset + f] * x_i;
+                        sum[f] += prod;
+                        sumSquares += prod * prod;
+                    }
+                }
+            }
+        }
+        return pred + interactions(sum, sumSquares);
+    }
+
+    /*
+     * Two way interactions in O(nk): 0.5 * sum_f ((sum_i v_if x_i)^2 - sum_i (v_if x_i)^2)
+     */
+    private static double interactions(double[] sum, double sumSquares) {
+        double squaredSums = 0;
+        for (int f = 0; f < sum.length; f++)
+            squaredSums += sum[f] * sum[f];
+        return 0.5 * (squaredSums - sumSquares);
+    }
+
+    private void writeObject(ObjectOutputStream o) throws IOException {
+        o.defaultWriteObject();
+        o.writeObject(SparseVector.dense2Sparse(w));
+        o.writeInt(w.length);
+        int numRows = v.length / numFactors;
+        o.writeInt(numRows);
+        for (int key = 0; key < row.length; key++) {
+            if (row[key] >= 0) {
+                o.writeInt(key);
+                for (int f = 0; f < numFactors; f++)
+                    o.writeDouble(v[row[key] + f]);
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream o) throws IOException, ClassNotFoundException {
+        o.defaultReadObject();
+        SparseVector weights = (SparseVector) o.readObject();
+        w = weights.toDenseVector(o.readInt());
+        int numRows = o.readInt();
+        row = new int[w.length];
+        Arrays.fill(row, -1);
+        v = new double[numRows * numFactors];
+        for (int i = 0; i < numRows; i++) {
+            row[o.readInt()] = i * numFactors;
+            for (int f = 0; f < numFactors; f++)
+                v[i * numFactors + f] = o.readDouble();
+        }
+    }
+}
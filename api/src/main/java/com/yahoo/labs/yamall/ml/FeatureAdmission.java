@@ -0,0 +1,147 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.ml;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.core.SparseVector;
+import com.yahoo.labs.yamall.util.CountMinSketch;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+
+/**
+ * Learner that uses a feature only after it has been seen in a minimum number of training samples.
+ * <p>
+ * The occurrences of the hashed first-order features in the training samples are counted with a
+ * {@link CountMinSketch}, and the wrapped learner sees only the features whose count reached the threshold, both in
+ * training and in prediction. The crossed features are generated only from the admitted ones. Since the counts of the
+ * sketch can only be overestimated, a rare feature can be admitted early, but a frequent one is never rejected after
+ * reaching the threshold.
+ * <p>
+ * The features never admitted are never used in an update, so they do not occupy weights of the wrapped learner and do
+ * not collide with the frequent ones. The learner is compiled into an {@link AdmissionPredictor}, which applies the same
+ * filter to the samples before scoring them with the wrapped learner.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+@SuppressWarnings("serial")
+public class FeatureAdmission implements Learner {
+    private final Learner learner;
+    private final int minCount;
+    private final CountMinSketch sketch;
+    private long seenFeatures = 0;
+    private long admittedFeatures = 0;
+
+    /**
+     * Wraps a learner.
+     *
+     * @param learner
+     *            learner to wrap.
+     * @param minCount
+     *            number of training samples in which a feature must appear before being used, from 1 to
+     *            {@link CountMinSketch#MAX_COUNT}.
+     * @param bits
+     *            logarithm in base 2 of the number of counters of each of the 4 rows of the sketch.
+     */
+    public FeatureAdmission(
+            Learner learner, int minCount, int bits) {
+        if (minCount < 1 || minCount > CountMinSketch.MAX_COUNT)
+            throw new IllegalArgumentException(
+                    "The minimum count of a feature must be between 1 and " + CountMinSketch.MAX_COUNT);
+        this.learner = learner;
+        this.minCount = minCount;
+        this.sketch = new CountMinSketch(4, bits);
+    }
+
+    public double update(Instance sample) {
+        SparseVector sv = sample.getVector();
+        boolean[] keep = new boolean[sv.size()];
+        int kept = 0;
+        int i = 0;
+        for (Int2DoubleMap.Entry entry : sv.int2DoubleEntrySet()) {
+            if (sketch.add(entry.getIntKey()) >= minCount) {
+                keep[i] = true;
+                kept++;
+            }
+            i++;
+        }
+        seenFeatures += keep.length;
+        admittedFeatures += kept;
+        if (kept == keep.length)
+            return learner.update(sample);
+        Instance admitted = sample.select(keep);
+        double score = learner.update(admitted);
+        sample.setNumberVisitedFeatures(admitted.getNumberVisitedFeatures());
+        return score;
+    }
+
+    public double predict(Instance sample) {
+        Instance admitted = admitted(sample, sketch, minCount);
+        double score = learner.predict(admitted);
+        sample.setNumberVisitedFeatures(admitted.getNumberVisitedFeatures());
+        return score;
+    }
+
+    /*
+     * Returns the sample with only the features counted at least minCount times, or the sample itself if all of them
+     * are.
+     */
+    static Instance admitted(Instance sample, CountMinSketch sketch, int minCount) {
+        SparseVector sv = sample.getVector();
+        boolean[] keep = new boolean[sv.size()];
+        int kept = 0;
+        int i = 0;
+        for (Int2DoubleMap.Entry entry : sv.int2DoubleEntrySet()) {
+            if (sketch.estimate(entry.getIntKey()) >= minCount) {
+                keep[i] = true;
+                kept++;
+            }
+            i++;
+        }
+        return kept == keep.length ? sample : sample.select(keep);
+    }
+
+    public void setLoss(Loss lossFnc) {
+        learner.setLoss(lossFnc);
+    }
+
+    public Loss getLoss() {
+        return learner.getLoss();
+    }
+
+    public void setLearningRate(double eta) {
+        learner.setLearningRate(eta);
+    }
+
+    public SparseVector getWeights() {
+        return learner.getWeights();
+    }
+
+    /**
+     * @return the wrapped learner.
+     */
+    public Learner getLearner() {
+        return learner;
+    }
+
+    CountMinSketch getSketch() {
+        return sketch;
+    }
+
+    int getMinCount() {
+        return minCount;
+    }
+
+    /**
+     * @return the fraction of the first-order features of the training samples passed to the wrapped learner.
+     */
+    public double getAdmittedFraction() {
+        return seenFeatures > 0 ? (double) admittedFeatures / seenFeatures : 1;
+    }
+
+    public String toString() {
+        return learner.toString() + "\nFeatures used after " + minCount + " occurrences, count-min sketch of "
+                + (sketch.bytes() >> 10) + " KB";
+    }
+}
@@ -3,6 +3,8 @@
 // Please see LICENSE file in the project root for terms.
 package com.yahoo.labs.yamall.ml;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -73,6 +75,133 @@ public class IOLearner {
         }
     }
 
+    /**
+     * Loads a prediction-only model from disk.
+     *
+     * @param filename
+     *            name of the file to load.
+     * @return predictor.
+     * @see #savePredictor(Predictor, String)
+     */
+    public static Predictor loadPredictor(String filename) {
+        Predictor obj = null;
+        try {
+            FileInputStream fileIn = new FileInputStream(filename);
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(fileIn, 1 << 16));
+            obj = (Predictor) in.readObject();
+            in.close();
+            fileIn.close();
+        }
+        catch (IOException i) {
+            i.printStackTrace();
+        }
+        catch (ClassNotFoundException c) {
+            System.out.println("Predictor class not found");
+            c.printStackTrace();
+        }
+        return obj;
+    }
+
+    /**
+     * Saves a prediction-only model to disk.
+     *
+     * @param obj
+     *            predictor to save, for example a {@link QuantizedPredictor}.
+     * @param filename
+     *            name of the file to save.
+     */
+    public static void savePredictor(Predictor obj, String filename) {
+        try {
+            FileOutputStream fileOut = new FileOutputStream(filename);
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+            out.writeObject(obj);
+            out.close();
+            fileOut.close();
+        }
+        catch (IOException i) {
+            i.printStackTrace();
+        }
+    }
+
+    /**
+     * Saves a learner to disk in a human readable form.
+     * <p>
+     * For Factorization Machines, the weight of each feature seen in training is followed by its factors, separated
+     * by spaces.
+     * 
+     * @param learner
+     *            learner to save.
+     * @param map
+     *            HashMap from keys to namespaces and features names.
+     * @param filename
+     *            name of the file to save.
+     * @see #saveInvertHash(SparseVector, HashMap, String)
+     */
+    public static void saveInvertHash(Learner learner, HashMap<Integer, String> map, String filename) {
+        if (learner instanceof RecalibratedLearner)
+            learner = ((RecalibratedLearner) learner).getLearner();
+        if (learner instanceof FeatureAdmission)
+            learner = ((FeatureAdmission) learner).getLearner();
+        if (learner instanceof OAA) {
+            saveInvertHash((OAA) learner, map, filename);
+            return;
+        }
+        if (!(learner instanceof SGD_FM)) {
+            saveInvertHash(learner.getWeights(), map, filename);
+            return;
+        }
+        SGD_FM fm = (SGD_FM) learner;
+        SparseVector w = fm.getWeights();
+        try {
+            FileOutputStream fileOut = new FileOutputStream(filename);
+
+            BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(fileOut));
+
+            for (Map.Entry<Integer, Double> entry : w.entrySet()) {
+                if (fm.hasFactors(entry.getKey()))
+                    continue;
+                bw.write(map.get(entry.getKey()) + ":" + entry.getValue().toString());
+                bw.newLine();
+            }
+            double[] factors = new double[fm.getNumberFactors()];
+            for (int key : fm.getFeatures()) {
+                fm.getFactors(key, factors, 0);
+                bw.write(map.get(key) + ":" + Double.toString(w.get(key)));
+                for (int f = 0; f < factors.length; f++)
+                    bw.write(" " + Double.toString(factors[f]));
+                bw.newLine();
+            }
+            bw.close();
+            fileOut.close();
+        }
+        catch (IOException i) {
+            i.printStackTrace();
+        }
+    }
+
+    /*
+     * Saves the weights of each class of a multiclass learner, with the class after the feature name.
+     */
+    private static void saveInvertHash(OAA learner, HashMap<Integer, String> map, String filename) {
+        SparseVector w = learner.getWeights();
+        try {
+            BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename)));
+            for (Map.Entry<Integer, String> entry : map.entrySet()) {
+                for (int k = 1; k <= learner.getNumberClasses(); k++) {
+                    double value = w.get(learner.weightIndex(entry.getKey(), k));
+                    if (value != 0) {
+                        bw.write(entry.getValue() + "[" + k + "]:" + Double.toString(value));
+                        bw.newLine();
+                    }
+                }
+            }
+            bw.close();
+        }
+        catch (IOException i) {
+            i.printStackTrace();
+        }
+    }
+
     /**
      * Saves a model to disk in a human readable form.
      * 
@@ -27,10 +27,10 @@ public class KT implements Learner {
     }
 
     public double update(Instance sample) {
-        if (maxNormGrad < Math.sqrt(sample.getVector().squaredL2Norm()))
-            maxNormGrad = Math.sqrt(sample.getVector().squaredL2Norm());
+        if (maxNormGrad < Math.sqrt(sample.squaredL2Norm()))
+            maxNormGrad = Math.sqrt(sample.squaredL2Norm());
 
-        double pred = (reward + initialWealth) * sample.getVector().dot(theta) / (s + 1.0)
+        double pred = (reward + initialWealth) * sample.dot(theta) / (s + 1.0)
                 / (maxNormGrad * maxNormGrad);
 
         final double negativeGrad = lossFnc.negativeGradient(pred, sample.getLabel(), sample.getWeight());
@@ -39,13 +39,13 @@ public class KT implements Learner {
 
         s = s + 1;
 
-        sample.getVector().addScaledSparseVectorToDenseVector(theta, negativeGrad);
+        sample.addScaledToDenseVector(theta, negativeGrad);
 
         return pred;
     }
 
     public double predict(Instance sample) {
-        return (reward + initialWealth) * sample.getVector().dot(theta) / (s + 1.0);
+        return (reward + initialWealth) * sample.dot(theta) / (s + 1.0);
     }
 
     public void setLoss(Loss lossFnc) {
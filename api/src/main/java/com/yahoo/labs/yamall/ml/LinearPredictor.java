@@ -0,0 +1,109 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.ml;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import com.yahoo.labs.yamall.core.FeatureCursor;
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.core.SparseVector;
+
+/**
+ * Predictor of linear models.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+@SuppressWarnings("serial")
+public class LinearPredictor extends Predictor {
+    private transient double[] w;
+
+    /**
+     * Linear predictor.
+     *
+     * @param weights
+     *            weights of the linear model, they are copied.
+     * @param link
+     *            link function applied to the scores.
+     * @param minPrediction
+     *            smallest score, before the link function.
+     * @param maxPrediction
+     *            largest score, before the link function.
+     */
+    public LinearPredictor(
+            SparseVector weights, LinkFunction link, double minPrediction, double maxPrediction) {
+        this(weights, link, minPrediction, maxPrediction, 0);
+    }
+
+    /**
+     * Linear predictor with an offset.
+     *
+     * @param weights
+     *            weights of the linear model, they are copied.
+     * @param link
+     *            link function applied to the scores.
+     * @param minPrediction
+     *            smallest score, before the link function.
+     * @param maxPrediction
+     *            largest score, before the link function.
+     * @param offset
+     *            offset added to the scores, before clipping.
+     */
+    public LinearPredictor(
+            SparseVector weights, LinkFunction link, double minPrediction, double maxPrediction, double offset) {
+        super(link, minPrediction, maxPrediction, offset);
+        w = weights.toDenseVector(0);
+    }
+
+    protected double rawScore(int[] keys, double[] values, int size) {
+        final double[] w = this.w;
+        double pred = 0;
+        for (int i = 0; i < size; i++) {
+            int key = keys[i];
+            if (key < w.length)
+                pred += w[key] * values[i];
+        }
+        return pred;
+    }
+
+    protected double rawScore(Instance sample) {
+        final double[] w = this.w;
+        double pred = 0;
+        for (FeatureCursor cursor = sample.features(); cursor.next();) {
+            int key = cursor.key();
+            if (key < w.length)
+                pred += w[key] * cursor.value();
+        }
+        return pred;
+    }
+
+    /**
+     * Returns the weights of the predictor.
+     *
+     * @return the weights of the linear model.
+     */
+    public SparseVector getWeights() {
+        return SparseVector.dense2Sparse(w);
+    }
+
+    int size() {
+        return w.length;
+    }
+
+    double weight(int key) {
+        return w[key];
+    }
+
+    private void writeObject(ObjectOutputStream o) throws IOException {
+        o.defaultWriteObject();
+        o.writeObject(SparseVector.dense2Sparse(w));
+    }
+
+    private void readObject(ObjectInputStream o) throws IOException, ClassNotFoundException {
+        o.defaultReadObject();
+        w = ((SparseVector) o.readObject()).toDenseVector(0);
+    }
+}
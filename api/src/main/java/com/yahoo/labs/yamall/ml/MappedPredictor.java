@@ -0,0 +1,205 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.ml;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+import com.yahoo.labs.yamall.core.FeatureCursor;
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.core.SparseVector;
+
+/**
+ * Predictor of linear models with the weights in a memory-mapped file.
+ * <p>
+ * The file, written by {@link #save(LinearPredictor, String)}, has a header with the link function, the clipping and
+ * the offset of the scores, followed at the position {@value #DATA_START} by the dense weights as big-endian doubles.
+ * Opening it with {@link #open(String)} only maps the weights in memory: no array is allocated and the pages are read
+ * from disk when they are first used, so the scoring starts immediately. The mapped pages are in the page cache of the
+ * operating system, so all the processes on the same machine opening the same file share a single copy of the
+ * weights.
+ * <p>
+ * A file can map at most 2GB, so the weights are mapped in chunks of 2^27 doubles.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+@SuppressWarnings("serial")
+public class MappedPredictor extends Predictor {
+    private static final int MAGIC = 0x594d4150;
+    private static final int VERSION = 1;
+    private static final int DATA_START = 4096;
+    private static final int CHUNK_BITS = 27;
+
+    private final String filename;
+    private final int chunkBits;
+    private final int size;
+    private transient DoubleBuffer[] chunks;
+
+    private MappedPredictor(
+            String filename, int chunkBits, LinkFunction link, double minPrediction, double maxPrediction,
+            double offset, int size) throws IOException {
+        super(link, minPrediction, maxPrediction, offset);
+        this.filename = filename;
+        this.chunkBits = chunkBits;
+        this.size = size;
+        map();
+    }
+
+    /**
+     * Saves a linear predictor in the mappable layout.
+     *
+     * @param predictor
+     *            predictor to save, its link function, clipping and offset of the scores are kept.
+     * @param filename
+     *            name of the file to save.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    public static void save(LinearPredictor predictor, String filename) throws IOException {
+        ByteArrayOutputStream link = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(link);
+        oos.writeObject(predictor.getLinkFunction());
+        oos.close();
+        if (link.size() + 40 > DATA_START)
+            throw new IOException("The link function is too large to be saved");
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeDouble(predictor.getMinPrediction());
+            out.writeDouble(predictor.getMaxPrediction());
+            out.writeDouble(predictor.getOffset());
+            out.writeInt(predictor.size());
+            out.writeInt(link.size());
+            link.writeTo(out);
+            for (int i = out.size(); i < DATA_START; i++)
+                out.writeByte(0);
+            for (int i = 0; i < predictor.size(); i++)
+                out.writeDouble(predictor.weight(i));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Opens a predictor saved with {@link #save(LinearPredictor, String)}, mapping its weights in memory.
+     *
+     * @param filename
+     *            name of the file to open, it must not be changed while the predictor is used.
+     * @return the predictor.
+     * @throws IOException
+     *             if the file cannot be read or it is not a mapped predictor.
+     */
+    public static MappedPredictor open(String filename) throws IOException {
+        return open(filename, CHUNK_BITS);
+    }
+
+    static MappedPredictor open(String filename, int chunkBits) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(filename, "r");
+        try {
+            byte[] header = new byte[DATA_START];
+            file.readFully(header);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException(filename + " is not a mapped predictor");
+            double minPrediction = in.readDouble();
+            double maxPrediction = in.readDouble();
+            double offset = in.readDouble();
+            int size = in.readInt();
+            byte[] link = new byte[in.readInt()];
+            in.readFully(link);
+            LinkFunction linkFunction;
+            try {
+                linkFunction = (LinkFunction) new ObjectInputStream(new ByteArrayInputStream(link)).readObject();
+            }
+            catch (ClassNotFoundException e) {
+                throw new IOException("Link function class not found", e);
+            }
+            return new MappedPredictor(filename, chunkBits, linkFunction, minPrediction, maxPrediction, offset,
+                    size);
+        }
+        finally {
+            file.close();
+        }
+    }
+
+    private void map() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(filename, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() < DATA_START + 8L * size)
+                throw new IOException(filename + " is truncated");
+            chunks = new DoubleBuffer[(int) ((size + (1L << chunkBits) - 1) >>> chunkBits)];
+            for (int c = 0; c < chunks.length; c++) {
+                long start = (long) c << chunkBits;
+                long length = Math.min(1L << chunkBits, size - start);
+                // the mapping stays valid after the channel is closed
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, DATA_START + 8 * start, 8 * length);
+                chunks[c] = buffer.asDoubleBuffer();
+            }
+        }
+        finally {
+            file.close();
+        }
+    }
+
+    private double weight(int key) {
+        if (key >= size)
+            return 0;
+        return chunks[key >>> chunkBits].get(key & ((1 << chunkBits) - 1));
+    }
+
+    protected double rawScore(int[] keys, double[] values, int size) {
+        double pred = 0;
+        for (int i = 0; i < size; i++)
+            pred += weight(keys[i]) * values[i];
+        return pred;
+    }
+
+    protected double rawScore(Instance sample) {
+        double pred = 0;
+        for (FeatureCursor cursor = sample.features(); cursor.next();)
+            pred += weight(cursor.key()) * cursor.value();
+        return pred;
+    }
+
+    /**
+     * Returns the weights of the predictor.
+     *
+     * @return the weights of the linear model, read from the file.
+     */
+    public SparseVector getWeights() {
+        double[] w = new double[size];
+        for (int i = 0; i < size; i++)
+            w[i] = weight(i);
+        return SparseVector.dense2Sparse(w);
+    }
+
+    /**
+     * @return the name of the mapped file.
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+    private void readObject(ObjectInputStream o) throws IOException, ClassNotFoundException {
+        // only the name of the file is serialized, it is mapped again
+        o.defaultReadObject();
+        map();
+    }
+}
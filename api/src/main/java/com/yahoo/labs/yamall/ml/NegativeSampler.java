@@ -0,0 +1,111 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.ml;
+
+import java.util.Random;
+
+import com.yahoo.labs.yamall.core.Instance;
+
+/**
+ * Streaming downsampling of the negative samples.
+ * <p>
+ * The positive samples, the ones with label greater than 0, are always kept, while the negative ones are kept with
+ * probability equal to the sampling rate. There are two ways to correct the bias introduced by the sampling:
+ * <ul>
+ * <li>importance weighting: the weight of the kept negative samples is divided by the sampling rate, so that the
+ * expected loss is the same of the full data and the learned scores are already calibrated;</li>
+ * <li>recalibration: the weights are not changed and the learned scores are corrected at prediction time adding
+ * {@link #getScoreOffset()}, that is wrapping the learner in a {@link RecalibratedLearner}. This is exact for the
+ * logistic loss.</li>
+ * </ul>
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class NegativeSampler {
+
+    private final double rate;
+    private final boolean reweight;
+    private final Random rand;
+    private long negatives = 0;
+    private long keptNegatives = 0;
+
+    /**
+     * Sampler of the negative samples.
+     *
+     * @param rate
+     *            probability to keep a negative sample, in (0,1].
+     * @param reweight
+     *            if set to True, the weight of the kept negative samples is divided by the rate.
+     * @param seed
+     *            seed of the random number generator.
+     */
+    public NegativeSampler(
+            double rate, boolean reweight, long seed) {
+        if (!(rate > 0 && rate <= 1))
+            throw new IllegalArgumentException("The negative sampling rate must be in (0,1], got " + rate);
+        this.rate = rate;
+        this.reweight = reweight;
+        this.rand = new Random(seed);
+    }
+
+    /**
+     * Decides whether to keep a sample, updating its weight if it is kept.
+     *
+     * @param sample
+     *            sample to filter.
+     * @return true if the sample must be used.
+     */
+    public boolean sample(Instance sample) {
+        if (sample.getLabel() > 0)
+            return true;
+        negatives++;
+        if (rate < 1 && rand.nextDouble() >= rate)
+            return false;
+        keptNegatives++;
+        if (reweight)
+            sample.setWeight(sample.getWeight() / rate);
+        return true;
+    }
+
+    /**
+     * @return the probability to keep a negative sample.
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return true if the weights of the kept negative samples are divided by the rate.
+     */
+    public boolean isReweighting() {
+        return reweight;
+    }
+
+    /**
+     * Returns the correction of the scores learned on the sampled data without importance weighting.
+     * <p>
+     * If the positives and the negatives have log odds s on the sampled data, they have log odds s + ln(rate) on the
+     * full data.
+     *
+     * @return the offset to add to the scores, 0 when the sampler reweights the samples.
+     */
+    public double getScoreOffset() {
+        return reweight ? 0 : Math.log(rate);
+    }
+
+    /**
+     * @return the number of negative samples seen.
+     */
+    public long getNegatives() {
+        return negatives;
+    }
+
+    /**
+     * @return the number of negative samples kept.
+     */
+    public long getKeptNegatives() {
+        return keptNegatives;
+    }
+}
@@ -0,0 +1,265 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.ml;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import com.yahoo.labs.yamall.core.FeatureCursor;
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.core.SparseVector;
+
+/**
+ * One-against-all multiclass learner, optionally cost-sensitive.
+ * <p>
+ * The K classes, numbered from 1 to K, have one linear model each, trained with the normalized adaptive updates of
+ * {@link SGD_VW}. The weights are strided: the weight of class k for the hashed index i is at the position
+ * i*stride+k-1, where stride is the smallest power of 2 not smaller than K, so the K weights of a feature share the
+ * same cache lines and the K scores are computed in a single loop over the features of the instance. The scale of each
+ * feature is shared by the classes.
+ * <p>
+ * In one-against-all mode the label is the correct class, which is trained with label 1, while the other classes are
+ * trained with label -1; the prediction is the class with the largest score. In cost-sensitive mode the scores are
+ * regressions of the costs of the classes in the label of the instance, see {@link Instance#getCosts()}; the classes
+ * without a cost are not updated, and the prediction is the class with the smallest score among the ones with a cost,
+ * or among all the classes if the instance has no costs.
+ * <p>
+ * {@link #update(Instance)} and {@link #predict(Instance)} return the predicted class. The memory required is
+ * 2^bits*(2*stride+1)*8 bytes.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+@SuppressWarnings("serial")
+public class OAA implements Learner {
+    private double eta = .5;
+    private transient double[] w;
+    private transient double[] s;
+    private transient double[] G;
+    private double N = 0;
+    private Loss lossFnc;
+    private double iter = 0;
+    private final int numClasses;
+    private final boolean costSensitive;
+    private final int strideBits;
+    private final int size_hash;
+
+    /**
+     * Multiclass learner.
+     *
+     * @param bits
+     *            number of bits of the hashed features.
+     * @param numClasses
+     *            number of classes, at least 2.
+     * @param costSensitive
+     *            true to regress the costs of the classes, false for one-against-all.
+     */
+    public OAA(
+            int bits, int numClasses, boolean costSensitive) {
+        if (numClasses < 2)
+            throw new IllegalArgumentException("The number of classes must be at least 2");
+        int stride = 1;
+        int log = 0;
+        while (stride < numClasses) {
+            stride <<= 1;
+            log++;
+        }
+        if (bits + log > 30)
+            throw new IllegalArgumentException("Too many bits for " + numClasses + " classes, at most " + (30 - log));
+        this.numClasses = numClasses;
+        this.costSensitive = costSensitive;
+        strideBits = log;
+        size_hash = 1 << bits;
+        w = new double[size_hash << strideBits];
+        s = new double[size_hash];
+        G = new double[size_hash << strideBits];
+    }
+
+    public void setLoss(Loss lossFnc) {
+        this.lossFnc = lossFnc;
+    }
+
+    public void setLearningRate(double eta) {
+        this.eta = eta;
+    }
+
+    public double update(Instance sample) {
+        iter++;
+
+        double[] scores = new double[numClasses];
+        for (FeatureCursor cursor = sample.features(); cursor.next();) {
+            double x_i;
+            if ((x_i = cursor.value()) != 0.0) {
+                int key = cursor.key();
+                int base = key << strideBits;
+                double s_i = s[key];
+                if (Math.abs(x_i) > s_i) {
+                    double ratio = s_i / Math.abs(x_i);
+                    for (int k = 0; k < numClasses; k++)
+                        w[base + k] *= ratio;
+                    s_i = Math.abs(x_i);
+                    s[key] = s_i;
+                    N += 1.0;
+                }
+                else
+                    N += x_i * x_i / (s_i * s_i);
+                for (int k = 0; k < numClasses; k++)
+                    scores[k] += w[base + k] * x_i;
+            }
+        }
+
+        double[] negativeGrads = new double[numClasses];
+        boolean any = false;
+        if (costSensitive) {
+            SparseVector costs = sample.getCosts();
+            if (costs != null)
+                for (int k = 0; k < numClasses; k++)
+                    if (costs.containsKey(k + 1)) {
+                        negativeGrads[k] = lossFnc.negativeGradient(scores[k], costs.get(k + 1), sample.getWeight());
+                        any |= Math.abs(negativeGrads[k]) > 1e-8;
+                    }
+        }
+        else {
+            int label = (int) sample.getLabel();
+            if (label < 1 || label > numClasses || label != sample.getLabel())
+                throw new IllegalArgumentException(
+                        "The label " + sample.getLabel() + " is not a class between 1 and " + numClasses);
+            for (int k = 0; k < numClasses; k++) {
+                negativeGrads[k] = lossFnc.negativeGradient(scores[k], k + 1 == label ? 1 : -1, sample.getWeight());
+                any |= Math.abs(negativeGrads[k]) > 1e-8;
+            }
+        }
+
+        if (any) {
+            final double rate = eta * Math.sqrt(iter / N);
+
+            for (FeatureCursor cursor = sample.features(); cursor.next();) {
+                double x_i;
+                if ((x_i = cursor.value()) != 0.0) {
+                    int key = cursor.key();
+                    int base = key << strideBits;
+                    double s_i = s[key];
+                    for (int k = 0; k < numClasses; k++) {
+                        double negativeGrad = negativeGrads[k];
+                        if (Math.abs(negativeGrad) <= 1e-8)
+                            continue;
+                        double G_i = G[base + k] + negativeGrad * negativeGrad * x_i * x_i;
+                        G[base + k] = G_i;
+                        w[base + k] += rate * negativeGrad * Math.sqrt(1 / G_i) / s_i * x_i;
+                    }
+                }
+            }
+        }
+        return bestClass(scores, sample.getCosts());
+    }
+
+    public double predict(Instance sample) {
+        return bestClass(scores(sample), sample.getCosts());
+    }
+
+    /**
+     * Returns the scores of all the classes.
+     *
+     * @param sample
+     *            sample to score.
+     * @return the score of each class, the one of class k in position k-1.
+     */
+    public double[] scores(Instance sample) {
+        double[] scores = new double[numClasses];
+        for (FeatureCursor cursor = sample.features(); cursor.next();) {
+            double x_i = cursor.value();
+            int base = cursor.key() << strideBits;
+            for (int k = 0; k < numClasses; k++)
+                scores[k] += w[base + k] * x_i;
+        }
+        return scores;
+    }
+
+    private int bestClass(double[] scores, SparseVector costs) {
+        if (!costSensitive) {
+            int best = 0;
+            for (int k = 1; k < numClasses; k++)
+                if (scores[k] > scores[best])
+                    best = k;
+            return best + 1;
+        }
+        // only the classes with a cost can be predicted, all of them if none has
+        int best = -1;
+        if (costs != null)
+            for (int k = 0; k < numClasses; k++)
+                if (costs.containsKey(k + 1) && (best < 0 || scores[k] < scores[best]))
+                    best = k;
+        if (best < 0) {
+            best = 0;
+            for (int k = 1; k < numClasses; k++)
+                if (scores[k] < scores[best])
+                    best = k;
+        }
+        return best + 1;
+    }
+
+    /**
+     * @return the number of classes.
+     */
+    public int getNumberClasses() {
+        return numClasses;
+    }
+
+    /**
+     * @return true if the classes regress costs, false for one-against-all.
+     */
+    public boolean isCostSensitive() {
+        return costSensitive;
+    }
+
+    /**
+     * Returns the position of a weight in the strided layout.
+     *
+     * @param key
+     *            hashed index of the feature.
+     * @param label
+     *            class, from 1 to the number of classes.
+     * @return the index of the weight in {@link #getWeights()}.
+     */
+    public int weightIndex(int key, int label) {
+        return (key << strideBits) + label - 1;
+    }
+
+    public Loss getLoss() {
+        return lossFnc;
+    }
+
+    /**
+     * Returns the strided weights of all the classes.
+     *
+     * @return the weights, the one of class k for the hashed index i in position {@link #weightIndex(int, int)}.
+     */
+    public SparseVector getWeights() {
+        return SparseVector.dense2Sparse(w);
+    }
+
+    public String toString() {
+        String tmp = (costSensitive ? "Cost-sensitive one-against-all" : "One-against-all") + " with " + numClasses
+                + " classes, using VW optimizer (adaptive and normalized)\n";
+        tmp = tmp + "Initial learning rate = " + eta + "\n";
+        tmp = tmp + "Loss function = " + getLoss().toString();
+        return tmp;
+    }
+
+    private void writeObject(ObjectOutputStream o) throws IOException {
+        o.defaultWriteObject();
+        o.writeObject(SparseVector.dense2Sparse(w));
+        o.writeObject(SparseVector.dense2Sparse(s));
+        o.writeObject(SparseVector.dense2Sparse(G));
+    }
+
+    private void readObject(ObjectInputStream o) throws IOException, ClassNotFoundException {
+        o.defaultReadObject();
+        w = ((SparseVector) o.readObject()).toDenseVector(size_hash << strideBits);
+        s = ((SparseVector) o.readObject()).toDenseVector(size_hash);
+        G = ((SparseVector) o.readObject()).toDenseVector(size_hash << strideBits);
+    }
+
+}
@@ -7,10 +7,10 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 
+import com.yahoo.labs.yamall.core.FeatureCursor;
 import com.yahoo.labs.yamall.core.Instance;
 import com.yahoo.labs.yamall.core.SparseVector;
 
-import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
 
 @SuppressWarnings("serial")
 public class PerCoordinateKT implements Learner {
@@ -38,11 +38,11 @@ public class PerCoordinateKT implements Learner {
         iter++;
 
         double pred = 0;
-        for (Int2DoubleMap.Entry entry : sample.getVector().int2DoubleEntrySet()) {
-            int key = entry.getIntKey();
+        for (FeatureCursor cursor = sample.features(); cursor.next();) {
+            int key = cursor.key();
             double reward_i = reward[key];
             double scale_i = scale[key];
-            double x_i = entry.getDoubleValue();
+            double x_i = cursor.value();
             double sumGradientScale_i = sumGradientScale[key];
             double theta_i = theta[key];
             if (Math.abs(x_i) > scale_i) {
@@ -58,9 +58,9 @@ public class PerCoordinateKT implements Learner {
 
         final double negativeGrad = lossFnc.negativeGradient(pred, sample.getLabel(), sample.getWeight());
 
-        for (Int2DoubleMap.Entry entry : sample.getVector().int2DoubleEntrySet()) {
-            int key = entry.getIntKey();
-            double x_i = entry.getDoubleValue();
+        for (FeatureCursor cursor = sample.features(); cursor.next();) {
+            int key = cursor.key();
+            double x_i = cursor.value();
             double reward_i = reward[key];
             // double w_i = w[key];
             double sumGradientScale_i = sumGradientScale[key];
@@ -80,7 +80,8 @@ public class PerCoordinateKT implements Learner {
     }
 
     public double predict(Instance sample) {
-        return sample.getVector().dot(w);
+        createW();
+        return sample.dot(w);
     }
 
     public void setLoss(Loss lossFnc) {
@@ -126,6 +127,8 @@ public class PerCoordinateKT implements Learner {
     }
 
     private void writeObject(ObjectOutputStream o) throws IOException {
+        // w is built lazily, make sure it is up to date before saving it
+        createW();
         o.defaultWriteObject();
         o.writeObject(SparseVector.dense2Sparse(w));
         o.writeObject(SparseVector.dense2Sparse(reward));
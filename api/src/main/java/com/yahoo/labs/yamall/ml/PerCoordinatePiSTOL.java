@@ -7,11 +7,10 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 
+import com.yahoo.labs.yamall.core.FeatureCursor;
 import com.yahoo.labs.yamall.core.Instance;
 import com.yahoo.labs.yamall.core.SparseVector;
 
-import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
-
 /**
  * Parameter-free STOchastic Learning algorithm.
  * <p>
@@ -53,10 +52,10 @@ public class PerCoordinatePiSTOL implements Learner {
         iter++;
 
         double pred = 0;
-        for (Int2DoubleMap.Entry entry : sample.getVector().int2DoubleEntrySet()) {
-            final int key = entry.getIntKey();
+        for (FeatureCursor cursor = sample.features(); cursor.next();) {
+            final int key = cursor.key();
             double scale_i = scale[key];
-            final double x_i = entry.getDoubleValue();
+            final double x_i = cursor.value();
             if (Math.abs(x_i) > scale_i) {
                 scale_i = Math.abs(x_i);
                 scale[key] = scale_i;
@@ -75,9 +74,9 @@ public class PerCoordinatePiSTOL implements Learner {
 
         final double negativeGrad = lossFnc.negativeGradient(pred, sample.getLabel(), sample.getWeight());
 
-        for (Int2DoubleMap.Entry entry : sample.getVector().int2DoubleEntrySet()) {
-            final int key = entry.getIntKey();
-            final double x_i = entry.getDoubleValue();
+        for (FeatureCursor cursor = sample.features(); cursor.next();) {
+            final int key = cursor.key();
+            final double x_i = cursor.value();
 
             theta[key] += x_i * negativeGrad;
             sumAbsGradient[key] += Math.abs(x_i * negativeGrad);
@@ -88,7 +87,7 @@ public class PerCoordinatePiSTOL implements Learner {
 
     public double predict(Instance sample) {
         createW();
-        return sample.getVector().dot(w);
+        return sample.dot(w);
     }
 
     public void setLoss(Loss lossFnc) {
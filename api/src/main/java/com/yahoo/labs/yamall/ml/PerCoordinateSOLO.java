@@ -7,10 +7,10 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 
+import com.yahoo.labs.yamall.core.FeatureCursor;
 import com.yahoo.labs.yamall.core.Instance;
 import com.yahoo.labs.yamall.core.SparseVector;
 
-import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
 
 @SuppressWarnings("serial")
 public class PerCoordinateSOLO implements Learner {
@@ -46,11 +46,11 @@ public class PerCoordinateSOLO implements Learner {
         final double negativeGrad = lossFnc.negativeGradient(pred, sample.getLabel(), sample.getWeight());
         final double negativeGradSquared = negativeGrad * negativeGrad;
 
-        for (Int2DoubleMap.Entry entry : sample.getVector().int2DoubleEntrySet()) {
-            int key = entry.getIntKey();
+        for (FeatureCursor cursor = sample.features(); cursor.next();) {
+            int key = cursor.key();
             double theta_i = theta[key];
             double sumSqGrads_i = sumSqGrads[key];
-            double x_i = entry.getDoubleValue();
+            double x_i = cursor.value();
 
             theta_i = theta_i + x_i * negativeGrad;
             theta[key] = theta_i;
@@ -65,7 +65,7 @@ public class PerCoordinateSOLO implements Learner {
     }
 
     public double predict(Instance sample) {
-        return sample.getVector().dot(w);
+        return sample.dot(w);
     }
 
     public Loss getLoss() {
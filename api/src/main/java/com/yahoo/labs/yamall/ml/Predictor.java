@@ -0,0 +1,228 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.ml;
+
+import java.io.Serializable;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.util.CountMinSketch;
+
+/**
+ * Prediction-only model.
+ * <p>
+ * A predictor contains only the final weights of a learner, without any optimizer state, and it is immutable: many
+ * threads can use the same predictor concurrently. The scores are clipped to [minPrediction, maxPrediction] and the
+ * predictions are the scores after the link function.
+ * <p>
+ * Predictors are obtained compiling a learner with {@link #compile(Learner, LinkFunction, double, double)}.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+@SuppressWarnings("serial")
+public abstract class Predictor implements Serializable {
+    private final LinkFunction link;
+    private final double minPrediction;
+    private final double maxPrediction;
+    // added to the raw scores, see RecalibratedLearner
+    private final double offset;
+
+    protected Predictor(
+            LinkFunction link, double minPrediction, double maxPrediction) {
+        this(link, minPrediction, maxPrediction, 0);
+    }
+
+    /**
+     * Predictor adding an offset to the raw scores, before clipping.
+     *
+     * @param link
+     *            link function applied to the scores.
+     * @param minPrediction
+     *            smallest score, before the link function.
+     * @param maxPrediction
+     *            largest score, before the link function.
+     * @param offset
+     *            offset added to the raw scores.
+     */
+    protected Predictor(
+            LinkFunction link, double minPrediction, double maxPrediction, double offset) {
+        this.link = link;
+        this.minPrediction = minPrediction;
+        this.maxPrediction = maxPrediction;
+        this.offset = offset;
+    }
+
+    /**
+     * Predictor with the same link function, clipping, and offset of the scores of another one.
+     *
+     * @param other
+     *            predictor to copy the settings from.
+     */
+    protected Predictor(
+            Predictor other) {
+        this.link = other.link;
+        this.minPrediction = other.minPrediction;
+        this.maxPrediction = other.maxPrediction;
+        this.offset = other.offset;
+    }
+
+    /**
+     * Compiles a learner into a predictor.
+     * <p>
+     * The learner is only read, and it can keep being trained after the compilation without affecting the predictor.
+     * The offset of a {@link RecalibratedLearner} is added to the scores before clipping, while a
+     * {@link FeatureAdmission} is compiled into an {@link AdmissionPredictor}.
+     *
+     * @param learner
+     *            learner to compile.
+     * @param link
+     *            link function applied to the scores.
+     * @param minPrediction
+     *            smallest score, before the link function.
+     * @param maxPrediction
+     *            largest score, before the link function.
+     * @return the predictor.
+     */
+    public static Predictor compile(Learner learner, LinkFunction link, double minPrediction, double maxPrediction) {
+        return compile(learner, link, minPrediction, maxPrediction, 0);
+    }
+
+    private static Predictor compile(Learner learner, LinkFunction link, double minPrediction, double maxPrediction,
+            double offset) {
+        if (learner instanceof RecalibratedLearner) {
+            RecalibratedLearner recalibrated = (RecalibratedLearner) learner;
+            return compile(recalibrated.getLearner(), link, minPrediction, maxPrediction,
+                    offset + recalibrated.getOffset());
+        }
+        if (learner instanceof FeatureAdmission) {
+            FeatureAdmission admission = (FeatureAdmission) learner;
+            return new AdmissionPredictor(
+                    compile(admission.getLearner(), link, minPrediction, maxPrediction, offset),
+                    new CountMinSketch(admission.getSketch()), admission.getMinCount());
+        }
+        if (learner instanceof OAA)
+            throw new IllegalArgumentException("Multiclass learners cannot be compiled into a predictor");
+        if (learner instanceof SGD_FM)
+            return new FMPredictor((SGD_FM) learner, link, minPrediction, maxPrediction, offset);
+        return new LinearPredictor(learner.getWeights(), link, minPrediction, maxPrediction, offset);
+    }
+
+    /**
+     * Compiles a learner into a predictor with identity link function and no clipping of the scores.
+     *
+     * @param learner
+     *            learner to compile.
+     * @return the predictor.
+     */
+    public static Predictor compile(Learner learner) {
+        return compile(learner, new IdentityLinkFunction(), Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Returns the raw score of the features.
+     *
+     * @param keys
+     *            hashed indexes of the features.
+     * @param values
+     *            values of the features.
+     * @param size
+     *            number of features to use from keys and values.
+     * @return the score, before clipping and link function.
+     */
+    protected abstract double rawScore(int[] keys, double[] values, int size);
+
+    /**
+     * Returns the raw score of a sample, including its crossed features.
+     *
+     * @param sample
+     *            sample to score.
+     * @return the score, before clipping and link function.
+     */
+    protected abstract double rawScore(Instance sample);
+
+    /**
+     * Returns the score of a sample, clipped to [minPrediction, maxPrediction].
+     *
+     * @param sample
+     *            sample to score.
+     * @return the score, before the link function.
+     */
+    public double score(Instance sample) {
+        return clip(rawScore(sample) + offset);
+    }
+
+    /**
+     * Returns the score of pre-hashed features, clipped to [minPrediction, maxPrediction].
+     * <p>
+     * No interaction is generated: crossed features must be already included in keys and values.
+     *
+     * @param keys
+     *            hashed indexes of the features.
+     * @param values
+     *            values of the features.
+     * @param size
+     *            number of features to use from keys and values.
+     * @return the score, before the link function.
+     */
+    public double score(int[] keys, double[] values, int size) {
+        return clip(rawScore(keys, values, size) + offset);
+    }
+
+    /**
+     * Predicts on a sample.
+     *
+     * @param sample
+     *            sample to predict on.
+     * @return the score after the link function.
+     */
+    public double predict(Instance sample) {
+        return link.apply(score(sample));
+    }
+
+    /**
+     * Predicts on pre-hashed features.
+     *
+     * @param keys
+     *            hashed indexes of the features.
+     * @param values
+     *            values of the features.
+     * @param size
+     *            number of features to use from keys and values.
+     * @return the score after the link function.
+     */
+    public double predict(int[] keys, double[] values, int size) {
+        return link.apply(score(keys, values, size));
+    }
+
+    /**
+     * Applies the link function to a score.
+     *
+     * @param score
+     *            score as returned by the score methods.
+     * @return the score after the link function.
+     */
+    public double link(double score) {
+        return link.apply(score);
+    }
+
+    LinkFunction getLinkFunction() {
+        return link;
+    }
+
+    double getMinPrediction() {
+        return minPrediction;
+    }
+
+    double getMaxPrediction() {
+        return maxPrediction;
+    }
+
+    double getOffset() {
+        return offset;
+    }
+
+    private double clip(double score) {
+        return Math.min(Math.max(score, minPrediction), maxPrediction);
+    }
+}
@@ -0,0 +1,234 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.ml;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import com.yahoo.labs.yamall.core.FeatureCursor;
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.core.SparseVector;
+
+/**
+ * Predictor of linear models with weights quantized to 8 or 16 bits.
+ * <p>
+ * The weights are divided in blocks of 256 consecutive indexes, each with a float scale chosen so that the largest
+ * weight of the block in absolute value is represented by the largest integer: each weight is stored as a signed
+ * integer that multiplied by the scale gives the weight, with an error of at most half of the scale. The weights that
+ * are zero after the quantization are dropped, and the other ones are packed in a single array. A bitmap of the stored
+ * indexes and the number of stored weights before each 64 indexes give the position of a weight in constant time.
+ * <p>
+ * Compared to a saved learner, the predictor does not contain any state of the optimizer. It is serialized with
+ * {@link IOLearner#savePredictor(Predictor, String)}, writing the differences between consecutive stored indexes with
+ * a variable number of bytes.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+@SuppressWarnings("serial")
+public class QuantizedPredictor extends Predictor {
+    private static final int BLOCK_BITS = 8;
+
+    private final int bits;
+    private final int size;
+    private transient long[] stored;
+    private transient int[] rank;
+    private transient float[] scales;
+    private transient byte[] bytes;
+    private transient short[] shorts;
+    private transient int count;
+
+    /**
+     * Quantizes the weights of a linear predictor.
+     *
+     * @param predictor
+     *            predictor to quantize, its link function and clipping of the scores are kept.
+     * @param bits
+     *            bits of each weight, 8 or 16.
+     */
+    public QuantizedPredictor(
+            LinearPredictor predictor, int bits) {
+        super(predictor);
+        if (bits != 8 && bits != 16)
+            throw new IllegalArgumentException("The weights can be quantized only to 8 or 16 bits");
+        this.bits = bits;
+        double[] w = predictor.getWeights().toDenseVector(0);
+        size = w.length;
+        allocateIndex();
+
+        double maxInt = bits == 8 ? Byte.MAX_VALUE : Short.MAX_VALUE;
+        int[] q = new int[size];
+        for (int b = 0; b < scales.length; b++) {
+            int start = b << BLOCK_BITS;
+            int end = Math.min(start + (1 << BLOCK_BITS), size);
+            double maxAbs = 0;
+            for (int i = start; i < end; i++)
+                maxAbs = Math.max(maxAbs, Math.abs(w[i]));
+            float scale = (float) (maxAbs / maxInt);
+            if (scale == 0)
+                // all zeros, or weights too small to be represented
+                continue;
+            scales[b] = scale;
+            for (int i = start; i < end; i++) {
+                // the float rounding of the scale can make the quotient slightly larger than maxInt
+                q[i] = (int) Math.max(-maxInt, Math.min(maxInt, Math.round(w[i] / scale)));
+                if (q[i] != 0)
+                    stored[i >>> 6] |= 1L << i;
+            }
+        }
+        buildRank();
+        allocateValues();
+        int pos = 0;
+        for (int i = 0; i < size; i++)
+            if (q[i] != 0)
+                setValue(pos++, q[i]);
+    }
+
+    private void allocateIndex() {
+        stored = new long[(size + 63) >>> 6];
+        rank = new int[stored.length];
+        scales = new float[(size + (1 << BLOCK_BITS) - 1) >>> BLOCK_BITS];
+    }
+
+    private void buildRank() {
+        count = 0;
+        for (int i = 0; i < stored.length; i++) {
+            rank[i] = count;
+            count += Long.bitCount(stored[i]);
+        }
+    }
+
+    private void allocateValues() {
+        if (bits == 8)
+            bytes = new byte[count];
+        else
+            shorts = new short[count];
+    }
+
+    private void setValue(int pos, int value) {
+        if (bits == 8)
+            bytes[pos] = (byte) value;
+        else
+            shorts[pos] = (short) value;
+    }
+
+    private int getValue(int pos) {
+        return bits == 8 ? bytes[pos] : shorts[pos];
+    }
+
+    private double weight(int key) {
+        if (key >= size)
+            return 0;
+        int word = key >>> 6;
+        long mask = 1L << key;
+        long w = stored[word];
+        if ((w & mask) == 0)
+            return 0;
+        return scales[key >>> BLOCK_BITS] * (double) getValue(rank[word] + Long.bitCount(w & (mask - 1)));
+    }
+
+    protected double rawScore(int[] keys, double[] values, int size) {
+        double pred = 0;
+        for (int i = 0; i < size; i++)
+            pred += weight(keys[i]) * values[i];
+        return pred;
+    }
+
+    protected double rawScore(Instance sample) {
+        double pred = 0;
+        for (FeatureCursor cursor = sample.features(); cursor.next();)
+            pred += weight(cursor.key()) * cursor.value();
+        return pred;
+    }
+
+    /**
+     * Returns the quantized weights of the predictor.
+     *
+     * @return the weights of the linear model, after the quantization.
+     */
+    public SparseVector getWeights() {
+        double[] w = new double[size];
+        for (int i = 0; i < size; i++)
+            w[i] = weight(i);
+        return SparseVector.dense2Sparse(w);
+    }
+
+    /**
+     * @return the bits of each weight, 8 or 16.
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * @return the number of stored weights.
+     */
+    public int getNumberWeights() {
+        return count;
+    }
+
+    /**
+     * @return the memory used by the weights, in bytes.
+     */
+    public long bytes() {
+        return 8L * stored.length + 4L * rank.length + 4L * scales.length + (long) (bits / 8) * count;
+    }
+
+    private void writeObject(ObjectOutputStream o) throws IOException {
+        o.defaultWriteObject();
+        o.writeInt(count);
+        for (float scale : scales)
+            o.writeFloat(scale);
+        int last = -1;
+        for (int i = 0; i < size; i++)
+            if ((stored[i >>> 6] & (1L << i)) != 0) {
+                writeVarInt(o, i - last);
+                last = i;
+            }
+        if (bits == 8)
+            o.write(bytes);
+        else
+            for (short value : shorts)
+                o.writeShort(value);
+    }
+
+    private void readObject(ObjectInputStream o) throws IOException, ClassNotFoundException {
+        o.defaultReadObject();
+        allocateIndex();
+        int n = o.readInt();
+        for (int b = 0; b < scales.length; b++)
+            scales[b] = o.readFloat();
+        int key = -1;
+        for (int i = 0; i < n; i++) {
+            key += readVarInt(o);
+            stored[key >>> 6] |= 1L << key;
+        }
+        buildRank();
+        allocateValues();
+        if (bits == 8)
+            o.readFully(bytes);
+        else
+            for (int i = 0; i < count; i++)
+                shorts[i] = o.readShort();
+    }
+
+    private static void writeVarInt(ObjectOutputStream o, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            o.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        o.writeByte(value);
+    }
+
+    private static int readVarInt(ObjectInputStream o) throws IOException {
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = o.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.ml;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.core.SparseVector;
+
+/**
+ * Learner whose predictions are shifted by a constant offset.
+ * <p>
+ * It is used to train on data where the negative samples were downsampled without importance weighting: the updates
+ * and their returned predictions are the ones of the wrapped learner on the sampled data, while {@link #predict} adds
+ * the offset that recalibrates the scores to the full data, see {@link NegativeSampler#getScoreOffset()}. Saved with
+ * {@link IOLearner#saveLearner}, it keeps recalibrating the scores when it is loaded for testing.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+@SuppressWarnings("serial")
+public class RecalibratedLearner implements Learner {
+    private final Learner learner;
+    private final double offset;
+
+    /**
+     * Wraps a learner.
+     *
+     * @param learner
+     *            learner to wrap.
+     * @param offset
+     *            value added to the scores of the learner at prediction time.
+     */
+    public RecalibratedLearner(
+            Learner learner, double offset) {
+        this.learner = learner;
+        this.offset = offset;
+    }
+
+    public double update(Instance sample) {
+        return learner.update(sample);
+    }
+
+    public double predict(Instance sample) {
+        return learner.predict(sample) + offset;
+    }
+
+    public void setLoss(Loss lossFnc) {
+        learner.setLoss(lossFnc);
+    }
+
+    public Loss getLoss() {
+        return learner.getLoss();
+    }
+
+    public void setLearningRate(double eta) {
+        learner.setLearningRate(eta);
+    }
+
+    public SparseVector getWeights() {
+        return learner.getWeights();
+    }
+
+    /**
+     * @return the wrapped learner.
+     */
+    public Learner getLearner() {
+        return learner;
+    }
+
+    /**
+     * @return the value added to the scores at prediction time.
+     */
+    public double getOffset() {
+        return offset;
+    }
+
+    public String toString() {
+        return learner.toString() + "\nScores recalibrated by " + offset;
+    }
+}
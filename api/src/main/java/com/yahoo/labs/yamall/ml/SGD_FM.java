@@ -1,14 +1,15 @@
 package com.yahoo.labs.yamall.ml;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.Arrays;
 import java.util.Random;
 
-import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
-
+import com.yahoo.labs.yamall.core.FeatureCursor;
 import com.yahoo.labs.yamall.core.Instance;
 import com.yahoo.labs.yamall.core.SparseVector;
-
+import com.yahoo.labs.yamall.util.MurmurHash3;
 
 /**
  * Stochastic Gradient Descent for Two way Factorization Machines.
@@ -23,33 +24,48 @@ import com.yahoo.labs.yamall.core.SparseVector;
  *  https://github.com/srendle/libfm
  * <p>
  * 
- * Memory required - 2^bits * 6 * 8 bytes
+ * The factors of a feature are allocated the first time the feature is used in an update, and they are initialized
+ * with gaussian noise from a random generator seeded with the index of the feature, so that the initialization does
+ * not depend on the order of the examples. The factors and their AdaGrad accumulators are interleaved in a single
+ * array, one row of 2 * fmNumberFactors doubles per feature. Features never seen in training have null factors.
+ * <p>
+ * Memory required - 2^bits * (3 * 8 + 4) bytes + #features_seen * fmNumberFactors * 2 * 8 bytes
+ * <p>
+ * When saved, only the touched coordinates of the linear model and the rows of the features seen are written.
  * 
  *  w - parameters of linear model
  *  v - parameters of interaction parameters(two way interaction)
  *  
  *   @author Krishna Chaitanya Chakka
- *   @version 1.1
+ *   @version 1.2
  * 
  */
 public class SGD_FM implements Learner {
 	
+	private static final int INITIAL_ROWS = 1024;
+	// largest length of an array supported by the JVMs
+	private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+	
 	private double eta = .5;
 	private double epsilon = Math.exp(-6);
 	private Loss lossFnc;
     private double iter = 0;
     private int size_hash = 0;
     private int fmNumberFactors = 0;
-    private double[] w;             //linear model parameters
-    private double[] s;
-    
-    private double[][] v;           //interaction parameters
-    private double[] sumProd_v;     
-    private boolean isInitialized = false;
+    private transient double[] w;             //linear model parameters
+    private transient double[] s;
     
     // Use to store past gradient info for adagrad 
-    private double[] gradientSquare_w;  
-    private double[][] gradientSquare_v;
+    private transient double[] gradientSquare_w;  
+    
+    /*
+     * Interaction parameters: row[key] is 0 for features never updated, otherwise 1 + the index of the row of the
+     * feature in factors. Each row holds v_if at position 2f and its AdaGrad accumulator at 2f+1.
+     */
+    private transient int[] row;
+    private transient double[] factors;
+    private int numRows = 0;
+    private double[] sumProd_v;     
     
 	
 	public SGD_FM(int bits, int fmNumberFactors) {
@@ -57,31 +73,38 @@ public class SGD_FM implements Learner {
 		this.fmNumberFactors = fmNumberFactors;
 		w = new double[size_hash];
 		s = new double[size_hash];
-		
-		//TODO: optimize space
-		v = new double[size_hash][fmNumberFactors];  
-		
-		// initialize all v's with gaussian distribution
-		init(size_hash, fmNumberFactors);  
-		sumProd_v = new double[fmNumberFactors];
 		gradientSquare_w = new double[size_hash];
-		gradientSquare_v = new double[size_hash][fmNumberFactors];	
+		row = new int[size_hash];
+		factors = new double[Math.min(INITIAL_ROWS, size_hash) * 2 * fmNumberFactors];
+		sumProd_v = new double[fmNumberFactors];
 	}
 	
 	/*
-	 * Initialize the interaction parameters with gaussian noise
-	 *        to avoid gradient to be 0
-	 * 
+	 * Returns the offset of the row of a feature, allocating and initializing it on the first use.
+	 * The interaction parameters are initialized with gaussian noise to avoid gradient to be 0.
+	 * The rows are doubled when full, up to one row per feature or the largest array.
 	 */
-	public void init(int hash_size, int numFactors) {
-		Random r = new Random();
-		for (int i = 0 ; i < hash_size; i++) {
-			for (int j = 0; j < numFactors; j++) {
-				double temp = r.nextGaussian()*0.01;  //Mean = 0, variance = 0.01
-				v[i][j] = temp;
-			}
-		}
+	private int rowOffset(int key) {
+		int r = row[key];
+		final int stride = 2 * fmNumberFactors;
+		if (r != 0)
+			return (r - 1) * stride;
 		
+		long needed = (long) (numRows + 1) * stride;
+		if (needed > factors.length) {
+			if (needed > MAX_ARRAY_LENGTH)
+				throw new IllegalStateException("The factors of more than " + numRows + " features with "
+						+ fmNumberFactors + " factors do not fit in an array");
+			long length = Math.min(Math.max(2L * factors.length, stride), (long) size_hash * stride);
+			factors = Arrays.copyOf(factors, (int) Math.min(length, MAX_ARRAY_LENGTH));
+		}
+		int offset = numRows * stride;
+		Random rand = new Random(MurmurHash3.fmix64(key));
+		for (int f = 0; f < fmNumberFactors; f++)
+			factors[offset + 2 * f] = rand.nextGaussian() * 0.01;  //Mean = 0, variance = 0.01
+		numRows++;
+		row[key] = numRows;
+		return offset;
 	}
 	
 	public double update(Instance sample) {
@@ -97,10 +120,10 @@ public class SGD_FM implements Learner {
 		 * update weights.
 		 * w_i = w_i - eta(t)*gradient(loss)
 		 */
-		for (Int2DoubleMap.Entry entry : sample.getVector().int2DoubleEntrySet()) {
-			int key = entry.getIntKey();
+		for (FeatureCursor cursor = sample.features(); cursor.next();) {
+			int key = cursor.key();
 			
-			double x_i = entry.getDoubleValue();
+			double x_i = cursor.value();
 			double w_i = w[key];
 			/*
 			 * Adaptive learning rate : eta_grad
@@ -111,23 +134,21 @@ public class SGD_FM implements Learner {
 			w_i += (eta_grad*negativeGrad*x_i);
 			
 			w[key] = w_i;
-		}
-		for (int i = 0; i < fmNumberFactors; i++) {
-				for (Int2DoubleMap.Entry entry : sample.getVector().int2DoubleEntrySet()) {
-					int key = entry.getIntKey();
-					double x_i = entry.getDoubleValue();
-					double v_ij = v[key][i];
-					double v_grad = (x_i*sumProd_v[i]) - (v_ij * x_i*x_i);
-					
-					/*
-					 * Adaptive learning rate : eta_grad
-					 */
-					
-					gradientSquare_v[key][i] += ((negativeGrad*v_grad) * (negativeGrad*v_grad));
-					double eta_grad = eta/(Math.sqrt(gradientSquare_v[key][i]) + epsilon);
-					v_ij += eta_grad* negativeGrad*v_grad;
-					v[key][i] = v_ij;
-				}
+			
+			int offset = rowOffset(key);
+			for (int i = 0; i < fmNumberFactors; i++) {
+				double v_ij = factors[offset + 2 * i];
+				double v_grad = (x_i*sumProd_v[i]) - (v_ij * x_i*x_i);
+				
+				/*
+				 * Adaptive learning rate : eta_grad
+				 */
+				double gradientSquare_v = factors[offset + 2 * i + 1] + ((negativeGrad*v_grad) * (negativeGrad*v_grad));
+				factors[offset + 2 * i + 1] = gradientSquare_v;
+				eta_grad = eta/(Math.sqrt(gradientSquare_v) + epsilon);
+				v_ij += eta_grad* negativeGrad*v_grad;
+				factors[offset + 2 * i] = v_ij;
+			}
 		}
 		
 		return pred;
@@ -135,96 +156,152 @@ public class SGD_FM implements Learner {
 
 	public double predict_normalized_features(Instance sample) {
 		double pred = 0;
-		
-		//one-way interaction
-		for (Int2DoubleMap.Entry entry : sample.getVector().int2DoubleEntrySet()) {
-			int key = entry.getIntKey();
-			double s_i = s[key];
-			double x_i = entry.getDoubleValue();
-			double w_i = w[key];
-			if (Math.abs(x_i) > s_i) {
-                w_i = w_i * s_i / Math.abs(x_i);
-                w[key] = w_i;
-                //s_i = Math.abs(x_i);    //I am not changing the max feature value here as it is used in two way 
-                						  //     interactions also
-                //s[key] = s_i;
-            }
-			pred += (x_i * w_i);
-		}
-		
+		double squareSum = 0;
+		Arrays.fill(sumProd_v, 0);
 		
 		/*
-		 * Calculating two way interaction: O(nk)
-		 *  
+		 * One-way and two way interactions: O(nk)
 		 */
-		for (int i = 0; i < fmNumberFactors; i++) {
-			double linearSum = 0;
-			double squareSum = 0;
-			for (Int2DoubleMap.Entry entry : sample.getVector().int2DoubleEntrySet()) {
-				int key = entry.getIntKey();
-				double s_i = s[key];
-				double x_i = entry.getDoubleValue();
-				
-				/*
-				 * This condition is satisfied only once per feature.
-				 * The running time is O(#factors * #features) 
-				 */
-				if (Math.abs(x_i) > s_i) {
-					for (int k = 0 ; k < fmNumberFactors; k++) {
-						double v_ij = v[key][k];
-						v_ij = v_ij * s_i / Math.abs(x_i);
-						v[key][k] = v_ij;
-					}
-					s_i = Math.abs(x_i);
-					s[key] = s_i;
-	            }
-				double v_ij = v[key][i];
-				double prod = v_ij*x_i;
-				linearSum += prod;
+		for (FeatureCursor cursor = sample.features(); cursor.next();) {
+			int key = cursor.key();
+			double s_i = s[key];
+			double x_i = cursor.value();
+			int offset = rowOffset(key);
+			
+			/*
+			 * This condition is satisfied only once per feature.
+			 * The running time is O(#factors * #features) 
+			 */
+			if (Math.abs(x_i) > s_i) {
+				if (s_i > 0) {
+					double ratio = s_i / Math.abs(x_i);
+					w[key] *= ratio;
+					for (int k = 0 ; k < fmNumberFactors; k++)
+						factors[offset + 2 * k] *= ratio;
+				}
+				s_i = Math.abs(x_i);
+				s[key] = s_i;
+			}
+			pred += (x_i * w[key]);
+			
+			for (int i = 0; i < fmNumberFactors; i++) {
+				double prod = factors[offset + 2 * i]*x_i;
+				sumProd_v[i] += prod;
 				squareSum += prod*prod;
 			}
-			sumProd_v[i] = linearSum;
-			pred += 0.5*(linearSum*linearSum - squareSum);
 		}
 		
+		for (int i = 0; i < fmNumberFactors; i++)
+			pred += 0.5*sumProd_v[i]*sumProd_v[i];
+		pred -= 0.5*squareSum;
+		
 		return pred;
 	}
 	
 	
 	public double predict(Instance sample) {
 		double pred = 0;
+		double squareSum = 0;
+		double[] sumProd = new double[fmNumberFactors];
 		
-		//one-way interaction
-		for (Int2DoubleMap.Entry entry : sample.getVector().int2DoubleEntrySet()) {
-			int key = entry.getIntKey();
-			double x_i = entry.getDoubleValue();
-			double w_i = w[key];
-			pred += (x_i * w_i);
-		}
-		
-		
-		/*
-		 * Calculating two way interaction: O(nk)
-		 *  
-		 */
-		for (int i = 0; i < fmNumberFactors; i++) {
-			double linearSum = 0;
-			double squareSum = 0;
-			for (Int2DoubleMap.Entry entry : sample.getVector().int2DoubleEntrySet()) {
-				int key = entry.getIntKey();
-				double x_i = entry.getDoubleValue();
-				double v_ij = v[key][i];
-				double prod = v_ij*x_i;
-				linearSum += prod;
-				squareSum += prod*prod;
+		for (FeatureCursor cursor = sample.features(); cursor.next();) {
+			int key = cursor.key();
+			double x_i = cursor.value();
+			pred += (x_i * w[key]);
+			
+			// features never updated have null factors
+			int r = row[key];
+			if (r != 0) {
+				int offset = (r - 1) * 2 * fmNumberFactors;
+				for (int i = 0; i < fmNumberFactors; i++) {
+					double prod = factors[offset + 2 * i]*x_i;
+					sumProd[i] += prod;
+					squareSum += prod*prod;
+				}
 			}
-			sumProd_v[i] = linearSum;
-			pred += 0.5*(linearSum*linearSum - squareSum);
 		}
 		
+		for (int i = 0; i < fmNumberFactors; i++)
+			pred += 0.5*sumProd[i]*sumProd[i];
+		pred -= 0.5*squareSum;
+		
 		return pred;
 	}
 
+	/**
+	 * Returns the number of factors of each feature.
+	 * 
+	 * @return the number of factors.
+	 */
+	public int getNumberFactors() {
+		return fmNumberFactors;
+	}
+
+	/*
+	 * Linear weights, not copied. Used to compile the model in a FMPredictor.
+	 */
+	double[] getLinearWeights() {
+		return w;
+	}
+
+	/**
+	 * Returns the features that have factors, that is the ones seen in training, in the order they were first seen.
+	 * 
+	 * @return the hashed indexes of the features.
+	 */
+	public int[] getFeatures() {
+		int[] features = new int[numRows];
+		for (int i = 0; i < size_hash; i++)
+			if (row[i] != 0)
+				features[row[i] - 1] = i;
+		return features;
+	}
+
+	/**
+	 * Checks if a feature has factors.
+	 * 
+	 * @param key
+	 *            hashed index of the feature.
+	 * @return true if the feature was seen in training.
+	 */
+	public boolean hasFactors(int key) {
+		return key < size_hash && row[key] != 0;
+	}
+
+	/**
+	 * Returns a copy of the factors of a feature.
+	 * 
+	 * @param key
+	 *            hashed index of the feature.
+	 * @return the factors, all zero if the feature was never seen in training.
+	 */
+	public double[] getFactors(int key) {
+		double[] dst = new double[fmNumberFactors];
+		getFactors(key, dst, 0);
+		return dst;
+	}
+
+	/**
+	 * Copies the factors of a feature in an array.
+	 * 
+	 * @param key
+	 *            hashed index of the feature.
+	 * @param dst
+	 *            destination array.
+	 * @param offset
+	 *            position in dst of the first factor.
+	 */
+	public void getFactors(int key, double[] dst, int offset) {
+		int r = row[key];
+		if (r == 0) {
+			Arrays.fill(dst, offset, offset + fmNumberFactors, 0);
+			return;
+		}
+		int src = (r - 1) * 2 * fmNumberFactors;
+		for (int i = 0; i < fmNumberFactors; i++)
+			dst[offset + i] = factors[src + 2 * i];
+	}
+
 	public String toString() {
         String tmp = "Using Factorization Machines optimizer (adaptive and normalized)\n";
         tmp = tmp + "Initial learning rate = " + eta + "\n";
@@ -245,14 +322,47 @@ public class SGD_FM implements Learner {
 		this.eta = eta;
 	}
 
+	/**
+	 * Returns the weights of the linear part of the model, the factors are available from {@link #getFactors(int)}.
+	 * 
+	 * @return the linear weights.
+	 */
 	public SparseVector getWeights() {
-		// TODO Auto-generated method stub
-		return null;
+		return SparseVector.dense2Sparse(w);
 	}
 	
+	/*
+	 * The rows of the factors are written in the order they were allocated, each one preceded by the index of its
+	 * feature, so that the model is the same after loading.
+	 */
 	private void writeObject(ObjectOutputStream o) throws IOException {
         o.defaultWriteObject();
+        o.writeObject(SparseVector.dense2Sparse(w));
+        o.writeObject(SparseVector.dense2Sparse(s));
+        o.writeObject(SparseVector.dense2Sparse(gradientSquare_w));
+        o.writeInt(factors.length);
+        int[] features = getFeatures();
+        final int stride = 2 * fmNumberFactors;
+        for (int i = 0; i < numRows; i++) {
+            o.writeInt(features[i]);
+            for (int j = 0; j < stride; j++)
+                o.writeDouble(factors[i * stride + j]);
+        }
     }
     
+    private void readObject(ObjectInputStream o) throws IOException, ClassNotFoundException {
+        o.defaultReadObject();
+        w = ((SparseVector) o.readObject()).toDenseVector(size_hash);
+        s = ((SparseVector) o.readObject()).toDenseVector(size_hash);
+        gradientSquare_w = ((SparseVector) o.readObject()).toDenseVector(size_hash);
+        factors = new double[o.readInt()];
+        row = new int[size_hash];
+        final int stride = 2 * fmNumberFactors;
+        for (int i = 0; i < numRows; i++) {
+            row[o.readInt()] = i + 1;
+            for (int j = 0; j < stride; j++)
+                factors[i * stride + j] = o.readDouble();
+        }
+    }
 
 }
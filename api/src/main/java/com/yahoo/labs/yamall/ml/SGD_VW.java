@@ -7,11 +7,10 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 
+import com.yahoo.labs.yamall.core.FeatureCursor;
 import com.yahoo.labs.yamall.core.Instance;
 import com.yahoo.labs.yamall.core.SparseVector;
 
-import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
-
 /**
  * Stochastic Gradient Descent algorithm from VW.
  * <p>
@@ -56,10 +55,10 @@ public class SGD_VW implements Learner {
         iter++;
 
         double pred = 0;
-        for (Int2DoubleMap.Entry entry : sample.getVector().int2DoubleEntrySet()) {
+        for (FeatureCursor cursor = sample.features(); cursor.next();) {
             double x_i;
-            if ((x_i = entry.getDoubleValue()) != 0.0) {
-                int key = entry.getIntKey();
+            if ((x_i = cursor.value()) != 0.0) {
+                int key = cursor.key();
                 double s_i = s[key];
                 double w_i = w[key];
                 if (Math.abs(x_i) > s_i) {
@@ -82,10 +81,10 @@ public class SGD_VW implements Learner {
 
             final double a = eta * Math.sqrt(iter / N) * negativeGrad;
 
-            for (Int2DoubleMap.Entry entry : sample.getVector().int2DoubleEntrySet()) {
+            for (FeatureCursor cursor = sample.features(); cursor.next();) {
                 double x_i;
-                if ((x_i = entry.getDoubleValue()) != 0.0) {
-                    int key = entry.getIntKey();
+                if ((x_i = cursor.value()) != 0.0) {
+                    int key = cursor.key();
                     double G_i = G[key];
                     double s_i = s[key];
 
@@ -100,7 +99,7 @@ public class SGD_VW implements Learner {
     }
 
     public double predict(Instance sample) {
-        return sample.getVector().dot(w);
+        return sample.dot(w);
     }
 
     public Loss getLoss() {
@@ -111,6 +110,46 @@ public class SGD_VW implements Learner {
         return SparseVector.dense2Sparse(w);
     }
 
+    /**
+     * Adds the state of another learner multiplied by a constant.
+     * <p>
+     * The weights, the sums of the squared gradients and the counters are added, while the scales of the features are
+     * the largest of the two learners. Together with {@link #scale(double)}, it computes the weighted average of
+     * learners trained on different partitions of the data.
+     *
+     * @param other
+     *            learner with the same number of bits.
+     * @param scaling
+     *            constant multiplying the state of the other learner.
+     */
+    public void addScaled(SGD_VW other, double scaling) {
+        if (other.size_hash != size_hash)
+            throw new IllegalArgumentException("The learners must have the same number of bits");
+        for (int i = 0; i < size_hash; i++) {
+            w[i] += scaling * other.w[i];
+            G[i] += scaling * other.G[i];
+            s[i] = Math.max(s[i], other.s[i]);
+        }
+        N += scaling * other.N;
+        iter += scaling * other.iter;
+    }
+
+    /**
+     * Multiplies the state of the learner by a constant, except the scales of the features.
+     *
+     * @param scaling
+     *            the constant.
+     * @see #addScaled(SGD_VW, double)
+     */
+    public void scale(double scaling) {
+        for (int i = 0; i < size_hash; i++) {
+            w[i] *= scaling;
+            G[i] *= scaling;
+        }
+        N *= scaling;
+        iter *= scaling;
+    }
+
     public String toString() {
         String tmp = "Using VW optimizer (adaptive and normalized)\n";
         tmp = tmp + "Initial learning rate = " + eta + "\n";
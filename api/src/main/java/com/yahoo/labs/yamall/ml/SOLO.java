@@ -45,16 +45,16 @@ public class SOLO implements Learner {
         double pred = predict(sample);
 
         double negativeGrad = lossFnc.negativeGradient(pred, sample.getLabel(), sample.getWeight());
-        sample.getVector().addScaledSparseVectorToDenseVector(theta, negativeGrad);
+        sample.addScaledToDenseVector(theta, negativeGrad);
 
-        sumSqGrads += sample.getVector().squaredL2Norm() * negativeGrad * negativeGrad;
+        sumSqGrads += sample.squaredL2Norm() * negativeGrad * negativeGrad;
         scaling = eta / Math.sqrt(sumSqGrads);
 
         return pred;
     }
 
     public double predict(Instance sample) {
-        return sample.getVector().dot(theta) * scaling;
+        return sample.dot(theta) * scaling;
     }
 
     public Loss getLoss() {
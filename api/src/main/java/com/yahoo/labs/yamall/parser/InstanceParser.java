@@ -16,6 +16,8 @@ import com.yahoo.labs.yamall.core.Instance;
 public interface InstanceParser {
     /**
      * Parse a sample string and returns an instance.
+     * <p>
+     * The method can be called concurrently by many threads.
      * 
      * @param line
      *            sample string.
@@ -65,7 +65,7 @@ public class LIBSVMParser implements InstanceParser {
         Instance instance = new Instance();
 
         final FastStringTokenizer stringTokenizer = new FastStringTokenizer(line, ' ');
-        instance.setLabel(NumberParser.getDoubleNoSpecial(stringTokenizer.nextToken()));
+        instance.setLabel(NumberParser.getDoubleExact(stringTokenizer.nextToken()));
         //parsePrefix(instance, stringTokenizer.nextToken());
         String token;
         while ((token = stringTokenizer.nextToken()) != null) {
@@ -74,14 +74,16 @@ public class LIBSVMParser implements InstanceParser {
                 // a feature value is present
                 // final double featureValue = Double.parseDouble(token.substring(pos + 1));
                 // final double featureValue = NumberParser.getDoubleNoSpecial(token.substring(pos + 1));
-                final double featureValue = NumberParser.getDoubleNoSpecial(token, pos + 1, token.length());
+                final double featureValue = NumberParser.getDoubleExact(token, pos + 1, token.length());
                 // take the feature name
                 if (Math.abs(featureValue) > 1e-10) {
                     String s = new String(token.substring(0, pos));
                     int hashed = MurmurHash3.maskedHash(s, mask_hash);
                     instance.getVector().put(hashed, featureValue);
                     if (invertHashMap != null)
-                        invertHashMap.put(hashed, s);
+                        synchronized (invertHashMap) {
+                            invertHashMap.put(hashed, s);
+                        }
                 }
             }
             else {
@@ -89,7 +91,9 @@ public class LIBSVMParser implements InstanceParser {
                 int hashed = MurmurHash3.maskedHash(token, mask_hash);
                 instance.getVector().put(hashed, 1.0);
                 if (invertHashMap != null)
-                    invertHashMap.put(hashed, token);
+                    synchronized (invertHashMap) {
+                        invertHashMap.put(hashed, token);
+                    }
             }
         }
         
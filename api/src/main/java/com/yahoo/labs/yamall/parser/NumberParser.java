@@ -25,13 +25,22 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 // Some portions of this code are Copyright 2016, Yahoo Inc.
 /*
-* Added the getDoubleNoSpecial methods.
+* Added the getDoubleNoSpecial and getDoubleExact methods.
 */
 
 package com.yahoo.labs.yamall.parser;
 
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
 /**
  * Fast number parser.
+ * <p>
+ * The getDoubleExact methods return the double closest to the decimal number, as {@link Double#parseDouble(String)},
+ * using the algorithm of Eisel and Lemire: the first 19 significant digits are read in a long, which is multiplied
+ * by a 128-bit approximation of the power of 5 of the decimal exponent to get the 53 bits of the result and the bits
+ * needed to round them. Numbers with more than 19 significant digits are rounded in the same way if the result does
+ * not change incrementing the 19th digit, otherwise they are parsed by {@link Double#parseDouble(String)}.
  * 
  * @author Laurent Bourges, Francesco Orabona
  * @version 1.0
@@ -52,6 +61,43 @@ public final class NumberParser {
         }
     }
 
+    // Powers of ten represented exactly by doubles
+    private final static double[] EXACT_POWERS_OF_TEN = new double[23];
+
+    // 128-bit approximations of the powers of 5, normalized to have the highest bit set
+    private final static int SMALLEST_POWER_OF_TEN = -342;
+    private final static int LARGEST_POWER_OF_TEN = 308;
+    private final static long[] POWERS_OF_FIVE = new long[2 * (LARGEST_POWER_OF_TEN - SMALLEST_POWER_OF_TEN + 1)];
+
+    private final static long INFINITY_BITS = 0x7ff0000000000000L;
+
+    static {
+        EXACT_POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < EXACT_POWERS_OF_TEN.length; i++)
+            EXACT_POWERS_OF_TEN[i] = EXACT_POWERS_OF_TEN[i - 1] * 10;
+
+        BigInteger five = BigInteger.valueOf(5);
+        for (int q = SMALLEST_POWER_OF_TEN; q <= LARGEST_POWER_OF_TEN; q++) {
+            BigInteger power5 = five.pow(Math.abs(q));
+            BigInteger c;
+            if (q < 0) {
+                // rounded up reciprocal
+                int z = power5.bitLength();
+                int b = q >= -27 ? z + 127 : 2 * z + 128;
+                c = BigInteger.ONE.shiftLeft(b).divide(power5).add(BigInteger.ONE);
+                c = c.shiftRight(Math.max(c.bitLength() - 128, 0));
+            }
+            else if (power5.bitLength() < 128)
+                c = power5.shiftLeft(128 - power5.bitLength());
+            else
+                // truncated
+                c = power5.shiftRight(power5.bitLength() - 128);
+            int index = 2 * (q - SMALLEST_POWER_OF_TEN);
+            POWERS_OF_FIVE[index] = c.shiftRight(64).longValue();
+            POWERS_OF_FIVE[index + 1] = c.longValue();
+        }
+    }
+
     // Calculate the value of the specified exponent - reuse a precalculated value if possible
     private final static double getPow10(final int exp) {
         if (USE_POW_TABLE) {
@@ -537,6 +583,340 @@ public final class NumberParser {
         return (numSign) ? number : -number;
     }
 
+    public static double getDoubleExact(final CharSequence csq) throws NumberFormatException {
+        return getDoubleExact(csq, 0, csq.length());
+    }
+
+    /*
+     * Parse [+/-][DDDDD][.DDDDD][(e|E)[+/-]DDDDD], with at least one digit before the exponent, correctly rounded
+     */
+    public static double getDoubleExact(final CharSequence csq, final int offset, final int end)
+            throws NumberFormatException {
+
+        int off = offset;
+
+        if (off >= end) {
+            throw new NumberFormatException("Invalid Double : " + csq);
+        }
+
+        boolean numSign = true;
+
+        char ch = csq.charAt(off);
+        if (ch == '+') {
+            off++;
+        }
+        else if (ch == '-') {
+            numSign = false;
+            off++;
+        }
+
+        // unsigned, it overflows with more than 19 digits
+        long mantissa = 0;
+        int startOffset = off;
+
+        for (; (off < end) && ((ch = csq.charAt(off)) >= '0') && (ch <= '9'); off++) {
+            mantissa = 10 * mantissa + (ch - '0');
+        }
+        int intDigits = off - startOffset;
+        int fracDigits = 0;
+
+        // Check for fractional values after decimal
+        if ((off < end) && (csq.charAt(off) == '.')) {
+            off++;
+            int fracOffset = off;
+            for (; (off < end) && ((ch = csq.charAt(off)) >= '0') && (ch <= '9'); off++) {
+                mantissa = 10 * mantissa + (ch - '0');
+            }
+            fracDigits = off - fracOffset;
+        }
+
+        if (intDigits + fracDigits == 0) {
+            throw new NumberFormatException("Invalid Double : " + csq);
+        }
+
+        int mantissaEnd = off;
+        int exponent = 0;
+
+        // Look for an exponent
+        if ((off < end) && ((ch = csq.charAt(off)) == 'e' || ch == 'E')) {
+            off++;
+            boolean expSign = true;
+            if (off < end) {
+                ch = csq.charAt(off);
+                if (ch == '+') {
+                    off++;
+                }
+                else if (ch == '-') {
+                    expSign = false;
+                    off++;
+                }
+            }
+            for (; (off < end) && ((ch = csq.charAt(off)) >= '0') && (ch <= '9'); off++) {
+                // larger exponents give zero or infinity anyway
+                if (exponent < 100000) {
+                    exponent = 10 * exponent + (ch - '0');
+                }
+            }
+            if (!expSign) {
+                exponent = -exponent;
+            }
+        }
+
+        // check other characters:
+        if (off < end) {
+            throw new NumberFormatException("Invalid Double : " + csq);
+        }
+
+        int exponent10 = exponent - fracDigits;
+        boolean truncated = false;
+        if (intDigits + fracDigits > 19) {
+            // read again only the first 19 digits, skipping the leading zeros
+            mantissa = 0;
+            exponent10 = exponent + intDigits;
+            int digits = 0;
+            for (int i = startOffset; i < mantissaEnd; i++) {
+                if ((ch = csq.charAt(i)) != '.') {
+                    if (digits < 19) {
+                        mantissa = 10 * mantissa + (ch - '0');
+                        if (mantissa != 0) {
+                            digits++;
+                        }
+                        exponent10--;
+                    }
+                    else {
+                        truncated |= ch != '0';
+                    }
+                }
+            }
+        }
+
+        double number = toDouble(numSign, mantissa, exponent10, truncated);
+        if (number != number) {
+            // too many digits to decide the rounding
+            return Double.parseDouble(csq.subSequence(offset, mantissaEnd).toString() + "E" + exponent);
+        }
+        return number;
+    }
+
+    /*
+     * Parse the ASCII bytes [+/-][DDDDD][.DDDDD][(e|E)[+/-]DDDDD], with at least one digit before the exponent,
+     * correctly rounded
+     */
+    public static double getDoubleExact(final byte[] bytes, final int offset, final int end)
+            throws NumberFormatException {
+
+        int off = offset;
+
+        if (off >= end) {
+            throw new NumberFormatException("Invalid Double : " + toString(bytes, offset, end));
+        }
+
+        boolean numSign = true;
+
+        byte ch = bytes[off];
+        if (ch == '+') {
+            off++;
+        }
+        else if (ch == '-') {
+            numSign = false;
+            off++;
+        }
+
+        // unsigned, it overflows with more than 19 digits
+        long mantissa = 0;
+        int startOffset = off;
+
+        for (; (off < end) && ((ch = bytes[off]) >= '0') && (ch <= '9'); off++) {
+            mantissa = 10 * mantissa + (ch - '0');
+        }
+        int intDigits = off - startOffset;
+        int fracDigits = 0;
+
+        // Check for fractional values after decimal
+        if ((off < end) && (bytes[off] == '.')) {
+            off++;
+            int fracOffset = off;
+            for (; (off < end) && ((ch = bytes[off]) >= '0') && (ch <= '9'); off++) {
+                mantissa = 10 * mantissa + (ch - '0');
+            }
+            fracDigits = off - fracOffset;
+        }
+
+        if (intDigits + fracDigits == 0) {
+            throw new NumberFormatException("Invalid Double : " + toString(bytes, offset, end));
+        }
+
+        int mantissaEnd = off;
+        int exponent = 0;
+
+        // Look for an exponent
+        if ((off < end) && ((ch = bytes[off]) == 'e' || ch == 'E')) {
+            off++;
+            boolean expSign = true;
+            if (off < end) {
+                ch = bytes[off];
+                if (ch == '+') {
+                    off++;
+                }
+                else if (ch == '-') {
+                    expSign = false;
+                    off++;
+                }
+            }
+            for (; (off < end) && ((ch = bytes[off]) >= '0') && (ch <= '9'); off++) {
+                // larger exponents give zero or infinity anyway
+                if (exponent < 100000) {
+                    exponent = 10 * exponent + (ch - '0');
+                }
+            }
+            if (!expSign) {
+                exponent = -exponent;
+            }
+        }
+
+        // check other characters:
+        if (off < end) {
+            throw new NumberFormatException("Invalid Double : " + toString(bytes, offset, end));
+        }
+
+        int exponent10 = exponent - fracDigits;
+        boolean truncated = false;
+        if (intDigits + fracDigits > 19) {
+            // read again only the first 19 digits, skipping the leading zeros
+            mantissa = 0;
+            exponent10 = exponent + intDigits;
+            int digits = 0;
+            for (int i = startOffset; i < mantissaEnd; i++) {
+                if ((ch = bytes[i]) != '.') {
+                    if (digits < 19) {
+                        mantissa = 10 * mantissa + (ch - '0');
+                        if (mantissa != 0) {
+                            digits++;
+                        }
+                        exponent10--;
+                    }
+                    else {
+                        truncated |= ch != '0';
+                    }
+                }
+            }
+        }
+
+        double number = toDouble(numSign, mantissa, exponent10, truncated);
+        if (number != number) {
+            // too many digits to decide the rounding
+            return Double.parseDouble(toString(bytes, offset, mantissaEnd) + "E" + exponent);
+        }
+        return number;
+    }
+
+    private static String toString(final byte[] bytes, final int offset, final int end) {
+        return new String(bytes, offset, Math.max(end - offset, 0), StandardCharsets.ISO_8859_1);
+    }
+
+    /*
+     * Returns the double closest to mantissa*10^exponent10, with mantissa unsigned, or NaN if the mantissa is
+     * truncated and the rounding cannot be decided
+     */
+    private static double toDouble(final boolean numSign, final long mantissa, final int exponent10,
+            final boolean truncated) {
+        if ((exponent10 >= -22) && (exponent10 <= 22) && (mantissa >= 0) && (mantissa <= (1L << 53)) && !truncated) {
+            // both the mantissa and the power of ten are exact, so a single rounding
+            double number = mantissa;
+            if (exponent10 < 0) {
+                number /= EXACT_POWERS_OF_TEN[-exponent10];
+            }
+            else if (exponent10 > 0) {
+                number *= EXACT_POWERS_OF_TEN[exponent10];
+            }
+            return (numSign) ? number : -number;
+        }
+        return toDoubleSlow(numSign, mantissa, exponent10, truncated);
+    }
+
+    private static double toDoubleSlow(final boolean numSign, final long mantissa, final int exponent10,
+            final boolean truncated) {
+        long bits = eiselLemire(mantissa, exponent10);
+        if (truncated && (eiselLemire(mantissa + 1, exponent10) != bits)) {
+            return Double.NaN;
+        }
+        return Double.longBitsToDouble((numSign) ? bits : bits | Long.MIN_VALUE);
+    }
+
+    /*
+     * Returns the bits of the double closest to w*10^q, with w unsigned
+     */
+    private static long eiselLemire(long w, final int q) {
+        if ((w == 0) || (q < SMALLEST_POWER_OF_TEN)) {
+            return 0;
+        }
+        if (q > LARGEST_POWER_OF_TEN) {
+            return INFINITY_BITS;
+        }
+
+        int lz = Long.numberOfLeadingZeros(w);
+        w <<= lz;
+
+        // 128 bits of w*5^q, the second half of the power is needed only if the low bits of the product are all ones
+        int index = 2 * (q - SMALLEST_POWER_OF_TEN);
+        long high = unsignedMultiplyHigh(w, POWERS_OF_FIVE[index]);
+        long low = w * POWERS_OF_FIVE[index];
+        if ((high & 0x1ff) == 0x1ff) {
+            long secondHigh = unsignedMultiplyHigh(w, POWERS_OF_FIVE[index + 1]);
+            low += secondHigh;
+            if ((secondHigh ^ Long.MIN_VALUE) > (low ^ Long.MIN_VALUE)) {
+                high++;
+            }
+        }
+
+        int upperBit = (int) (high >>> 63);
+        int shift = upperBit + 9;
+        long mantissa = high >>> shift;
+        // floor(log2(10^q)) + 63, plus the bias of the exponent
+        int power2 = (((152170 + 65536) * q) >> 16) + 63 + upperBit - lz + 1023;
+
+        if (power2 <= 0) {
+            // subnormal
+            if (-power2 + 1 >= 64) {
+                return 0;
+            }
+            mantissa >>>= -power2 + 1;
+            mantissa += mantissa & 1;
+            mantissa >>>= 1;
+            // the rounding can give the smallest normal number
+            power2 = (mantissa < (1L << 52)) ? 0 : 1;
+            return ((long) power2 << 52) | (mantissa & ((1L << 52) - 1));
+        }
+
+        // exactly halfway between two doubles: round to even
+        if (((low == 0) || (low == 1)) && (q >= -4) && (q <= 23) && ((mantissa & 3) == 1)
+                && ((mantissa << shift) == high)) {
+            mantissa &= ~1L;
+        }
+        mantissa += mantissa & 1;
+        mantissa >>>= 1;
+        if (mantissa >= (2L << 52)) {
+            mantissa = 1L << 52;
+            power2++;
+        }
+        if (power2 >= 0x7ff) {
+            return INFINITY_BITS;
+        }
+        return ((long) power2 << 52) | (mantissa & ((1L << 52) - 1));
+    }
+
+    // Highest 64 bits of the unsigned 128-bit product
+    private static long unsignedMultiplyHigh(final long a, final long b) {
+        long aLow = a & 0xffffffffL;
+        long aHigh = a >>> 32;
+        long bLow = b & 0xffffffffL;
+        long bHigh = b >>> 32;
+        long lowLow = aLow * bLow;
+        long highLow = aHigh * bLow;
+        long cross = (lowLow >>> 32) + (highLow & 0xffffffffL) + aLow * bHigh;
+        return aHigh * bHigh + (highLow >>> 32) + (cross >>> 32);
+    }
+
     public static int indexOf(final CharSequence csq, final char c, final int off, final int end) {
         for (int i = off; i < end; i++) {
             if (csq.charAt(i) == c) {
@@ -7,20 +7,22 @@ import java.util.ArrayList;
 import java.util.HashMap;
 
 import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.util.HashDiagnostics;
 import com.yahoo.labs.yamall.util.MurmurHash3;
 
 import it.unimi.dsi.fastutil.chars.Char2BooleanOpenHashMap;
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
-import it.unimi.dsi.fastutil.doubles.DoubleIterator;
-import it.unimi.dsi.fastutil.ints.IntArrayList;
 
 /**
  * Parser of Tab Separated Values Format strings.
  * <p>
  * Two consecutive tabs are interpreted as a missing value.
+ * <p>
+ * The specifications are compiled once in an array of column handlers, one for each column, with the hashes of the
+ * features, or of their common prefixes, already computed.
  *
  * @author Francesco Orabona
- * @version 1.1
+ * @version 1.2
  */
 public class TSVParser implements InstanceParser {
 
@@ -28,11 +30,10 @@ public class TSVParser implements InstanceParser {
     private int bits;
     private int mask_hash;
     private HashMap<Integer, String> invertHashMap = null;
-    private ArrayList<String> feature = null;
-    private IntArrayList type = null;
-    private ArrayList<String> namespace = null;
-    private ArrayList<DoubleArrayList> bins = null;
+    // handler of each column, null for the ignored ones
+    private Column[] columns = null;
     private Char2BooleanOpenHashMap ignoreNamespaceHashMap = null;
+    private HashDiagnostics hashDiagnostics = null;
 
     /**
      * TSV Parser.
@@ -86,35 +87,61 @@ public class TSVParser implements InstanceParser {
     }
 
     private void parseSpecifications(String spec) {
-        feature = new ArrayList<String>();
-        type = new IntArrayList();
-        namespace = new ArrayList<String>();
-        bins = new ArrayList<DoubleArrayList>();
-
         final FastStringTokenizer stringTokenizer = new FastStringTokenizer(spec, '\n');
 
+        ArrayList<Column> list = new ArrayList<Column>();
         String token;
         while ((token = stringTokenizer.nextToken()) != null) {
             final FastStringTokenizer stringTokenizer2 = new FastStringTokenizer(token, ',');
-            feature.add(stringTokenizer2.nextToken());
-            type.add(NumberParser.getInteger(stringTokenizer2.nextToken()));
+            String feature = stringTokenizer2.nextToken();
+            int type = NumberParser.getInteger(stringTokenizer2.nextToken());
             String nt = stringTokenizer2.nextToken();
             if (nt == null)
                 nt = new String("");
             else if (!nt.equals("label") && !nt.equals("weight") && !nt.equals("tag") && ignoreNamespaceHashMap != null)
                 if (ignoreNamespaceHashMap.get(nt.charAt(0)))
                     nt = "ignore";
-            namespace.add(nt);
-            DoubleArrayList tmp = null;
+            String namespace = nt;
+            DoubleArrayList bins = null;
             nt = stringTokenizer2.nextToken();
             if (nt != null) {
-                tmp = new DoubleArrayList();
+                bins = new DoubleArrayList();
                 do {
-                    tmp.add(NumberParser.getDoubleNoSpecial(nt));
+                    bins.add(NumberParser.getDoubleExact(nt));
                 }
                 while ((nt = stringTokenizer2.nextToken()) != null);
             }
-            bins.add(tmp);
+            list.add(compileColumn(feature, type, namespace, bins));
+        }
+        columns = list.toArray(new Column[list.size()]);
+    }
+
+    private Column compileColumn(String feature, int type, String namespace, DoubleArrayList bins) {
+        if (namespace.equals("ignore"))
+            return null;
+        if (namespace.equals("label"))
+            return new LabelColumn();
+        if (namespace.equals("weight"))
+            return new WeightColumn();
+        if (namespace.equals("tag"))
+            return new TagColumn();
+        switch (type) {
+            // categorical
+            case 0:
+                return new TokenColumn(namespace, namespace + " " + feature + "_", false);
+            // numerical
+            case 1:
+                if (bins != null)
+                    return new BinnedColumn(namespace, namespace + " " + feature + "_", bins.toDoubleArray());
+                return new NumericalColumn(namespace, namespace + " " + feature);
+            // numerical, never binning
+            case 2:
+                return new NumericalColumn(namespace, namespace + " " + feature);
+            // string tokens
+            case 3:
+                return new TokenColumn(namespace, namespace + " " + feature + "_", true);
+            default:
+                return null;
         }
     }
 
@@ -123,90 +150,13 @@ public class TSVParser implements InstanceParser {
 
         final FastStringTokenizer stringTokenizer = new FastStringTokenizer(line, '\t');
 
+        final Column[] columns = this.columns;
         int pos = 0;
         String token;
         while ((token = stringTokenizer.nextToken()) != null) {
-            if (!token.equals("") && !namespace.get(pos).equals("ignore")) {
-                if (namespace.get(pos).equals("label")) {
-                    final double val = NumberParser.getDoubleNoSpecial(token);
-                    instance.setLabel(val);
-                }
-                else if (namespace.get(pos).equals("weight")) {
-                    final double val = NumberParser.getDoubleNoSpecial(token);
-                    instance.setWeight(val);
-                }
-                else if (namespace.get(pos).equals("tag")) {
-                    instance.setTag(token);
-                }
-                else {
-                    switch (type.getInt(pos)) {
-                        // categorical
-                        case 0: {
-                            String s = namespace.get(pos) + " " + feature.get(pos) + "_" + token;
-                            int hashed = MurmurHash3.maskedHash(s, mask_hash);
-                            instance.getVector().put(hashed, 1.0);
-                            if (invertHashMap != null)
-                                invertHashMap.put(hashed, s);
-                            break;
-                        }
-
-                        // numerical
-                        case 1: {
-                            if (bins.get(pos) == null) {
-                                String s = namespace.get(pos) + " " + feature.get(pos);
-                                int hashed = MurmurHash3.maskedHash(s, mask_hash);
-                                double val = NumberParser.getDoubleNoSpecial(token);
-                                if (Math.abs(val) > 1e-10) {
-                                    instance.getVector().put(hashed, val);
-                                    if (invertHashMap != null)
-                                        invertHashMap.put(hashed, s);
-                                }
-                            }
-                            else {
-                                double val = NumberParser.getDoubleNoSpecial(token);
-                                DoubleArrayList bin_borders = bins.get(pos);
-                                DoubleIterator iter = bin_borders.iterator();
-                                int i = -1;
-                                while (iter.hasNext() && iter.nextDouble() <= val)
-                                    i++;
-                                String s = namespace.get(pos) + " " + feature.get(pos) + "_" + Integer.toString(i);
-                                int hashed = MurmurHash3.maskedHash(s, mask_hash);
-                                instance.getVector().put(hashed, 1.0);
-                                if (invertHashMap != null)
-                                    invertHashMap.put(hashed, s);
-                            }
-                            break;
-                        }
-
-                        // numerical, never binning
-                        case 2: {
-                            String s = namespace.get(pos) + " " + feature.get(pos);
-                            int hashed = MurmurHash3.maskedHash(s, mask_hash);
-                            double val = NumberParser.getDoubleNoSpecial(token);
-                            if (Math.abs(val) > 1e-10) {
-                                instance.getVector().put(hashed, val);
-                                if (invertHashMap != null)
-                                    invertHashMap.put(hashed, s);
-                            }
-                            break;
-                        }
-
-                        // string tokens
-                        case 3: {
-                            final FastStringTokenizer stringTokenizer2 = new FastStringTokenizer(token, ' ');
-                            String token2;
-                            while ((token2 = stringTokenizer2.nextToken()) != null) {
-                                String s = namespace.get(pos) + " " + feature.get(pos) + "_" + token2;
-                                int hashed = MurmurHash3.maskedHash(s, mask_hash);
-                                instance.getVector().put(hashed, 1);
-                                if (invertHashMap != null)
-                                    invertHashMap.put(hashed, s);
-                            }
-                            break;
-                        }
-                    }
-                }
-            }
+            final Column column = columns[pos];
+            if (column != null && token.length() > 0)
+                column.parse(instance, token);
             pos++;
         }
 
@@ -220,7 +170,167 @@ public class TSVParser implements InstanceParser {
         return invertHashMap;
     }
 
+    /**
+     * Records the hashes of the parsed features.
+     *
+     * @param hashDiagnostics
+     *            diagnostics of the occupancy and the collisions of the hashed space, null to disable them.
+     */
+    public void setHashDiagnostics(HashDiagnostics hashDiagnostics) {
+        this.hashDiagnostics = hashDiagnostics;
+    }
+
     public String toString() {
         return "TSV parser";
     }
+
+    private abstract class Column {
+        abstract void parse(Instance instance, String token);
+    }
+
+    private class LabelColumn extends Column {
+        void parse(Instance instance, String token) {
+            instance.setLabel(NumberParser.getDoubleExact(token));
+        }
+    }
+
+    private class WeightColumn extends Column {
+        void parse(Instance instance, String token) {
+            instance.setWeight(NumberParser.getDoubleExact(token));
+        }
+    }
+
+    private class TagColumn extends Column {
+        void parse(Instance instance, String token) {
+            instance.setTag(token);
+        }
+    }
+
+    /*
+     * Numerical feature: the name, hence the hash, is the same for every row.
+     */
+    private class NumericalColumn extends Column {
+        private final String namespace;
+        private final String name;
+        private final int fullHash;
+        private final int hashed;
+
+        NumericalColumn(
+                String namespace, String name) {
+            this.namespace = namespace;
+            this.name = name;
+            fullHash = MurmurHash3.murmurhash3_x86_32(name, 0, name.length(), 0);
+            hashed = fullHash & mask_hash;
+        }
+
+        void parse(Instance instance, String token) {
+            double val = NumberParser.getDoubleExact(token);
+            if (Math.abs(val) > 1e-10) {
+                instance.getVector().put(hashed, val);
+                if (hashDiagnostics != null)
+                    hashDiagnostics.add(namespace, fullHash);
+                if (invertHashMap != null)
+                    synchronized (invertHashMap) {
+                        invertHashMap.put(hashed, name);
+                    }
+            }
+        }
+    }
+
+    /*
+     * Numerical feature with binning: the hash of each bin is computed once.
+     */
+    private class BinnedColumn extends Column {
+        private final String namespace;
+        private final double[] borders;
+        private final String[] names;
+        private final int[] fullHash;
+        private final int[] hashed;
+
+        BinnedColumn(
+                String namespace, String prefix, double[] borders) {
+            this.namespace = namespace;
+            this.borders = borders;
+            names = new String[borders.length + 1];
+            fullHash = new int[borders.length + 1];
+            hashed = new int[borders.length + 1];
+            for (int i = 0; i <= borders.length; i++) {
+                names[i] = prefix + Integer.toString(i - 1);
+                fullHash[i] = MurmurHash3.murmurhash3_x86_32(names[i], 0, names[i].length(), 0);
+                hashed[i] = fullHash[i] & mask_hash;
+            }
+        }
+
+        /*
+         * Number of leading borders smaller or equal than val, the borders are increasing.
+         */
+        private int bin(double val) {
+            int lo = 0;
+            int hi = borders.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (borders[mid] <= val)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+
+        void parse(Instance instance, String token) {
+            int i = bin(NumberParser.getDoubleExact(token));
+            instance.getVector().put(hashed[i], 1.0);
+            if (hashDiagnostics != null)
+                hashDiagnostics.add(namespace, fullHash[i]);
+            if (invertHashMap != null)
+                synchronized (invertHashMap) {
+                    invertHashMap.put(hashed[i], names[i]);
+                }
+        }
+    }
+
+    /*
+     * Categorical feature or string tokens: the hash of the common prefix is computed once.
+     */
+    private class TokenColumn extends Column {
+        private final String namespace;
+        private final String prefix;
+        private final int[] prefixState;
+        private final boolean split;
+
+        TokenColumn(
+                String namespace, String prefix, boolean split) {
+            this.namespace = namespace;
+            this.prefix = prefix;
+            this.split = split;
+            prefixState = MurmurHash3.prefixState(prefix, 0, prefix.length(), 0);
+        }
+
+        private void put(Instance instance, String token) {
+            int hashed;
+            if (hashDiagnostics != null) {
+                int fullHash = MurmurHash3.murmurhash3_x86_32(prefixState, token, 0, token.length());
+                hashDiagnostics.add(namespace, fullHash);
+                hashed = fullHash & mask_hash;
+            }
+            else
+                hashed = MurmurHash3.maskedHash(prefixState, token, mask_hash);
+            instance.getVector().put(hashed, 1.0);
+            if (invertHashMap != null)
+                synchronized (invertHashMap) {
+                    invertHashMap.put(hashed, prefix + token);
+                }
+        }
+
+        void parse(Instance instance, String token) {
+            if (!split) {
+                put(instance, token);
+                return;
+            }
+            final FastStringTokenizer stringTokenizer = new FastStringTokenizer(token, ' ');
+            String token2;
+            while ((token2 = stringTokenizer.nextToken()) != null)
+                put(instance, token2);
+        }
+    }
 }
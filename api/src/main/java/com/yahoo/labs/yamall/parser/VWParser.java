@@ -6,6 +6,9 @@ package com.yahoo.labs.yamall.parser;
 import java.util.HashMap;
 
 import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.core.Interactions;
+import com.yahoo.labs.yamall.core.SparseVector;
+import com.yahoo.labs.yamall.util.HashDiagnostics;
 import com.yahoo.labs.yamall.util.MurmurHash3;
 
 import it.unimi.dsi.fastutil.chars.Char2BooleanOpenHashMap;
@@ -24,6 +27,8 @@ import it.unimi.dsi.fastutil.chars.Char2BooleanOpenHashMap;
  *
  * <ol>
  * <li>Label and Importance are floating point numbers. If Importance is missing, it is treated as 1.0.</li>
+ * <li>A cost-sensitive Label is a list of Class:Cost, where Class is an integer and Cost a floating point number, e.g.
+ * <tt>1:0.5 3:1</tt>. The label of the instance is the class with the smallest cost.</li>
  * <li>Namespace = String[:Value]</li>
  * <li>Features = (String[:Value] )*</li>
  * <li>Tag = optional String</li>
@@ -33,8 +38,13 @@ import it.unimi.dsi.fastutil.chars.Char2BooleanOpenHashMap;
  * Value is a floating point number. If Value is omitted, it is treated as 1.0.
  * </p>
  *
+ * <p>
+ * If interactions between namespaces are specified, the parser records the namespaces of each instance, so that the
+ * crossed features are generated by the learners on the fly.
+ * </p>
+ *
  * @author Francesco Orabona
- * @version 1.0
+ * @version 1.1
  */
 public class VWParser implements InstanceParser {
 
@@ -43,6 +53,8 @@ public class VWParser implements InstanceParser {
     private int mask_hash;
     private HashMap<Integer, String> invertHashMap = null;
     private Char2BooleanOpenHashMap ignoreNamespaceHashMap = null;
+    private Interactions interactions = null;
+    private HashDiagnostics hashDiagnostics = null;
 
     /**
      * VW Parser.
@@ -56,6 +68,25 @@ public class VWParser implements InstanceParser {
      */
     public VWParser(
             int bits, String ignoreNamespaces, boolean invertHash) {
+        this(bits, ignoreNamespaces, invertHash, null);
+    }
+
+    /**
+     * VW Parser with interactions between namespaces.
+     * 
+     * @param bits
+     *            number of bits to use in the hashing, between 1 and 31.
+     * @param ignoreNamespaces
+     *            namespaces to ignore. If null, nothing will be ignored.
+     * @param invertHash
+     *            if set to True, it saves a map to invert the hashing function.
+     * @param interactions
+     *            first characters of the namespaces to cross, e.g. "ab" for quadratic and "abc" for cubic
+     *            interactions. If null, no interaction is generated.
+     * @see Interactions
+     */
+    public VWParser(
+            int bits, String ignoreNamespaces, boolean invertHash, String[] interactions) {
         if (bits > 31)
             bits = 31;
         else if (bits < 1)
@@ -72,10 +103,13 @@ public class VWParser implements InstanceParser {
                 ignoreNamespaceHashMap.put(ch, true);
             }
         }
+        if (interactions != null && interactions.length > 0)
+            this.interactions = new Interactions(interactions, this.bits);
     }
 
     public Instance parse(String line) {
         Instance instance = new Instance();
+        instance.setInteractions(interactions);
 
         final FastStringTokenizer stringTokenizer = new FastStringTokenizer(line, '|');
         parsePrefix(instance, stringTokenizer.nextToken());
@@ -93,6 +127,24 @@ public class VWParser implements InstanceParser {
         return invertHashMap;
     }
 
+    /**
+     * Records the hashes of the parsed features.
+     *
+     * @param hashDiagnostics
+     *            diagnostics of the occupancy and the collisions of the hashed space, null to disable them.
+     */
+    public void setHashDiagnostics(HashDiagnostics hashDiagnostics) {
+        this.hashDiagnostics = hashDiagnostics;
+    }
+
+    private int hash(String namespaceName, String s) {
+        if (hashDiagnostics == null)
+            return MurmurHash3.maskedHash(s, mask_hash);
+        int fullHash = MurmurHash3.murmurhash3_x86_32(s, 0, s.length(), 0);
+        hashDiagnostics.add(namespaceName, fullHash);
+        return fullHash & mask_hash;
+    }
+
     private void parsePrefix(Instance instance, String subLine) {
         final FastStringTokenizer tokenizer = new FastStringTokenizer(subLine, ' ');
 
@@ -102,11 +154,44 @@ public class VWParser implements InstanceParser {
             tokenizer.nextToken(); // skip the first space
         }
         else {
+            String label = tokenizer.nextToken();
+            if (label.indexOf(':') > 0) {
+                // cost-sensitive label, the following tokens can be other costs
+                parseImportanceAndTag(instance, subLine, parseCosts(instance, label, tokenizer), tokenizer);
+                return;
+            }
             // instance.label = Double.parseDouble(tokenizer.nextToken());
-            instance.setLabel(NumberParser.getDoubleNoSpecial(tokenizer.nextToken()));
+            instance.setLabel(NumberParser.getDoubleExact(label));
+        }
+        parseImportanceAndTag(instance, subLine, tokenizer.nextToken(), tokenizer);
+    }
+
+    /*
+     * Parses the costs class:cost starting from the given token and returns the first token after them. The label of
+     * the instance is the class with the smallest cost.
+     */
+    private String parseCosts(Instance instance, String token, FastStringTokenizer tokenizer) {
+        SparseVector costs = new SparseVector();
+        int best = 0;
+        double bestCost = Double.POSITIVE_INFINITY;
+        int pos;
+        while (token != null && (pos = token.indexOf(':')) > 0 && Character.isDigit(token.charAt(0))) {
+            int label = (int) NumberParser.getDoubleExact(token, 0, pos);
+            double cost = NumberParser.getDoubleExact(token, pos + 1, token.length());
+            costs.put(label, cost);
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = label;
+            }
+            token = tokenizer.nextToken();
         }
+        instance.setCosts(costs);
+        instance.setLabel(best);
+        return token;
+    }
 
-        String token = tokenizer.nextToken();
+    private void parseImportanceAndTag(Instance instance, String subLine, String token,
+            FastStringTokenizer tokenizer) {
         // this token could be either an importance or a tag.
         if (token == null) {
             // end of suffix: stop
@@ -119,7 +204,7 @@ public class VWParser implements InstanceParser {
             }
             else {
                 // instance.weight = Double.parseDouble(token);
-                instance.setWeight(NumberParser.getDoubleNoSpecial(token));
+                instance.setWeight(NumberParser.getDoubleExact(token));
                 // parse tag
                 if (nextToken != null) {
                     instance.setTag(nextToken);
@@ -144,7 +229,7 @@ public class VWParser implements InstanceParser {
                 // a namespace value is present
                 // namespaceValue = Double.parseDouble(token.substring(pos + 1));
                 // namespaceValue = NumberParser.getDoubleNoSpecial(token.substring(pos + 1));
-                namespaceValue = NumberParser.getDoubleNoSpecial(token, pos + 1, token.length());
+                namespaceValue = NumberParser.getDoubleExact(token, pos + 1, token.length());
                 // take the namespace name
                 namespaceName = token.substring(0, pos);
             }
@@ -164,25 +249,36 @@ public class VWParser implements InstanceParser {
                 // a feature value is present
                 // final double featureValue = Double.parseDouble(token.substring(pos + 1));
                 // final double featureValue = NumberParser.getDoubleNoSpecial(token.substring(pos + 1));
-                final double featureValue = NumberParser.getDoubleNoSpecial(token, pos + 1, token.length());
+                final double featureValue = NumberParser.getDoubleExact(token, pos + 1, token.length());
                 // take the feature name
                 if (Math.abs(featureValue) > 1e-10) {
                     String s = new String(namespaceName + " " + token.substring(0, pos));
-                    int hashed = MurmurHash3.maskedHash(s, mask_hash);
+                    int hashed = hash(namespaceName, s);
                     instance.getVector().put(hashed, namespaceValue * featureValue);
+                    if (interactions != null)
+                        instance.addNamespaceFeature(hashed, namespaceValue * featureValue);
                     if (invertHashMap != null)
-                        invertHashMap.put(hashed, s);
+                        synchronized (invertHashMap) {
+                            invertHashMap.put(hashed, s);
+                        }
                 }
             }
             else {
                 // no feature value present, hence it is 1
                 String s = new String(namespaceName + " " + token);
-                int hashed = MurmurHash3.maskedHash(s, mask_hash);
+                int hashed = hash(namespaceName, s);
                 instance.getVector().put(hashed, namespaceValue);
+                if (interactions != null)
+                    instance.addNamespaceFeature(hashed, namespaceValue);
                 if (invertHashMap != null)
-                    invertHashMap.put(hashed, s);
+                    synchronized (invertHashMap) {
+                        invertHashMap.put(hashed, s);
+                    }
             }
         }
+
+        if (interactions != null)
+            instance.addNamespace(namespaceName.length() > 0 ? namespaceName.charAt(0) : ' ');
     }
     
     public String toString() {
@@ -0,0 +1,114 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.util;
+
+import java.io.Serializable;
+
+/**
+ * Count-min sketch of the occurrences of integer keys.
+ * <p>
+ * The counters are bytes saturating at 255, organized in rows of 2^bits counters, each row indexed by a different
+ * hash of the key. The estimated count of a key is the minimum of its counters, so it is never smaller than the true
+ * count (up to the saturation). The counters are incremented with the conservative update: only the ones equal to the
+ * minimum are incremented, which reduces the overestimation due to the collisions.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+@SuppressWarnings("serial")
+public class CountMinSketch implements Serializable {
+
+    /**
+     * Largest count that can be represented.
+     */
+    public static final int MAX_COUNT = 255;
+
+    private static final int[] SEEDS = { 0x9e3779b9, 0x7f4a7c15, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f, 0x165667b1,
+            0xd3a2646c, 0xfd7046c5 };
+
+    private final byte[] counters;
+    private final int depth;
+    private final int bits;
+    private final int mask;
+
+    /**
+     * Sketch with depth rows of 2^bits counters.
+     *
+     * @param depth
+     *            number of rows, from 1 to 8.
+     * @param bits
+     *            logarithm in base 2 of the number of counters of each row.
+     */
+    public CountMinSketch(
+            int depth, int bits) {
+        if (depth < 1 || depth > SEEDS.length)
+            throw new IllegalArgumentException("The depth must be between 1 and " + SEEDS.length);
+        if (bits < 1 || bits > 27)
+            throw new IllegalArgumentException("The number of bits must be between 1 and 27");
+        this.depth = depth;
+        this.bits = bits;
+        this.mask = (1 << bits) - 1;
+        counters = new byte[depth << bits];
+    }
+
+    /**
+     * Copy of another sketch, with the same counts.
+     *
+     * @param other
+     *            sketch to copy.
+     */
+    public CountMinSketch(
+            CountMinSketch other) {
+        this.depth = other.depth;
+        this.bits = other.bits;
+        this.mask = other.mask;
+        counters = other.counters.clone();
+    }
+
+    private int slot(int row, int key) {
+        return (row << bits) | (MurmurHash3.fmix32(key ^ SEEDS[row]) & mask);
+    }
+
+    /**
+     * Returns the estimated count of a key.
+     *
+     * @param key
+     *            the key.
+     * @return the estimated count, at most {@link #MAX_COUNT}.
+     */
+    public int estimate(int key) {
+        int min = MAX_COUNT;
+        for (int r = 0; r < depth; r++)
+            min = Math.min(min, counters[slot(r, key)] & 0xff);
+        return min;
+    }
+
+    /**
+     * Adds one occurrence of a key.
+     * <p>
+     * Not thread-safe.
+     *
+     * @param key
+     *            the key.
+     * @return the estimated count of the key after the update.
+     */
+    public int add(int key) {
+        int min = estimate(key);
+        if (min == MAX_COUNT)
+            return MAX_COUNT;
+        for (int r = 0; r < depth; r++) {
+            int s = slot(r, key);
+            if ((counters[s] & 0xff) == min)
+                counters[s] = (byte) (min + 1);
+        }
+        return min + 1;
+    }
+
+    /**
+     * @return the memory used by the counters, in bytes.
+     */
+    public long bytes() {
+        return counters.length;
+    }
+}
@@ -0,0 +1,101 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Formatter of doubles with 6 decimal digits, writing ASCII bytes directly into a buffer.
+ * <p>
+ * The output is identical to <tt>String.format("%.6f", value)</tt>, without creating any object. The value is scaled
+ * by 10^6 and rounded half up; when the scaled value is too close to a tie to be rounded correctly in floating point,
+ * or the value is too large, not finite, or the default locale does not use ASCII digits, it falls back to
+ * <tt>String.format</tt>.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class DoubleFormatter {
+
+    /**
+     * Maximum number of bytes written by {@link #format6(double, byte[], int)} for values smaller than 10^9 in absolute
+     * value.
+     */
+    public static final int MAX_FAST_LENGTH = 18;
+
+    private static final double MAX_FAST = 1e9;
+    private static final boolean ASCII_LOCALE = String.format("%.6f", -1234567.5).equals("-1234567.500000");
+
+    /**
+     * Writes the value with 6 decimal digits.
+     *
+     * @param value
+     *            value to write.
+     * @param buffer
+     *            destination buffer, it must have at least {@link #MAX_FAST_LENGTH} bytes available, or the length of
+     *            <tt>String.format("%.6f", value)</tt> for larger values.
+     * @param pos
+     *            position in the buffer where to start writing.
+     * @return the position after the last byte written.
+     */
+    public static int format6(double value, byte[] buffer, int pos) {
+        double abs = Math.abs(value);
+        if (!(abs < MAX_FAST) || !ASCII_LOCALE)
+            return slowFormat6(value, buffer, pos);
+        double scaled = abs * 1e6;
+        double floor = Math.floor(scaled);
+        double frac = scaled - floor;
+        // the rounding of the product can move the scaled value across a tie
+        if (Math.abs(frac - 0.5) <= 4 * Math.ulp(scaled))
+            return slowFormat6(value, buffer, pos);
+        long digits = (long) floor + (frac > 0.5 ? 1 : 0);
+
+        // the sign is kept also when the value rounds to zero, as String.format does
+        if (Double.doubleToRawLongBits(value) < 0)
+            buffer[pos++] = '-';
+        long integer = digits / 1000000;
+        int decimals = (int) (digits - integer * 1000000);
+        pos = writeLong(integer, buffer, pos);
+        buffer[pos++] = '.';
+        for (int i = pos + 5; i >= pos; i--) {
+            buffer[i] = (byte) ('0' + decimals % 10);
+            decimals /= 10;
+        }
+        return pos + 6;
+    }
+
+    private static int writeLong(long value, byte[] buffer, int pos) {
+        if (value == 0) {
+            buffer[pos++] = '0';
+            return pos;
+        }
+        int length = 0;
+        for (long v = value; v > 0; v /= 10)
+            length++;
+        for (int i = pos + length - 1; i >= pos; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + length;
+    }
+
+    private static int slowFormat6(double value, byte[] buffer, int pos) {
+        byte[] bytes = String.format("%.6f", value).getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, buffer, pos, bytes.length);
+        return pos + bytes.length;
+    }
+
+    /**
+     * Returns the number of bytes needed to write the value.
+     *
+     * @param value
+     *            value to write.
+     * @return an upper bound to the number of bytes written by {@link #format6(double, byte[], int)}.
+     */
+    public static int maxLength(double value) {
+        if (Math.abs(value) < MAX_FAST && ASCII_LOCALE)
+            return MAX_FAST_LENGTH;
+        return String.format("%.6f", value).getBytes(StandardCharsets.UTF_8).length;
+    }
+}
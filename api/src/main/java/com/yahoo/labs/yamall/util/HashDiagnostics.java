@@ -0,0 +1,157 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Occupancy and collisions of the hashed feature space.
+ * <p>
+ * The parsers report the 32-bit hash of each feature name, before masking it to the number of bits of the model. The
+ * hash of the first name seen in each slot is kept, and a name with a different hash arriving in an occupied slot is a
+ * collision. The distinct names, and the ones that collided, are counted with {@link HyperLogLog} estimators for each
+ * namespace, so that no name is stored.
+ * <p>
+ * The collision rate is the fraction of the distinct names that share their slot with a name seen before them. Since
+ * the hash is uniform, the occupancy and the collision rate at other bit sizes are projected from the number of
+ * distinct names: with n names in m slots, the expected number of occupied slots is m(1-exp(-n/m)).
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class HashDiagnostics {
+
+    /**
+     * Largest number of bits supported.
+     */
+    public static final int MAX_BITS = 26;
+
+    private final int bits;
+    private final int mask;
+    private final long[] occupied;
+    private final int[] owner;
+    private long numOccupied = 0;
+    private final TreeMap<String, HyperLogLog[]> namespaces = new TreeMap<String, HyperLogLog[]>();
+    private final HyperLogLog collided = new HyperLogLog();
+
+    /**
+     * Diagnostics of a hashed space.
+     *
+     * @param bits
+     *            number of bits of the hashing, at most {@link #MAX_BITS}.
+     */
+    public HashDiagnostics(
+            int bits) {
+        if (bits < 1 || bits > MAX_BITS)
+            throw new IllegalArgumentException("The hash diagnostics support between 1 and " + MAX_BITS + " bits");
+        this.bits = bits;
+        mask = (1 << bits) - 1;
+        occupied = new long[((1 << bits) + 63) >>> 6];
+        owner = new int[1 << bits];
+        // the constant feature of every example
+        occupied[0] = 1;
+        numOccupied = 1;
+    }
+
+    /**
+     * Records a feature name.
+     * <p>
+     * It can be called concurrently by many threads.
+     *
+     * @param namespace
+     *            namespace of the feature.
+     * @param hash
+     *            32-bit hash of the name of the feature, before the mask.
+     */
+    public synchronized void add(String namespace, int hash) {
+        HyperLogLog[] counters = namespaces.get(namespace);
+        if (counters == null) {
+            counters = new HyperLogLog[] { new HyperLogLog(), new HyperLogLog() };
+            namespaces.put(namespace, counters);
+        }
+        long mixed = MurmurHash3.fmix64(hash & 0xffffffffL);
+        counters[0].add(mixed);
+
+        int slot = hash & mask;
+        long bit = 1L << slot;
+        if ((occupied[slot >>> 6] & bit) == 0) {
+            occupied[slot >>> 6] |= bit;
+            owner[slot] = hash;
+            numOccupied++;
+        }
+        else if (owner[slot] != hash) {
+            counters[1].add(mixed);
+            collided.add(mixed);
+        }
+    }
+
+    /**
+     * @return the number of occupied slots, including the one of the constant feature.
+     */
+    public synchronized long getOccupiedSlots() {
+        return numOccupied;
+    }
+
+    /**
+     * @return the estimated number of distinct names that collided with a name seen before them.
+     */
+    public synchronized double getCollidedNames() {
+        return collided.estimate();
+    }
+
+    /**
+     * @return the estimated number of distinct names, including the constant feature.
+     */
+    public synchronized double getDistinctNames() {
+        // the names that did not collide are the owners of the slots
+        return numOccupied + collided.estimate();
+    }
+
+    /**
+     * Returns the expected collision rate of uniformly hashed names.
+     *
+     * @param names
+     *            number of distinct names.
+     * @param bits
+     *            number of bits of the hashing.
+     * @return the expected fraction of the names sharing their slot with a name seen before them.
+     */
+    public static double projectedCollisionRate(double names, int bits) {
+        if (names <= 0)
+            return 0;
+        double slots = Math.pow(2, bits);
+        return 1 - slots * -Math.expm1(-names / slots) / names;
+    }
+
+    /**
+     * Returns a textual report of the occupancy and the collisions.
+     *
+     * @return the report.
+     */
+    public synchronized String report() {
+        StringBuilder sb = new StringBuilder();
+        double names = getDistinctNames();
+        sb.append(String.format("Hash diagnostics at %d bits\n", bits));
+        sb.append(String.format("distinct feature names = %.0f (estimated)\n", names));
+        sb.append(String.format("occupied slots = %d of %d (%.2f%%)\n", numOccupied, 1L << bits,
+                100.0 * numOccupied / (1L << bits)));
+        sb.append(String.format("collision rate = %.4f%% of the names\n", 100 * collided.estimate() / names));
+        sb.append(String.format("%-20s %14s %16s\n", "namespace", "names", "collision rate"));
+        for (Map.Entry<String, HyperLogLog[]> entry : namespaces.entrySet()) {
+            double n = entry.getValue()[0].estimate();
+            double c = Math.min(entry.getValue()[1].estimate(), n);
+            sb.append(String.format("%-20s %14.0f %15.4f%%\n", entry.getKey().isEmpty() ? "(default)" : entry.getKey(),
+                    n, n > 0 ? 100 * c / n : 0));
+        }
+        sb.append(String.format("%-6s %16s %16s %16s\n", "bits", "slots", "occupancy", "collision rate"));
+        for (int b = Math.max(bits - 6, 1); b <= Math.min(bits + 6, 31); b++) {
+            double slots = Math.pow(2, b);
+            double occupancy = -Math.expm1(-names / slots);
+            sb.append(String.format("%-6s %16d %15.2f%% %15.4f%%\n", b == bits ? b + " *" : Integer.toString(b),
+                    1L << b, 100 * occupancy, 100 * projectedCollisionRate(names, b)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,54 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.util;
+
+/**
+ * HyperLogLog estimator of the number of distinct elements.
+ * <p>
+ * The elements are given as 64-bit hashes. With 2^12 registers of one byte the relative standard error is about 1.6%;
+ * small cardinalities are estimated with linear counting.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class HyperLogLog {
+    private static final int P = 12;
+    private static final int M = 1 << P;
+
+    private final byte[] registers = new byte[M];
+
+    /**
+     * Adds an element.
+     *
+     * @param hash
+     *            64-bit hash of the element, with uniformly distributed bits.
+     */
+    public void add(long hash) {
+        int index = (int) (hash >>> (64 - P));
+        // position of the first 1 in the remaining bits, the sentinel bounds it
+        int rank = Long.numberOfLeadingZeros((hash << P) | (1L << (P - 1))) + 1;
+        if (rank > registers[index])
+            registers[index] = (byte) rank;
+    }
+
+    /**
+     * Returns the estimated number of distinct elements added.
+     *
+     * @return the estimate.
+     */
+    public double estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0)
+                zeros++;
+        }
+        double alpha = 0.7213 / (1 + 1.079 / M);
+        double estimate = alpha * M * M / sum;
+        if (estimate <= 2.5 * M && zeros > 0)
+            return M * Math.log((double) M / zeros);
+        return estimate;
+    }
+}
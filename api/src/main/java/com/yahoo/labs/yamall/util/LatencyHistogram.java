@@ -0,0 +1,126 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies with logarithmic buckets.
+ * <p>
+ * Each power of two is split in 16 linear buckets, so the percentiles are reported with a relative error smaller than
+ * 1/16. Recording is lock-free and can be done concurrently by many threads.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int NUM_BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+    /**
+     * Records a value.
+     *
+     * @param value
+     *            value to record, negative values are recorded as 0.
+     */
+    public void record(long value) {
+        counts.incrementAndGet(bucket(Math.max(value, 0)));
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return the number of recorded values.
+     */
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++)
+            total += counts.get(i);
+        return total;
+    }
+
+    /**
+     * Returns an upper bound to the given percentile.
+     *
+     * @param percentile
+     *            percentile between 0 and 100.
+     * @return the upper bound of the bucket that contains the percentile, 0 if nothing was recorded.
+     */
+    public long percentile(double percentile) {
+        long[] snapshot = new long[NUM_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return 0;
+        long rank = (long) Math.ceil(percentile / 100.0 * total);
+        if (rank < 1)
+            rank = 1;
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return upperBound(i);
+        }
+        return upperBound(NUM_BUCKETS - 1);
+    }
+
+    /**
+     * Adds the values recorded in another histogram.
+     *
+     * @param other
+     *            histogram to add.
+     */
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0)
+                counts.addAndGet(i, c);
+        }
+    }
+
+    /**
+     * Removes all the recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < NUM_BUCKETS; i++)
+            counts.set(i, 0);
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) ((value >>> (magnitude - SUB_BITS)) & (SUB_BUCKETS - 1));
+        return (magnitude - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int magnitude = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return (1L << magnitude) | (sub << (magnitude - SUB_BITS));
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket == NUM_BUCKETS - 1)
+            return Long.MAX_VALUE;
+        return lowerBound(bucket + 1) - 1;
+    }
+
+    /**
+     * Returns the 50th, 90th, 99th, and 99.9th percentiles, in microseconds, assuming the values are in nanoseconds.
+     */
+    public String toString() {
+        return String.format("count=%d p50=%dus p90=%dus p99=%dus p99.9=%dus", count(), percentile(50) / 1000,
+                percentile(90) / 1000, percentile(99) / 1000, percentile(99.9) / 1000);
+    }
+}
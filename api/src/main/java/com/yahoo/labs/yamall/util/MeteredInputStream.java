@@ -0,0 +1,49 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream recording the bytes read and the time spent reading them as cache reads of a {@link TrainingMetrics}.
+ * <p>
+ * Each read is timed, so the stream should be wrapped in a buffered stream to time large reads only.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class MeteredInputStream extends FilterInputStream {
+
+    private final TrainingMetrics metrics;
+
+    /**
+     * Metered input stream.
+     *
+     * @param in
+     *            stream to read from.
+     * @param metrics
+     *            metrics to record the reads in.
+     */
+    public MeteredInputStream(
+            InputStream in, TrainingMetrics metrics) {
+        super(in);
+        this.metrics = metrics;
+    }
+
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int b = in.read();
+        metrics.recordCacheRead(b >= 0 ? 1 : 0, System.nanoTime() - start);
+        return b;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        int n = in.read(b, off, len);
+        metrics.recordCacheRead(Math.max(n, 0), System.nanoTime() - start);
+        return n;
+    }
+}
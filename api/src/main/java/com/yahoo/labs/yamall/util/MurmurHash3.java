@@ -113,19 +113,62 @@ public final class MurmurHash3 {
      * faster than hashing the result of String.getBytes().
      */
     public static int murmurhash3_x86_32(CharSequence data, int offset, int len, int seed) {
+        return hashChars(seed, 0, 0, 0, data, offset, len, null);
+    }
+
+    /**
+     * Returns the state of the MurmurHash3_x86_32 hash after hashing a prefix.
+     * <p>
+     * The state can be used to hash many strings that start with the same prefix, hashing only the remaining part of
+     * each string with {@link #murmurhash3_x86_32(int[], CharSequence, int, int)}.
+     * 
+     * @param data
+     *            string containing the prefix.
+     * @param offset
+     *            position of the first character of the prefix.
+     * @param len
+     *            number of characters of the prefix.
+     * @param seed
+     *            seed of the hash.
+     * @return the state of the hash after the prefix.
+     */
+    public static int[] prefixState(CharSequence data, int offset, int len, int seed) {
+        int[] state = new int[4];
+        hashChars(seed, 0, 0, 0, data, offset, len, state);
+        return state;
+    }
+
+    /**
+     * Returns the MurmurHash3_x86_32 hash of the concatenation of a prefix and a string.
+     * 
+     * @param prefix
+     *            state of the hash after the prefix, as returned by {@link #prefixState(CharSequence, int, int, int)}.
+     * @param data
+     *            string to append to the prefix.
+     * @param offset
+     *            position of the first character to hash.
+     * @param len
+     *            number of characters to hash.
+     * @return the hash, equal to the one of the concatenated string.
+     */
+    public static int murmurhash3_x86_32(int[] prefix, CharSequence data, int offset, int len) {
+        return hashChars(prefix[0], prefix[1], prefix[2], prefix[3], data, offset, len, null);
+    }
+
+    /*
+     * Hashes the UTF-8 bytes of the characters starting from the state (h1, k1, shift, nBytes). If state is not null,
+     * the state after the characters is saved in it, otherwise the finalized hash is returned.
+     */
+    private static int hashChars(
+            int h1, int k1, int shift, int nBytes, CharSequence data, int offset, int len, int[] state) {
 
         final int c1 = 0xcc9e2d51;
         final int c2 = 0x1b873593;
 
-        int h1 = seed;
-
         int pos = offset;
         int end = offset + len;
-        int k1 = 0;
         int k2 = 0;
-        int shift = 0;
         int bits = 0;
-        int nBytes = 0; // length in UTF8 bytes
 
         while (pos < end) {
             int code = data.charAt(pos++);
@@ -189,6 +232,14 @@ public final class MurmurHash3 {
 
         } // inner
 
+        if (state != null) {
+            state[0] = h1;
+            state[1] = k1;
+            state[2] = shift;
+            state[3] = nBytes;
+            return 0;
+        }
+
         // handle tail
         if (shift > 0) {
             nBytes += shift >> 3;
@@ -320,4 +371,21 @@ public final class MurmurHash3 {
         return hashed;
     }
 
+    /**
+     * Hash the concatenation of a prefix and a string and does a bitwise and operation with the mask.
+     * 
+     * @param prefix
+     *            state of the hash after the prefix, as returned by {@link #prefixState(CharSequence, int, int, int)}
+     *            with seed 0.
+     * @param name
+     *            string to append to the prefix.
+     * @param mask_hash
+     *            mask to be used in the bitwise and.
+     * @return the hashed and masked index.
+     * @see #maskedHash(String, int)
+     */
+    public static int maskedHash(int[] prefix, String name, int mask_hash) {
+        return MurmurHash3.murmurhash3_x86_32(prefix, name, 0, name.length()) & mask_hash;
+    }
+
 }
\ No newline at end of file
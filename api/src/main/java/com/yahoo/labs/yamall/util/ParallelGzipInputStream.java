@@ -0,0 +1,455 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdInputStream;
+
+/**
+ * Input stream decompressing gzip, zstd, and bzip2 files in background threads.
+ * <p>
+ * Files in BGZF format (the blocked gzip produced by bgzip) are made of independent gzip members of at most 64KB, whose
+ * sizes are stored in their headers. They are read sequentially by a reader thread and inflated in parallel by a pool of
+ * threads, keeping the order of the blocks. Any other gzip file, including concatenated members, is inflated by a
+ * single background thread, so that the thread reading the stream only has to consume the decompressed data.
+ * <p>
+ * zstd files are made of frames that can be decompressed independently, whose ends are found from the headers of
+ * their blocks. If the first frame stores its decompressed size and it is at most {@value #MAX_FRAME_SIZE} bytes, as
+ * in the files written by pzstd or compressed in chunks, each frame is decompressed by a task of the pool. Otherwise
+ * the file is likely a single large frame, and it is decompressed by a single background thread. bzip2 files, including
+ * concatenated streams, are decompressed by a single background thread.
+ * <p>
+ * The format is detected from the first bytes of the file, and files that are not compressed are read as they are.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class ParallelGzipInputStream extends InputStream {
+
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int MAX_FRAME_SIZE = 1 << 24;
+    private static final int ZSTD_MAGIC = 0xfd2fb528;
+    private static final byte[] END = new byte[0];
+
+    // formats of the compressed stream
+    private static final int GZIP = 0;
+    private static final int BGZF = 1;
+    private static final int ZSTD = 2;
+    private static final int ZSTD_FRAMES = 3;
+    private static final int BZIP2 = 4;
+
+    private final InputStream in;
+    private final ExecutorService pool;
+    private final ArrayBlockingQueue<Future<byte[]>> chunks;
+    private final Thread reader;
+    private volatile IOException error = null;
+
+    private byte[] buffer = END;
+    private int pos = 0;
+    private boolean eof = false;
+
+    /**
+     * Opens a file, decompressing it in background threads if it is gzip, zstd, or bzip2 compressed.
+     *
+     * @param filename
+     *            name of the file.
+     * @param threads
+     *            number of threads decompressing the blocks of BGZF files and the frames of zstd files.
+     * @return the stream of the decompressed content of the file.
+     * @throws IOException
+     *             if the file cannot be opened.
+     */
+    public static InputStream open(String filename, int threads) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(filename), 1 << 16);
+        in.mark(18);
+        byte[] header = new byte[18];
+        int n = readFully(in, header, 0, header.length);
+        in.reset();
+        if (n >= 2 && header[0] == 0x1f && (header[1] & 0xff) == 0x8b)
+            return new ParallelGzipInputStream(in, threads);
+        if (n >= 4 && int32(header, 0) == ZSTD_MAGIC) {
+            long size = contentSize(header, n);
+            return new ParallelGzipInputStream(in, threads, size >= 0 && size <= MAX_FRAME_SIZE ? ZSTD_FRAMES : ZSTD);
+        }
+        if (n >= 3 && header[0] == 'B' && header[1] == 'Z' && header[2] == 'h')
+            return new ParallelGzipInputStream(in, threads, BZIP2);
+        return in;
+    }
+
+    /**
+     * Decompresses a gzip stream.
+     *
+     * @param in
+     *            gzip compressed stream, it must support mark and reset.
+     * @param threads
+     *            number of threads inflating the blocks of BGZF streams.
+     * @throws IOException
+     *             if the header of the stream cannot be read.
+     */
+    public ParallelGzipInputStream(
+            InputStream in, int threads) throws IOException {
+        this(in, threads, isBGZF(in) ? BGZF : GZIP);
+    }
+
+    private ParallelGzipInputStream(
+            InputStream in, int threads, final int format) {
+        this.in = in;
+        threads = Math.max(threads, 1);
+        chunks = new ArrayBlockingQueue<Future<byte[]>>(4 * threads);
+        final String name = format == GZIP || format == BGZF ? "gzip" : format == BZIP2 ? "bzip2" : "zstd";
+        pool = format == BGZF || format == ZSTD_FRAMES ? Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + "-decompressor");
+                t.setDaemon(true);
+                return t;
+            }
+        }) : null;
+        reader = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    if (format == BGZF)
+                        readBlocks();
+                    else if (format == ZSTD_FRAMES)
+                        readFrames();
+                    else if (format == ZSTD)
+                        decompress(new ZstdInputStream(ParallelGzipInputStream.this.in));
+                    else if (format == BZIP2)
+                        decompress(new BZip2CompressorInputStream(ParallelGzipInputStream.this.in, true));
+                    else
+                        decompress(new GZIPInputStream(ParallelGzipInputStream.this.in, 1 << 16));
+                }
+                catch (IOException e) {
+                    error = e;
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    chunks.put(done(END));
+                }
+                catch (InterruptedException e) {
+                }
+            }
+        }, name + "-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /*
+     * Checks the header of the first member for the BC extra subfield of BGZF.
+     */
+    private static boolean isBGZF(InputStream in) throws IOException {
+        in.mark(18);
+        byte[] header = new byte[18];
+        int n = readFully(in, header, 0, header.length);
+        in.reset();
+        return n == 18 && (header[3] & 4) != 0 && blockSize(header) > 0;
+    }
+
+    /*
+     * Returns BSIZE+1 from the header of a BGZF block with the BC subfield first, or -1.
+     */
+    private static int blockSize(byte[] header) {
+        int xlen = (header[10] & 0xff) | ((header[11] & 0xff) << 8);
+        if (xlen < 6 || header[12] != 'B' || header[13] != 'C' || header[14] != 2 || header[15] != 0)
+            return -1;
+        return ((header[16] & 0xff) | ((header[17] & 0xff) << 8)) + 1;
+    }
+
+    private static int readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            int r = in.read(b, off + n, len - n);
+            if (r < 0)
+                break;
+            n += r;
+        }
+        return n;
+    }
+
+    private static Future<byte[]> done(byte[] chunk) {
+        FutureTask<byte[]> task = new FutureTask<byte[]>(new Runnable() {
+            public void run() {
+            }
+        }, chunk);
+        task.run();
+        return task;
+    }
+
+    private void readBlocks() throws IOException, InterruptedException {
+        byte[] header = new byte[18];
+        int n;
+        while ((n = readFully(in, header, 0, header.length)) > 0) {
+            if (n < header.length || header[0] != 0x1f || (header[1] & 0xff) != 0x8b)
+                throw new IOException("Corrupted BGZF block header");
+            int size = blockSize(header);
+            if (size < header.length)
+                throw new IOException("Not a BGZF block, mixed gzip members are not supported");
+            final byte[] block = new byte[size];
+            System.arraycopy(header, 0, block, 0, header.length);
+            if (readFully(in, block, header.length, size - header.length) < size - header.length)
+                throw new EOFException("Truncated BGZF block");
+            chunks.put(pool.submit(new Callable<byte[]>() {
+                public byte[] call() throws IOException {
+                    return inflateBlock(block);
+                }
+            }));
+        }
+    }
+
+    private static byte[] inflateBlock(byte[] block) throws IOException {
+        int xlen = (block[10] & 0xff) | ((block[11] & 0xff) << 8);
+        int start = 12 + xlen;
+        int end = block.length - 8;
+        int crc = (block[end] & 0xff) | ((block[end + 1] & 0xff) << 8) | ((block[end + 2] & 0xff) << 16)
+                | ((block[end + 3] & 0xff) << 24);
+        int isize = (block[end + 4] & 0xff) | ((block[end + 5] & 0xff) << 8) | ((block[end + 6] & 0xff) << 16)
+                | ((block[end + 7] & 0xff) << 24);
+        byte[] out = new byte[isize];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(block, start, end - start);
+            int n = 0;
+            while (n < isize) {
+                int r = inflater.inflate(out, n, isize - n);
+                if (r == 0 && (inflater.finished() || inflater.needsInput()))
+                    break;
+                n += r;
+            }
+            if (n != isize)
+                throw new IOException("Corrupted BGZF block: wrong size");
+        }
+        catch (DataFormatException e) {
+            throw new IOException("Corrupted BGZF block", e);
+        }
+        finally {
+            inflater.end();
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(out, 0, out.length);
+        if ((int) crc32.getValue() != crc)
+            throw new IOException("Corrupted BGZF block: wrong CRC");
+        return out;
+    }
+
+    private static int int32(byte[] b, int off) {
+        return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8) | ((b[off + 2] & 0xff) << 16) | ((b[off + 3] & 0xff) << 24);
+    }
+
+    /*
+     * Returns the size of the header of a zstd frame after the magic number and the frame header descriptor.
+     */
+    private static int frameHeaderSize(int descriptor) {
+        boolean singleSegment = (descriptor & 0x20) != 0;
+        int contentSizeFlag = descriptor >>> 6;
+        int dictionaryIdFlag = descriptor & 3;
+        return (singleSegment ? 0 : 1) + (dictionaryIdFlag == 3 ? 4 : dictionaryIdFlag)
+                + (contentSizeFlag == 0 ? (singleSegment ? 1 : 0) : 1 << contentSizeFlag);
+    }
+
+    /*
+     * Returns the decompressed size stored in the header of a zstd frame, or -1 if it is unknown.
+     */
+    private static long contentSize(byte[] frame, int length) {
+        if (length < 5)
+            return -1;
+        int descriptor = frame[4] & 0xff;
+        int contentSizeFlag = descriptor >>> 6;
+        int fieldSize = contentSizeFlag == 0 ? ((descriptor & 0x20) != 0 ? 1 : 0) : 1 << contentSizeFlag;
+        if (fieldSize == 0 || length < 5 + frameHeaderSize(descriptor))
+            return -1;
+        int off = 5 + frameHeaderSize(descriptor) - fieldSize;
+        long size = 0;
+        for (int i = fieldSize - 1; i >= 0; i--)
+            size = (size << 8) | (frame[off + i] & 0xff);
+        return fieldSize == 2 ? size + 256 : size;
+    }
+
+    /*
+     * Copies len bytes of the stream to a buffer.
+     */
+    private static void copy(InputStream in, ByteArrayOutputStream out, byte[] buffer, long len) throws IOException {
+        while (len > 0) {
+            int n = readFully(in, buffer, 0, (int) Math.min(len, buffer.length));
+            if (n == 0)
+                throw new EOFException("Truncated zstd frame");
+            out.write(buffer, 0, n);
+            len -= n;
+        }
+    }
+
+    /*
+     * Reads the zstd frames, walking their blocks to find their ends, and decompresses them in the pool.
+     */
+    private void readFrames() throws IOException, InterruptedException {
+        byte[] buffer = new byte[1 << 16];
+        byte[] header = new byte[4];
+        int n;
+        while ((n = readFully(in, header, 0, header.length)) > 0) {
+            if (n < header.length)
+                throw new EOFException("Truncated zstd frame");
+            int magic = int32(header, 0);
+            if ((magic & 0xfffffff0) == 0x184d2a50) {
+                // skippable frame
+                if (readFully(in, header, 0, header.length) < header.length)
+                    throw new EOFException("Truncated zstd frame");
+                copy(in, new ByteArrayOutputStream(), buffer, int32(header, 0) & 0xffffffffL);
+                continue;
+            }
+            if (magic != ZSTD_MAGIC)
+                throw new IOException("Corrupted zstd frame header");
+
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(1 << 16);
+            frame.write(header);
+            int descriptor = in.read();
+            if (descriptor < 0)
+                throw new EOFException("Truncated zstd frame");
+            frame.write(descriptor);
+            copy(in, frame, buffer, frameHeaderSize(descriptor));
+            boolean last = false;
+            while (!last) {
+                if (readFully(in, header, 0, 3) < 3)
+                    throw new EOFException("Truncated zstd frame");
+                frame.write(header, 0, 3);
+                int block = (header[0] & 0xff) | ((header[1] & 0xff) << 8) | ((header[2] & 0xff) << 16);
+                last = (block & 1) != 0;
+                int type = (block >>> 1) & 3;
+                if (type == 3)
+                    throw new IOException("Corrupted zstd block header");
+                // the run length blocks have a single byte
+                copy(in, frame, buffer, type == 1 ? 1 : block >>> 3);
+            }
+            if ((descriptor & 4) != 0)
+                copy(in, frame, buffer, 4);
+
+            final byte[] bytes = frame.toByteArray();
+            chunks.put(pool.submit(new Callable<byte[]>() {
+                public byte[] call() throws IOException {
+                    return decompressFrame(bytes);
+                }
+            }));
+        }
+    }
+
+    private static byte[] decompressFrame(byte[] frame) throws IOException {
+        long size = contentSize(frame, frame.length);
+        if (size >= 0 && size <= MAX_FRAME_SIZE) {
+            byte[] out = Zstd.decompress(frame, (int) size);
+            if (out.length != size)
+                throw new IOException("Corrupted zstd frame: wrong size");
+            return out;
+        }
+        // size unknown or too large for a single array
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 16);
+        ZstdInputStream zstd = new ZstdInputStream(new ByteArrayInputStream(frame));
+        try {
+            byte[] buffer = new byte[1 << 16];
+            int n;
+            while ((n = zstd.read(buffer)) >= 0)
+                out.write(buffer, 0, n);
+        }
+        finally {
+            zstd.close();
+        }
+        return out.toByteArray();
+    }
+
+    /*
+     * Decompresses a stream in chunks, in the reader thread.
+     */
+    private void decompress(InputStream decompressed) throws IOException, InterruptedException {
+        while (true) {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            int n = readFully(decompressed, chunk, 0, chunk.length);
+            if (n == 0)
+                break;
+            if (n < chunk.length) {
+                byte[] tmp = new byte[n];
+                System.arraycopy(chunk, 0, tmp, 0, n);
+                chunk = tmp;
+            }
+            chunks.put(done(chunk));
+        }
+    }
+
+    /*
+     * Moves to the next non empty chunk, returns false at the end of the stream.
+     */
+    private boolean fill() throws IOException {
+        while (pos >= buffer.length) {
+            if (eof)
+                return false;
+            try {
+                buffer = chunks.take().get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while decompressing", e);
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                throw new IOException(e.getCause());
+            }
+            pos = 0;
+            if (buffer == END) {
+                eof = true;
+                if (error != null)
+                    throw error;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int read() throws IOException {
+        if (!fill())
+            return -1;
+        return buffer[pos++] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!fill())
+            return -1;
+        int n = Math.min(len, buffer.length - pos);
+        System.arraycopy(buffer, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    public int available() {
+        return buffer.length - pos;
+    }
+
+    public void close() throws IOException {
+        reader.interrupt();
+        if (pool != null)
+            pool.shutdownNow();
+        in.close();
+    }
+}
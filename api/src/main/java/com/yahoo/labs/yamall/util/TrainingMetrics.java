@@ -0,0 +1,324 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.util;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and gauges of a training or scoring run.
+ * <p>
+ * The metrics are exposed through JMX, once {@link #register(String)} is called, and they can be periodically dumped as
+ * JSON lines with {@link #startDump(PrintStream, long)}.
+ * <p>
+ * The per-example metrics are written by a single training thread into plain fields and published to the readers every
+ * 1024 examples, so recording an example costs a few additions. The parsing and cache metrics can be recorded
+ * concurrently by any thread, typically once per block of examples or per buffer.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class TrainingMetrics implements TrainingMetricsMBean {
+
+    private static final int PUBLISH_PERIOD = 1024;
+
+    private final long startNanos = System.nanoTime();
+
+    // written only by the training thread
+    private long examples = 0;
+    private long features = 0;
+    private long updateNanos = 0;
+    private double loss = 0;
+    private double weight = 0;
+
+    // values at the last mark, restored by a rollback
+    private long markedExamples = 0;
+    private long markedFeatures = 0;
+    private long markedUpdateNanos = 0;
+    private double markedLoss = 0;
+    private double markedWeight = 0;
+
+    // last published values
+    private volatile long publishedExamples = 0;
+    private volatile long publishedFeatures = 0;
+    private volatile long publishedUpdateNanos = 0;
+    private volatile double publishedLoss = 0;
+    private volatile double publishedWeight = 0;
+
+    private final AtomicLong parsedExamples = new AtomicLong();
+    private final AtomicLong parseNanos = new AtomicLong();
+    private final AtomicLong cacheBytes = new AtomicLong();
+    private final AtomicLong cacheNanos = new AtomicLong();
+
+    private volatile Object model = null;
+
+    /**
+     * Records an example. It must be called always by the same thread.
+     *
+     * @param numFeatures
+     *            number of features of the example processed by the model, including the crossed ones.
+     * @param weightedLoss
+     *            loss on the example, multiplied by its weight.
+     * @param weight
+     *            weight of the example.
+     * @param nanos
+     *            time spent to update the model with the example, or to predict it.
+     */
+    public void recordExample(int numFeatures, double weightedLoss, double weight, long nanos) {
+        examples++;
+        features += numFeatures;
+        loss += weightedLoss;
+        this.weight += weight;
+        updateNanos += nanos;
+        if ((examples & (PUBLISH_PERIOD - 1)) == 0)
+            publish();
+    }
+
+    /**
+     * Makes the examples recorded so far visible to the readers of the metrics. It must be called by the thread
+     * recording the examples.
+     */
+    public void publish() {
+        publishedFeatures = features;
+        publishedLoss = loss;
+        publishedWeight = weight;
+        publishedUpdateNanos = updateNanos;
+        publishedExamples = examples;
+    }
+
+    /**
+     * Marks the examples recorded so far, so that the following ones can be discarded with {@link #rollback()}. It
+     * must be called by the thread recording the examples.
+     */
+    public void mark() {
+        markedExamples = examples;
+        markedFeatures = features;
+        markedUpdateNanos = updateNanos;
+        markedLoss = loss;
+        markedWeight = weight;
+    }
+
+    /**
+     * Discards the examples recorded after the last call to {@link #mark()}. It must be called by the thread recording
+     * the examples.
+     */
+    public void rollback() {
+        examples = markedExamples;
+        features = markedFeatures;
+        updateNanos = markedUpdateNanos;
+        loss = markedLoss;
+        weight = markedWeight;
+        publish();
+    }
+
+    /**
+     * Records the parsing of some examples.
+     *
+     * @param numExamples
+     *            number of parsed examples.
+     * @param nanos
+     *            time spent parsing them.
+     */
+    public void recordParse(int numExamples, long nanos) {
+        parsedExamples.addAndGet(numExamples);
+        parseNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Records a read from a cache file.
+     *
+     * @param bytes
+     *            number of bytes read.
+     * @param nanos
+     *            time spent reading them.
+     */
+    public void recordCacheRead(long bytes, long nanos) {
+        cacheBytes.addAndGet(bytes);
+        cacheNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Sets the model whose memory footprint is reported.
+     *
+     * @param model
+     *            the model, typically a learner.
+     */
+    public void setModel(Object model) {
+        this.model = model;
+    }
+
+    public long getExamples() {
+        return publishedExamples;
+    }
+
+    public double getExamplesPerSecond() {
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed > 0 ? publishedExamples * 1e9 / elapsed : 0;
+    }
+
+    public double getParseNanosPerExample() {
+        long n = parsedExamples.get();
+        return n > 0 ? (double) parseNanos.get() / n : 0;
+    }
+
+    public double getUpdateNanosPerExample() {
+        long n = publishedExamples;
+        return n > 0 ? (double) publishedUpdateNanos / n : 0;
+    }
+
+    public double getFeaturesPerExample() {
+        long n = publishedExamples;
+        return n > 0 ? (double) publishedFeatures / n : 0;
+    }
+
+    public double getAverageLoss() {
+        double w = publishedWeight;
+        return w > 0 ? publishedLoss / w : 0;
+    }
+
+    public long getModelBytes() {
+        return estimateBytes(model);
+    }
+
+    public long getCacheBytesRead() {
+        return cacheBytes.get();
+    }
+
+    public double getCacheReadMBPerSecond() {
+        long nanos = cacheNanos.get();
+        return nanos > 0 ? cacheBytes.get() * 1e3 / nanos : 0;
+    }
+
+    public long getElapsedMillis() {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    /*
+     * Sum of the sizes of the arrays referenced by the fields of the object, including arrays of arrays.
+     */
+    private static long estimateBytes(Object obj) {
+        if (obj == null)
+            return 0;
+        long bytes = 0;
+        for (Class<?> c = obj.getClass(); c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || !field.getType().isArray())
+                    continue;
+                try {
+                    field.setAccessible(true);
+                    bytes += arrayBytes(field.get(obj));
+                }
+                catch (Exception e) {
+                    // not accessible, skip it
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private static long arrayBytes(Object array) {
+        if (array == null)
+            return 0;
+        int length = Array.getLength(array);
+        Class<?> type = array.getClass().getComponentType();
+        if (type.isArray()) {
+            long bytes = 16 + 4L * length;
+            for (int i = 0; i < length; i++)
+                bytes += arrayBytes(Array.get(array, i));
+            return bytes;
+        }
+        int size;
+        if (type == double.class || type == long.class)
+            size = 8;
+        else if (type == int.class || type == float.class)
+            size = 4;
+        else if (type == short.class || type == char.class)
+            size = 2;
+        else if (type == byte.class || type == boolean.class)
+            size = 1;
+        else
+            size = 4;
+        return 16 + (long) size * length;
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server, as
+     * <tt>com.yahoo.labs.yamall:type=TrainingMetrics,name=&lt;name&gt;</tt>.
+     *
+     * @param name
+     *            name of the run.
+     * @return false if the registration failed.
+     */
+    public boolean register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("com.yahoo.labs.yamall:type=TrainingMetrics,name=" + name);
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+            server.registerMBean(this, objectName);
+            return true;
+        }
+        catch (JMException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Starts a daemon thread writing the metrics as a JSON line every period.
+     *
+     * @param out
+     *            stream to write to.
+     * @param periodMillis
+     *            time between two dumps, in milliseconds.
+     * @return the thread, interrupt it to stop the dumps.
+     */
+    public Thread startDump(final PrintStream out, final long periodMillis) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        Thread.sleep(periodMillis);
+                        out.println(toJSON());
+                        out.flush();
+                    }
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "yamall-metrics");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Returns the metrics as a JSON object on a single line.
+     *
+     * @return the JSON string.
+     */
+    public String toJSON() {
+        return String.format(Locale.ROOT,
+                "{\"timestamp\":%d,\"elapsed_ms\":%d,\"examples\":%d,\"examples_per_sec\":%.1f,"
+                        + "\"parse_ns_per_example\":%.1f,\"update_ns_per_example\":%.1f,\"features_per_example\":%.2f,"
+                        + "\"average_loss\":%.6f,\"model_bytes\":%d,\"cache_bytes_read\":%d,\"cache_read_mb_per_sec\":%.1f}",
+                System.currentTimeMillis(), getElapsedMillis(), getExamples(), getExamplesPerSecond(),
+                getParseNanosPerExample(), getUpdateNanosPerExample(), getFeaturesPerExample(), getAverageLoss(),
+                getModelBytes(), getCacheBytesRead(), getCacheReadMBPerSecond());
+    }
+
+    public String toString() {
+        return toJSON();
+    }
+}
@@ -0,0 +1,63 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.util;
+
+/**
+ * JMX interface of {@link TrainingMetrics}.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public interface TrainingMetricsMBean {
+
+    /**
+     * @return the number of examples used for training or testing.
+     */
+    public long getExamples();
+
+    /**
+     * @return the number of examples per second since the start.
+     */
+    public double getExamplesPerSecond();
+
+    /**
+     * @return the average time to parse an example, in nanoseconds.
+     */
+    public double getParseNanosPerExample();
+
+    /**
+     * @return the average time to update the model with an example, or to predict it, in nanoseconds.
+     */
+    public double getUpdateNanosPerExample();
+
+    /**
+     * @return the average number of parsed features per example, before the interactions.
+     */
+    public double getFeaturesPerExample();
+
+    /**
+     * @return the weighted average progressive loss.
+     */
+    public double getAverageLoss();
+
+    /**
+     * @return the estimated memory used by the arrays of the model, in bytes.
+     */
+    public long getModelBytes();
+
+    /**
+     * @return the number of bytes read from the cache files.
+     */
+    public long getCacheBytesRead();
+
+    /**
+     * @return the bandwidth of the reads from the cache files, in MB per second of reading.
+     */
+    public double getCacheReadMBPerSecond();
+
+    /**
+     * @return the time since the start, in milliseconds.
+     */
+    public long getElapsedMillis();
+}
@@ -0,0 +1,86 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.core;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class InstanceStoreTest {
+
+    private static Instance randomInstance(Random rand, Interactions interactions, boolean floatValues) {
+        Instance sample = new Instance(rand.nextBoolean() ? 1 : -1);
+        sample.setWeight(rand.nextDouble());
+        sample.setTag(rand.nextInt(3) == 0 ? "" : "tag" + rand.nextInt());
+        for (char ns = 'a'; ns < 'a' + rand.nextInt(4); ns++) {
+            int n = rand.nextInt(20);
+            for (int i = 0; i < n; i++) {
+                // few indexes, so that some features collide
+                int key = rand.nextInt(64);
+                double value = floatValues ? rand.nextInt(4) * 0.5 : rand.nextDouble();
+                sample.getVector().put(key, value);
+                sample.addNamespaceFeature(key, value);
+            }
+            sample.addNamespace(ns);
+        }
+        sample.setInteractions(interactions);
+        return sample;
+    }
+
+    private static void assertSame(Instance a, Instance b) {
+        Assert.assertEquals(a.getLabel(), b.getLabel());
+        Assert.assertEquals(a.getWeight(), b.getWeight());
+        Assert.assertEquals(a.getTag(), b.getTag());
+        Assert.assertEquals(a.getNumberNamespaces(), b.getNumberNamespaces());
+        Assert.assertEquals(a.numFeatures(), b.numFeatures());
+        FeatureCursor ca = a.features();
+        FeatureCursor cb = b.features();
+        while (ca.next()) {
+            Assert.assertTrue(cb.next());
+            Assert.assertEquals(ca.key(), cb.key());
+            Assert.assertEquals(ca.value(), cb.value());
+        }
+        Assert.assertFalse(cb.next());
+    }
+
+    @Test
+    public void roundTripTest() {
+        Random rand = new Random(0);
+        Interactions interactions = new Interactions(new String[] { "ab", "abc" }, 18);
+        InstanceStore store = new InstanceStore(1L << 30);
+        ArrayList<Instance> samples = new ArrayList<Instance>();
+        for (int i = 0; i < 5000; i++) {
+            // the values become doubles in the middle of the data
+            Instance sample = randomInstance(rand, interactions, i < 2500);
+            samples.add(sample);
+            Assert.assertTrue(store.add(sample));
+        }
+        Assert.assertEquals(store.size(), samples.size());
+        for (int i = 0; i < samples.size(); i++)
+            assertSame(store.get(i), samples.get(i));
+
+        // different interactions are not accepted
+        Assert.assertFalse(store.add(randomInstance(rand, null, true)));
+        Assert.assertEquals(store.size(), samples.size());
+    }
+
+    @Test
+    public void budgetTest() {
+        Random rand = new Random(1);
+        InstanceStore store = new InstanceStore(200000);
+        ArrayList<Instance> samples = new ArrayList<Instance>();
+        while (true) {
+            Instance sample = randomInstance(rand, null, true);
+            if (!store.add(sample))
+                break;
+            samples.add(sample);
+            Assert.assertTrue(store.bytes() <= 200000);
+        }
+        Assert.assertEquals(store.size(), samples.size());
+        for (int i = 0; i < samples.size(); i++)
+            assertSame(store.get(i), samples.get(i));
+    }
+}
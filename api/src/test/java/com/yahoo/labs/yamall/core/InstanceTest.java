@@ -8,6 +8,11 @@ import org.testng.annotations.Test;
 
 public class InstanceTest {
 
+    private static void put(Instance sample, int key, double value) {
+        sample.getVector().put(key, value);
+        sample.addNamespaceFeature(key, value);
+    }
+
     @Test
     public void constructorTest() {
         Instance a = new Instance();
@@ -18,4 +23,126 @@ public class InstanceTest {
         Assert.assertTrue(a.getWeight() == 1.0);
     }
 
+    @Test
+    public void interactionsTest() {
+        Instance a = new Instance();
+        put(a, 1, 2.0);
+        put(a, 2, 3.0);
+        a.addNamespace('a');
+        put(a, 5, 5.0);
+        a.addNamespace('b');
+        a.getVector().put(0, 1.0);
+
+        // no interactions: only the first-order features
+        Assert.assertEquals(a.numFeatures(), 4);
+
+        Interactions interactions = new Interactions(new String[] { "ab", "aa", "aab" }, 18);
+        a.setInteractions(interactions);
+        // 4 first order, 2 quadratic ab, 1 quadratic aa, 1 cubic aab
+        Assert.assertEquals(a.numFeatures(), 8);
+
+        double[] w = new double[1 << 18];
+        double squaredNorm = 0;
+        FeatureCursor cursor = a.features();
+        int count = 0;
+        while (cursor.next()) {
+            w[cursor.key()] += cursor.value();
+            squaredNorm += cursor.value() * cursor.value();
+            count++;
+        }
+        Assert.assertEquals(count, 8);
+        Assert.assertEquals(w[interactions.cross(1, 5)], 10.0, 0);
+        Assert.assertEquals(w[interactions.cross(2, 5)], 15.0, 0);
+        Assert.assertEquals(w[interactions.cross(1, 2)], 6.0, 0);
+        Assert.assertEquals(w[interactions.cross(1, 2, 5)], 30.0, 0);
+        Assert.assertEquals(a.squaredL2Norm(), squaredNorm, 1e-9);
+
+        double[] v = new double[1 << 18];
+        a.addScaledToDenseVector(v, 2.0);
+        Assert.assertEquals(a.dot(v), 2 * squaredNorm, 1e-9);
+    }
+
+    @Test
+    public void selectTest() {
+        Instance a = new Instance(1.0);
+        a.setWeight(3.0);
+        a.setTag("t");
+        put(a, 1, 2.0);
+        put(a, 2, 3.0);
+        a.addNamespace('a');
+        put(a, 5, 5.0);
+        put(a, 7, 7.0);
+        a.addNamespace('b');
+        Interactions interactions = new Interactions(new String[] { "ab" }, 18);
+        a.setInteractions(interactions);
+
+        Instance b = a.select(new boolean[] { false, true, true, false });
+        Assert.assertEquals(b.getLabel(), 1.0);
+        Assert.assertEquals(b.getWeight(), 3.0);
+        Assert.assertEquals(b.getTag(), "t");
+        Assert.assertEquals(b.getVector().size(), 2);
+        // 2 first order and the only crossed feature between the kept ones
+        Assert.assertEquals(b.numFeatures(), 3);
+        FeatureCursor cursor = b.features();
+        Assert.assertTrue(cursor.next());
+        Assert.assertEquals(cursor.key(), 2);
+        Assert.assertTrue(cursor.next());
+        Assert.assertEquals(cursor.key(), 5);
+        Assert.assertTrue(cursor.next());
+        Assert.assertEquals(cursor.key(), interactions.cross(2, 5));
+        Assert.assertEquals(cursor.value(), 15.0, 0);
+        Assert.assertFalse(cursor.next());
+        // the original instance is not modified
+        Assert.assertEquals(a.numFeatures(), 8);
+    }
+
+    @Test
+    public void collisionTest() {
+        // the feature of b collides with the one of a in the vector, but it is still crossed
+        Instance a = new Instance();
+        put(a, 3, 2.0);
+        a.addNamespace('a');
+        put(a, 3, 5.0);
+        a.addNamespace('b');
+        Interactions interactions = new Interactions(new String[] { "ab" }, 18);
+        a.setInteractions(interactions);
+
+        Assert.assertEquals(a.getVector().size(), 1);
+        Assert.assertEquals(a.numFeatures(), 2);
+        FeatureCursor cursor = a.features();
+        Assert.assertTrue(cursor.next());
+        Assert.assertEquals(cursor.key(), 3);
+        Assert.assertTrue(cursor.next());
+        Assert.assertEquals(cursor.key(), interactions.cross(3, 3));
+        Assert.assertEquals(cursor.value(), 10.0, 0);
+        Assert.assertFalse(cursor.next());
+    }
+
+    @Test
+    public void visitedFeaturesTest() {
+        Instance a = new Instance();
+        put(a, 1, 2.0);
+        put(a, 2, 3.0);
+        a.addNamespace('a');
+        put(a, 5, 5.0);
+        a.addNamespace('b');
+        a.setInteractions(new Interactions(new String[] { "ab" }, 18));
+        // no cursor reached the end yet
+        Assert.assertEquals(a.getNumberVisitedFeatures(), 5);
+
+        // a cursor not walked to the end is not recorded
+        a.setNumberVisitedFeatures(1);
+        FeatureCursor cursor = a.features();
+        Assert.assertTrue(cursor.next());
+        Assert.assertEquals(a.getNumberVisitedFeatures(), 1);
+        // 3 first order and 2 crossed
+        while (cursor.next())
+            ;
+        Assert.assertEquals(a.getNumberVisitedFeatures(), 5);
+
+        // the count is reset when the features change
+        a.setNumberVisitedFeatures(1);
+        a.setInteractions(null);
+        Assert.assertEquals(a.getNumberVisitedFeatures(), 3);
+    }
 }
@@ -0,0 +1,90 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.ml;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class BinaryMetricsTest {
+
+    /*
+     * AUC by sorting, with ties counted as half.
+     */
+    private static double exactAUC(double[] scores, double[] labels) {
+        Integer[] order = new Integer[scores.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        final double[] s = scores;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(s[a], s[b]);
+            }
+        });
+        double sumPosRanks = 0;
+        long positives = 0;
+        int i = 0;
+        while (i < order.length) {
+            int j = i;
+            while (j < order.length && scores[order[j]] == scores[order[i]])
+                j++;
+            double rank = (i + 1 + j) / 2.0;
+            for (int k = i; k < j; k++)
+                if (labels[order[k]] > 0) {
+                    sumPosRanks += rank;
+                    positives++;
+                }
+            i = j;
+        }
+        long negatives = scores.length - positives;
+        return (sumPosRanks - positives * (positives + 1) / 2.0) / ((double) positives * negatives);
+    }
+
+    @Test
+    public void aucTest() {
+        Random rand = new Random(0);
+        int n = 100000;
+        double[] scores = new double[n];
+        double[] labels = new double[n];
+        BinaryMetrics metrics = new BinaryMetrics();
+        BinaryMetrics first = new BinaryMetrics();
+        BinaryMetrics second = new BinaryMetrics();
+        double logLoss = 0;
+        for (int i = 0; i < n; i++) {
+            labels[i] = rand.nextDouble() < 0.1 ? 1 : -1;
+            scores[i] = rand.nextGaussian() * 2 + labels[i] - 2;
+            metrics.add(scores[i], labels[i], 1);
+            (i % 2 == 0 ? first : second).add(scores[i], labels[i], 1);
+            logLoss += Math.log(1 + Math.exp(-labels[i] * scores[i]));
+        }
+        Assert.assertEquals(metrics.auc(), exactAUC(scores, labels), 1e-4);
+        Assert.assertEquals(metrics.logLoss(), logLoss / n, 1e-9);
+
+        // merging the metrics of two threads gives the same results
+        first.merge(second);
+        Assert.assertEquals(first.auc(), metrics.auc(), 1e-12);
+        Assert.assertEquals(first.logLoss(), metrics.logLoss(), 1e-12);
+        Assert.assertEquals(first.calibration(), metrics.calibration(), 1e-12);
+    }
+
+    @Test
+    public void calibrationTest() {
+        Random rand = new Random(1);
+        BinaryMetrics metrics = new BinaryMetrics();
+        for (int i = 0; i < 100000; i++) {
+            double score = rand.nextGaussian();
+            double prob = 1 / (1 + Math.exp(-score));
+            metrics.add(score, rand.nextDouble() < prob ? 1 : -1, 2);
+        }
+        Assert.assertEquals(metrics.calibration(), 1.0, 0.02);
+        Assert.assertEquals(metrics.getWeight(), 200000.0);
+
+        BinaryMetrics onlyPositives = new BinaryMetrics();
+        onlyPositives.add(1, 1, 1);
+        Assert.assertTrue(Double.isNaN(onlyPositives.auc()));
+    }
+}
@@ -0,0 +1,126 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.ml;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.core.Interactions;
+
+public class FeatureAdmissionTest {
+
+    private static Instance instance(double label, int... keys) {
+        Instance sample = new Instance(label);
+        for (int key : keys)
+            sample.getVector().put(key, 1.0);
+        return sample;
+    }
+
+    @Test
+    public void admissionTest() {
+        FeatureAdmission learner = new FeatureAdmission(new SGD_VW(16), 3, 16);
+        learner.setLoss(new LogisticLoss());
+
+        // feature 1 is used from its third occurrence
+        Assert.assertEquals(learner.update(instance(1, 1)), 0.0);
+        Assert.assertEquals(learner.update(instance(1, 1)), 0.0);
+        Assert.assertEquals(learner.predict(instance(1, 1)), 0.0);
+        Assert.assertEquals(learner.getWeights().get(1), 0.0);
+        learner.update(instance(1, 1));
+        Assert.assertTrue(learner.getWeights().get(1) > 0);
+        Assert.assertEquals(learner.predict(instance(1, 1)), learner.getLearner().predict(instance(1, 1)));
+
+        // a feature seen once does not change the prediction, nor the weights
+        double before = learner.predict(instance(1, 1));
+        learner.update(instance(-1, 1, 1000));
+        Assert.assertEquals(learner.getWeights().get(1000), 0.0);
+        Assert.assertEquals(learner.predict(instance(1, 1, 1000)), learner.predict(instance(1, 1)));
+        Assert.assertTrue(learner.predict(instance(1, 1)) < before);
+        Assert.assertEquals(learner.getAdmittedFraction(), 2.0 / 5.0, 1e-12);
+    }
+
+    @Test
+    public void compileTest() {
+        Random rand = new Random(0);
+        FeatureAdmission learner = new FeatureAdmission(new SGD_VW(12), 5, 10);
+        learner.setLoss(new LogisticLoss());
+        for (int i = 0; i < 5000; i++) {
+            // frequent keys from 0 to 99, rare ones above
+            learner.update(instance(rand.nextBoolean() ? 1 : -1, rand.nextInt(100), 100 + rand.nextInt(4000)));
+        }
+        Assert.assertTrue(learner.getAdmittedFraction() < 0.8);
+        Predictor predictor = Predictor.compile(learner);
+        for (int i = 0; i < 1000; i++) {
+            Instance sample = instance(1, rand.nextInt(100), 100 + rand.nextInt(4000));
+            Assert.assertEquals(predictor.score(sample), learner.predict(sample), 1e-12);
+        }
+    }
+
+    private static Instance crossed(Interactions interactions, double label, int a, int b) {
+        Instance sample = new Instance(label);
+        sample.getVector().put(a, 1.0);
+        sample.addNamespaceFeature(a, 1.0);
+        sample.addNamespace('a');
+        sample.getVector().put(b, 1.0);
+        sample.addNamespaceFeature(b, 1.0);
+        sample.addNamespace('b');
+        sample.setInteractions(interactions);
+        return sample;
+    }
+
+    @Test
+    public void compileInteractionsTest() {
+        Random rand = new Random(1);
+        Interactions interactions = new Interactions(new String[] { "ab" }, 12);
+        FeatureAdmission learner = new FeatureAdmission(new SGD_VW(12), 5, 10);
+        learner.setLoss(new LogisticLoss());
+        for (int i = 0; i < 5000; i++)
+            learner.update(
+                    crossed(interactions, rand.nextBoolean() ? 1 : -1, rand.nextInt(100), 100 + rand.nextInt(3900)));
+        Predictor predictor = Predictor.compile(learner);
+        Assert.assertTrue(predictor instanceof AdmissionPredictor);
+        int different = 0;
+        for (int i = 0; i < 1000; i++) {
+            Instance sample = crossed(interactions, 1, rand.nextInt(100), 100 + rand.nextInt(3900));
+            Assert.assertEquals(predictor.predict(sample), learner.predict(sample), 1e-12);
+            if (Math.abs(learner.getLearner().predict(sample) - learner.predict(sample)) > 1e-12)
+                different++;
+        }
+        // the crossed features of the rejected ones collide with trained weights of the wrapped learner
+        Assert.assertTrue(different > 0);
+    }
+
+    @Test
+    public void visitedFeaturesTest() {
+        FeatureAdmission learner = new FeatureAdmission(new SGD_VW(12), 2, 10);
+        learner.setLoss(new LogisticLoss());
+        Interactions interactions = new Interactions(new String[] { "ab" }, 12);
+        for (int i = 0; i < 3; i++) {
+            // feature 2 is admitted from the second example, feature 7 is never admitted
+            Instance sample = new Instance(1);
+            sample.getVector().put(2, 1.0);
+            sample.addNamespaceFeature(2, 1.0);
+            sample.addNamespace('a');
+            sample.getVector().put(3 + 4 * i, 1.0);
+            sample.addNamespaceFeature(3 + 4 * i, 1.0);
+            sample.addNamespace('b');
+            sample.setInteractions(interactions);
+            Assert.assertEquals(sample.numFeatures(), 3);
+
+            // only the admitted features are visited by the update and the prediction
+            learner.update(sample);
+            Assert.assertEquals(sample.getNumberVisitedFeatures(), i == 0 ? 0 : 1);
+            learner.predict(sample);
+            Assert.assertEquals(sample.getNumberVisitedFeatures(), i == 0 ? 0 : 1);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void minCountTest() {
+        new FeatureAdmission(new SGD_VW(4), 256, 4);
+    }
+}
@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.Random;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -89,4 +90,108 @@ public class LearnerTest {
         Assert.assertTrue(learnerLogisticLossTest(new SGD_FM(1, 8), iter) < 0);
     }
 
+    @Test
+    public void testFMSerialization() throws ClassNotFoundException, IOException {
+        Random rand = new Random(0);
+        SGD_FM fm = new SGD_FM(12, 4);
+        fm.setLoss(new LogisticLoss());
+        Instance[] samples = new Instance[2000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = new Instance(rand.nextBoolean() ? 1.0 : -1.0);
+            for (int j = 0; j < 10; j++)
+                samples[i].getVector().put(rand.nextInt(1 << 12), rand.nextDouble());
+            fm.update(samples[i]);
+        }
+
+        SGD_FM fm2 = unpickle(pickle(fm), SGD_FM.class);
+        ReflectionAssert.assertReflectionEquals(fm, fm2);
+        for (Instance sample : samples)
+            Assert.assertEquals(fm2.predict(sample), fm.predict(sample));
+
+        Assert.assertEquals(fm2.getWeights(), fm.getWeights());
+        for (int key : fm.getFeatures()) {
+            Assert.assertTrue(fm2.hasFactors(key));
+            Assert.assertEquals(fm2.getFactors(key), fm.getFactors(key));
+        }
+    }
+
+    @Test
+    public void testFMRows() {
+        // more features than the initial rows, touched in two different orders
+        int numKeys = 3000;
+        int[] keys = new int[numKeys];
+        for (int i = 0; i < numKeys; i++)
+            keys[i] = 2 * i;
+        int[] shuffled = keys.clone();
+        Random rand = new Random(0);
+        for (int i = numKeys - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            int tmp = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = tmp;
+        }
+
+        SGD_FM[] learners = new SGD_FM[] { new SGD_FM(13, 4), new SGD_FM(13, 4) };
+        int[][] orders = new int[][] { keys, shuffled };
+        for (int l = 0; l < learners.length; l++) {
+            for (int i = 0; i < numKeys; i += 10) {
+                Instance sample = new Instance(1.0);
+                for (int j = i; j < i + 10; j++)
+                    sample.getVector().put(orders[l][j], 1.0);
+                // allocates the rows without changing their initial factors
+                learners[l].predict_normalized_features(sample);
+            }
+            Assert.assertEquals(learners[l].getFeatures().length, numKeys);
+        }
+        for (int key : keys) {
+            Assert.assertTrue(learners[0].hasFactors(key));
+            Assert.assertEquals(learners[1].getFactors(key), learners[0].getFactors(key));
+        }
+
+        // the features never seen have no row, and predicting them does not allocate one
+        Instance unseen = new Instance(1.0);
+        unseen.getVector().put(1, 1.0);
+        unseen.getVector().put(keys[0], 1.0);
+        learners[0].predict(unseen);
+        Assert.assertFalse(learners[0].hasFactors(1));
+        Assert.assertEquals(learners[0].getFactors(1), new double[4]);
+        Assert.assertEquals(learners[0].getFeatures().length, numKeys);
+    }
+
+    @Test
+    public void testSGDVWAveraging() {
+        Random rand = new Random(0);
+        SGD_VW[] learners = new SGD_VW[] { new SGD_VW(8), new SGD_VW(8) };
+        Instance sample = new Instance(1.0);
+        sample.getVector().put(3, 2.0);
+        sample.getVector().put(5, 1.0);
+        for (SGD_VW l : learners) {
+            l.setLoss(new LogisticLoss());
+            for (int i = 0; i < 100; i++) {
+                Instance other = new Instance(rand.nextBoolean() ? 1.0 : -1.0);
+                other.getVector().put(rand.nextInt(1 << 8), rand.nextDouble());
+                l.update(other);
+            }
+        }
+
+        // average weighted 1 and 3
+        SGD_VW average = new SGD_VW(8);
+        average.setLoss(new LogisticLoss());
+        average.addScaled(learners[0], 1);
+        average.addScaled(learners[1], 3);
+        average.scale(0.25);
+        double[] w0 = learners[0].getWeights().toDenseVector(1 << 8);
+        double[] w1 = learners[1].getWeights().toDenseVector(1 << 8);
+        double[] w = average.getWeights().toDenseVector(1 << 8);
+        for (int i = 0; i < w.length; i++)
+            Assert.assertEquals(w[i], (w0[i] + 3 * w1[i]) / 4, 1e-12);
+        Assert.assertEquals(average.predict(sample),
+                (learners[0].predict(sample) + 3 * learners[1].predict(sample)) / 4, 1e-12);
+
+        // the average keeps learning
+        double before = average.predict(sample);
+        average.update(sample);
+        Assert.assertTrue(average.predict(sample) > before);
+    }
+
 }
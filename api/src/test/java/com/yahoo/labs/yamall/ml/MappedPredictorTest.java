@@ -0,0 +1,94 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.ml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.core.SparseVector;
+
+public class MappedPredictorTest {
+
+    private static void checkMapping(int chunkBits) throws IOException, ClassNotFoundException {
+        Random rand = new Random(chunkBits);
+        int size = 1000;
+        double[] w = new double[size];
+        for (int i = 0; i < size; i++)
+            if (rand.nextDouble() < 0.5)
+                w[i] = rand.nextGaussian();
+        LinearPredictor linear = new LinearPredictor(SparseVector.dense2Sparse(w), new LogisticLinkFunction(), -5, 5);
+
+        File file = File.createTempFile("yamall", ".map");
+        file.deleteOnExit();
+        MappedPredictor.save(linear, file.getPath());
+        MappedPredictor mapped = MappedPredictor.open(file.getPath(), chunkBits);
+        Assert.assertEquals(mapped.getWeights().toDenseVector(size), w);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(mapped);
+        oos.close();
+        MappedPredictor copy = (MappedPredictor) new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))
+                .readObject();
+        Assert.assertEquals(copy.getFilename(), file.getPath());
+
+        for (int n = 0; n < 100; n++) {
+            Instance sample = new Instance(1);
+            for (int j = 0; j < 20; j++)
+                sample.getVector().put(rand.nextInt(size + 100), rand.nextDouble());
+            Assert.assertEquals(mapped.score(sample), linear.score(sample));
+            Assert.assertEquals(mapped.predict(sample), linear.predict(sample));
+            Assert.assertEquals(copy.predict(sample), linear.predict(sample));
+        }
+        file.delete();
+    }
+
+    @Test
+    public void mappingTest() throws IOException, ClassNotFoundException {
+        checkMapping(27);
+    }
+
+    @Test
+    public void chunksTest() throws IOException, ClassNotFoundException {
+        // many chunks, the last one shorter
+        checkMapping(6);
+    }
+
+    @Test
+    public void offsetTest() throws IOException {
+        Learner learner = new SGD_VW(8);
+        learner.setLoss(new LogisticLoss());
+        Instance sample = new Instance(1);
+        sample.getVector().put(3, 1.0);
+        for (int i = 0; i < 10; i++)
+            learner.update(sample);
+        Predictor predictor = Predictor.compile(new RecalibratedLearner(learner, -2));
+        File file = File.createTempFile("yamall", ".map");
+        file.deleteOnExit();
+        MappedPredictor.save((LinearPredictor) predictor, file.getPath());
+        MappedPredictor mapped = MappedPredictor.open(file.getPath());
+        Assert.assertEquals(mapped.getOffset(), -2.0);
+        Assert.assertEquals(mapped.score(sample), learner.predict(sample) - 2, 1e-12);
+        Assert.assertEquals(mapped.score(sample), predictor.score(sample));
+        file.delete();
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void formatTest() throws IOException {
+        File file = File.createTempFile("yamall", ".map");
+        file.deleteOnExit();
+        IOLearner.savePredictor(new LinearPredictor(new SparseVector(), new IdentityLinkFunction(), -1, 1),
+                file.getPath());
+        MappedPredictor.open(file.getPath());
+    }
+}
@@ -0,0 +1,82 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.ml;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.yahoo.labs.yamall.core.Instance;
+
+public class NegativeSamplerTest {
+
+    private static Instance constantInstance(double label) {
+        Instance sample = new Instance(label);
+        sample.getVector().put(0, 1.0);
+        return sample;
+    }
+
+    @Test
+    public void reweightTest() {
+        NegativeSampler sampler = new NegativeSampler(0.1, true, 0);
+        Random rand = new Random(1);
+        int n = 200000;
+        double positiveWeight = 0;
+        double negativeWeight = 0;
+        int positives = 0;
+        for (int i = 0; i < n; i++) {
+            Instance sample = constantInstance(rand.nextDouble() < 0.01 ? 1 : -1);
+            sample.setWeight(2);
+            if (sample.getLabel() > 0)
+                positives++;
+            if (!sampler.sample(sample)) {
+                Assert.assertTrue(sample.getLabel() < 0);
+                continue;
+            }
+            if (sample.getLabel() > 0) {
+                Assert.assertEquals(sample.getWeight(), 2.0);
+                positiveWeight += sample.getWeight();
+            }
+            else {
+                Assert.assertEquals(sample.getWeight(), 20.0, 1e-12);
+                negativeWeight += sample.getWeight();
+            }
+        }
+        Assert.assertEquals(positiveWeight, 2.0 * positives);
+        Assert.assertEquals(sampler.getNegatives(), n - positives);
+        Assert.assertEquals(sampler.getKeptNegatives() / (double) sampler.getNegatives(), 0.1, 0.005);
+        // the total weight of the negatives is unbiased
+        Assert.assertEquals(negativeWeight / (2.0 * (n - positives)), 1.0, 0.05);
+        Assert.assertEquals(sampler.getScoreOffset(), 0.0);
+    }
+
+    @Test
+    public void recalibrationTest() {
+        double rate = 0.2;
+        NegativeSampler sampler = new NegativeSampler(rate, false, 0);
+        Assert.assertEquals(sampler.getScoreOffset(), Math.log(rate), 1e-15);
+        Learner learner = new RecalibratedLearner(new SGD_VW(4), sampler.getScoreOffset());
+        learner.setLoss(new LogisticLoss());
+        learner.setLearningRate(0.05);
+        Random rand = new Random(2);
+        for (int i = 0; i < 400000; i++) {
+            Instance sample = constantInstance(rand.nextDouble() < 0.05 ? 1 : -1);
+            if (sampler.sample(sample)) {
+                Assert.assertEquals(sample.getWeight(), 1.0);
+                learner.update(sample);
+            }
+        }
+        // the positives are 5% of the full data, about 20% of the sampled one
+        double probability = 1 / (1 + Math.exp(-learner.predict(constantInstance(1))));
+        Assert.assertEquals(probability, 0.05, 0.01);
+        double sampled = 1 / (1 + Math.exp(-((RecalibratedLearner) learner).getLearner().predict(constantInstance(1))));
+        Assert.assertEquals(sampled, 0.05 / (0.05 + 0.95 * rate), 0.03);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rateTest() {
+        new NegativeSampler(0, true, 0);
+    }
+}
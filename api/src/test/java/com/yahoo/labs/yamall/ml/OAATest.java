@@ -0,0 +1,113 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.ml;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.core.SparseVector;
+
+public class OAATest {
+
+    private static Instance instance(int label, Random rand) {
+        Instance sample = new Instance(label);
+        // the class is given by feature 10+label, plus noise features
+        sample.getVector().put(10 + label, 1.0);
+        sample.getVector().put(100 + rand.nextInt(50), 1.0);
+        sample.getVector().put(0, 1.0);
+        return sample;
+    }
+
+    @Test
+    public void oaaTest() {
+        Random rand = new Random(0);
+        OAA learner = new OAA(10, 5, false);
+        learner.setLoss(new LogisticLoss());
+        for (int i = 0; i < 2000; i++)
+            learner.update(instance(1 + rand.nextInt(5), rand));
+        for (int label = 1; label <= 5; label++) {
+            Instance sample = instance(label, rand);
+            Assert.assertEquals(learner.predict(sample), (double) label);
+            double[] scores = learner.scores(sample);
+            Assert.assertEquals(scores.length, 5);
+            for (int k = 0; k < 5; k++)
+                if (k + 1 != label)
+                    Assert.assertTrue(scores[k] < scores[label - 1]);
+        }
+
+        // the weight of class k for feature 12 is in the strided position
+        SparseVector w = learner.getWeights();
+        Assert.assertTrue(w.get(learner.weightIndex(12, 2)) > 0);
+        Assert.assertTrue(w.get(learner.weightIndex(12, 3)) < 0);
+        Assert.assertEquals(learner.weightIndex(12, 2), 12 * 8 + 1);
+    }
+
+    @Test
+    public void csoaaTest() {
+        Random rand = new Random(0);
+        OAA learner = new OAA(10, 3, true);
+        learner.setLoss(new SquareLoss());
+        for (int i = 0; i < 2000; i++) {
+            int label = 1 + rand.nextInt(3);
+            Instance sample = instance(label, rand);
+            SparseVector costs = new SparseVector();
+            // the next class costs less than the other wrong one
+            for (int k = 1; k <= 3; k++)
+                costs.put(k, k == label ? 0.0 : k == label % 3 + 1 ? 0.5 : 1.0);
+            sample.setCosts(costs);
+            learner.update(sample);
+        }
+        for (int label = 1; label <= 3; label++) {
+            Instance sample = instance(label, rand);
+            Assert.assertEquals(learner.predict(sample), (double) label);
+            double[] scores = learner.scores(sample);
+            Assert.assertEquals(scores[label % 3], 0.5, 0.1);
+        }
+
+        // without costs, nothing is learned
+        OAA unlabeled = new OAA(10, 3, true);
+        unlabeled.setLoss(new SquareLoss());
+        unlabeled.update(instance(1, rand));
+        Assert.assertEquals(unlabeled.getWeights().size(), 0);
+    }
+
+    @Test
+    public void csoaaPartialCostsTest() {
+        Random rand = new Random(0);
+        OAA learner = new OAA(10, 4, true);
+        learner.setLoss(new SquareLoss());
+        for (int i = 0; i < 2000; i++) {
+            // each label lists only the classes 2 and 3, the best one is given by the features
+            int label = 2 + rand.nextInt(2);
+            Instance sample = instance(label, rand);
+            SparseVector costs = new SparseVector();
+            costs.put(2, label == 2 ? 0.0 : 1.0);
+            costs.put(3, label == 3 ? 0.0 : 1.0);
+            sample.setCosts(costs);
+            // the classes never listed keep score 0, below the one of the wrong listed class
+            Assert.assertTrue(costs.containsKey((int) learner.update(sample)));
+        }
+        for (int label = 2; label <= 3; label++) {
+            Instance sample = instance(label, rand);
+            SparseVector costs = new SparseVector();
+            costs.put(2, 0.0);
+            costs.put(3, 0.0);
+            sample.setCosts(costs);
+            Assert.assertEquals(learner.predict(sample), (double) label);
+            // the prediction is among the listed classes only
+            costs.remove(label);
+            Assert.assertEquals(learner.predict(sample), (double) (5 - label));
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void labelTest() {
+        OAA learner = new OAA(10, 3, false);
+        learner.setLoss(new LogisticLoss());
+        learner.update(instance(4, new Random(0)));
+    }
+}
@@ -0,0 +1,115 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.ml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.yahoo.labs.yamall.core.Instance;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+
+public class PredictorTest {
+
+    private static ArrayList<Instance> randomInstances(int num, int bits, Random rand) {
+        ArrayList<Instance> samples = new ArrayList<Instance>();
+        for (int i = 0; i < num; i++) {
+            Instance sample = new Instance(rand.nextBoolean() ? 1.0 : -1.0);
+            for (int j = 0; j < 5; j++)
+                sample.getVector().put(rand.nextInt(1 << bits), rand.nextDouble());
+            sample.getVector().put(0, 1.0);
+            samples.add(sample);
+        }
+        return samples;
+    }
+
+    private static void comparePredictions(Learner learner, ArrayList<Instance> samples)
+            throws IOException, ClassNotFoundException {
+        learner.setLoss(new LogisticLoss());
+        for (Instance sample : samples)
+            learner.update(sample);
+
+        Predictor predictor = Predictor.compile(learner, new LogisticLinkFunction(), -50, 50);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(predictor);
+        oos.close();
+        Predictor copy = (Predictor) new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))
+                .readObject();
+
+        for (Instance sample : samples) {
+            double expected = learner.predict(sample);
+            Assert.assertEquals(predictor.score(sample), expected, 1e-9);
+            Assert.assertEquals(predictor.predict(sample), 1 / (1 + Math.exp(-expected)), 1e-9);
+            Assert.assertEquals(copy.score(sample), expected, 1e-9);
+
+            int[] keys = new int[sample.getVector().size()];
+            double[] values = new double[keys.length];
+            int i = 0;
+            for (Int2DoubleMap.Entry entry : sample.getVector().int2DoubleEntrySet()) {
+                keys[i] = entry.getIntKey();
+                values[i++] = entry.getDoubleValue();
+            }
+            Assert.assertEquals(predictor.score(keys, values, keys.length), expected, 1e-9);
+        }
+    }
+
+    @Test
+    public void compileTest() throws IOException, ClassNotFoundException {
+        Random rand = new Random(0);
+        ArrayList<Instance> samples = randomInstances(1000, 10, rand);
+
+        comparePredictions(new SGD_VW(10), samples);
+        comparePredictions(new SOLO(10), samples);
+        comparePredictions(new PerCoordinatePiSTOL(10), samples);
+        comparePredictions(new PerCoordinateCOCOB(10), samples);
+        comparePredictions(new SGD_FM(10, 4), samples);
+        comparePredictions(new RecalibratedLearner(new SGD_VW(10), Math.log(0.1)), samples);
+        comparePredictions(new RecalibratedLearner(new SGD_FM(10, 4), Math.log(0.1)), samples);
+        // the offsets of nested recalibrations add up
+        comparePredictions(new RecalibratedLearner(new RecalibratedLearner(new SGD_VW(10), Math.log(0.1)), 0.5),
+                samples);
+    }
+
+    @Test
+    public void concurrentTest() throws InterruptedException {
+        Random rand = new Random(1);
+        final ArrayList<Instance> samples = randomInstances(1000, 8, rand);
+        SGD_FM learner = new SGD_FM(8, 4);
+        learner.setLoss(new SquareLoss());
+        for (Instance sample : samples)
+            learner.update(sample);
+        final Predictor predictor = Predictor.compile(learner);
+
+        final double[] expected = new double[samples.size()];
+        for (int i = 0; i < samples.size(); i++)
+            expected[i] = predictor.score(samples.get(i));
+
+        final boolean[] failed = new boolean[1];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int rep = 0; rep < 20; rep++)
+                        for (int i = 0; i < samples.size(); i++)
+                            if (predictor.score(samples.get(i)) != expected[i])
+                                failed[0] = true;
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        Assert.assertFalse(failed[0]);
+    }
+}
@@ -0,0 +1,105 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.ml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.core.SparseVector;
+
+public class QuantizedPredictorTest {
+
+    private static byte[] serialize(Object obj) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(obj);
+        oos.close();
+        return baos.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        return new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+    }
+
+    private static void checkQuantization(int bits) throws IOException, ClassNotFoundException {
+        Random rand = new Random(bits);
+        // sparse weights with very different magnitudes, and a dropped range of zero blocks
+        int size = 1 << 14;
+        double[] w = new double[size];
+        for (int i = 0; i < size; i++)
+            if ((i < 4000 || i > 9000) && rand.nextDouble() < 0.3)
+                w[i] = rand.nextGaussian() * (i % 3 == 0 ? 10 : 0.01);
+        LinearPredictor linear = new LinearPredictor(SparseVector.dense2Sparse(w), new LogisticLinkFunction(), -50,
+                50);
+        QuantizedPredictor quantized = new QuantizedPredictor(linear, bits);
+        QuantizedPredictor copy = (QuantizedPredictor) deserialize(serialize(quantized));
+        Assert.assertEquals(copy.getBits(), bits);
+
+        double[] q = quantized.getWeights().toDenseVector(size);
+        double[] c = copy.getWeights().toDenseVector(size);
+        double maxInt = bits == 8 ? 127 : 32767;
+        for (int b = 0; b < size; b += 256) {
+            double maxAbs = 0;
+            for (int i = b; i < b + 256; i++)
+                maxAbs = Math.max(maxAbs, Math.abs(w[i]));
+            for (int i = b; i < b + 256; i++) {
+                Assert.assertEquals(q[i], w[i], 0.5 * maxAbs / maxInt * 1.0001);
+                Assert.assertEquals(c[i], q[i]);
+                if (w[i] == 0)
+                    Assert.assertEquals(q[i], 0.0);
+            }
+        }
+
+        for (int n = 0; n < 100; n++) {
+            Instance sample = new Instance(1);
+            for (int j = 0; j < 20; j++)
+                sample.getVector().put(rand.nextInt(size + 100), rand.nextDouble());
+            double expected = 0;
+            for (int key : sample.getVector().keySet())
+                if (key < size)
+                    expected += q[key] * sample.getVector().get(key);
+            Assert.assertEquals(quantized.score(sample), expected, 1e-9);
+            Assert.assertEquals(copy.predict(sample), 1 / (1 + Math.exp(-expected)), 1e-9);
+            Assert.assertEquals(quantized.score(sample), linear.score(sample), bits == 8 ? 1 : 0.01);
+        }
+
+        // fewer bits per weight than a dense vector of doubles
+        Assert.assertTrue(serialize(quantized).length * (bits == 8 ? 8 : 4) < serialize(w).length);
+        // and than the sparse weights of the linear predictor
+        Assert.assertTrue(serialize(quantized).length * 3 < serialize(linear).length);
+    }
+
+    @Test
+    public void quantizationTest() throws IOException, ClassNotFoundException {
+        checkQuantization(8);
+        checkQuantization(16);
+    }
+
+    @Test
+    public void offsetTest() {
+        Learner learner = new SGD_VW(8);
+        learner.setLoss(new LogisticLoss());
+        Instance sample = new Instance(1);
+        sample.getVector().put(3, 1.0);
+        for (int i = 0; i < 10; i++)
+            learner.update(sample);
+        Predictor predictor = Predictor.compile(new RecalibratedLearner(learner, -2), new IdentityLinkFunction(), -50,
+                50);
+        QuantizedPredictor quantized = new QuantizedPredictor((LinearPredictor) predictor, 16);
+        Assert.assertEquals(quantized.score(sample), learner.predict(sample) - 2, 1e-3);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void bitsTest() {
+        new QuantizedPredictor(new LinearPredictor(new SparseVector(), new IdentityLinkFunction(), -1, 1), 4);
+    }
+}
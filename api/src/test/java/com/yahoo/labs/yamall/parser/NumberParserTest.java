@@ -0,0 +1,121 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.parser;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class NumberParserTest {
+
+    private static void check(String s) {
+        long expected = Double.doubleToRawLongBits(Double.parseDouble(s));
+        Assert.assertEquals(Double.doubleToRawLongBits(NumberParser.getDoubleExact(s)), expected, s);
+        byte[] bytes = ("xx" + s + "yy").getBytes(StandardCharsets.ISO_8859_1);
+        Assert.assertEquals(Double.doubleToRawLongBits(NumberParser.getDoubleExact(bytes, 2, bytes.length - 2)),
+                expected, s);
+        String padded = "  " + s + " ";
+        Assert.assertEquals(
+                Double.doubleToRawLongBits(NumberParser.getDoubleExact(padded, 2, padded.length() - 1)), expected, s);
+    }
+
+    private static String randomDigits(Random rand, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++)
+            sb.append((char) ('0' + rand.nextInt(10)));
+        return sb.toString();
+    }
+
+    @Test
+    public void specialValuesTest() {
+        String[] values = { "0", "-0", "0.0", "-0.0", "+1", "1", "-1", "0.1", "0.5", ".5", "5.", "3.14159", "1e0",
+                "1E5", "1e-5", "1e+22", "1e23", "9007199254740993", "9007199254740992.5", "123456789012345678901234567890",
+                "2.2250738585072011e-308", "2.2250738585072012e-308", "2.2250738585072014e-308", "4.9e-324",
+                "2.4703282292062327e-324", "2.4703282292062328e-324", "1e-400", "1.7976931348623157e308",
+                "1.7976931348623158e308", "1.7976931348623159e308", "1e309", "0e400", "0.000000000000000000000000001",
+                "7.2057594037927933e16", "1.00000000000000011102230246251565404236316680908203125",
+                "1.00000000000000011102230246251565404236316680908203124",
+                "1.00000000000000011102230246251565404236316680908203126", "00000000000000000000000000001.5",
+                "1000000000000000000000000000000e-30" };
+        for (String s : values)
+            check(s);
+    }
+
+    @Test
+    public void randomDoublesTest() {
+        Random rand = new Random(0);
+        for (int i = 0; i < 100000; i++) {
+            double d = Double.longBitsToDouble(rand.nextLong());
+            if (Double.isNaN(d) || Double.isInfinite(d))
+                continue;
+            // shortest representation
+            check(Double.toString(d));
+            // 17 significant digits
+            check(String.format("%.16e", d));
+        }
+    }
+
+    @Test
+    public void randomDecimalsTest() {
+        Random rand = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            String s = randomDigits(rand, 1 + rand.nextInt(25));
+            if (rand.nextBoolean()) {
+                int point = rand.nextInt(s.length() + 1);
+                s = s.substring(0, point) + "." + s.substring(point);
+            }
+            if (rand.nextBoolean())
+                s = s + (rand.nextBoolean() ? "e" : "E") + (rand.nextBoolean() ? "-" : "") + rand.nextInt(350);
+            if (rand.nextBoolean())
+                s = "-" + s;
+            check(s);
+        }
+    }
+
+    @Test
+    public void halfwayTest() {
+        // exact middle points between consecutive doubles, and the decimals just below and above them
+        Random rand = new Random(2);
+        for (int i = 0; i < 10000; i++) {
+            double d = Double.longBitsToDouble(rand.nextLong() & Long.MAX_VALUE);
+            if (Double.isNaN(d) || Double.isInfinite(d) || d == Double.MAX_VALUE)
+                continue;
+            BigDecimal half = new BigDecimal(d).add(new BigDecimal(Math.nextUp(d))).divide(BigDecimal.valueOf(2));
+            BigDecimal ulp = BigDecimal.ONE.movePointLeft(half.scale() + 1);
+            check(half.toString());
+            check(half.subtract(ulp).toString());
+            check(half.add(ulp).toString());
+            // truncated to 17 and 19 significant digits
+            check(String.format("%.16e", half));
+            check(String.format("%.18e", half));
+        }
+    }
+
+    @Test
+    public void noSpecialTest() {
+        // same syntax of getDoubleNoSpecial
+        Assert.assertEquals(NumberParser.getDoubleExact("2e"), 2.0);
+        Assert.assertEquals(NumberParser.getDoubleExact("-2.5E+"), -2.5);
+        Assert.assertEquals(NumberParser.getDoubleExact("12345678901234567890123e"), 12345678901234567890123.0);
+        String[] invalid = { "", "-", "+", ".", "e5", "1.5.2", "1e5x", "NaN", "Infinity", "1 ", "0x10", "1d" };
+        for (String s : invalid) {
+            try {
+                NumberParser.getDoubleExact(s);
+                Assert.fail(s);
+            }
+            catch (NumberFormatException e) {
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.ISO_8859_1);
+            try {
+                NumberParser.getDoubleExact(bytes, 0, bytes.length);
+                Assert.fail(s);
+            }
+            catch (NumberFormatException e) {
+            }
+        }
+    }
+}
@@ -37,4 +37,49 @@ public class VWParserTest {
         Assert.assertTrue(sample.getTag().equals("-1"));
         Assert.assertTrue(sample.getVector().size() == 2);
     }
+
+    @Test
+    public void vwParserInteractionsTest() {
+        VWParser vwParser = new VWParser(18, null, false, new String[] { "ab", "abc" });
+
+        Instance sample = vwParser.parse("1 |a x y |b:2 z |c w:3");
+        Assert.assertEquals(sample.getVector().size(), 5);
+        Assert.assertEquals(sample.getNumberNamespaces(), 3);
+        // 5 first order, 2 quadratic, 2 cubic
+        Assert.assertEquals(sample.numFeatures(), 9);
+
+        Instance plain = new VWParser(18, null, false).parse("1 |a x y |b:2 z |c w:3");
+        Assert.assertEquals(plain.numFeatures(), 5);
+        Assert.assertEquals(sample.getVector(), plain.getVector());
+    }
+
+    @Test
+    public void vwParserCollisionTest() {
+        // with 4 bits "b y21" has the same hash of "a x"
+        VWParser vwParser = new VWParser(4, null, false, new String[] { "ab" });
+
+        Instance sample = vwParser.parse("1 |a x |b y21");
+        Assert.assertEquals(sample.getVector().size(), 2);
+        // 2 first order, the colliding features are still crossed
+        Assert.assertEquals(sample.numFeatures(), 3);
+    }
+
+    @Test
+    public void vwParserCostsTest() {
+        VWParser vwParser = new VWParser(18, null, false);
+
+        Instance sample = vwParser.parse("1:0.5 2:0.25 3:1 2.0 tag|a x");
+        Assert.assertEquals(sample.getLabel(), 2.0);
+        Assert.assertEquals(sample.getWeight(), 2.0);
+        Assert.assertEquals(sample.getTag(), "tag");
+        Assert.assertEquals(sample.getCosts().size(), 3);
+        Assert.assertEquals(sample.getCosts().get(3), 1.0);
+        Assert.assertEquals(sample.getVector().size(), 2);
+
+        sample = vwParser.parse("2:0 3:1 |a x");
+        Assert.assertEquals(sample.getLabel(), 2.0);
+        Assert.assertEquals(sample.getCosts().size(), 2);
+
+        Assert.assertNull(vwParser.parse("1 |a x").getCosts());
+    }
 }
@@ -0,0 +1,43 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.util;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class CountMinSketchTest {
+
+    @Test
+    public void countTest() {
+        CountMinSketch sketch = new CountMinSketch(4, 16);
+        Random rand = new Random(0);
+        int[] counts = new int[20000];
+        // a few frequent keys and many rare ones
+        for (int i = 0; i < 200000; i++) {
+            int key = rand.nextDouble() < 0.5 ? rand.nextInt(100) : rand.nextInt(counts.length);
+            counts[key]++;
+            Assert.assertEquals(sketch.add(key), sketch.estimate(key));
+        }
+        int overestimated = 0;
+        for (int key = 0; key < counts.length; key++) {
+            int estimate = sketch.estimate(key);
+            Assert.assertTrue(estimate >= Math.min(counts[key], CountMinSketch.MAX_COUNT));
+            if (estimate > counts[key] + 2)
+                overestimated++;
+        }
+        Assert.assertTrue(overestimated < counts.length / 10, "overestimated " + overestimated);
+        Assert.assertEquals(sketch.bytes(), 4 << 16);
+    }
+
+    @Test
+    public void saturationTest() {
+        CountMinSketch sketch = new CountMinSketch(2, 4);
+        for (int i = 0; i < 1000; i++)
+            sketch.add(42);
+        Assert.assertEquals(sketch.estimate(42), CountMinSketch.MAX_COUNT);
+        Assert.assertEquals(sketch.add(42), CountMinSketch.MAX_COUNT);
+    }
+}
@@ -0,0 +1,45 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class DoubleFormatterTest {
+
+    private static void check(double value) {
+        byte[] buffer = new byte[DoubleFormatter.maxLength(value) + 3];
+        int end = DoubleFormatter.format6(value, buffer, 3);
+        Assert.assertEquals(new String(buffer, 3, end - 3, StandardCharsets.UTF_8), String.format("%.6f", value),
+                "value " + value);
+    }
+
+    @Test
+    public void specialValuesTest() {
+        double[] values = { 0.0, -0.0, 1.0, -1.0, 0.5, 0.0000005, 0.0000015, -0.0000005, 1e-9, -1e-9, 0.1234565,
+                2.5e-7, 999999.9999995, 1e9 - 1e-3, 1e9, 1e300, -1e300, Double.MIN_VALUE, Double.MAX_VALUE,
+                Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 50, -50, 0.999999999 };
+        for (double value : values)
+            check(value);
+    }
+
+    @Test
+    public void randomValuesTest() {
+        Random rand = new Random(0);
+        for (int i = 0; i < 200000; i++) {
+            // probabilities, scores, and values of any magnitude
+            check(rand.nextDouble());
+            check((rand.nextDouble() - 0.5) * 100);
+            check(Math.pow(10, rand.nextInt(24) - 12) * (rand.nextDouble() - 0.5));
+            // exact ties and their neighbours in decimal
+            double tie = (rand.nextInt(20000000) + 0.5) / 1e6;
+            check(tie);
+            check(Math.nextUp(tie));
+            check(Math.nextDown(tie));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.util;
+
+import java.util.HashSet;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.yahoo.labs.yamall.parser.VWParser;
+
+public class HashDiagnosticsTest {
+
+    @Test
+    public void collisionsTest() {
+        int bits = 12;
+        HashDiagnostics diagnostics = new HashDiagnostics(bits);
+        HashSet<Integer> slots = new HashSet<Integer>();
+        slots.add(0);
+        int n = 3000;
+        for (int i = 0; i < n; i++) {
+            String name = "a f" + i;
+            int hash = MurmurHash3.murmurhash3_x86_32(name, 0, name.length(), 0);
+            // every name is seen more than once
+            diagnostics.add("a", hash);
+            diagnostics.add("a", hash);
+            slots.add(hash & ((1 << bits) - 1));
+        }
+        Assert.assertEquals(diagnostics.getOccupiedSlots(), slots.size());
+        // the constant feature is counted as a name
+        Assert.assertEquals(diagnostics.getDistinctNames(), n + 1, 0.05 * n);
+        double rate = diagnostics.getCollidedNames() / diagnostics.getDistinctNames();
+        Assert.assertEquals(rate, HashDiagnostics.projectedCollisionRate(n + 1, bits), 0.03);
+        Assert.assertEquals(rate, (n + 1 - slots.size()) / (double) (n + 1), 0.03);
+        Assert.assertTrue(diagnostics.report().contains("collision rate"));
+    }
+
+    @Test
+    public void projectionTest() {
+        Assert.assertEquals(HashDiagnostics.projectedCollisionRate(0, 10), 0.0);
+        Assert.assertEquals(HashDiagnostics.projectedCollisionRate(1, 10), 0.0, 1e-3);
+        Assert.assertTrue(HashDiagnostics.projectedCollisionRate(1000, 18) < HashDiagnostics
+                .projectedCollisionRate(1000, 10));
+        Assert.assertEquals(HashDiagnostics.projectedCollisionRate(1e9, 10), 1.0, 1e-5);
+    }
+
+    @Test
+    public void parserTest() {
+        VWParser parser = new VWParser(18, null, false);
+        HashDiagnostics diagnostics = new HashDiagnostics(18);
+        parser.setHashDiagnostics(diagnostics);
+        parser.parse("1 |a x y z |b x");
+        parser.parse("-1 |a x w");
+        // 5 names and the constant feature, no collisions at 18 bits
+        Assert.assertEquals(diagnostics.getOccupiedSlots(), 6);
+        Assert.assertEquals(diagnostics.getDistinctNames(), 6.0, 1e-9);
+        Assert.assertTrue(diagnostics.report().contains("b "));
+    }
+}
@@ -0,0 +1,23 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.util;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class HyperLogLogTest {
+
+    @Test
+    public void estimateTest() {
+        int[] sizes = { 0, 10, 1000, 20000, 1000000 };
+        for (int n : sizes) {
+            HyperLogLog hll = new HyperLogLog();
+            for (int rep = 0; rep < 2; rep++)
+                for (long i = 0; i < n; i++)
+                    hll.add(MurmurHash3.fmix64(i));
+            // about 5 standard errors
+            Assert.assertEquals(hll.estimate(), n, 0.08 * n + 0.5, "n = " + n);
+        }
+    }
+}
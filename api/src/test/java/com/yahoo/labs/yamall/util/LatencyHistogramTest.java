@@ -0,0 +1,37 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.util;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentileTest() {
+        LatencyHistogram h = new LatencyHistogram();
+        Assert.assertEquals(h.percentile(50), 0);
+
+        for (long i = 1; i <= 10000; i++)
+            h.record(i * 1000);
+        Assert.assertEquals(h.count(), 10000);
+
+        // the relative error of the buckets is at most 1/16
+        long p50 = h.percentile(50);
+        Assert.assertTrue(p50 >= 5000000 && p50 <= 5000000 * 17 / 16, "p50=" + p50);
+        long p99 = h.percentile(99);
+        Assert.assertTrue(p99 >= 9900000 && p99 <= 9900000 * 17 / 16, "p99=" + p99);
+        Assert.assertTrue(h.percentile(100) >= 10000000);
+
+        LatencyHistogram other = new LatencyHistogram();
+        other.record(7);
+        other.record(Long.MAX_VALUE);
+        h.merge(other);
+        Assert.assertEquals(h.count(), 10002);
+        Assert.assertEquals(h.percentile(0), 7);
+
+        h.reset();
+        Assert.assertEquals(h.count(), 0);
+    }
+}
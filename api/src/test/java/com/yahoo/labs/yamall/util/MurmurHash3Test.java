@@ -3,6 +3,7 @@
 // Please see LICENSE file in the project root for terms.
 package com.yahoo.labs.yamall.util;
 
+import java.util.Random;
 import java.util.UUID;
 
 import org.testng.Assert;
@@ -29,4 +30,26 @@ public class MurmurHash3Test {
         Assert.assertTrue(max <= mask);
     }
 
+    @Test
+    public void prefixStateTest() {
+        Random rand = new Random(0);
+        // ascii, 2 and 3 bytes characters and surrogate pairs
+        String[] alphabet = { "a", "b", "_", " ", "\u00e8", "\u4e2d", "\ud83d\ude00" };
+        for (int i = 0; i < 10000; i++) {
+            StringBuilder prefix = new StringBuilder();
+            StringBuilder suffix = new StringBuilder();
+            int lenPrefix = rand.nextInt(10);
+            int lenSuffix = rand.nextInt(10);
+            for (int j = 0; j < lenPrefix; j++)
+                prefix.append(alphabet[rand.nextInt(alphabet.length)]);
+            for (int j = 0; j < lenSuffix; j++)
+                suffix.append(alphabet[rand.nextInt(alphabet.length)]);
+            String full = prefix.toString() + suffix.toString();
+
+            int[] state = MurmurHash3.prefixState(prefix, 0, prefix.length(), 0);
+            Assert.assertEquals(MurmurHash3.murmurhash3_x86_32(state, suffix, 0, suffix.length()),
+                    MurmurHash3.murmurhash3_x86_32(full, 0, full.length(), 0));
+        }
+    }
+
 }
@@ -0,0 +1,193 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdOutputStream;
+
+public class ParallelGzipInputStreamTest {
+
+    private static byte[] randomText(int size) {
+        Random rand = new Random(0);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++)
+            data[i] = (byte) (rand.nextInt(20) == 0 ? '\n' : 'a' + rand.nextInt(5));
+        return data;
+    }
+
+    private static void writeInt16(OutputStream out, int v) throws IOException {
+        out.write(v & 0xff);
+        out.write((v >> 8) & 0xff);
+    }
+
+    private static void writeInt32(OutputStream out, int v) throws IOException {
+        writeInt16(out, v & 0xffff);
+        writeInt16(out, (v >>> 16) & 0xffff);
+    }
+
+    /*
+     * Writes a BGZF block as bgzip does.
+     */
+    private static void writeBGZFBlock(OutputStream out, byte[] data, int off, int len) throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data, off, len);
+        deflater.finish();
+        byte[] compressed = new byte[len + 1024];
+        int clen = deflater.deflate(compressed);
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(data, off, len);
+
+        out.write(new byte[] { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff });
+        writeInt16(out, 6);
+        out.write(new byte[] { 'B', 'C' });
+        writeInt16(out, 2);
+        writeInt16(out, 18 + clen + 8 - 1);
+        out.write(compressed, 0, clen);
+        writeInt32(out, (int) crc.getValue());
+        writeInt32(out, len);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[7919];
+        int n;
+        while ((n = in.read(buf)) >= 0)
+            out.write(buf, 0, n);
+        in.close();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void bgzfTest() throws IOException {
+        byte[] data = randomText(1000000);
+        File file = File.createTempFile("yamall", ".gz");
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        for (int i = 0; i < data.length; i += 60000)
+            writeBGZFBlock(out, data, i, Math.min(60000, data.length - i));
+        // empty end of file block
+        writeBGZFBlock(out, data, 0, 0);
+        out.close();
+
+        Assert.assertTrue(Arrays.equals(readAll(ParallelGzipInputStream.open(file.getPath(), 4)), data));
+    }
+
+    @Test
+    public void gzipTest() throws IOException {
+        byte[] data = randomText(3000000);
+        File file = File.createTempFile("yamall", ".gz");
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        // two concatenated members
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(data, 0, 1000000);
+        gzip.finish();
+        gzip = new GZIPOutputStream(out);
+        gzip.write(data, 1000000, data.length - 1000000);
+        gzip.close();
+
+        Assert.assertTrue(Arrays.equals(readAll(ParallelGzipInputStream.open(file.getPath(), 4)), data));
+    }
+
+    @Test
+    public void zstdFramesTest() throws IOException {
+        byte[] data = randomText(3000000);
+        File file = File.createTempFile("yamall", ".zst");
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        // independent frames with their sizes, as pzstd writes them
+        for (int i = 0; i < 2000000; i += 100000)
+            out.write(Zstd.compress(Arrays.copyOfRange(data, i, i + 100000), 3));
+        // a skippable frame
+        writeInt32(out, 0x184d2a5e);
+        writeInt32(out, 5);
+        out.write(new byte[5]);
+        // an empty frame and a frame with checksum and without size, written by the stream
+        out.write(Zstd.compress(new byte[0], 3));
+        ZstdOutputStream zstd = new ZstdOutputStream(new NonClosingOutputStream(out));
+        zstd.setChecksum(true);
+        zstd.write(data, 2000000, data.length - 2000000);
+        zstd.close();
+        out.close();
+
+        Assert.assertTrue(Arrays.equals(readAll(ParallelGzipInputStream.open(file.getPath(), 4)), data));
+    }
+
+    @Test
+    public void zstdStreamTest() throws IOException {
+        byte[] data = randomText(3000000);
+        File file = File.createTempFile("yamall", ".zst");
+        file.deleteOnExit();
+        // a single frame without its size, decompressed by the reader thread
+        ZstdOutputStream zstd = new ZstdOutputStream(new FileOutputStream(file));
+        zstd.write(data);
+        zstd.close();
+
+        Assert.assertTrue(Arrays.equals(readAll(ParallelGzipInputStream.open(file.getPath(), 4)), data));
+    }
+
+    @Test
+    public void bzip2Test() throws IOException {
+        byte[] data = randomText(1500000);
+        File file = File.createTempFile("yamall", ".bz2");
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        // two concatenated streams
+        BZip2CompressorOutputStream bzip2 = new BZip2CompressorOutputStream(new NonClosingOutputStream(out));
+        bzip2.write(data, 0, 1000000);
+        bzip2.close();
+        bzip2 = new BZip2CompressorOutputStream(out);
+        bzip2.write(data, 1000000, data.length - 1000000);
+        bzip2.close();
+
+        Assert.assertTrue(Arrays.equals(readAll(ParallelGzipInputStream.open(file.getPath(), 4)), data));
+    }
+
+    /*
+     * Stream to write many compressed streams in the same file.
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    @Test
+    public void plainTest() throws IOException {
+        byte[] data = randomText(100000);
+        File file = File.createTempFile("yamall", ".txt");
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+
+        Assert.assertTrue(Arrays.equals(readAll(ParallelGzipInputStream.open(file.getPath(), 4)), data));
+    }
+}
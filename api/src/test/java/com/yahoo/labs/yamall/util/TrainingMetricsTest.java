@@ -0,0 +1,71 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.yahoo.labs.yamall.ml.SGD_VW;
+
+public class TrainingMetricsTest {
+
+    @Test
+    public void examplesTest() {
+        TrainingMetrics metrics = new TrainingMetrics();
+        for (int i = 0; i < 1000; i++)
+            metrics.recordExample(10, 0.5 * 2, 2, 100);
+        // not published yet
+        Assert.assertEquals(metrics.getExamples(), 0);
+        metrics.publish();
+        Assert.assertEquals(metrics.getExamples(), 1000);
+        Assert.assertEquals(metrics.getFeaturesPerExample(), 10.0, 1e-12);
+        Assert.assertEquals(metrics.getAverageLoss(), 0.5, 1e-12);
+        Assert.assertEquals(metrics.getUpdateNanosPerExample(), 100.0, 1e-12);
+
+        // published automatically every 1024 examples
+        for (int i = 0; i < 100; i++)
+            metrics.recordExample(10, 0, 1, 100);
+        Assert.assertEquals(metrics.getExamples(), 1024);
+
+        metrics.recordParse(256, 256 * 50);
+        Assert.assertEquals(metrics.getParseNanosPerExample(), 50.0, 1e-12);
+    }
+
+    @Test
+    public void modelBytesTest() {
+        TrainingMetrics metrics = new TrainingMetrics();
+        metrics.setModel(new SGD_VW(10));
+        Assert.assertTrue(metrics.getModelBytes() >= 8 * 1024);
+    }
+
+    @Test
+    public void cacheReadTest() throws IOException {
+        TrainingMetrics metrics = new TrainingMetrics();
+        InputStream in = new MeteredInputStream(new ByteArrayInputStream(new byte[10000]), metrics);
+        byte[] buf = new byte[4096];
+        while (in.read(buf) >= 0)
+            ;
+        in.read();
+        in.close();
+        Assert.assertEquals(metrics.getCacheBytesRead(), 10000);
+    }
+
+    @Test
+    public void jmxTest() throws Exception {
+        TrainingMetrics metrics = new TrainingMetrics();
+        metrics.recordExample(3, 1, 1, 10);
+        metrics.publish();
+        Assert.assertTrue(metrics.register("test"));
+        ObjectName name = new ObjectName("com.yahoo.labs.yamall:type=TrainingMetrics,name=test");
+        Assert.assertEquals(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Examples"), 1L);
+        Assert.assertTrue(metrics.toJSON().contains("\"examples\":1,"));
+    }
+}
@@ -0,0 +1,227 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.hadoop;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+
+import com.yahoo.labs.yamall.hadoop.core.InstanceWritable;
+import com.yahoo.labs.yamall.parser.InstanceParser;
+import com.yahoo.labs.yamall.parser.TSVParser;
+import com.yahoo.labs.yamall.parser.VWParser;
+
+/**
+ * Yamall - Hadoop version
+ *
+ * Parse the examples once and save them hashed in block compressed SequenceFiles, which Train and Test read with
+ * yamall.parser=converted, without parsing them again. The options used to parse the examples, yamall.bit_precision and
+ * yamall.ignore, are saved in the metadata of each file, so that the jobs reading them can check them.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class Convert extends Configured implements Tool {
+
+    // options of the parsing saved in the metadata of the converted files
+    private static final String[] SETTINGS = { "yamall.bit_precision", "yamall.ignore" };
+
+    /**
+     * Mapper - Parse the examples and write them as instances
+     *
+     * @author Francesco Orabona
+     *
+     */
+    public static class ConvertMapper extends Mapper<Object, Text, NullWritable, InstanceWritable> {
+
+        private InstanceParser parser;
+        private static final String SPEC_FILE = "spec.txt";
+
+        @Override
+        protected void setup(Mapper<Object, Text, NullWritable, InstanceWritable>.Context context)
+                throws IOException, InterruptedException {
+            super.setup(context);
+
+            Configuration config = context.getConfiguration();
+
+            if (config.get("yamall.parser").equals("vw"))
+                parser = new VWParser(Integer.parseInt(config.get("yamall.bit_precision")), config.get("yamall.ignore"),
+                        false);
+            else {
+                FileSystem fileSystem = FileSystem.get(config);
+                fileSystem.copyToLocalFile(new Path(config.get("yamall.parser_spec")), new Path(SPEC_FILE));
+
+                String spec = new String(Files.readAllBytes(Paths.get(SPEC_FILE)));
+
+                parser = new TSVParser(Integer.parseInt(config.get("yamall.bit_precision")),
+                        config.get("yamall.ignore"), false, spec);
+            }
+        }
+
+        public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
+            context.write(NullWritable.get(), new InstanceWritable(parser.parse(value.toString())));
+        }
+    }
+
+    /**
+     * OutputFormat - Write the instances in SequenceFiles with the options of the parsing in their metadata
+     *
+     * @author Francesco Orabona
+     *
+     */
+    public static class ConvertOutputFormat extends SequenceFileOutputFormat<NullWritable, InstanceWritable> {
+
+        @Override
+        protected SequenceFile.Writer getSequenceWriter(TaskAttemptContext context, Class<?> keyClass,
+                Class<?> valueClass) throws IOException {
+            Configuration conf = context.getConfiguration();
+
+            CompressionCodec codec = null;
+            CompressionType compressionType = CompressionType.NONE;
+            if (getCompressOutput(context)) {
+                compressionType = getOutputCompressionType(context);
+                codec = ReflectionUtils.newInstance(getOutputCompressorClass(context, DefaultCodec.class), conf);
+            }
+
+            SequenceFile.Metadata metadata = new SequenceFile.Metadata();
+            for (String name : SETTINGS)
+                metadata.set(new Text(name), new Text(conf.get(name, "")));
+
+            return SequenceFile.createWriter(conf, SequenceFile.Writer.file(getDefaultWorkFile(context, "")),
+                    SequenceFile.Writer.keyClass(keyClass), SequenceFile.Writer.valueClass(valueClass),
+                    SequenceFile.Writer.compression(compressionType, codec),
+                    SequenceFile.Writer.progressable(context), SequenceFile.Writer.metadata(metadata));
+        }
+    }
+
+    /**
+     * Reads the options used to parse the examples converted in a file, or in the first file of a directory, and sets
+     * the ones missing in the configuration.
+     *
+     * @param conf
+     *            configuration of the job reading the examples.
+     * @param path
+     *            converted file or directory.
+     * @throws IOException
+     *             if the examples were not converted by Convert, or an option is set to a different value.
+     */
+    public static void readSettings(Configuration conf, Path path) throws IOException {
+        FileSystem fileSystem = path.getFileSystem(conf);
+        Path file = path;
+        if (fileSystem.getFileStatus(path).isDirectory()) {
+            file = null;
+            for (FileStatus status : fileSystem.listStatus(path)) {
+                String name = status.getPath().getName();
+                if (status.isFile() && !name.startsWith("_") && !name.startsWith(".")) {
+                    file = status.getPath();
+                    break;
+                }
+            }
+            if (file == null)
+                throw new IOException("No converted examples in " + path);
+        }
+
+        SequenceFile.Metadata metadata;
+        SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(file));
+        try {
+            metadata = reader.getMetadata();
+        }
+        finally {
+            reader.close();
+        }
+
+        for (String name : SETTINGS) {
+            Text value = metadata.get(new Text(name));
+            if (value == null)
+                throw new IOException("The examples in " + file + " were not converted by Convert");
+            if (conf.get(name) == null)
+                conf.set(name, value.toString());
+            else if (!conf.get(name).equals(value.toString()))
+                throw new IOException("The examples in " + file + " were converted with " + name + "=" + value
+                        + ", not " + conf.get(name));
+        }
+    }
+
+    public static void startLogger(Level level) {
+        Logger rootLogger = Logger.getRootLogger();
+        rootLogger.setLevel(level);
+        ConsoleAppender ca = new ConsoleAppender();
+        ca.setWriter(new OutputStreamWriter(System.out));
+        ca.setLayout(new PatternLayout("%-5p [%t]: %m%n"));
+        rootLogger.addAppender(ca);
+    }
+
+    /**
+     * Run the map-only job
+     */
+    public final int run(final String[] args) throws Exception {
+
+        startLogger(Level.INFO);
+
+        Configuration conf = getConf();
+        conf.setIfUnset("yamall.bit_precision", "18");
+        conf.setIfUnset("yamall.parser", "vw");
+        if (conf.get("yamall.parser").equals("converted")) {
+            System.out.println("The input of Convert must be in vw or tsv format");
+            return 1;
+        }
+
+        // Print to screen all the options
+        TreeMap<String, String> map = new TreeMap<String, String>();
+        for (Map.Entry<String, String> entry : conf) {
+            map.put(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            System.out.printf("%s=%s\n", entry.getKey(), entry.getValue());
+        }
+
+        Job job = Job.getInstance(conf, "Yamall Convert on MapReduce");
+        job.setNumReduceTasks(0);
+        job.setJarByClass(Convert.class);
+        job.setMapperClass(ConvertMapper.class);
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(InstanceWritable.class);
+        job.setOutputFormatClass(ConvertOutputFormat.class);
+        FileOutputFormat.setCompressOutput(job, true);
+        SequenceFileOutputFormat.setOutputCompressionType(job, CompressionType.BLOCK);
+        FileInputFormat.addInputPath(job, new Path(args[0]));
+        FileOutputFormat.setOutputPath(job, new Path(args[1]));
+
+        return job.waitForCompletion(true) ? 0 : 1;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        int res = ToolRunner.run(conf, new Convert(), args);
+        System.exit(res);
+    }
+}
@@ -3,12 +3,15 @@
 // Please see LICENSE file in the project root for terms.
 package com.yahoo.labs.yamall.hadoop;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.UUID;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
@@ -17,10 +20,14 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Cluster;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobSubmissionFiles;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
@@ -33,8 +40,12 @@ import org.apache.log4j.PatternLayout;
 
 import com.yahoo.labs.yamall.core.Instance;
 import com.yahoo.labs.yamall.hadoop.core.CompositeDoubleTextWritable;
+import com.yahoo.labs.yamall.hadoop.core.InstanceWritable;
 import com.yahoo.labs.yamall.ml.IOLearner;
 import com.yahoo.labs.yamall.ml.Learner;
+import com.yahoo.labs.yamall.ml.LinearPredictor;
+import com.yahoo.labs.yamall.ml.MappedPredictor;
+import com.yahoo.labs.yamall.ml.Predictor;
 import com.yahoo.labs.yamall.parser.InstanceParser;
 import com.yahoo.labs.yamall.parser.TSVParser;
 import com.yahoo.labs.yamall.parser.VWParser;
@@ -44,11 +55,17 @@ import com.yahoo.labs.yamall.parser.VWParser;
  * 
  * Test a yamall model.
  * 
+ * Linear models are converted to the layout of MappedPredictor in the staging directory of the job, and sent to the
+ * mappers with the distributed cache: the tasks on the same node memory-map the same local copy.
+ * 
  * @author Francesco Orabona
  * @version 1.0
  */
 public class Test extends Configured implements Tool {
 
+    private static final String MODEL_BIN = "model.bin";
+    private static final String MODEL_MAP = "model.map";
+
     /**
      * Mapper - Read examples and write them
      * 
@@ -57,9 +74,8 @@ public class Test extends Configured implements Tool {
      */
     public static class TestMapper extends Mapper<Object, Text, DoubleWritable, CompositeDoubleTextWritable> {
 
-        private static final String MODEL_BIN = "model.bin";
         private InstanceParser parser;
-        private Learner learner;
+        private Predictor predictor;
         private static final String SPEC_FILE = "spec.txt";
 
         @Override
@@ -69,16 +85,13 @@ public class Test extends Configured implements Tool {
 
             Configuration config = context.getConfiguration();
 
-            // move model to the node
-            FileSystem fileSystem = FileSystem.get(config);
-            fileSystem.copyToLocalFile(new Path(config.get("yamall.vw_model")), new Path(MODEL_BIN));
-
-            learner = IOLearner.loadLearner(MODEL_BIN);
+            predictor = loadPredictor(config);
 
             if (config.get("yamall.parser").equals("vw"))
                 parser = new VWParser(Integer.parseInt(config.get("yamall.bit_precision")), config.get("yamall.ignore"),
                         false);
             else {
+                FileSystem fileSystem = FileSystem.get(config);
                 fileSystem.copyToLocalFile(new Path(config.get("yamall.parser_spec")), new Path(SPEC_FILE));
 
                 String spec = new String(Files.readAllBytes(Paths.get(SPEC_FILE)));
@@ -91,7 +104,42 @@ public class Test extends Configured implements Tool {
         public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
             Instance sample = parser.parse(value.toString());
 
-            double pred = learner.predict(sample);
+            double pred = predictor.score(sample);
+
+            CompositeDoubleTextWritable dt = new CompositeDoubleTextWritable(sample.getLabel(), sample.getTag());
+
+            context.write(new DoubleWritable(pred), dt);
+        }
+    }
+
+    /**
+     * Mapper - Read examples converted by Convert and write them
+     *
+     * @author Francesco Orabona
+     *
+     */
+    public static class ConvertedTestMapper
+            extends Mapper<NullWritable, InstanceWritable, DoubleWritable, CompositeDoubleTextWritable> {
+
+        private Predictor predictor;
+
+        @Override
+        protected void setup(
+                Mapper<NullWritable, InstanceWritable, DoubleWritable, CompositeDoubleTextWritable>.Context context)
+                throws IOException, InterruptedException {
+            super.setup(context);
+
+            // the examples of the split must be converted with the options of the job
+            Convert.readSettings(context.getConfiguration(), ((FileSplit) context.getInputSplit()).getPath());
+
+            predictor = loadPredictor(context.getConfiguration());
+        }
+
+        public void map(NullWritable key, InstanceWritable value, Context context)
+                throws IOException, InterruptedException {
+            Instance sample = value.getInstance();
+
+            double pred = predictor.score(sample);
 
             CompositeDoubleTextWritable dt = new CompositeDoubleTextWritable(sample.getLabel(), sample.getTag());
 
@@ -99,6 +147,63 @@ public class Test extends Configured implements Tool {
         }
     }
 
+    /*
+     * Returns the predictor of the mappers: the mapped model in the distributed cache, or the model copied from HDFS.
+     */
+    static Predictor loadPredictor(Configuration config) throws IOException {
+        if (config.getBoolean("yamall.mapped", false))
+            // the pages of the file are shared by the tasks on the same node
+            return MappedPredictor.open(MODEL_MAP);
+
+        // move model to the node
+        FileSystem fileSystem = FileSystem.get(config);
+        fileSystem.copyToLocalFile(new Path(config.get("yamall.vw_model")), new Path(MODEL_BIN));
+
+        Learner learner = IOLearner.loadLearner(MODEL_BIN);
+        if (learner == null)
+            throw new IOException("Cannot load the model " + config.get("yamall.vw_model"));
+        return Predictor.compile(learner);
+    }
+
+    /*
+     * Writes a mappable copy of the model in the staging directory of the jobs of the user and returns it, or null if
+     * the model is not linear. The copy must be deleted when the job ends.
+     */
+    static Path mappedModel(Configuration config, Path model) throws IOException, InterruptedException {
+        FileSystem fileSystem = model.getFileSystem(config);
+        Cluster cluster = new Cluster(config);
+        Path mapped;
+        try {
+            mapped = new Path(JobSubmissionFiles.getStagingDir(cluster, config),
+                    "yamall-" + UUID.randomUUID() + ".map");
+        }
+        finally {
+            cluster.close();
+        }
+
+        File local = File.createTempFile("yamall", ".bin");
+        File localMapped = File.createTempFile("yamall", ".map");
+        try {
+            // raw copy, without the checksum file
+            fileSystem.copyToLocalFile(false, model, new Path(local.getPath()), true);
+            Learner learner = IOLearner.loadLearner(local.getPath());
+            if (learner == null)
+                throw new IOException("Cannot load the model " + model);
+            Predictor predictor = Predictor.compile(learner);
+            if (!(predictor instanceof LinearPredictor)) {
+                System.out.println("The model is not linear, it will be loaded by each mapper");
+                return null;
+            }
+            MappedPredictor.save((LinearPredictor) predictor, localMapped.getPath());
+            mapped.getFileSystem(config).copyFromLocalFile(false, true, new Path(localMapped.getPath()), mapped);
+            return mapped;
+        }
+        finally {
+            local.delete();
+            localMapped.delete();
+        }
+    }
+
     /**
      * Reducer - For each example, sum losses and weights.
      * 
@@ -186,8 +291,24 @@ public class Test extends Configured implements Tool {
 
         Configuration conf = getConf();
         conf.set("yamall.vw_model", args[2]);
-        conf.setIfUnset("yamall.bit_precision", "18");
         conf.setIfUnset("yamall.parser", "vw");
+        // the examples converted by Convert are already parsed with the options saved in them
+        if (conf.get("yamall.parser").equals("converted")) {
+            try {
+                Convert.readSettings(conf, new Path(args[0]));
+            }
+            catch (IOException e) {
+                System.out.println(e.getMessage());
+                return 1;
+            }
+        }
+        conf.setIfUnset("yamall.bit_precision", "18");
+
+        // distribute the model in the mappable layout
+        Path mapped = null;
+        if (conf.getBoolean("yamall.mapped_model", true))
+            mapped = mappedModel(conf, new Path(args[2]));
+        conf.setBoolean("yamall.mapped", mapped != null);
 
         // Print to screen all the options
         TreeMap<String, String> map = new TreeMap<String, String>();
@@ -201,16 +322,30 @@ public class Test extends Configured implements Tool {
         Job job = Job.getInstance(conf, "Yamall Test on MapReduce");
         job.setNumReduceTasks(1);
         job.setJarByClass(Test.class);
-        job.setMapperClass(TestMapper.class);
+        if (conf.get("yamall.parser").equals("converted")) {
+            // examples already parsed by Convert
+            job.setInputFormatClass(SequenceFileInputFormat.class);
+            job.setMapperClass(ConvertedTestMapper.class);
+        }
+        else
+            job.setMapperClass(TestMapper.class);
         job.setMapOutputKeyClass(DoubleWritable.class);
         job.setReducerClass(TestReducer.class);
         job.setOutputKeyClass(NullWritable.class);
         job.setOutputValueClass(CompositeDoubleTextWritable.class);
+        if (mapped != null)
+            job.addCacheFile(new URI(mapped.toUri() + "#" + MODEL_MAP));
         FileInputFormat.addInputPath(job, new Path(args[0]));
         FileOutputFormat.setOutputPath(job, new Path(args[1]));
         MultipleOutputs.addNamedOutput(job, "out", TextOutputFormat.class, NullWritable.class, Text.class);
 
-        return job.waitForCompletion(true) ? 0 : 1;
+        try {
+            return job.waitForCompletion(true) ? 0 : 1;
+        }
+        finally {
+            if (mapped != null)
+                mapped.getFileSystem(conf).delete(mapped, false);
+        }
     }
 
     public static void main(final String[] args) throws Exception {
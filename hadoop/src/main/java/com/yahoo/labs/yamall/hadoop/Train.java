@@ -16,11 +16,15 @@ import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
@@ -34,13 +38,17 @@ import com.yahoo.labs.yamall.hadoop.core.HashMapInt2StringWritable;
 import com.yahoo.labs.yamall.hadoop.core.InstanceNoTagWritable;
 import com.yahoo.labs.yamall.hadoop.core.InstanceOrHashMapWritable;
 import com.yahoo.labs.yamall.hadoop.core.InstanceOrHashMapWritable.TypeWritable;
+import com.yahoo.labs.yamall.hadoop.core.InstanceWritable;
 import com.yahoo.labs.yamall.ml.IOLearner;
 import com.yahoo.labs.yamall.ml.Learner;
 import com.yahoo.labs.yamall.ml.LogisticLoss;
+import com.yahoo.labs.yamall.ml.NegativeSampler;
+import com.yahoo.labs.yamall.ml.RecalibratedLearner;
 import com.yahoo.labs.yamall.ml.SGD_VW;
 import com.yahoo.labs.yamall.parser.InstanceParser;
 import com.yahoo.labs.yamall.parser.TSVParser;
 import com.yahoo.labs.yamall.parser.VWParser;
+import com.yahoo.labs.yamall.util.TrainingMetrics;
 
 /**
  * Yamall - Hadoop version
@@ -62,6 +70,7 @@ public class Train extends Configured implements Tool {
 
         private Random rand;
         private InstanceParser parser;
+        private NegativeSampler sampler = null;
         private static final String SPEC_FILE = "spec.txt";
 
         @Override
@@ -84,19 +93,12 @@ public class Train extends Configured implements Tool {
                 parser = new TSVParser(Integer.parseInt(config.get("yamall.bit_precision")),
                         config.get("yamall.ignore"), true, spec);
             }
+
+            sampler = createSampler(config, rand);
         }
 
         public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
-
-            Instance sample = parser.parse(value.toString());
-
-            InstanceNoTagWritable tmp = new InstanceNoTagWritable();
-            tmp.setLabel(sample.getLabel());
-            tmp.setWeight(sample.getWeight());
-            tmp.getSparseVector().setEntries(sample.getVector());
-
-            // key is random because we want to shuffle the examples
-            context.write(new DoubleWritable(rand.nextDouble()), new InstanceOrHashMapWritable(tmp));
+            shuffle(parser.parse(value.toString()), sampler, rand, context);
         }
 
         protected void cleanup(Mapper<Object, Text, DoubleWritable, InstanceOrHashMapWritable>.Context context)
@@ -110,6 +112,68 @@ public class Train extends Configured implements Tool {
         }
     }
 
+    /**
+     * Mapper - Read examples converted by Convert and write them shuffled
+     *
+     * @author Francesco Orabona
+     *
+     */
+    public static class ConvertedTrainMapper
+            extends Mapper<NullWritable, InstanceWritable, DoubleWritable, InstanceOrHashMapWritable> {
+
+        private Random rand;
+        private NegativeSampler sampler = null;
+
+        @Override
+        protected void setup(Mapper<NullWritable, InstanceWritable, DoubleWritable, InstanceOrHashMapWritable>.Context context)
+                throws IOException, InterruptedException {
+            super.setup(context);
+
+            // the examples of the split must be converted with the options of the job
+            Convert.readSettings(context.getConfiguration(), ((FileSplit) context.getInputSplit()).getPath());
+
+            rand = new Random();
+            sampler = createSampler(context.getConfiguration(), rand);
+        }
+
+        public void map(NullWritable key, InstanceWritable value, Context context)
+                throws IOException, InterruptedException {
+            shuffle(value.getInstance(), sampler, rand, context);
+        }
+    }
+
+    /*
+     * Returns the sampler of the negatives, null if they are all kept.
+     */
+    static NegativeSampler createSampler(Configuration config, Random rand) {
+        double samplingRate = Double.parseDouble(config.get("yamall.negative_sampling"));
+        if (samplingRate < 1)
+            return new NegativeSampler(samplingRate, !config.getBoolean("yamall.negative_sampling_recalibrate", false),
+                    rand.nextLong());
+        return null;
+    }
+
+    /*
+     * Writes a sample with a random key, unless it is dropped by the sampler.
+     */
+    static void shuffle(Instance sample, NegativeSampler sampler, Random rand,
+            TaskInputOutputContext<?, ?, DoubleWritable, InstanceOrHashMapWritable> context)
+            throws IOException, InterruptedException {
+        // drop some of the negatives, reweighting the others if requested
+        if (sampler != null && !sampler.sample(sample)) {
+            context.getCounter("yamall", "dropped negatives").increment(1);
+            return;
+        }
+
+        InstanceNoTagWritable tmp = new InstanceNoTagWritable();
+        tmp.setLabel(sample.getLabel());
+        tmp.setWeight(sample.getWeight());
+        tmp.getSparseVector().setEntries(sample.getVector());
+
+        // key is random because we want to shuffle the examples
+        context.write(new DoubleWritable(rand.nextDouble()), new InstanceOrHashMapWritable(tmp));
+    }
+
     /**
      * Reducer - For each example arrived, push it to learner class. When finished, save the model and move to HDFS
      * 
@@ -122,6 +186,8 @@ public class Train extends Configured implements Tool {
         private static final String MODEL_TXT = "model.txt";
         private Learner learner;
         private HashMapInt2StringWritable hm;
+        private TrainingMetrics metrics;
+        private Thread metricsDump;
 
         /**
          * Reducer starts
@@ -138,6 +204,12 @@ public class Train extends Configured implements Tool {
             // learner = new PerCoordinatePiSTOL(18);
             learner.setLoss(new LogisticLoss());
             hm = new HashMapInt2StringWritable();
+
+            // runtime metrics, exposed through JMX and written to the task log
+            metrics = new TrainingMetrics();
+            metrics.setModel(learner);
+            metrics.register("reducer");
+            metricsDump = metrics.startDump(System.err, Long.parseLong(config.get("yamall.metrics_interval")) * 1000);
         }
 
         /**
@@ -149,16 +221,26 @@ public class Train extends Configured implements Tool {
 
             Configuration config = context.getConfiguration();
 
-            // save the model to local file
-            IOLearner.saveLearner(learner, MODEL_BIN);
+            metricsDump.interrupt();
+            metrics.publish();
+            System.err.println(metrics.toJSON());
+
+            // save the model to local file, recalibrated if the negatives were sampled without reweighting
+            double samplingRate = Double.parseDouble(config.get("yamall.negative_sampling"));
+            if (samplingRate < 1 && config.getBoolean("yamall.negative_sampling_recalibrate", false))
+                IOLearner.saveLearner(new RecalibratedLearner(learner, Math.log(samplingRate)), MODEL_BIN);
+            else
+                IOLearner.saveLearner(learner, MODEL_BIN);
             // move it to HDFS
             FileSystem fileSystem = FileSystem.get(config);
             fileSystem.moveFromLocalFile(new Path(MODEL_BIN), new Path(config.get("yamall.output")));
 
-            // save the readable model to local file
-            IOLearner.saveInvertHash(learner.getWeights(), hm.getEntries(), MODEL_TXT);
-            // move it to HDFS
-            fileSystem.moveFromLocalFile(new Path(MODEL_TXT), new Path(config.get("yamall.output")));
+            // save the readable model to local file, the names of the features are not in the converted examples
+            if (!config.get("yamall.parser").equals("converted")) {
+                IOLearner.saveInvertHash(learner.getWeights(), hm.getEntries(), MODEL_TXT);
+                // move it to HDFS
+                fileSystem.moveFromLocalFile(new Path(MODEL_TXT), new Path(config.get("yamall.output")));
+            }
 
             super.cleanup(context);
         }
@@ -178,7 +260,12 @@ public class Train extends Configured implements Tool {
                     sample.setLabel(tmp.getLabel());
                     sample.setWeight(tmp.getWeight());
                     sample.setVector(tmp.getSparseVector().getEntries());
-                    learner.update(sample);
+                    long start = System.nanoTime();
+                    double score = learner.update(sample);
+                    long nanos = System.nanoTime() - start;
+                    metrics.recordExample(sample.getNumberVisitedFeatures(),
+                            learner.getLoss().lossValue(score, sample.getLabel()) * sample.getWeight(),
+                            sample.getWeight(), nanos);
                 }
                 else
                     hm.merge((HashMapInt2StringWritable) val.getObject());
@@ -204,8 +291,20 @@ public class Train extends Configured implements Tool {
 
         Configuration conf = getConf();
         conf.set("yamall.output", args[1]);
-        conf.setIfUnset("yamall.bit_precision", "18");
         conf.setIfUnset("yamall.parser", "vw");
+        // the examples converted by Convert are already parsed with the options saved in them
+        if (conf.get("yamall.parser").equals("converted")) {
+            try {
+                Convert.readSettings(conf, new Path(args[0]));
+            }
+            catch (IOException e) {
+                System.out.println(e.getMessage());
+                return 1;
+            }
+        }
+        conf.setIfUnset("yamall.bit_precision", "18");
+        conf.setIfUnset("yamall.metrics_interval", "60");
+        conf.setIfUnset("yamall.negative_sampling", "1");
 
         // Print to screen all the options
         TreeMap<String, String> map = new TreeMap<String, String>();
@@ -219,7 +318,13 @@ public class Train extends Configured implements Tool {
         Job job = Job.getInstance(conf, "Yamall Train on MapReduce");
         job.setNumReduceTasks(1); // important
         job.setJarByClass(Train.class);
-        job.setMapperClass(TrainMapper.class);
+        if (conf.get("yamall.parser").equals("converted")) {
+            // examples already parsed by Convert
+            job.setInputFormatClass(SequenceFileInputFormat.class);
+            job.setMapperClass(ConvertedTrainMapper.class);
+        }
+        else
+            job.setMapperClass(TrainMapper.class);
         job.setMapOutputKeyClass(DoubleWritable.class);
         job.setMapOutputValueClass(InstanceOrHashMapWritable.class);
         job.setReducerClass(TrainReducer.class);
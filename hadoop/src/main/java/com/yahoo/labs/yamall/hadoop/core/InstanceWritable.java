@@ -0,0 +1,122 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.hadoop.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.core.SparseVector;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+
+/**
+ * Compact serialization of a parsed instance, with its tag and the costs of a cost-sensitive label.
+ * <p>
+ * The hashed indexes are written with a variable number of bytes, and the values are skipped when they are all 1, as
+ * for the binary features, or written as floats when they can be represented exactly as floats.
+ * <p>
+ * The namespaces recorded to generate the crossed features are not serialized, so the instances with namespaces cannot
+ * be written.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class InstanceWritable implements Writable {
+
+    private static final int ONES = 1;
+    private static final int FLOATS = 2;
+    private static final int COSTS = 4;
+
+    private Instance instance;
+
+    public InstanceWritable() {
+        instance = new Instance();
+    }
+
+    public InstanceWritable(
+            Instance instance) {
+        this.instance = instance;
+    }
+
+    public Instance getInstance() {
+        return instance;
+    }
+
+    public void setInstance(Instance instance) {
+        this.instance = instance;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        if (instance.getNumberNamespaces() > 0)
+            throw new IOException("The namespaces of the crossed features cannot be written");
+        SparseVector sv = instance.getVector();
+        SparseVector costs = instance.getCosts();
+        boolean ones = true;
+        boolean floats = true;
+        for (Int2DoubleMap.Entry entry : sv.int2DoubleEntrySet()) {
+            double value = entry.getDoubleValue();
+            ones &= value == 1.0;
+            floats &= (double) (float) value == value;
+        }
+        out.writeDouble(instance.getLabel());
+        out.writeDouble(instance.getWeight());
+        WritableUtils.writeString(out, instance.getTag());
+        out.writeByte((ones ? ONES : 0) | (floats ? FLOATS : 0) | (costs != null ? COSTS : 0));
+        WritableUtils.writeVInt(out, sv.size());
+        for (Int2DoubleMap.Entry entry : sv.int2DoubleEntrySet())
+            WritableUtils.writeVInt(out, entry.getIntKey());
+        if (!ones) {
+            for (Int2DoubleMap.Entry entry : sv.int2DoubleEntrySet()) {
+                if (floats)
+                    out.writeFloat((float) entry.getDoubleValue());
+                else
+                    out.writeDouble(entry.getDoubleValue());
+            }
+        }
+        if (costs != null) {
+            WritableUtils.writeVInt(out, costs.size());
+            for (Int2DoubleMap.Entry entry : costs.int2DoubleEntrySet()) {
+                WritableUtils.writeVInt(out, entry.getIntKey());
+                out.writeDouble(entry.getDoubleValue());
+            }
+        }
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        // a new instance, since the previous one can still be used by the learner
+        instance = new Instance(in.readDouble());
+        instance.setWeight(in.readDouble());
+        instance.setTag(WritableUtils.readString(in));
+        int flags = in.readByte();
+        int size = WritableUtils.readVInt(in);
+        int[] keys = new int[size];
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++)
+            keys[i] = WritableUtils.readVInt(in);
+        for (int i = 0; i < size; i++) {
+            if ((flags & ONES) != 0)
+                values[i] = 1.0;
+            else if ((flags & FLOATS) != 0)
+                values[i] = in.readFloat();
+            else
+                values[i] = in.readDouble();
+        }
+        instance.setVector(new SparseVector(keys, values));
+        if ((flags & COSTS) != 0) {
+            size = WritableUtils.readVInt(in);
+            SparseVector costs = new SparseVector();
+            for (int i = 0; i < size; i++) {
+                int label = WritableUtils.readVInt(in);
+                costs.put(label, in.readDouble());
+            }
+            instance.setCosts(costs);
+        }
+    }
+
+}
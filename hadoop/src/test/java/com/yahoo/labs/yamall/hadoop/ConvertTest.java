@@ -0,0 +1,98 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.hadoop;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.hadoop.core.InstanceWritable;
+
+public class ConvertTest {
+
+    private File dir;
+    private Path file;
+
+    @BeforeMethod
+    public void setUp() throws IOException, InterruptedException {
+        dir = Files.createTempDirectory("yamall").toFile();
+
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", "file:///");
+        conf.set("yamall.bit_precision", "20");
+        conf.set("yamall.ignore", "ab");
+        conf.set(FileOutputFormat.OUTDIR, new File(dir, "out").getPath());
+        conf.setClass(MRJobConfig.OUTPUT_KEY_CLASS, NullWritable.class, Object.class);
+        conf.setClass(MRJobConfig.OUTPUT_VALUE_CLASS, InstanceWritable.class, Object.class);
+        TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID("test", 0, TaskType.MAP, 0, 0));
+        Convert.ConvertOutputFormat format = new Convert.ConvertOutputFormat();
+        RecordWriter<NullWritable, InstanceWritable> writer = format.getRecordWriter(context);
+        Instance instance = new Instance(1);
+        instance.getVector().put(5, 1.0);
+        writer.write(NullWritable.get(), new InstanceWritable(instance));
+        writer.close(context);
+        file = format.getDefaultWorkFile(context, "");
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        FileUtil.fullyDelete(dir);
+    }
+
+    private static Configuration conf() {
+        Configuration conf = new Configuration(false);
+        conf.set("fs.defaultFS", "file:///");
+        return conf;
+    }
+
+    @Test
+    public void settingsTest() throws IOException {
+        // the missing options are set
+        Configuration conf = conf();
+        Convert.readSettings(conf, file);
+        Assert.assertEquals(conf.get("yamall.bit_precision"), "20");
+        Assert.assertEquals(conf.get("yamall.ignore"), "ab");
+
+        // the same options are accepted, also reading the directory
+        Convert.readSettings(conf, file.getParent());
+
+        SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(file));
+        InstanceWritable value = new InstanceWritable();
+        Assert.assertTrue(reader.next(NullWritable.get(), value));
+        Assert.assertEquals(value.getInstance().getVector().get(5), 1.0);
+        reader.close();
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void bitPrecisionTest() throws IOException {
+        Configuration conf = conf();
+        conf.set("yamall.bit_precision", "18");
+        Convert.readSettings(conf, file);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void ignoreTest() throws IOException {
+        Configuration conf = conf();
+        conf.set("yamall.ignore", "");
+        Convert.readSettings(conf, file);
+    }
+}
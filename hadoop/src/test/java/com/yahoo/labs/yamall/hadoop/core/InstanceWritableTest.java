@@ -0,0 +1,88 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.hadoop.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.core.SparseVector;
+import com.yahoo.labs.yamall.parser.VWParser;
+
+public class InstanceWritableTest {
+
+    private static Instance roundTrip(Instance instance) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        new InstanceWritable(instance).write(out);
+        // a second instance in the same stream, to check that the first one is read entirely
+        new InstanceWritable(new Instance(-1)).write(out);
+        out.close();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        InstanceWritable writable = new InstanceWritable();
+        writable.readFields(in);
+        Instance copy = writable.getInstance();
+        writable.readFields(in);
+        Assert.assertEquals(writable.getInstance().getLabel(), -1.0);
+        Assert.assertEquals(in.read(), -1);
+        // the previous instance is not modified by the next read
+        Assert.assertNotSame(writable.getInstance(), copy);
+        return copy;
+    }
+
+    private static void assertSame(Instance copy, Instance instance) {
+        Assert.assertEquals(copy.getLabel(), instance.getLabel());
+        Assert.assertEquals(copy.getWeight(), instance.getWeight());
+        Assert.assertEquals(copy.getTag(), instance.getTag());
+        Assert.assertEquals(copy.getVector(), instance.getVector());
+        Assert.assertEquals(copy.getCosts(), instance.getCosts());
+    }
+
+    @Test
+    public void valuesTest() throws IOException {
+        Random rand = new Random(0);
+        for (int kind = 0; kind < 3; kind++) {
+            Instance instance = new Instance(kind - 1);
+            instance.setWeight(0.25 + kind);
+            instance.setTag("tag" + kind);
+            for (int i = 0; i < 100; i++) {
+                // binary, float, and double values
+                double value = kind == 0 ? 1.0 : kind == 1 ? (float) rand.nextGaussian() : rand.nextGaussian();
+                instance.getVector().put(rand.nextInt(1 << 30), value);
+            }
+            assertSame(roundTrip(instance), instance);
+        }
+        // no features and no tag
+        assertSame(roundTrip(new Instance()), new Instance());
+    }
+
+    @Test
+    public void costsTest() throws IOException {
+        Instance instance = new VWParser(18, null, false).parse("1:0.5 3:2.25 1.5 t| a b:0.3");
+        Assert.assertEquals(instance.getCosts().size(), 2);
+        Instance copy = roundTrip(instance);
+        assertSame(copy, instance);
+        Assert.assertEquals(copy.getCosts().get(3), 2.25);
+
+        // empty costs are kept apart from no costs
+        instance = new Instance(1);
+        instance.setCosts(new SparseVector());
+        assertSame(roundTrip(instance), instance);
+        Assert.assertNull(roundTrip(new Instance(1)).getCosts());
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void namespacesTest() throws IOException {
+        Instance instance = new VWParser(18, null, false, new String[] { "ab" }).parse("1 |a x |b y");
+        roundTrip(instance);
+    }
+}
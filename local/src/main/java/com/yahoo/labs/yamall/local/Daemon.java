@@ -0,0 +1,380 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.local;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.ml.Learner;
+import com.yahoo.labs.yamall.ml.LinkFunction;
+import com.yahoo.labs.yamall.ml.Predictor;
+import com.yahoo.labs.yamall.parser.InstanceParser;
+import com.yahoo.labs.yamall.parser.VWParser;
+import com.yahoo.labs.yamall.util.LatencyHistogram;
+
+/**
+ * Scoring and training server.
+ * <p>
+ * The server listens on a local TCP port for examples, one per line, and answers each of them with a line containing
+ * the prediction and the tag of the example, in the same order as received. The line <tt>stats</tt> is answered with
+ * the latency percentiles measured by the server.
+ * <p>
+ * Requests from all the connections are collected in micro-batches and the examples of a batch are parsed in parallel by
+ * the worker threads. When the daemon does not learn, the model is compiled in a {@link Predictor} and the examples are
+ * also scored by the worker threads. Otherwise, they are scored and used to update the model by a single thread that
+ * owns the learner.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class Daemon {
+
+    private static final int QUEUE_CAPACITY = 1 << 16;
+
+    private final Learner learner;
+    private final Predictor predictor;
+    private final InstanceParser parser;
+    private final LinkFunction link;
+    private final double minPrediction;
+    private final double maxPrediction;
+    private final boolean learn;
+    private final int batchSize;
+    private final ExecutorService workers;
+    private final int numWorkers;
+    private final BlockingQueue<Request> queue = new ArrayBlockingQueue<Request>(QUEUE_CAPACITY);
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private volatile boolean running = true;
+    private ServerSocket serverSocket;
+    private Thread batcher;
+    private volatile long numUpdates = 0;
+
+    /**
+     * Daemon.
+     *
+     * @param learner
+     *            model used to score the examples.
+     * @param parser
+     *            parser of the examples.
+     * @param link
+     *            link function applied to the predictions.
+     * @param minPrediction
+     *            smallest prediction to output, before the link function.
+     * @param maxPrediction
+     *            largest prediction to output, before the link function.
+     * @param learn
+     *            if set to True, labeled examples are also used to update the model.
+     * @param numWorkers
+     *            number of threads parsing the examples.
+     * @param batchSize
+     *            maximum number of requests processed together.
+     */
+    public Daemon(
+            Learner learner, InstanceParser parser, LinkFunction link, double minPrediction, double maxPrediction,
+            boolean learn, int numWorkers, int batchSize) {
+        this.learner = learner;
+        this.parser = parser;
+        this.link = link;
+        this.minPrediction = minPrediction;
+        this.maxPrediction = maxPrediction;
+        this.learn = learn;
+        predictor = learn ? null : Predictor.compile(learner, link, minPrediction, maxPrediction);
+        this.numWorkers = Math.max(numWorkers, 1);
+        this.batchSize = Math.max(batchSize, 1);
+        workers = Executors.newFixedThreadPool(this.numWorkers);
+    }
+
+    /**
+     * Accepts connections on the given port until {@link #stop()} is called.
+     *
+     * @param port
+     *            TCP port to listen on.
+     * @throws IOException
+     *             if the port cannot be opened.
+     */
+    public void serve(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        batcher = new Thread(new Batcher(), "yamall-daemon-batcher");
+        batcher.start();
+        System.out.println("Listening on port " + serverSocket.getLocalPort());
+        int numConnections = 0;
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            }
+            catch (SocketException e) {
+                // the server socket was closed by stop()
+                break;
+            }
+            socket.setTcpNoDelay(true);
+            Thread thread = new Thread(new Connection(socket), "yamall-daemon-connection-" + numConnections++);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops accepting requests, and waits for the pending ones to be completed.
+     * <p>
+     * After this method returns the learner is not used anymore by the daemon.
+     */
+    public void stop() {
+        running = false;
+        try {
+            if (serverSocket != null)
+                serverSocket.close();
+            if (batcher != null) {
+                batcher.interrupt();
+                batcher.join();
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdownNow();
+    }
+
+    /**
+     * Returns the histogram of the latencies, in nanoseconds, from the arrival of a request to its answer.
+     *
+     * @return the latency histogram.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Returns the number of updates done to the model.
+     *
+     * @return the number of updates.
+     */
+    public long getNumUpdates() {
+        return numUpdates;
+    }
+
+    /*
+     * In VW format, the label is missing when the line starts with a space or with the first namespace.
+     */
+    private boolean hasLabel(String line) {
+        if (!(parser instanceof VWParser))
+            return true;
+        return line.length() > 0 && line.charAt(0) != ' ' && line.charAt(0) != '|';
+    }
+
+    /*
+     * A request with a null line marks the end of a connection: the batcher closes the socket after the answers to the
+     * previous requests of the connection are written.
+     */
+    private static class Request {
+        final String line;
+        final Connection connection;
+        final long arrival;
+        Instance sample;
+        String answer;
+
+        Request(
+                String line, Connection connection, long arrival) {
+            this.line = line;
+            this.connection = connection;
+            this.arrival = arrival;
+        }
+    }
+
+    private class Connection implements Runnable {
+        private final Socket socket;
+        private final BufferedWriter writer;
+
+        Connection(
+                Socket socket) throws IOException {
+            this.socket = socket;
+            writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+        }
+
+        public void run() {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                String line;
+                while (running && (line = reader.readLine()) != null)
+                    queue.put(new Request(line, this, System.nanoTime()));
+            }
+            catch (IOException e) {
+                // the client went away
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                return;
+            }
+            try {
+                queue.put(new Request(null, this, System.nanoTime()));
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+            }
+        }
+
+        void write(String answer) {
+            try {
+                writer.write(answer);
+                writer.newLine();
+            }
+            catch (IOException e) {
+                close();
+            }
+        }
+
+        void flush() {
+            try {
+                writer.flush();
+            }
+            catch (IOException e) {
+                close();
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            }
+            catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    private class Batcher implements Runnable {
+
+        public void run() {
+            ArrayList<Request> batch = new ArrayList<Request>(batchSize);
+            LinkedHashSet<Connection> touched = new LinkedHashSet<Connection>();
+            ArrayList<Connection> ended = new ArrayList<Connection>();
+            while (running || !queue.isEmpty()) {
+                try {
+                    Request first = running ? queue.take() : queue.poll();
+                    if (first == null)
+                        break;
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    parse(batch);
+                }
+                catch (InterruptedException e) {
+                    // stop() was called: process what is left in the queue
+                    continue;
+                }
+                catch (ExecutionException e) {
+                    e.printStackTrace();
+                }
+
+                for (Request request : batch) {
+                    if (request.line == null) {
+                        ended.add(request.connection);
+                        continue;
+                    }
+                    if (request.answer == null) {
+                        try {
+                            request.answer = score(request);
+                        }
+                        catch (RuntimeException e) {
+                            request.answer = "error: " + e.toString();
+                        }
+                    }
+                    request.connection.write(request.answer);
+                    touched.add(request.connection);
+                }
+                for (Connection connection : touched)
+                    connection.flush();
+                // all the answers of the ended connections are written
+                for (Connection connection : ended)
+                    connection.close();
+                long now = System.nanoTime();
+                for (Request request : batch)
+                    if (request.line != null)
+                        latency.record(now - request.arrival);
+                batch.clear();
+                touched.clear();
+                ended.clear();
+            }
+        }
+
+        private String score(Request request) {
+            Instance sample = request.sample;
+            double score;
+            if (learn && hasLabel(request.line)) {
+                score = learner.update(sample);
+                numUpdates++;
+            }
+            else
+                score = learner.predict(sample);
+            score = Math.min(Math.max(score, minPrediction), maxPrediction);
+            return String.format("%.6f %s", link.apply(score), sample.getTag());
+        }
+
+        private void parse(final List<Request> batch) throws ExecutionException {
+            int chunk = (batch.size() + numWorkers - 1) / numWorkers;
+            ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int start = 0; start < batch.size(); start += chunk) {
+                final List<Request> part = batch.subList(start, Math.min(start + chunk, batch.size()));
+                futures.add(workers.submit(new Callable<Void>() {
+                    public Void call() {
+                        for (Request request : part) {
+                            if (request.line == null)
+                                continue;
+                            if (request.line.equals("stats")) {
+                                request.answer = latency.toString() + " updates=" + numUpdates;
+                                continue;
+                            }
+                            try {
+                                request.sample = parser.parse(request.line);
+                                if (predictor != null)
+                                    request.answer = String.format("%.6f %s", predictor.predict(request.sample),
+                                            request.sample.getTag());
+                            }
+                            catch (RuntimeException e) {
+                                request.answer = "error: " + e.toString();
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            // the batch must be completed even if stop() interrupts this thread
+            boolean interrupted = false;
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    }
+                    catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.local;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.yahoo.labs.yamall.util.LatencyHistogram;
+
+/**
+ * Load test client for the yamall daemon.
+ * <p>
+ * Each connection sends the lines of the input file one at a time, waiting for the answer before sending the next one,
+ * and the latencies seen by the clients are reported at the end.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class DaemonClient {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println(
+                    "Usage: java -classpath yamall-local-jar-with-dependencies.jar com.yahoo.labs.yamall.local.DaemonClient port examples_file [connections] [passes] [host]");
+            System.exit(0);
+        }
+        final int port = Integer.parseInt(args[0]);
+        final List<String> lines = Files.readAllLines(Paths.get(args[1]));
+        final int numConnections = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        final int numPasses = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        final String host = args.length > 4 ? args[4] : "localhost";
+
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+        Thread[] threads = new Thread[numConnections];
+        long start = System.nanoTime();
+        for (int i = 0; i < numConnections; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        Socket socket = new Socket(host, port);
+                        socket.setTcpNoDelay(true);
+                        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+                        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                        for (int pass = 0; pass < numPasses; pass++) {
+                            for (String line : lines) {
+                                long t0 = System.nanoTime();
+                                writer.write(line);
+                                writer.newLine();
+                                writer.flush();
+                                String answer = reader.readLine();
+                                latency.record(System.nanoTime() - t0);
+                                if (answer == null || answer.startsWith("error"))
+                                    errors.incrementAndGet();
+                            }
+                        }
+                        socket.close();
+                    }
+                    catch (IOException e) {
+                        e.printStackTrace();
+                        errors.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        long elapsed = System.nanoTime() - start;
+
+        long requests = latency.count();
+        System.out.printf("%d requests on %d connections in %.3f sec, %.1f requests/sec, %d errors\n", requests,
+                numConnections, elapsed / 1e9, requests / (elapsed / 1e9), errors.get());
+        System.out.println("Client latency: " + latency.toString());
+
+        // ask the server for its own view of the latencies
+        Socket socket = new Socket(host, port);
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        writer.write("stats");
+        writer.newLine();
+        writer.flush();
+        System.out.println("Server latency: " + reader.readLine());
+        socket.close();
+        System.out.printf("Elapsed time: %d min, %d sec\n", TimeUnit.NANOSECONDS.toMinutes(elapsed),
+                TimeUnit.NANOSECONDS.toSeconds(elapsed) - 60 * TimeUnit.NANOSECONDS.toMinutes(elapsed));
+    }
+}
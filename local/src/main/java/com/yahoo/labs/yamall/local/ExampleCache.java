@@ -0,0 +1,227 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.local;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.util.TrainingMetrics;
+
+/**
+ * On-disk cache of the training examples, replayed in every pass after the first one.
+ * <p>
+ * The examples are serialized in blocks of 1024, each block independent from the others, and the position of each
+ * block in the file is kept in memory. A pass can replay the examples in their original order or shuffled: in the
+ * latter case the blocks are read in a random order, each one with a single sequential read, and the examples go
+ * through a shuffle buffer of 16 blocks, from which they are taken at random.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class ExampleCache {
+
+    private static final int BLOCK_SIZE = 1024;
+    private static final int SHUFFLE_BLOCKS = 16;
+
+    private final String filename;
+    private final TrainingMetrics metrics;
+    private OutputStream out;
+    private Instance[] pendingBlock = new Instance[BLOCK_SIZE];
+    private int pendingSize = 0;
+    private long[] offsets = new long[16];
+    private int numBlocks = 0;
+    private long fileSize = 0;
+    private int size = 0;
+
+    private FileChannel channel = null;
+    private int[] order;
+    private int nextBlock;
+    private Instance[] block;
+    private int pos;
+    private Random rand;
+    private Instance[] buffer;
+    private int buffered;
+
+    /**
+     * Creates the cache file.
+     *
+     * @param filename
+     *            name of the cache file.
+     * @param metrics
+     *            metrics recording the reads of the cache, or null.
+     * @throws IOException
+     *             if the file cannot be created.
+     */
+    public ExampleCache(
+            String filename, TrainingMetrics metrics) throws IOException {
+        this.filename = filename;
+        this.metrics = metrics;
+        out = new BufferedOutputStream(new FileOutputStream(filename), 1 << 16);
+    }
+
+    /**
+     * Adds an example at the end of the cache.
+     *
+     * @param sample
+     *            example to add.
+     * @throws IOException
+     *             if the example cannot be written.
+     */
+    public void add(Instance sample) throws IOException {
+        pendingBlock[pendingSize++] = sample;
+        size++;
+        if (pendingSize == BLOCK_SIZE)
+            writeBlock();
+    }
+
+    private void writeBlock() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(bytes);
+        oout.writeObject(pendingSize == BLOCK_SIZE ? pendingBlock : Arrays.copyOf(pendingBlock, pendingSize));
+        oout.close();
+        bytes.writeTo(out);
+        if (numBlocks + 1 >= offsets.length)
+            offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+        offsets[numBlocks++] = fileSize;
+        fileSize += bytes.size();
+        offsets[numBlocks] = fileSize;
+        Arrays.fill(pendingBlock, null);
+        pendingSize = 0;
+    }
+
+    /**
+     * Writes the last examples and closes the file for writing.
+     *
+     * @throws IOException
+     *             if the examples cannot be written.
+     */
+    public void finishWriting() throws IOException {
+        if (pendingSize > 0)
+            writeBlock();
+        out.close();
+        out = null;
+        pendingBlock = null;
+    }
+
+    /**
+     * Returns the number of examples in the cache.
+     *
+     * @return the number of examples.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Starts replaying the examples.
+     *
+     * @param rand
+     *            generator used to shuffle the examples, null to replay them in their original order.
+     * @throws IOException
+     *             if the cache cannot be opened.
+     */
+    public void startPass(Random rand) throws IOException {
+        if (channel == null)
+            channel = new RandomAccessFile(filename, "r").getChannel();
+        this.rand = rand;
+        order = new int[numBlocks];
+        for (int i = 0; i < numBlocks; i++)
+            order[i] = i;
+        if (rand != null) {
+            for (int i = numBlocks - 1; i > 0; i--) {
+                int j = rand.nextInt(i + 1);
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+            buffer = new Instance[SHUFFLE_BLOCKS * BLOCK_SIZE];
+        }
+        else
+            buffer = null;
+        buffered = 0;
+        nextBlock = 0;
+        block = null;
+        pos = 0;
+    }
+
+    /**
+     * Returns the next example of the pass.
+     *
+     * @return the next example, or null at the end of the pass.
+     * @throws IOException
+     *             if the cache cannot be read.
+     * @throws ClassNotFoundException
+     *             if the cache is corrupted.
+     */
+    public Instance next() throws IOException, ClassNotFoundException {
+        if (rand == null)
+            return fetch() ? block[pos++] : null;
+        while (buffered < buffer.length && fetch())
+            buffer[buffered++] = block[pos++];
+        if (buffered == 0)
+            return null;
+        int r = rand.nextInt(buffered);
+        Instance sample = buffer[r];
+        buffer[r] = buffer[--buffered];
+        buffer[buffered] = null;
+        return sample;
+    }
+
+    /*
+     * Makes sure that the current block has examples left, returns false at the end of the pass.
+     */
+    private boolean fetch() throws IOException, ClassNotFoundException {
+        while (block == null || pos == block.length) {
+            if (nextBlock == numBlocks)
+                return false;
+            block = readBlock(order[nextBlock++]);
+            pos = 0;
+        }
+        return true;
+    }
+
+    private Instance[] readBlock(int i) throws IOException, ClassNotFoundException {
+        long start = System.nanoTime();
+        int length = (int) (offsets[i + 1] - offsets[i]);
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        long position = offsets[i];
+        while (bytes.hasRemaining()) {
+            int n = channel.read(bytes, position + bytes.position());
+            if (n < 0)
+                throw new EOFException("Truncated cache file " + filename);
+        }
+        if (metrics != null)
+            metrics.recordCacheRead(length, System.nanoTime() - start);
+        ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(bytes.array()));
+        Instance[] samples = (Instance[]) oin.readObject();
+        oin.close();
+        return samples;
+    }
+
+    /**
+     * Closes the cache file.
+     *
+     * @throws IOException
+     *             if the file cannot be closed.
+     */
+    public void close() throws IOException {
+        if (out != null)
+            out.close();
+        if (channel != null)
+            channel.close();
+    }
+}
@@ -0,0 +1,198 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.local;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.ml.BinaryMetrics;
+import com.yahoo.labs.yamall.ml.Loss;
+import com.yahoo.labs.yamall.ml.Predictor;
+import com.yahoo.labs.yamall.util.MeteredInputStream;
+import com.yahoo.labs.yamall.util.TrainingMetrics;
+
+/**
+ * Evaluates snapshots of a model on the holdout set in background threads.
+ * <p>
+ * The holdout set is read from its cache file by one thread and scored in blocks by a pool of threads. Since the
+ * evaluation uses an immutable {@link Predictor}, it can run while the learner is trained on the next pass.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class HoldoutEvaluator {
+
+    private static final int BLOCK_SIZE = 1024;
+
+    private final String cacheFile;
+    private final Loss loss;
+    private final boolean binary;
+    private final TrainingMetrics metrics;
+    private final int threads;
+    private final ExecutorService reader;
+    private final ExecutorService scorers;
+
+    /**
+     * Result of the evaluation of a snapshot.
+     */
+    public static class Result {
+        private final double loss;
+        private final BinaryMetrics binaryMetrics;
+
+        Result(
+                double loss, BinaryMetrics binaryMetrics) {
+            this.loss = loss;
+            this.binaryMetrics = binaryMetrics;
+        }
+
+        /**
+         * @return the weighted average loss on the holdout set.
+         */
+        public double getLoss() {
+            return loss;
+        }
+
+        /**
+         * @return the AUC, log loss and calibration on the holdout set.
+         */
+        public BinaryMetrics getBinaryMetrics() {
+            return binaryMetrics;
+        }
+    }
+
+    /*
+     * Partial sums of a block of examples.
+     */
+    private static class Partial {
+        double cumLoss = 0;
+        double weightedSampleSum = 0;
+        BinaryMetrics binaryMetrics = new BinaryMetrics();
+    }
+
+    /**
+     * Evaluator on a cache file of serialized instances terminated by null.
+     *
+     * @param cacheFile
+     *            cache file of the holdout set.
+     * @param loss
+     *            loss to evaluate.
+     * @param binary
+     *            if set to True, the loss is the binary classification error.
+     * @param threads
+     *            number of threads scoring the examples.
+     * @param metrics
+     *            metrics recording the reads of the cache file, or null.
+     */
+    public HoldoutEvaluator(
+            String cacheFile, Loss loss, boolean binary, int threads, TrainingMetrics metrics) {
+        this.cacheFile = cacheFile;
+        this.loss = loss;
+        this.binary = binary;
+        this.metrics = metrics;
+        this.threads = Math.max(threads, 1);
+        ThreadFactory factory = new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "yamall-holdout");
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        reader = Executors.newSingleThreadExecutor(factory);
+        scorers = Executors.newFixedThreadPool(this.threads, factory);
+    }
+
+    /**
+     * Starts the evaluation of a predictor.
+     *
+     * @param predictor
+     *            snapshot of the model, with the clipping of the scores.
+     * @return the result of the evaluation, when done.
+     */
+    public Future<Result> submit(final Predictor predictor) {
+        return reader.submit(new Callable<Result>() {
+            public Result call() throws Exception {
+                return evaluate(predictor);
+            }
+        });
+    }
+
+    private Result evaluate(Predictor predictor) throws IOException, ClassNotFoundException, InterruptedException,
+            ExecutionException {
+        Partial total = new Partial();
+        // at most a few blocks are kept in memory
+        ArrayDeque<Future<Partial>> pending = new ArrayDeque<Future<Partial>>();
+        ObjectInputStream oin = new ObjectInputStream(new BufferedInputStream(
+                metrics == null ? new FileInputStream(cacheFile)
+                        : new MeteredInputStream(new FileInputStream(cacheFile), metrics),
+                1 << 16));
+        try {
+            Instance[] block = new Instance[BLOCK_SIZE];
+            int size = 0;
+            Instance testSample;
+            while ((testSample = (Instance) oin.readObject()) != null) {
+                block[size++] = testSample;
+                if (size == BLOCK_SIZE) {
+                    pending.add(score(predictor, block));
+                    block = new Instance[BLOCK_SIZE];
+                    size = 0;
+                    if (pending.size() > 4 * threads)
+                        merge(total, pending.poll().get());
+                }
+            }
+            if (size > 0)
+                pending.add(score(predictor, Arrays.copyOf(block, size)));
+            while (!pending.isEmpty())
+                merge(total, pending.poll().get());
+        }
+        finally {
+            oin.close();
+            for (Future<Partial> future : pending)
+                future.cancel(true);
+        }
+        return new Result(total.cumLoss / total.weightedSampleSum, total.binaryMetrics);
+    }
+
+    private Future<Partial> score(final Predictor predictor, final Instance[] block) {
+        return scorers.submit(new Callable<Partial>() {
+            public Partial call() {
+                Partial partial = new Partial();
+                for (Instance testSample : block) {
+                    partial.weightedSampleSum += testSample.getWeight();
+                    double score = predictor.score(testSample);
+                    partial.binaryMetrics.add(score, testSample.getLabel(), testSample.getWeight());
+                    if (!binary)
+                        partial.cumLoss += loss.lossValue(score, testSample.getLabel()) * testSample.getWeight();
+                    else if (Math.signum(score) != testSample.getLabel())
+                        partial.cumLoss += testSample.getWeight();
+                }
+                return partial;
+            }
+        });
+    }
+
+    private static void merge(Partial total, Partial partial) {
+        total.cumLoss += partial.cumLoss;
+        total.weightedSampleSum += partial.weightedSampleSum;
+        total.binaryMetrics.merge(partial.binaryMetrics);
+    }
+
+    /**
+     * Stops the evaluation threads.
+     */
+    public void close() {
+        reader.shutdownNow();
+        scorers.shutdownNow();
+    }
+}
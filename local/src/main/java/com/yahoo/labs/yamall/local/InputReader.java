@@ -0,0 +1,293 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.local;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.parser.InstanceParser;
+import com.yahoo.labs.yamall.util.ParallelGzipInputStream;
+import com.yahoo.labs.yamall.util.TrainingMetrics;
+
+/**
+ * Reads and parses many input files concurrently.
+ * <p>
+ * Each file is read and parsed by its own thread, at most <tt>threads</tt> files at the same time, and the parsed
+ * examples are returned by {@link #next()} in a deterministic order that does not depend on the speed of the threads:
+ * <ul>
+ * <li>file order: all the examples of the first file, then all the ones of the second file, and so on, as if the files
+ * were concatenated;</li>
+ * <li>round-robin: one example from each of the first <tt>threads</tt> files in turn; when a file ends, its place is
+ * taken by the next file.</li>
+ * </ul>
+ * Hence, multiple passes and progressive validation see the same sequence of examples in every run.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class InputReader {
+
+    private static final int BLOCK_SIZE = 256;
+    private static final int QUEUE_CAPACITY = 16;
+    private static final Instance[] END_OF_FILE = new Instance[0];
+
+    private final List<String> files;
+    private final InstanceParser parser;
+    private final boolean roundRobin;
+    private final int decompressThreads;
+    private final int maxActive;
+    private final ExecutorService pool;
+    private volatile TrainingMetrics metrics = null;
+
+    private final ArrayList<Source> sources;
+    // files being returned, only the first one in file order
+    private final ArrayList<Source> active = new ArrayList<Source>();
+    private int nextFile = 0;
+    private int current = 0;
+
+    /*
+     * Blocks of parsed examples of one file, filled by a reading thread.
+     */
+    private class Source implements Runnable {
+        private final String file;
+        private final ArrayBlockingQueue<Instance[]> blocks = new ArrayBlockingQueue<Instance[]>(QUEUE_CAPACITY);
+        private volatile IOException error = null;
+        private Instance[] block = null;
+        private int pos = 0;
+
+        Source(
+                String file) {
+            this.file = file;
+        }
+
+        public void run() {
+            try {
+                InputStream in = file == null ? System.in : ParallelGzipInputStream.open(file, decompressThreads);
+                BufferedReader br = new BufferedReader(new InputStreamReader(in));
+                try {
+                    Instance[] tmp = new Instance[BLOCK_SIZE];
+                    int size = 0;
+                    long parseNanos = 0;
+                    String strLine;
+                    while ((strLine = br.readLine()) != null) {
+                        long start = System.nanoTime();
+                        tmp[size++] = parser.parse(strLine);
+                        parseNanos += System.nanoTime() - start;
+                        if (size == BLOCK_SIZE) {
+                            TrainingMetrics m = metrics;
+                            if (m != null)
+                                m.recordParse(size, parseNanos);
+                            parseNanos = 0;
+                            blocks.put(tmp);
+                            tmp = new Instance[BLOCK_SIZE];
+                            size = 0;
+                        }
+                    }
+                    if (size > 0) {
+                        TrainingMetrics m = metrics;
+                        if (m != null)
+                            m.recordParse(size, parseNanos);
+                        Instance[] last = new Instance[size];
+                        System.arraycopy(tmp, 0, last, 0, size);
+                        blocks.put(last);
+                    }
+                }
+                finally {
+                    if (file != null)
+                        br.close();
+                }
+            }
+            catch (IOException e) {
+                error = new IOException("Error reading " + (file == null ? "the console" : file), e);
+            }
+            catch (RuntimeException e) {
+                error = new IOException("Error parsing " + (file == null ? "the console" : file), e);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            try {
+                blocks.put(END_OF_FILE);
+            }
+            catch (InterruptedException e) {
+            }
+        }
+
+        /*
+         * Returns the next example, or null at the end of the file.
+         */
+        Instance next() throws IOException, InterruptedException {
+            if (block == null || pos == block.length) {
+                if (block == END_OF_FILE)
+                    return null;
+                block = blocks.take();
+                pos = 0;
+                if (block == END_OF_FILE) {
+                    if (error != null)
+                        throw error;
+                    return null;
+                }
+            }
+            return block[pos++];
+        }
+    }
+
+    /**
+     * Reader of many files.
+     *
+     * @param files
+     *            files to read, in order. If empty, the examples are read from the console.
+     * @param parser
+     *            parser of the examples, it is used concurrently by many threads.
+     * @param threads
+     *            maximum number of files read at the same time.
+     * @param roundRobin
+     *            if set to True, the examples of the files read at the same time are interleaved, otherwise the files
+     *            are returned one after the other.
+     * @param decompressThreads
+     *            number of threads decompressing each compressed file.
+     */
+    public InputReader(
+            List<String> files, InstanceParser parser, int threads, boolean roundRobin, int decompressThreads) {
+        this.files = new ArrayList<String>(files);
+        if (this.files.isEmpty())
+            this.files.add(null);
+        this.parser = parser;
+        this.roundRobin = roundRobin;
+        this.decompressThreads = decompressThreads;
+        maxActive = roundRobin ? Math.max(threads, 1) : 1;
+        pool = Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "yamall-reader");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        // the readers start in file order, so the files needed first are always being read
+        ArrayList<Source> sources = new ArrayList<Source>();
+        for (String file : this.files) {
+            Source source = new Source(file);
+            sources.add(source);
+            pool.execute(source);
+        }
+        pool.shutdown();
+        this.sources = sources;
+        while (active.size() < maxActive && nextFile < sources.size())
+            active.add(sources.get(nextFile++));
+    }
+
+    /**
+     * Sets the metrics recording the time spent parsing the examples.
+     *
+     * @param metrics
+     *            the metrics, or null.
+     */
+    public void setMetrics(TrainingMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the next example.
+     *
+     * @return the next example, or null when all the files have been read.
+     * @throws IOException
+     *             if a file cannot be read or parsed.
+     */
+    public Instance next() throws IOException {
+        try {
+            while (!active.isEmpty()) {
+                if (current >= active.size())
+                    current = 0;
+                Source source = active.get(current);
+                Instance sample = source.next();
+                if (sample != null) {
+                    if (roundRobin)
+                        current++;
+                    return sample;
+                }
+                // the file is finished, the next one takes its place
+                if (nextFile < sources.size())
+                    active.set(current, sources.get(nextFile++));
+                else
+                    active.remove(current);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading", e);
+        }
+        return null;
+    }
+
+    /**
+     * Stops the reading threads.
+     */
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Returns the list of files matching the arguments.
+     * <p>
+     * Each argument can be a file, a directory, whose non hidden files are taken in alphabetical order, or a glob
+     * pattern on the file names, e.g. <tt>data/part-*.gz</tt>, whose matches are also sorted.
+     *
+     * @param args
+     *            files, directories or glob patterns.
+     * @return the files.
+     * @throws IOException
+     *             if an argument does not match any file.
+     */
+    public static List<String> expand(String[] args) throws IOException {
+        ArrayList<String> files = new ArrayList<String>();
+        for (String arg : args) {
+            File file = new File(arg);
+            ArrayList<String> matches = new ArrayList<String>();
+            if (file.isFile()) {
+                files.add(arg);
+                continue;
+            }
+            else if (file.isDirectory()) {
+                DirectoryStream<Path> stream = Files.newDirectoryStream(file.toPath());
+                for (Path path : stream)
+                    if (Files.isRegularFile(path) && !path.getFileName().toString().startsWith("."))
+                        matches.add(path.toString());
+                stream.close();
+            }
+            else if (file.getName().indexOf('*') >= 0 || file.getName().indexOf('?') >= 0
+                    || file.getName().indexOf('[') >= 0) {
+                Path dir = file.getParentFile() == null ? Paths.get(".") : file.getParentFile().toPath();
+                if (Files.isDirectory(dir)) {
+                    DirectoryStream<Path> stream = Files.newDirectoryStream(dir, file.getName());
+                    for (Path path : stream)
+                        if (Files.isRegularFile(path))
+                            matches.add(file.getParentFile() == null ? path.getFileName().toString()
+                                    : path.toString());
+                    stream.close();
+                }
+            }
+            if (matches.isEmpty())
+                throw new IOException("No input files found for " + arg);
+            Collections.sort(matches);
+            files.addAll(matches);
+        }
+        return files;
+    }
+}
@@ -0,0 +1,238 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.local;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.ml.Predictor;
+import com.yahoo.labs.yamall.parser.InstanceParser;
+import com.yahoo.labs.yamall.util.ParallelGzipInputStream;
+import com.yahoo.labs.yamall.util.TrainingMetrics;
+
+/**
+ * Parses and scores the examples of the input files with many threads, returning them in input order.
+ * <p>
+ * The lines of the files, taken one after the other, are read by the calling thread in blocks, and each block is
+ * parsed and scored by a pool of threads sharing the same immutable {@link Predictor}. The blocks are returned by
+ * {@link #next()} in the order of the lines, while the following ones are being processed: at most a few blocks per
+ * thread are kept in memory.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class ParallelScorer {
+
+    private static final int BLOCK_SIZE = 1024;
+
+    private final List<String> files;
+    private final InstanceParser parser;
+    private final Predictor predictor;
+    private final int threads;
+    private final int decompressThreads;
+    private final ExecutorService scorers;
+    private final ArrayDeque<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+    private volatile TrainingMetrics metrics = null;
+
+    private int nextFile = 0;
+    private String currentFile = null;
+    private BufferedReader br = null;
+
+    /**
+     * Parsed examples and their scores.
+     */
+    public static class Block {
+        private final Instance[] samples;
+        private final double[] scores;
+        private final long scoreNanos;
+
+        Block(
+                Instance[] samples, double[] scores, long scoreNanos) {
+            this.samples = samples;
+            this.scores = scores;
+            this.scoreNanos = scoreNanos;
+        }
+
+        /**
+         * @return the examples of the block, in input order.
+         */
+        public Instance[] getSamples() {
+            return samples;
+        }
+
+        /**
+         * @return the score of each example, clipped by the predictor.
+         */
+        public double[] getScores() {
+            return scores;
+        }
+
+        /**
+         * @return the time spent scoring the examples of the block, in nanoseconds.
+         */
+        public long getScoreNanos() {
+            return scoreNanos;
+        }
+    }
+
+    /**
+     * Scorer of many files.
+     *
+     * @param files
+     *            files to read, in order. If empty, the examples are read from the console.
+     * @param parser
+     *            parser of the examples, it is used concurrently by many threads.
+     * @param predictor
+     *            predictor of the scores.
+     * @param threads
+     *            number of threads parsing and scoring the examples.
+     * @param decompressThreads
+     *            number of threads decompressing each compressed file.
+     */
+    public ParallelScorer(
+            List<String> files, InstanceParser parser, Predictor predictor, int threads, int decompressThreads) {
+        this.files = new ArrayList<String>(files);
+        if (this.files.isEmpty())
+            this.files.add(null);
+        this.parser = parser;
+        this.predictor = predictor;
+        this.threads = Math.max(threads, 1);
+        this.decompressThreads = decompressThreads;
+        scorers = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "yamall-scorer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Sets the metrics recording the time spent parsing the examples.
+     *
+     * @param metrics
+     *            the metrics, or null.
+     */
+    public void setMetrics(TrainingMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the next block of scored examples.
+     *
+     * @return the next block, or null when all the files have been read.
+     * @throws IOException
+     *             if a file cannot be read or parsed.
+     */
+    public Block next() throws IOException {
+        while (pending.size() < 4 * threads) {
+            String[] lines = readBlock();
+            if (lines == null)
+                break;
+            pending.add(score(lines, currentFile));
+        }
+        Future<Block> future = pending.poll();
+        if (future == null)
+            return null;
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scoring", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /*
+     * Reads the next lines, at most BLOCK_SIZE of the same file, or returns null at the end of the last file.
+     */
+    private String[] readBlock() throws IOException {
+        while (true) {
+            if (br == null) {
+                if (nextFile == files.size())
+                    return null;
+                currentFile = files.get(nextFile++);
+                InputStream in = currentFile == null ? System.in
+                        : ParallelGzipInputStream.open(currentFile, decompressThreads);
+                br = new BufferedReader(new InputStreamReader(in));
+            }
+            String[] lines = new String[BLOCK_SIZE];
+            int size = 0;
+            String strLine;
+            while (size < BLOCK_SIZE && (strLine = br.readLine()) != null)
+                lines[size++] = strLine;
+            if (size < BLOCK_SIZE) {
+                // end of the file
+                if (currentFile != null)
+                    br.close();
+                br = null;
+            }
+            if (size == BLOCK_SIZE)
+                return lines;
+            if (size > 0) {
+                String[] last = new String[size];
+                System.arraycopy(lines, 0, last, 0, size);
+                return last;
+            }
+        }
+    }
+
+    private Future<Block> score(final String[] lines, final String file) {
+        return scorers.submit(new Callable<Block>() {
+            public Block call() throws IOException {
+                Instance[] samples = new Instance[lines.length];
+                double[] scores = new double[lines.length];
+                long start = System.nanoTime();
+                try {
+                    for (int i = 0; i < lines.length; i++)
+                        samples[i] = parser.parse(lines[i]);
+                }
+                catch (RuntimeException e) {
+                    throw new IOException("Error parsing " + (file == null ? "the console" : file), e);
+                }
+                long parsed = System.nanoTime();
+                TrainingMetrics m = metrics;
+                if (m != null)
+                    m.recordParse(lines.length, parsed - start);
+                for (int i = 0; i < lines.length; i++)
+                    scores[i] = predictor.score(samples[i]);
+                return new Block(samples, scores, System.nanoTime() - parsed);
+            }
+        });
+    }
+
+    /**
+     * Stops the scoring threads.
+     */
+    public void close() {
+        for (Future<Block> future : pending)
+            future.cancel(true);
+        scorers.shutdownNow();
+        if (br != null && currentFile != null) {
+            try {
+                br.close();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
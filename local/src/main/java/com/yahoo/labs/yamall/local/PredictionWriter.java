@@ -0,0 +1,276 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.local;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+import com.yahoo.labs.yamall.util.DoubleFormatter;
+
+/**
+ * Writes the predictions to a file in a background thread.
+ * <p>
+ * The training thread only stores the prediction and the tag in a ring buffer; the writer thread formats them with
+ * {@link DoubleFormatter} directly into a large byte buffer, in the same format of <tt>"%.6f %s"</tt> with one line per
+ * example, and writes it to the file. Files ending with <tt>.gz</tt> are gzip compressed. In binary mode, the tags are
+ * skipped and each prediction is written as a 32-bit little-endian float.
+ * <p>
+ * The predictions can be held back with {@link #hold()} until it is known whether they have to be written or
+ * discarded.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class PredictionWriter {
+
+    private static final int CAPACITY = 1 << 16;
+    private static final int PUBLISH_PERIOD = 256;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int MAX_INLINE_TAG = 4096;
+    private static final byte[] NEW_LINE = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final OutputStream out;
+    private final boolean binary;
+    private final double[] predictions = new double[CAPACITY];
+    private final String[] tags = new String[CAPACITY];
+    private final Thread writer;
+
+    // written by the producer: number of predictions made visible to the writer
+    private volatile long published = 0;
+    private long added = 0;
+    // written by the writer: number of predictions already formatted
+    private volatile long consumed = 0;
+    private volatile boolean closed = false;
+    private volatile IOException error = null;
+
+    // predictions held back by the producer, null if not holding
+    private double[] heldPredictions = null;
+    private String[] heldTags = null;
+    private int numHeld = 0;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int pos = 0;
+
+    /**
+     * Opens the predictions file and starts the writer thread.
+     *
+     * @param filename
+     *            name of the file, compressed with gzip if it ends with <tt>.gz</tt>.
+     * @param binary
+     *            if set to True, writes the predictions as 32-bit floats, without the tags.
+     * @throws IOException
+     *             if the file cannot be created.
+     */
+    public PredictionWriter(
+            String filename, boolean binary) throws IOException {
+        OutputStream fos = new FileOutputStream(filename);
+        out = filename.endsWith(".gz") ? new GZIPOutputStream(fos, 1 << 16) : fos;
+        this.binary = binary;
+        writer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    drain();
+                }
+                catch (IOException e) {
+                    error = e;
+                }
+            }
+        }, "yamall-predictions");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Adds a prediction to write.
+     *
+     * @param prediction
+     *            the prediction.
+     * @param tag
+     *            the tag of the example.
+     * @throws IOException
+     *             if the writer thread failed.
+     */
+    public void write(double prediction, String tag) throws IOException {
+        if (heldPredictions != null) {
+            if (numHeld == heldPredictions.length) {
+                heldPredictions = Arrays.copyOf(heldPredictions, 2 * numHeld);
+                heldTags = Arrays.copyOf(heldTags, 2 * numHeld);
+            }
+            heldPredictions[numHeld] = prediction;
+            heldTags[numHeld++] = tag;
+            return;
+        }
+        if (added - consumed >= CAPACITY) {
+            publish();
+            while (added - consumed >= CAPACITY) {
+                if (error != null)
+                    throw error;
+                LockSupport.parkNanos(10000);
+            }
+        }
+        int slot = (int) (added & (CAPACITY - 1));
+        predictions[slot] = prediction;
+        tags[slot] = tag;
+        added++;
+        if ((added & (PUBLISH_PERIOD - 1)) == 0)
+            publish();
+    }
+
+    /**
+     * Holds back the following predictions, until {@link #release()} or {@link #discard()} is called.
+     */
+    public void hold() {
+        if (heldPredictions == null) {
+            heldPredictions = new double[1024];
+            heldTags = new String[1024];
+        }
+    }
+
+    /**
+     * Writes the predictions held back and stops holding them.
+     *
+     * @throws IOException
+     *             if the writer thread failed.
+     */
+    public void release() throws IOException {
+        double[] predictions = heldPredictions;
+        String[] tags = heldTags;
+        int n = numHeld;
+        discard();
+        for (int i = 0; i < n; i++)
+            write(predictions[i], tags[i]);
+    }
+
+    /**
+     * Drops the predictions held back and stops holding them.
+     */
+    public void discard() {
+        heldPredictions = null;
+        heldTags = null;
+        numHeld = 0;
+    }
+
+    private void publish() {
+        published = added;
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * Writes the pending predictions and closes the file.
+     *
+     * @throws IOException
+     *             if the predictions cannot be written.
+     */
+    public void close() throws IOException {
+        publish();
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the predictions", e);
+        }
+        if (error != null)
+            throw error;
+    }
+
+    private void drain() throws IOException {
+        try {
+            long next = 0;
+            while (true) {
+                boolean done = closed;
+                long end = published;
+                if (next == end) {
+                    if (done)
+                        break;
+                    flushBuffer();
+                    LockSupport.parkNanos(1000000);
+                    continue;
+                }
+                for (; next < end; next++) {
+                    int slot = (int) (next & (CAPACITY - 1));
+                    if (binary)
+                        writeFloat((float) predictions[slot]);
+                    else
+                        writeLine(predictions[slot], tags[slot]);
+                    tags[slot] = null;
+                    if ((next & (PUBLISH_PERIOD - 1)) == 0)
+                        consumed = next;
+                }
+                consumed = next;
+            }
+            flushBuffer();
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private void writeLine(double prediction, String tag) throws IOException {
+        if (tag == null)
+            tag = "null";
+        ensure(DoubleFormatter.maxLength(prediction) + 1);
+        pos = DoubleFormatter.format6(prediction, buffer, pos);
+        buffer[pos++] = ' ';
+        writeTag(tag);
+        writeBytes(NEW_LINE);
+    }
+
+    private void writeTag(String tag) throws IOException {
+        int length = tag.length();
+        if (length > MAX_INLINE_TAG) {
+            writeBytes(tag.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            char c = tag.charAt(i);
+            if (c >= 0x80) {
+                // not ASCII, let the encoder deal with it
+                writeBytes(tag.substring(i).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            buffer[pos++] = (byte) c;
+        }
+    }
+
+    private void writeFloat(float prediction) throws IOException {
+        ensure(4);
+        int bits = Float.floatToRawIntBits(prediction);
+        buffer[pos++] = (byte) bits;
+        buffer[pos++] = (byte) (bits >>> 8);
+        buffer[pos++] = (byte) (bits >>> 16);
+        buffer[pos++] = (byte) (bits >>> 24);
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length) {
+            flushBuffer();
+            out.write(bytes);
+            return;
+        }
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, pos, bytes.length);
+        pos += bytes.length;
+    }
+
+    private void ensure(int length) throws IOException {
+        if (pos + length > buffer.length)
+            flushBuffer();
+    }
+
+    private void flushBuffer() throws IOException {
+        if (pos > 0) {
+            out.write(buffer, 0, pos);
+            pos = 0;
+        }
+    }
+}
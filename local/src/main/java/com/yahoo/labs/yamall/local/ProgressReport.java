@@ -0,0 +1,256 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.local;
+
+import java.io.IOException;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.core.SparseVector;
+import com.yahoo.labs.yamall.ml.BinaryMetrics;
+import com.yahoo.labs.yamall.ml.LinkFunction;
+import com.yahoo.labs.yamall.ml.LogisticLoss;
+import com.yahoo.labs.yamall.ml.Loss;
+import com.yahoo.labs.yamall.util.TrainingMetrics;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+
+/**
+ * Reports the scores of the examples of a run, in input order.
+ * <p>
+ * For each example the report computes the prediction and the loss, updates the average loss, the binary metrics and
+ * the {@link TrainingMetrics}, writes the prediction, and prints the progress lines. The examples of a pass that can be
+ * abandoned are kept apart with {@link #mark()} until {@link #confirm()} or {@link #rollback()} is called.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class ProgressReport {
+    private final LinkFunction link;
+    private final Loss lossFnc;
+    private final double minPrediction;
+    private final double maxPrediction;
+    private final boolean binary;
+    private final boolean multiclass;
+    private final boolean exponentialProgress;
+    private final double progressInterval;
+    private final TrainingMetrics metrics;
+    private final PredictionWriter predictions;
+
+    private int iter = 0;
+    private double cumLoss = 0;
+    private double weightedSampleSum = 0;
+    private double sPlus = 0;
+    private double sMinus = 0;
+    private BinaryMetrics binaryMetrics = new BinaryMetrics();
+    private Instance sample = null;
+    private double pred = 0;
+    private boolean justPrinted = false;
+    private int limit = 1;
+
+    // values at the last mark, restored by a rollback
+    private int markedIter = 0;
+    private double markedCumLoss = 0;
+    private double markedWeightedSampleSum = 0;
+    private double markedSPlus = 0;
+    private double markedSMinus = 0;
+    private BinaryMetrics markedBinaryMetrics = null;
+
+    /**
+     * Report of a run.
+     *
+     * @param link
+     *            link function applied to the scores.
+     * @param lossFnc
+     *            loss function of the scores.
+     * @param minPrediction
+     *            smallest score.
+     * @param maxPrediction
+     *            largest score.
+     * @param binary
+     *            if set to True, the loss is the binary classification error.
+     * @param multiclass
+     *            if set to True, the scores are the predicted classes.
+     * @param exponentialProgress
+     *            if set to True, the progress is printed after a number of examples growing by progressInterval times,
+     *            otherwise every progressInterval examples.
+     * @param progressInterval
+     *            interval between the progress lines.
+     * @param metrics
+     *            metrics of the run.
+     * @param predictions
+     *            writer of the predictions, null to not write them.
+     */
+    public ProgressReport(
+            LinkFunction link, Loss lossFnc, double minPrediction, double maxPrediction, boolean binary,
+            boolean multiclass, boolean exponentialProgress, double progressInterval, TrainingMetrics metrics,
+            PredictionWriter predictions) {
+        this.link = link;
+        this.lossFnc = lossFnc;
+        this.minPrediction = minPrediction;
+        this.maxPrediction = maxPrediction;
+        this.binary = binary;
+        this.multiclass = multiclass;
+        this.exponentialProgress = exponentialProgress;
+        this.progressInterval = progressInterval;
+        this.metrics = metrics;
+        this.predictions = predictions;
+    }
+
+    /**
+     * Prints the header of the progress lines.
+     */
+    public void printHeader() {
+        System.out.println("average       example  current  current  current");
+        System.out.println("loss          counter    label  predict  features");
+    }
+
+    /**
+     * Adds the score of an example.
+     *
+     * @param sample
+     *            the example.
+     * @param score
+     *            the score of the example before clipping, or the predicted class for multiclass runs.
+     * @param nanos
+     *            time spent to update the model with the example, or to predict it.
+     * @throws IOException
+     *             if the prediction cannot be written.
+     */
+    public void add(Instance sample, double score, long nanos) throws IOException {
+        this.sample = sample;
+        justPrinted = false;
+        iter++;
+        double sampleLoss;
+        if (multiclass) {
+            pred = score;
+            sampleLoss = multiclassLoss(sample, (int) score);
+        }
+        else {
+            score = Math.min(Math.max(score, minPrediction), maxPrediction);
+            pred = link.apply(score);
+            if (!binary)
+                sampleLoss = lossFnc.lossValue(score, sample.getLabel()) * sample.getWeight();
+            else
+                sampleLoss = Math.signum(score) != sample.getLabel() ? sample.getWeight() : 0;
+            binaryMetrics.add(score, sample.getLabel(), sample.getWeight());
+        }
+        cumLoss += sampleLoss;
+        metrics.recordExample(sample.getNumberVisitedFeatures(), sampleLoss, sample.getWeight(), nanos);
+
+        weightedSampleSum += sample.getWeight();
+        if (sample.getLabel() > 0)
+            sPlus = sPlus + sample.getWeight();
+        else
+            sMinus = sMinus + sample.getWeight();
+
+        // output predictions to file
+        if (predictions != null)
+            predictions.write(pred, sample.getTag());
+
+        // print statistics to screen
+        if (iter == limit) {
+            justPrinted = true;
+            printLine();
+            if (exponentialProgress)
+                limit *= progressInterval;
+            else
+                limit += progressInterval;
+        }
+    }
+
+    /*
+     * Returns the weighted loss of the predicted class: its cost for cost-sensitive labels, the largest cost of the label
+     * if the class is not in it, otherwise 1 if it is wrong.
+     */
+    private static double multiclassLoss(Instance sample, int predicted) {
+        SparseVector costs = sample.getCosts();
+        if (costs != null && !costs.isEmpty()) {
+            if (costs.containsKey(predicted))
+                return costs.get(predicted) * sample.getWeight();
+            double worst = Double.NEGATIVE_INFINITY;
+            for (Int2DoubleMap.Entry entry : costs.int2DoubleEntrySet())
+                worst = Math.max(worst, entry.getDoubleValue());
+            return worst * sample.getWeight();
+        }
+        return predicted != sample.getLabel() ? sample.getWeight() : 0;
+    }
+
+    private void printLine() {
+        System.out.printf("%.6f %12d  % .4f  % .4f  %d\n", cumLoss / weightedSampleSum, iter, sample.getLabel(), pred,
+                sample.getNumberVisitedFeatures());
+    }
+
+    /**
+     * Prints the progress line of the last example, if not printed yet.
+     */
+    public void printLast() {
+        if (justPrinted == false && sample != null)
+            printLine();
+    }
+
+    /**
+     * Prints the loss of the best constant predictor and the binary metrics of the scores.
+     */
+    public void printBinarySummary() {
+        System.out.println(String.format("average loss best constant predictor: %.6f",
+                lossFnc.lossConstantBinaryLabels(sPlus, sMinus)));
+        // the log loss and the calibration only for the logistic loss
+        if (lossFnc instanceof LogisticLoss) {
+            System.out.println(binaryMetrics.toString());
+            System.out.print(binaryMetrics.calibrationTable());
+        }
+        else
+            System.out.printf("AUC = %.6f\n", binaryMetrics.auc());
+    }
+
+    /**
+     * @return the number of examples added.
+     */
+    public int getExamples() {
+        return iter;
+    }
+
+    /**
+     * Marks the examples added so far. The following ones are not written and are not part of the report until
+     * {@link #confirm()} is called.
+     */
+    public void mark() {
+        markedIter = iter;
+        markedCumLoss = cumLoss;
+        markedWeightedSampleSum = weightedSampleSum;
+        markedSPlus = sPlus;
+        markedSMinus = sMinus;
+        markedBinaryMetrics = new BinaryMetrics();
+        markedBinaryMetrics.merge(binaryMetrics);
+        metrics.mark();
+        if (predictions != null)
+            predictions.hold();
+    }
+
+    /**
+     * Keeps the examples added after the last mark, writing their predictions.
+     *
+     * @throws IOException
+     *             if the predictions cannot be written.
+     */
+    public void confirm() throws IOException {
+        if (predictions != null)
+            predictions.release();
+    }
+
+    /**
+     * Discards the examples added after the last mark, as if they were never added.
+     */
+    public void rollback() {
+        iter = markedIter;
+        cumLoss = markedCumLoss;
+        weightedSampleSum = markedWeightedSampleSum;
+        sPlus = markedSPlus;
+        sMinus = markedSMinus;
+        binaryMetrics = markedBinaryMetrics;
+        metrics.rollback();
+        if (predictions != null)
+            predictions.discard();
+    }
+}
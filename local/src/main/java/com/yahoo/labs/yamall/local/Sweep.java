@@ -0,0 +1,216 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.local;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.ml.BinaryMetrics;
+import com.yahoo.labs.yamall.ml.Learner;
+import com.yahoo.labs.yamall.ml.Loss;
+
+/**
+ * Trains several learners over the same stream of examples.
+ * <p>
+ * The examples are parsed once by the caller and handed in blocks to one worker thread per learner. The blocks are shared
+ * among the workers: the learners only read the instances, so no copy is made. Each worker keeps the progressive
+ * validation loss and AUC of its own learner. The progressive loss is measured with the same loss function for all the
+ * learners, whatever loss each one is trained with, so that the configurations can be compared.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class Sweep {
+
+    private static final int BLOCK_SIZE = 1024;
+    private static final int QUEUE_CAPACITY = 32;
+    private static final Instance[] END_OF_DATA = new Instance[0];
+
+    private final ArrayList<Worker> workers = new ArrayList<Worker>();
+    private final Loss loss;
+    private final double minPrediction;
+    private final double maxPrediction;
+    private final boolean binary;
+    private Instance[] block = new Instance[BLOCK_SIZE];
+    private int blockSize = 0;
+
+    /**
+     * Sweep over learners.
+     *
+     * @param loss
+     *            loss function used to compute the progressive loss of all the learners.
+     * @param minPrediction
+     *            smallest prediction used to compute the loss.
+     * @param maxPrediction
+     *            largest prediction used to compute the loss.
+     * @param binary
+     *            if set to True, the loss is the binary classification error.
+     */
+    public Sweep(
+            Loss loss, double minPrediction, double maxPrediction, boolean binary) {
+        this.loss = loss;
+        this.minPrediction = minPrediction;
+        this.maxPrediction = maxPrediction;
+        this.binary = binary;
+    }
+
+    /**
+     * Adds a learner to the sweep. All the learners must be added before the first example.
+     *
+     * @param name
+     *            description of the configuration.
+     * @param learner
+     *            learner to train.
+     */
+    public void addLearner(String name, Learner learner) {
+        workers.add(new Worker(name, learner));
+    }
+
+    /**
+     * Starts one training thread per learner.
+     */
+    public void start() {
+        for (Worker worker : workers) {
+            Thread thread = new Thread(worker, "yamall-sweep-" + workers.indexOf(worker));
+            thread.setDaemon(true);
+            worker.thread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Feeds an example to all the learners.
+     *
+     * @param sample
+     *            example to train on.
+     * @throws InterruptedException
+     *             if interrupted while waiting for the slowest learner.
+     */
+    public void add(Instance sample) throws InterruptedException {
+        block[blockSize++] = sample;
+        if (blockSize == BLOCK_SIZE) {
+            dispatch(block);
+            block = new Instance[BLOCK_SIZE];
+            blockSize = 0;
+        }
+    }
+
+    /**
+     * Flushes the pending examples and waits for all the learners to finish.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting for the learners.
+     */
+    public void finish() throws InterruptedException {
+        if (blockSize > 0)
+            dispatch(Arrays.copyOf(block, blockSize));
+        blockSize = 0;
+        dispatch(END_OF_DATA);
+        for (Worker worker : workers) {
+            worker.thread.join();
+            if (worker.error != null)
+                throw new RuntimeException("Learner " + worker.name + " failed", worker.error);
+        }
+    }
+
+    private void dispatch(Instance[] samples) throws InterruptedException {
+        for (Worker worker : workers)
+            worker.queue.put(samples);
+    }
+
+    /**
+     * Returns the learner with the smallest progressive loss.
+     *
+     * @return the best learner, or null if no example was seen.
+     */
+    public Learner getBestLearner() {
+        Worker best = getBestWorker();
+        return best == null ? null : best.learner;
+    }
+
+    /**
+     * Returns the description of the learner with the smallest progressive loss.
+     *
+     * @return the description of the best learner, or null if no example was seen.
+     */
+    public String getBestName() {
+        Worker best = getBestWorker();
+        return best == null ? null : best.name;
+    }
+
+    private Worker getBestWorker() {
+        Worker best = null;
+        for (Worker worker : workers) {
+            if (worker.weightedSampleSum > 0 && (best == null || worker.averageLoss() < best.averageLoss()))
+                best = worker;
+        }
+        return best;
+    }
+
+    /**
+     * Prints the progressive loss and AUC of every learner.
+     */
+    public void printReport() {
+        System.out.println("average       example  progressive  configuration");
+        System.out.println("loss          counter          AUC");
+        for (Worker worker : workers)
+            System.out.printf("%.6f %12d     %.6f  %s\n", worker.averageLoss(), worker.iter,
+                    worker.binaryMetrics.auc(), worker.name);
+    }
+
+    private class Worker implements Runnable {
+        private final String name;
+        private final Learner learner;
+        private final BlockingQueue<Instance[]> queue = new ArrayBlockingQueue<Instance[]>(QUEUE_CAPACITY);
+        private Thread thread;
+        private volatile Throwable error = null;
+        private long iter = 0;
+        private double cumLoss = 0;
+        private double weightedSampleSum = 0;
+        private final BinaryMetrics binaryMetrics = new BinaryMetrics();
+
+        Worker(
+                String name, Learner learner) {
+            this.name = name;
+            this.learner = learner;
+        }
+
+        double averageLoss() {
+            return cumLoss / weightedSampleSum;
+        }
+
+        public void run() {
+            try {
+                Instance[] samples;
+                while ((samples = queue.take()) != END_OF_DATA) {
+                    for (Instance sample : samples) {
+                        double score = learner.update(sample);
+                        score = Math.min(Math.max(score, minPrediction), maxPrediction);
+                        if (!binary)
+                            cumLoss += loss.lossValue(score, sample.getLabel()) * sample.getWeight();
+                        else if (Math.signum(score) != sample.getLabel())
+                            cumLoss += sample.getWeight();
+                        weightedSampleSum += sample.getWeight();
+                        binaryMetrics.add(score, sample.getLabel(), sample.getWeight());
+                        iter++;
+                    }
+                }
+            }
+            catch (Throwable e) {
+                error = e;
+                // keep draining so that the producer is never blocked by a failed learner
+                try {
+                    while (queue.take() != END_OF_DATA)
+                        ;
+                }
+                catch (InterruptedException e1) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
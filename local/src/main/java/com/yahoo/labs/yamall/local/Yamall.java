@@ -3,19 +3,26 @@
 // Please see LICENSE file in the project root for terms.
 package com.yahoo.labs.yamall.local;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.io.OutputStreamWriter;
+import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.cli.CommandLine;
@@ -27,21 +34,30 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
 import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.core.InstanceStore;
 import com.yahoo.labs.yamall.ml.AbsLoss;
+import com.yahoo.labs.yamall.ml.AdmissionPredictor;
 import com.yahoo.labs.yamall.ml.COCOB;
+import com.yahoo.labs.yamall.ml.FeatureAdmission;
 import com.yahoo.labs.yamall.ml.HingeLoss;
 import com.yahoo.labs.yamall.ml.IOLearner;
 import com.yahoo.labs.yamall.ml.IdentityLinkFunction;
 import com.yahoo.labs.yamall.ml.KT;
 import com.yahoo.labs.yamall.ml.Learner;
+import com.yahoo.labs.yamall.ml.LinearPredictor;
 import com.yahoo.labs.yamall.ml.LinkFunction;
 import com.yahoo.labs.yamall.ml.LogisticLinkFunction;
 import com.yahoo.labs.yamall.ml.LogisticLoss;
 import com.yahoo.labs.yamall.ml.Loss;
+import com.yahoo.labs.yamall.ml.NegativeSampler;
+import com.yahoo.labs.yamall.ml.OAA;
 import com.yahoo.labs.yamall.ml.PerCoordinateCOCOB;
 import com.yahoo.labs.yamall.ml.PerCoordinateKT;
 import com.yahoo.labs.yamall.ml.PerCoordinatePiSTOL;
 import com.yahoo.labs.yamall.ml.PerCoordinateSOLO;
+import com.yahoo.labs.yamall.ml.Predictor;
+import com.yahoo.labs.yamall.ml.QuantizedPredictor;
+import com.yahoo.labs.yamall.ml.RecalibratedLearner;
 import com.yahoo.labs.yamall.ml.SGD_FM;
 import com.yahoo.labs.yamall.ml.SGD_VW;
 import com.yahoo.labs.yamall.ml.SOLO;
@@ -50,20 +66,31 @@ import com.yahoo.labs.yamall.parser.InstanceParser;
 import com.yahoo.labs.yamall.parser.LIBSVMParser;
 import com.yahoo.labs.yamall.parser.TSVParser;
 import com.yahoo.labs.yamall.parser.VWParser;
+import com.yahoo.labs.yamall.util.HashDiagnostics;
+import com.yahoo.labs.yamall.util.TrainingMetrics;
 
 public class Yamall {
 
+    private static final int HOLDOUT_CHECK_PERIOD = 1024;
+    // options that can change in each line of a sweep file
+    private static final Set<String> SWEEP_OPTIONS = new HashSet<String>(Arrays.asList("solo", "pcsolo", "pistol",
+            "kt", "pckt", "pccocob", "cocob", "fm", "fmNumberFactors", "learning_rate", "loss_function"));
+
     private static Options options = new Options();
 
     private static Learner learner = null;
     private static double minPrediction = 0;
     private static double maxPrediction = 0;
+    private static int decompressThreads = 1;
+    private static int inputThreads = 1;
+    private static boolean roundRobin = false;
     private static int fmNumberFactors = 0;
     private static boolean binary = false;
+    private static TrainingMetrics metrics = new TrainingMetrics();
 
     public static void main(String[] args) {
         String[] remainingArgs = null;
-        String inputFile = null;
+        List<String> inputFiles = new ArrayList<String>();
         String predsFile = null;
         String saveModelFile = null;
         String initialModelFile = null;
@@ -78,6 +105,9 @@ public class Yamall {
         int bitsHash;
         int numberPasses;
         int holdoutPeriod = 10;
+        long memoryCache = 0;
+        Random shuffleRand = null;
+        NegativeSampler sampler = null;
 
         boolean testOnly = false;
         boolean exponentialProgress;
@@ -103,10 +133,27 @@ public class Yamall {
                 .desc("(EXPERIMENTAL) uses COCOB optimizer").build());
         options.addOption(Option.builder().hasArg(false).required(false).longOpt("fm")
                 .desc("Factorization Machine").build());
+        options.addOption(Option.builder().hasArg(true).required(false)
+                .desc("one-against-all multiclass learning with <arg> classes, labeled from 1 to <arg>, using the VW optimizer")
+                .longOpt("oaa").type(String.class).build());
+        options.addOption(Option.builder().hasArg(true).required(false)
+                .desc("cost-sensitive one-against-all learning with <arg> classes, with labels class:cost, using the VW optimizer")
+                .longOpt("csoaa").type(String.class).build());
         options.addOption(Option.builder("f").hasArg(true).required(false).desc("final regressor to save")
                 .type(String.class).longOpt("final_regressor").build());
+        options.addOption(Option.builder().hasArg(true).required(false)
+                .desc("saves a prediction-only model with the final weights quantized, without the state of the optimizer")
+                .longOpt("export_predictor").type(String.class).build());
+        options.addOption(Option.builder().hasArg(true).required(false)
+                .desc("bits of the quantized weights of the exported predictor, 8 or 16, default = 16")
+                .longOpt("export_bits").type(String.class).build());
+        options.addOption(Option.builder().hasArg(true).required(false)
+                .desc("tests a prediction-only model saved with --export_predictor, instead of a learner")
+                .longOpt("predictor").type(String.class).build());
         options.addOption(Option.builder("p").hasArg(true).required(false).desc("file to output predictions to")
                 .longOpt("predictions").type(String.class).build());
+        options.addOption(Option.builder().hasArg(false).required(false).longOpt("binary_predictions")
+                .desc("writes the predictions as 32-bit little-endian floats, without the tags").build());
         options.addOption(
                 Option.builder("i").hasArg(true).required(false).desc("initial regressor(s) to load into memory")
                         .longOpt("initial_regressor").type(String.class).build());
@@ -137,21 +184,81 @@ public class Yamall {
         options.addOption(Option.builder().hasArg(true).required(false)
                 .desc("ignore namespaces beginning with the characters in <arg>").longOpt("ignore").type(String.class)
                 .build());
+        options.addOption(Option.builder("q").hasArg(true).required(false)
+                .desc("create and use quadratic features between the namespaces beginning with the two characters in <arg>, can be repeated")
+                .longOpt("quadratic").type(String.class).build());
+        options.addOption(Option.builder().hasArg(true).required(false)
+                .desc("create and use cubic features between the namespaces beginning with the three characters in <arg>, can be repeated")
+                .longOpt("cubic").type(String.class).build());
         options.addOption(Option.builder().hasArg(true).required(false).desc("number of training passes")
                 .longOpt("passes").type(String.class).build());
         options.addOption(
                 Option.builder().hasArg(true).required(false).desc("holdout period for test only, default = 10")
                         .longOpt("holdout_period").type(String.class).build());
+        options.addOption(Option.builder().hasArg(false).required(false).longOpt("shuffle")
+                .desc("shuffles the training examples in each pass after the first one").build());
+        options.addOption(Option.builder().hasArg(true).required(false)
+                .desc("seed of the random shuffling and of the negative sampling of the examples, default = 0")
+                .longOpt("random_seed").type(String.class).build());
+        options.addOption(Option.builder().hasArg(true).required(false)
+                .desc("keeps the training examples of multiple passes in memory, using at most <arg> MB, instead of the disk cache; when they do not fit, the disk cache is used")
+                .longOpt("memory_cache").type(String.class).build());
+        options.addOption(Option.builder().hasArg(false).required(false).longOpt("hash_diagnostics")
+                .desc("reports the occupancy of the hashed space and the collisions between feature names, for each namespace and projected to other numbers of bits")
+                .build());
+        options.addOption(Option.builder().hasArg(true).required(false)
+                .desc("uses a feature only after it has been seen in <arg> training examples, counted in a count-min sketch")
+                .longOpt("feature_admission").type(String.class).build());
+        options.addOption(Option.builder().hasArg(true).required(false)
+                .desc("logarithm in base 2 of the number of counters of each of the 4 rows of the feature admission sketch, default = the number of bits of the hash")
+                .longOpt("feature_admission_bits").type(String.class).build());
+        options.addOption(Option.builder().hasArg(true).required(false)
+                .desc("keeps each negative training example with probability <arg> and multiplies its weight by 1/<arg>")
+                .longOpt("negative_sampling").type(String.class).build());
+        options.addOption(Option.builder().hasArg(false).required(false).longOpt("negative_sampling_recalibrate")
+                .desc("with --negative_sampling, keeps the weights of the negative examples and recalibrates the scores of the model at prediction time")
+                .build());
         options.addOption(Option.builder().hasArg(true).required(false)
                 .desc("number of factors for Factorization Machines default = 8")
                 .longOpt("fmNumberFactors").type(String.class).build());
+        options.addOption(Option.builder().hasArg(true).required(false)
+                .desc("number of input files read and parsed at the same time, default = number of cores")
+                .longOpt("input_threads").type(String.class).build());
+        options.addOption(Option.builder().hasArg(true).required(false)
+                .desc("order of the examples of many input files. Currently available ones are: file (default), to read the files one after the other, roundrobin, to alternate the files read at the same time")
+                .longOpt("interleave").type(String.class).build());
+        options.addOption(Option.builder().hasArg(true).required(false)
+                .desc("number of threads parsing and scoring the examples with -t, in input order, default = number of cores")
+                .longOpt("test_threads").type(String.class).build());
+        options.addOption(Option.builder().hasArg(true).required(false)
+                .desc("number of threads decompressing BGZF and framed zstd input files, default = number of cores")
+                .longOpt("decompress_threads").type(String.class).build());
         options.addOption(Option.builder().hasArg(true).required(false)
                 .desc("specify the parser to use. Currently available ones are: vw (default), libsvm, tsv")
                 .longOpt("parser").type(String.class).build());
         options.addOption(Option.builder().hasArg(true).required(false)
                 .desc("schema file for the TSV input")
                 .longOpt("schema").type(String.class).build());
-        
+        options.addOption(Option.builder().hasArg(true).required(false)
+                .desc("file with one learner configuration per line (e.g. --solo -l 0.5), all trained in parallel in a single pass over the data")
+                .longOpt("sweep").type(String.class).build());
+        options.addOption(Option.builder().hasArg(false).required(false).longOpt("daemon")
+                .desc("persistent daemon mode on a local port, it learns from labeled examples unless -t is used").build());
+        options.addOption(Option.builder().hasArg(true).required(false).desc("port to listen on, default = 26542")
+                .longOpt("port").type(String.class).build());
+        options.addOption(Option.builder().hasArg(true).required(false)
+                .desc("number of threads parsing the requests in daemon mode, default = number of cores")
+                .longOpt("daemon_threads").type(String.class).build());
+        options.addOption(Option.builder().hasArg(true).required(false)
+                .desc("maximum number of requests processed together in daemon mode, default = 256")
+                .longOpt("daemon_batch").type(String.class).build());
+        options.addOption(Option.builder().hasArg(true).required(false)
+                .desc("file to periodically append the runtime metrics to, as JSON lines")
+                .longOpt("metrics_file").type(String.class).build());
+        options.addOption(Option.builder().hasArg(true).required(false)
+                .desc("seconds between two writes of the runtime metrics, default = 10")
+                .longOpt("metrics_interval").type(String.class).build());
+
 
         CommandLineParser parser = new DefaultParser();
         CommandLine cmd = null;
@@ -182,21 +289,63 @@ public class Yamall {
         maxPredictionString = cmd.getOptionValue("max_prediction", "50");
         fmNumberFactorsString = cmd.getOptionValue("fmNumberFactors", "8");
         parserName = cmd.getOptionValue("parser", "vw");
+        inputThreads = Integer.parseInt(cmd.getOptionValue("input_threads",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+        String interleave = cmd.getOptionValue("interleave", "file");
+        if (interleave.equals("roundrobin"))
+            roundRobin = true;
+        else if (!interleave.equals("file")) {
+            System.out.println("Unknown interleave policy.");
+            System.exit(0);
+        }
+        decompressThreads = Integer.parseInt(cmd.getOptionValue("decompress_threads",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
 
         numberPasses = Integer.parseInt(cmd.getOptionValue("passes", "1"));
         System.out.println("Number of passes = " + numberPasses);
         if (numberPasses > 1) {
             holdoutPeriod = Integer.parseInt(cmd.getOptionValue("holdout_period", "10"));
             System.out.println("Holdout period = " + holdoutPeriod);
+            memoryCache = Long.parseLong(cmd.getOptionValue("memory_cache", "0")) << 20;
+            if (memoryCache > 0)
+                System.out.println("Memory cache = " + (memoryCache >> 20) + " MB");
+            if (cmd.hasOption("shuffle")) {
+                shuffleRand = new Random(Long.parseLong(cmd.getOptionValue("random_seed", "0")));
+                System.out.println("Shuffling the examples in each pass");
+            }
+        }
+
+        if (cmd.hasOption("negative_sampling") && !testOnly) {
+            try {
+                sampler = new NegativeSampler(Double.parseDouble(cmd.getOptionValue("negative_sampling")),
+                        !cmd.hasOption("negative_sampling_recalibrate"),
+                        Long.parseLong(cmd.getOptionValue("random_seed", "0")));
+            }
+            catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                System.exit(0);
+            }
+            System.out.println("Negative sampling rate = " + sampler.getRate()
+                    + (sampler.isReweighting() ? ", importance weighted" : ", recalibrated scores"));
         }
 
         remainingArgs = cmd.getArgs();
-        if (remainingArgs.length == 1)
-            inputFile = remainingArgs[0];
+        try {
+            inputFiles = InputReader.expand(remainingArgs);
+        }
+        catch (IOException e) {
+            System.out.println(e.getMessage());
+            System.exit(0);
+        }
         
         InstanceParser instanceParser = null;
 		if (parserName.equals("vw"))
-        	instanceParser = new VWParser(bitsHash, cmd.getOptionValue("ignore"), (invertHashName != null));
+        	instanceParser = new VWParser(bitsHash, cmd.getOptionValue("ignore"), (invertHashName != null),
+        	        getInteractions(cmd));
+        else if (getInteractions(cmd) != null) {
+            System.out.println("Interactions are supported only by the vw parser.");
+            System.exit(0);
+        }
         else if (parserName.equals("libsvm"))
         	instanceParser = new LIBSVMParser(bitsHash, (invertHashName != null));
         else if (parserName.equals("tsv")) {
@@ -220,6 +369,23 @@ public class Yamall {
             System.exit(0);
         }
         System.out.println("Num weight bits = " + bitsHash);
+        HashDiagnostics hashDiagnostics = null;
+        if (cmd.hasOption("hash_diagnostics")) {
+            if (bitsHash > HashDiagnostics.MAX_BITS) {
+                System.out.println("Hash diagnostics support at most " + HashDiagnostics.MAX_BITS
+                        + " bits, the other sizes are projected in the report.");
+                System.exit(0);
+            }
+            hashDiagnostics = new HashDiagnostics(bitsHash);
+            if (instanceParser instanceof VWParser)
+                ((VWParser) instanceParser).setHashDiagnostics(hashDiagnostics);
+            else if (instanceParser instanceof TSVParser)
+                ((TSVParser) instanceParser).setHashDiagnostics(hashDiagnostics);
+            else {
+                System.out.println("Hash diagnostics are supported only by the vw and tsv parsers.");
+                System.exit(0);
+            }
+        }
 
         // setup progress
         String progress = cmd.getOptionValue("P", "2.0");
@@ -239,78 +405,83 @@ public class Yamall {
         // number of factors for Factorization Machines
         fmNumberFactors = (int) Integer.parseInt(fmNumberFactorsString);
 
-        // configure the learner
-        Loss lossFnc = null;
-        LinkFunction link = null;
-        if (initialModelFile == null) {
-            if (cmd.hasOption("kt")) {
-                learner = new KT(bitsHash);
+        if (cmd.hasOption("sweep")) {
+            if (testOnly || numberPasses > 1 || initialModelFile != null || cmd.hasOption("oaa")
+                    || cmd.hasOption("csoaa")) {
+                System.out.println("Sweep mode supports only a single training pass from scratch of a binary learner.");
+                System.exit(0);
             }
-            else if (cmd.hasOption("pckt")) {
-                learner = new PerCoordinateKT(bitsHash);
-            }
-            else if (cmd.hasOption("pcsolo")) {
-                learner = new PerCoordinateSOLO(bitsHash);
-            }
-            else if (cmd.hasOption("solo")) {
-                learner = new SOLO(bitsHash);
-            }
-            else if (cmd.hasOption("pccocob")) {
-                learner = new PerCoordinateCOCOB(bitsHash);
-            }
-            else if (cmd.hasOption("cocob")) {
-                learner = new COCOB(bitsHash);
+            runSweep(cmd.getOptionValue("sweep"), inputFiles, instanceParser, bitsHash, lossName, learningRate,
+                    saveModelFile, invertHashName);
+            return;
+        }
+
+        // configure the learner
+        Loss lossFnc = createLoss(lossName);
+        LinkFunction link = createLink(linkName);
+        Predictor testPredictor = null;
+        if (cmd.hasOption("predictor")) {
+            // prediction-only model, used instead of a learner
+            if (!testOnly || numberPasses > 1 || initialModelFile != null || saveModelFile != null
+                    || invertHashName != null || cmd.hasOption("daemon") || cmd.hasOption("export_predictor")) {
+                System.out.println("A predictor can only be used with -t, in a single pass.");
+                System.exit(0);
             }
-            else if (cmd.hasOption("pistol")) {
-                learner = new PerCoordinatePiSTOL(bitsHash);
+            testPredictor = IOLearner.loadPredictor(cmd.getOptionValue("predictor"));
+        }
+        else if (initialModelFile == null) {
+            try {
+                learner = createLearner(cmd, bitsHash, fmNumberFactors);
             }
-            else if (cmd.hasOption("fm")) {
-            	learner = new SGD_FM(bitsHash, fmNumberFactors);
+            catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                System.exit(0);
             }
-            else
-                learner = new SGD_VW(bitsHash);
         }
         else {
             learner = IOLearner.loadLearner(initialModelFile);
         }
-
-        // setup link function
-        if (linkName.equals("identity")) {
-            link = new IdentityLinkFunction();
-        }
-        else if (linkName.equals("logistic")) {
-            link = new LogisticLinkFunction();
-        }
-        else {
-            System.out.println("Unknown link function.");
+        final boolean multiclass = learner instanceof OAA;
+        if (multiclass && (numberPasses > 1 || binary || cmd.hasOption("daemon") || cmd.hasOption("feature_admission")
+                || sampler != null || cmd.hasOption("export_predictor"))) {
+            System.out.println(
+                    "Multiclass learning supports a single pass, without --binary, --daemon, --feature_admission, --negative_sampling, and --export_predictor.");
             System.exit(0);
         }
 
-        // setup loss function
-        if (lossName.equals("squared")) {
-            lossFnc = new SquareLoss();
-        }
-        else if (lossName.equals("hinge")) {
-            lossFnc = new HingeLoss();
-        }
-        else if (lossName.equals("logistic")) {
-            lossFnc = new LogisticLoss();
-        }
-        else if (lossName.equals("absolute")) {
-            lossFnc = new AbsLoss();
+        if (cmd.hasOption("feature_admission") && !testOnly) {
+            // the rare features are filtered before the recalibration of the scores, if any
+            Learner inner = stripRecalibration(learner);
+            if (!(inner instanceof FeatureAdmission)) {
+                try {
+                    inner = new FeatureAdmission(inner, Integer.parseInt(cmd.getOptionValue("feature_admission")),
+                            Integer.parseInt(cmd.getOptionValue("feature_admission_bits", Integer.toString(bitsHash))));
+                }
+                catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                    System.exit(0);
+                }
+                learner = learner instanceof RecalibratedLearner
+                        ? new RecalibratedLearner(inner, ((RecalibratedLearner) learner).getOffset()) : inner;
+            }
         }
-        else {
-            System.out.println("Unknown loss function.");
-            System.exit(0);
+        if (sampler != null && !sampler.isReweighting()) {
+            // the model predicts on the full data, while it is trained on the sampled one
+            learner = new RecalibratedLearner(stripRecalibration(learner), sampler.getScoreOffset());
         }
 
-        learner.setLoss(lossFnc);
-        learner.setLearningRate(learningRate);
+        if (learner != null) {
+            learner.setLoss(lossFnc);
+            learner.setLearningRate(learningRate);
+        }
 
         // maximum range predictions
         System.out.println("Max prediction = " + maxPrediction + ", Min Prediction = " + minPrediction);
         // print information about the learner
-        System.out.println(learner.toString());
+        if (learner != null)
+            System.out.println(learner.toString());
+        else
+            System.out.println("Using predictor " + cmd.getOptionValue("predictor") + "\n" + lossFnc.toString());
         // print information about the link function
         System.out.println(link.toString());
         // print information about the parser
@@ -318,55 +489,84 @@ public class Yamall {
         // print information about ignored namespaces
         System.out.println("Ignored namespaces = " + cmd.getOptionValue("ignore", ""));
 
-        long start = System.nanoTime();
-        FileInputStream fstream;
-        try {
-            BufferedReader br = null;
-            if (inputFile != null) {
-                fstream = new FileInputStream(inputFile);
-                System.out.println("Reading datafile = " + inputFile);
-                br = new BufferedReader(new InputStreamReader(fstream));
+        if (cmd.hasOption("daemon")) {
+            runDaemon(instanceParser, link, !testOnly, Integer.parseInt(cmd.getOptionValue("port", "26542")),
+                    Integer.parseInt(cmd.getOptionValue("daemon_threads",
+                            Integer.toString(Runtime.getRuntime().availableProcessors()))),
+                    Integer.parseInt(cmd.getOptionValue("daemon_batch", "256")), saveModelFile);
+            return;
+        }
+
+        // runtime metrics, exposed through JMX and optionally written to a file
+        metrics.setModel(learner != null ? unwrap(learner) : testPredictor);
+        metrics.register("local");
+        PrintStream metricsOut = null;
+        if (cmd.hasOption("metrics_file")) {
+            try {
+                metricsOut = new PrintStream(new FileOutputStream(cmd.getOptionValue("metrics_file"), true));
             }
-            else {
-                System.out.println("Reading from console");
-                br = new BufferedReader(new InputStreamReader(System.in));
+            catch (FileNotFoundException e) {
+                System.out.println("Error opening the metrics file");
+                e.printStackTrace();
+                System.exit(0);
             }
+            metrics.startDump(metricsOut,
+                    (long) (Double.parseDouble(cmd.getOptionValue("metrics_interval", "10")) * 1000));
+        }
 
-            File fout = null;
-            FileOutputStream fos = null;
-            BufferedWriter bw = null;
-            if (predsFile != null) {
-                fout = new File(predsFile);
-                fos = new FileOutputStream(fout);
-                bw = new BufferedWriter(new OutputStreamWriter(fos));
+        int testThreads = Integer.parseInt(cmd.getOptionValue("test_threads",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+        if (testOnly && numberPasses == 1 && !multiclass && testThreads > 1 && !roundRobin) {
+            // the model is read-only, the examples are parsed and scored by many threads
+            Predictor predictor = testPredictor != null ? testPredictor
+                    : Predictor.compile(learner, new IdentityLinkFunction(), minPrediction, maxPrediction);
+            runParallelTest(inputFiles, instanceParser, predictor, link, lossFnc, predsFile,
+                    cmd.hasOption("binary_predictions"), testThreads, exponentialProgress, progressInterval,
+                    hashDiagnostics);
+            if (metricsOut != null) {
+                metricsOut.println(metrics.toJSON());
+                metricsOut.close();
             }
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            InputReader br = openInput(inputFiles, instanceParser);
+
+            PredictionWriter bw = null;
+            if (predsFile != null)
+                bw = new PredictionWriter(predsFile, cmd.hasOption("binary_predictions"));
 
             try {
-                System.out.println("average       example  current  current  current");
-                System.out.println("loss          counter    label  predict  features");
-                int iter = 0;
-                double cumLoss = 0;
-                double weightedSampleSum = 0;
-                double sPlus = 0;
-                double sMinus = 0;
+                ProgressReport report = new ProgressReport(link, lossFnc, minPrediction, maxPrediction, binary,
+                        multiclass, exponentialProgress, progressInterval, metrics, bw);
+                report.printHeader();
                 Instance sample = null;
-                boolean justPrinted = false;
                 int pass = 0;
-                ObjectOutputStream ooutTr = null;
+                ExampleCache diskCache = null;
                 ObjectOutputStream ooutHO = null;
-                ObjectInputStream oinTr = null;
-                double pred = 0;
-                int limit = 1;
                 double hError = Double.MAX_VALUE;
-                double lastHError = Double.MAX_VALUE;
                 int numTestSample = 0;
                 int numTrainingSample = 0;
                 int idx = 0;
+                // holdout evaluation of the previous pass, running during the current one
+                HoldoutEvaluator holdout = null;
+                Future<HoldoutEvaluator.Result> pending = null;
+                boolean stopped = false;
+                // model at the end of the previous pass, restored on early stopping
+                File snapshot = null;
 
+                // training examples of the passes after the first one, in memory or on disk
+                InstanceStore store = null;
+                int storeIndex = 0;
+                int[] storeOrder = null;
                 if (numberPasses > 1) {
-                    ooutTr = new ObjectOutputStream(new FileOutputStream("cache_training.bin"));
+                    if (memoryCache > 0)
+                        store = new InstanceStore(memoryCache);
+                    else
+                        diskCache = new ExampleCache("cache_training.bin", metrics);
                     ooutHO = new ObjectOutputStream(new FileOutputStream("cache_holdout.bin"));
-                    oinTr = new ObjectInputStream(new FileInputStream("cache_training.bin"));
                 }
 
                 do {
@@ -374,21 +574,40 @@ public class Yamall {
                         double score;
 
                         if (pass > 0 && numberPasses > 1) {
-                            Instance tmp = (Instance) oinTr.readObject();
+                            if (pending != null
+                                    && (snapshot == null || (report.getExamples() & (HOLDOUT_CHECK_PERIOD - 1)) == 0)
+                                    && pending.isDone()) {
+                                stopped = checkHoldout(pending.get(), pass, hError);
+                                hError = pending.get().getLoss();
+                                pending = null;
+                                if (stopped)
+                                    break;
+                                confirmPass(snapshot, report);
+                                snapshot = null;
+                            }
+                            if (pending != null && snapshot == null) {
+                                // the previous model is still being evaluated, save it before changing it
+                                snapshot = new File("cache_snapshot.bin");
+                                snapshotLearner(learner, snapshot);
+                            }
+                            Instance tmp;
+                            if (store != null)
+                                tmp = storeIndex < store.size() ? store.get(storeOrder[storeIndex++]) : null;
+                            else
+                                tmp = diskCache.next();
                             if (tmp != null)
                                 sample = tmp;
                             else
                                 break;
                         }
                         else {
-                            String strLine = br.readLine();
-                            if (strLine != null)
-                                sample = instanceParser.parse(strLine);
+                            Instance tmp = br.next();
+                            if (tmp != null)
+                                sample = tmp;
                             else
                                 break;
                         }
 
-                        justPrinted = false;
                         idx++;
 
                         if (numberPasses > 1 && pass == 0 && idx % holdoutPeriod == 0) {
@@ -398,97 +617,127 @@ public class Yamall {
                             numTestSample++;
                         }
                         else {
+                            // the holdout set is not sampled, to be evaluated on the full data
+                            if (sampler != null && pass == 0 && !sampler.sample(sample))
+                                continue;
                             if (numberPasses > 1 && pass == 0) {
-                                ooutTr.writeObject(sample);
-                                ooutTr.reset();
+                                if (store != null && !store.add(sample)) {
+                                    // over the memory budget, move what is stored to the disk cache
+                                    System.out.println("Memory cache full after " + store.size()
+                                            + " samples, using the disk cache");
+                                    diskCache = new ExampleCache("cache_training.bin", metrics);
+                                    for (int i = 0; i < store.size(); i++)
+                                        diskCache.add(store.get(i));
+                                    store = null;
+                                }
+                                if (store == null)
+                                    diskCache.add(sample);
                                 numTrainingSample++;
                             }
 
-                            iter++;
+                            long updateStart = System.nanoTime();
                             if (testOnly) {
                                 // predict the sample
-                                score = learner.predict(sample);
+                                score = testPredictor != null ? testPredictor.score(sample) : learner.predict(sample);
                             }
                             else {
                                 // predict the sample and update the classifier using the sample
                                 score = learner.update(sample);
                             }
-                            score = Math.min(Math.max(score, minPrediction), maxPrediction);
-                            pred = link.apply(score);
-                            if (!binary)
-                                cumLoss += learner.getLoss().lossValue(score, sample.getLabel()) * sample.getWeight();
-                            else if (Math.signum(score) != sample.getLabel())
-                                cumLoss += sample.getWeight();
-
-                            weightedSampleSum += sample.getWeight();
-                            if (sample.getLabel() > 0)
-                                sPlus = sPlus + sample.getWeight();
-                            else
-                                sMinus = sMinus + sample.getWeight();
-
-                            // output predictions to file
-                            if (predsFile != null) {
-                                bw.write(String.format("%.6f %s", pred, sample.getTag()));
-                                bw.newLine();
-                            }
-
-                            // print statistics to screen
-                            if (iter == limit) {
-                                justPrinted = true;
-                                System.out.printf("%.6f %12d  % .4f  % .4f  %d\n", cumLoss / weightedSampleSum, iter,
-                                        sample.getLabel(), pred, sample.getVector().size());
-                                if (exponentialProgress)
-                                    limit *= progressInterval;
-                                else
-                                    limit += progressInterval;
-                            }
+                            report.add(sample, score, System.nanoTime() - updateStart);
                         }
                     }
                     if (numberPasses > 1) {
                         if (pass == 0) { // finished first pass of many
                             // write a null at the end of the files
-                            ooutTr.writeObject(null);
+                            if (diskCache != null)
+                                diskCache.finishWriting();
                             ooutHO.writeObject(null);
-                            ooutTr.flush();
                             ooutHO.flush();
-                            ooutTr.close();
                             ooutHO.close();
 
                             System.out.println("finished first epoch");
                             System.out.println(numTrainingSample + " training samples");
+                            if (store != null)
+                                System.out.printf("%d MB used by the memory cache\n", store.bytes() >> 20);
                             System.out.println(numTestSample + " holdout samples saved");
+                            holdout = new HoldoutEvaluator("cache_holdout.bin", learner.getLoss(), binary,
+                                    Runtime.getRuntime().availableProcessors(), metrics);
                         }
-                        lastHError = hError;
-                        hError = evalHoldoutError();
-                    }
-                    if (numberPasses > 1) {
-                        System.out.printf("Weighted loss on holdout on epoch %d = %.6f\n", pass + 1, hError);
-
-                        oinTr.close();
-                        oinTr = new ObjectInputStream(new FileInputStream("cache_training.bin"));
-
-                        if (hError > lastHError) {
+                        // the evaluation of the previous pass, if not finished yet
+                        if (!stopped && pending != null) {
+                            stopped = checkHoldout(pending.get(), pass, hError);
+                            hError = pending.get().getLoss();
+                            pending = null;
+                            if (!stopped) {
+                                confirmPass(snapshot, report);
+                                snapshot = null;
+                            }
+                        }
+                        if (stopped) {
+                            // back to the model of the previous pass, as if this one never started
                             System.out.println("Early stopping");
+                            if (snapshot != null) {
+                                learner = restoreLearner(snapshot);
+                                snapshot.delete();
+                                metrics.setModel(unwrap(learner));
+                            }
+                            report.rollback();
                             break;
                         }
+
+                        Predictor predictor = Predictor.compile(learner, new IdentityLinkFunction(), minPrediction,
+                                maxPrediction);
+                        if (pass == numberPasses - 1) {
+                            // last pass, nothing to overlap with
+                            if (checkHoldout(holdout.submit(predictor).get(), pass + 1, hError))
+                                System.out.println("Early stopping");
+                            break;
+                        }
+                        pending = holdout.submit(predictor);
+                        // the next pass is kept apart until the evaluation tells whether to keep it
+                        report.mark();
+
+                        if (store != null) {
+                            storeIndex = 0;
+                            storeOrder = permutation(store.size(), shuffleRand);
+                        }
+                        else
+                            diskCache.startPass(shuffleRand);
                     }
                     pass++;
                 }
                 while (pass < numberPasses);
+                if (holdout != null)
+                    holdout.close();
+                if (diskCache != null)
+                    diskCache.close();
 
-                if (justPrinted == false) {
-                    System.out.printf("%.6f %12d  % .4f  % .4f  %d\n", cumLoss / weightedSampleSum, iter,
-                            sample.getLabel(), pred, sample.getVector().size());
-                }
+                report.printLast();
                 System.out.println("finished run");
+                metrics.publish();
+                if (hashDiagnostics != null)
+                    System.out.print(hashDiagnostics.report());
+                if (stripRecalibration(learner) instanceof FeatureAdmission)
+                    System.out.printf("%.2f%% of the features admitted\n",
+                            100 * ((FeatureAdmission) stripRecalibration(learner)).getAdmittedFraction());
+                if (sampler != null)
+                    System.out.println("negative sampling kept " + sampler.getKeptNegatives() + " of "
+                            + sampler.getNegatives() + " negative samples");
 
-                System.out.println(String.format("average loss best constant predictor: %.6f",
-                        lossFnc.lossConstantBinaryLabels(sPlus, sMinus)));
+                if (multiclass)
+                    System.out.println(((OAA) learner).isCostSensitive() ? "average loss is the average cost"
+                            : "average loss is the error rate");
+                else
+                    report.printBinarySummary();
 
                 if (saveModelFile != null)
                     IOLearner.saveLearner(learner, saveModelFile);
                 if (invertHashName != null)
-                    IOLearner.saveInvertHash(learner.getWeights(), instanceParser.getInvertHashMap(), invertHashName);
+                    IOLearner.saveInvertHash(learner, instanceParser.getInvertHashMap(), invertHashName);
+                if (cmd.hasOption("export_predictor"))
+                    exportPredictor(cmd.getOptionValue("export_predictor"),
+                            Integer.parseInt(cmd.getOptionValue("export_bits", "16")), link);
             }
             catch (IOException e) {
                 // TODO Auto-generated catch block
@@ -498,15 +747,16 @@ public class Yamall {
                 // TODO Auto-generated catch block
                 e.printStackTrace();
             }
-
-            // close the input stream
-            try {
-                br.close();
-            }
-            catch (IOException e) {
-                // TODO Auto-generated catch block
+            catch (ExecutionException e) {
+                System.out.println("Error evaluating the holdout set");
                 e.printStackTrace();
             }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            // close the input stream
+            br.close();
             // close the output stream
             if (predsFile != null) {
                 try {
@@ -521,12 +771,14 @@ public class Yamall {
             System.out.printf("Elapsed time: %d min, %d sec\n", TimeUnit.NANOSECONDS.toMinutes(millis),
                     TimeUnit.NANOSECONDS.toSeconds(millis) - 60 * TimeUnit.NANOSECONDS.toMinutes(millis));
         }
-        catch (
-
-        FileNotFoundException e) {
+        catch (IOException e) {
             System.out.println("Error opening the input file");
             e.printStackTrace();
         }
+        if (metricsOut != null) {
+            metricsOut.println(metrics.toJSON());
+            metricsOut.close();
+        }
 
     }
 
@@ -537,24 +789,386 @@ public class Yamall {
         System.exit(0);
     }
 
-    private static double evalHoldoutError() throws FileNotFoundException, IOException, ClassNotFoundException {
-        double cumLoss = 0;
-        double weightedSampleSum = 0;
-        ObjectInputStream oin = new ObjectInputStream(new FileInputStream("cache_holdout.bin"));
-
-        Instance testSample;
-        while ((testSample = (Instance) oin.readObject()) != null) {
-            weightedSampleSum += testSample.getWeight();
-            double score = learner.predict(testSample);
-            score = Math.min(Math.max(score, minPrediction), maxPrediction);
-            if (!binary)
-                cumLoss += learner.getLoss().lossValue(score, testSample.getLabel()) * testSample.getWeight();
-            else if (Math.signum(score) != testSample.getLabel())
-                cumLoss += testSample.getWeight();
+    private static void runDaemon(InstanceParser instanceParser, LinkFunction link, final boolean learn, int port,
+            int numThreads, int batchSize, final String saveModelFile) {
+        final Daemon daemon = new Daemon(learner, instanceParser, link, minPrediction, maxPrediction, learn, numThreads,
+                batchSize);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                daemon.stop();
+                System.out.println("Latency: " + daemon.getLatency().toString());
+                System.out.println("Updates: " + daemon.getNumUpdates());
+                if (learn && saveModelFile != null)
+                    IOLearner.saveLearner(learner, saveModelFile);
+            }
+        });
+        try {
+            daemon.serve(port);
+        }
+        catch (IOException e) {
+            System.out.println("Error opening the port " + port);
+            e.printStackTrace();
+            System.exit(0);
+        }
+    }
+
+    private static void runSweep(String sweepFile, List<String> inputFiles, InstanceParser instanceParser, int bitsHash,
+            String lossName, double learningRate, String saveModelFile, String invertHashName) {
+        // every configuration is ranked with the loss function of the command line
+        Sweep sweep = new Sweep(createLoss(lossName), minPrediction, maxPrediction, binary);
+        try {
+            CommandLineParser parser = new DefaultParser();
+            int numConfigurations = 0;
+            for (String line : Files.readAllLines(Paths.get(sweepFile))) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                CommandLine cmd = null;
+                try {
+                    cmd = parser.parse(options, line.split("\\s+"));
+                }
+                catch (ParseException e) {
+                    System.out.println("Unrecognized option in sweep configuration: " + line);
+                    System.exit(0);
+                }
+                for (Option option : cmd.getOptions()) {
+                    String name = option.getLongOpt() != null ? option.getLongOpt() : option.getOpt();
+                    if (!SWEEP_OPTIONS.contains(name)) {
+                        // the examples are parsed once for all the configurations
+                        System.out.println("Option " + name
+                                + " cannot be changed in a sweep configuration, only the optimizer, -l, --loss_function and --fmNumberFactors can: "
+                                + line);
+                        System.exit(0);
+                    }
+                }
+                Learner sweepLearner = createLearner(cmd, bitsHash,
+                        Integer.parseInt(cmd.getOptionValue("fmNumberFactors", Integer.toString(fmNumberFactors))));
+                if (sweepLearner instanceof OAA) {
+                    System.out.println("Sweep mode supports only binary learners: " + line);
+                    System.exit(0);
+                }
+                sweepLearner.setLoss(createLoss(cmd.getOptionValue("loss_function", lossName)));
+                sweepLearner.setLearningRate(
+                        Double.parseDouble(cmd.getOptionValue("l", Double.toString(learningRate))));
+                sweep.addLearner(line, sweepLearner);
+                numConfigurations++;
+                System.out.println("Configuration " + numConfigurations + ": " + line);
+                System.out.println(sweepLearner.toString());
+            }
+            if (numConfigurations == 0) {
+                System.out.println("No configurations found in the sweep file.");
+                System.exit(0);
+            }
+        }
+        catch (IOException e) {
+            System.out.println("Error reading the sweep file.");
+            e.printStackTrace();
+            System.exit(0);
+        }
+
+        long start = System.nanoTime();
+        try {
+            InputReader br = openInput(inputFiles, instanceParser);
+
+            double sPlus = 0;
+            double sMinus = 0;
+            sweep.start();
+            Instance sample;
+            while ((sample = br.next()) != null) {
+                if (sample.getLabel() > 0)
+                    sPlus = sPlus + sample.getWeight();
+                else
+                    sMinus = sMinus + sample.getWeight();
+                sweep.add(sample);
+            }
+            br.close();
+            sweep.finish();
+
+            System.out.println("finished run");
+            sweep.printReport();
+            System.out.println(String.format("average loss best constant predictor: %.6f",
+                    createLoss(lossName).lossConstantBinaryLabels(sPlus, sMinus)));
+            System.out.println("Best configuration: " + sweep.getBestName());
+
+            Learner best = sweep.getBestLearner();
+            if (best != null && saveModelFile != null)
+                IOLearner.saveLearner(best, saveModelFile);
+            if (best != null && invertHashName != null)
+                IOLearner.saveInvertHash(best, instanceParser.getInvertHashMap(), invertHashName);
+        }
+        catch (IOException e) {
+            System.out.println("Error reading the input file");
+            e.printStackTrace();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long millis = System.nanoTime() - start;
+        System.out.printf("Elapsed time: %d min, %d sec\n", TimeUnit.NANOSECONDS.toMinutes(millis),
+                TimeUnit.NANOSECONDS.toSeconds(millis) - 60 * TimeUnit.NANOSECONDS.toMinutes(millis));
+    }
+
+    private static void runParallelTest(List<String> inputFiles, InstanceParser instanceParser, Predictor predictor,
+            LinkFunction link, Loss lossFnc, String predsFile, boolean binaryPredictions, int threads,
+            boolean exponentialProgress, double progressInterval, HashDiagnostics hashDiagnostics) {
+        if (inputFiles.isEmpty())
+            System.out.println("Reading from console");
+        for (String file : inputFiles)
+            System.out.println("Reading datafile = " + file);
+        System.out.println("Scoring with " + threads + " threads");
+        long start = System.nanoTime();
+        ParallelScorer scorer = new ParallelScorer(inputFiles, instanceParser, predictor, threads, decompressThreads);
+        scorer.setMetrics(metrics);
+        PredictionWriter bw = null;
+        try {
+            if (predsFile != null)
+                bw = new PredictionWriter(predsFile, binaryPredictions);
+
+            ProgressReport report = new ProgressReport(link, lossFnc, minPrediction, maxPrediction, binary, false,
+                    exponentialProgress, progressInterval, metrics, bw);
+            report.printHeader();
+            ParallelScorer.Block block;
+            while ((block = scorer.next()) != null) {
+                Instance[] samples = block.getSamples();
+                double[] scores = block.getScores();
+                long scoreNanos = block.getScoreNanos() / samples.length;
+                for (int i = 0; i < samples.length; i++)
+                    report.add(samples[i], scores[i], scoreNanos);
+            }
+            report.printLast();
+            System.out.println("finished run");
+            metrics.publish();
+            if (hashDiagnostics != null)
+                System.out.print(hashDiagnostics.report());
+            report.printBinarySummary();
+        }
+        catch (IOException e) {
+            System.out.println("Error reading the input file");
+            e.printStackTrace();
+        }
+        scorer.close();
+        if (bw != null) {
+            try {
+                bw.close();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        long millis = System.nanoTime() - start;
+        System.out.printf("Elapsed time: %d min, %d sec\n", TimeUnit.NANOSECONDS.toMinutes(millis),
+                TimeUnit.NANOSECONDS.toSeconds(millis) - 60 * TimeUnit.NANOSECONDS.toMinutes(millis));
+    }
+
+    private static InputReader openInput(List<String> inputFiles, InstanceParser instanceParser) {
+        if (inputFiles.isEmpty())
+            System.out.println("Reading from console");
+        for (String file : inputFiles)
+            System.out.println("Reading datafile = " + file);
+        if (inputFiles.size() > 1)
+            System.out.println("Reading " + Math.min(inputThreads, inputFiles.size()) + " files at a time, "
+                    + (roundRobin ? "round-robin" : "in file order"));
+        InputReader reader = new InputReader(inputFiles, instanceParser, inputThreads, roundRobin,
+                decompressThreads);
+        reader.setMetrics(metrics);
+        return reader;
+    }
+
+    /*
+     * Returns the positions from 0 to size-1, shuffled if a random generator is given.
+     */
+    private static int[] permutation(int size, Random rand) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++)
+            order[i] = i;
+        if (rand != null) {
+            for (int i = size - 1; i > 0; i--) {
+                int j = rand.nextInt(i + 1);
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Builds the learner selected by the optimizer options in the command line.
+     */
+    private static Learner createLearner(CommandLine cmd, int bitsHash, int fmNumberFactors) {
+        if (cmd.hasOption("oaa"))
+            return new OAA(bitsHash, Integer.parseInt(cmd.getOptionValue("oaa")), false);
+        else if (cmd.hasOption("csoaa"))
+            return new OAA(bitsHash, Integer.parseInt(cmd.getOptionValue("csoaa")), true);
+        else if (cmd.hasOption("kt"))
+            return new KT(bitsHash);
+        else if (cmd.hasOption("pckt"))
+            return new PerCoordinateKT(bitsHash);
+        else if (cmd.hasOption("pcsolo"))
+            return new PerCoordinateSOLO(bitsHash);
+        else if (cmd.hasOption("solo"))
+            return new SOLO(bitsHash);
+        else if (cmd.hasOption("pccocob"))
+            return new PerCoordinateCOCOB(bitsHash);
+        else if (cmd.hasOption("cocob"))
+            return new COCOB(bitsHash);
+        else if (cmd.hasOption("pistol"))
+            return new PerCoordinatePiSTOL(bitsHash);
+        else if (cmd.hasOption("fm"))
+            return new SGD_FM(bitsHash, fmNumberFactors);
+        else
+            return new SGD_VW(bitsHash);
+    }
+
+    private static LinkFunction createLink(String linkName) {
+        LinkFunction link = null;
+        if (linkName.equals("identity")) {
+            link = new IdentityLinkFunction();
+        }
+        else if (linkName.equals("logistic")) {
+            link = new LogisticLinkFunction();
+        }
+        else {
+            System.out.println("Unknown link function.");
+            System.exit(0);
         }
+        return link;
+    }
+
+    private static String[] getInteractions(CommandLine cmd) {
+        String[] quadratic = cmd.getOptionValues("q");
+        String[] cubic = cmd.getOptionValues("cubic");
+        int num = (quadratic != null ? quadratic.length : 0) + (cubic != null ? cubic.length : 0);
+        if (num == 0)
+            return null;
+        String[] interactions = new String[num];
+        int i = 0;
+        if (quadratic != null) {
+            for (String term : quadratic) {
+                if (term.length() != 2) {
+                    System.out.println("Quadratic interactions need two namespaces: " + term);
+                    System.exit(0);
+                }
+                interactions[i++] = term;
+                System.out.println("creating quadratic features for pairs: " + term);
+            }
+        }
+        if (cubic != null) {
+            for (String term : cubic) {
+                if (term.length() != 3) {
+                    System.out.println("Cubic interactions need three namespaces: " + term);
+                    System.exit(0);
+                }
+                interactions[i++] = term;
+                System.out.println("creating cubic features for triples: " + term);
+            }
+        }
+        return interactions;
+    }
+
+    private static Loss createLoss(String lossName) {
+        Loss lossFnc = null;
+        if (lossName.equals("squared")) {
+            lossFnc = new SquareLoss();
+        }
+        else if (lossName.equals("hinge")) {
+            lossFnc = new HingeLoss();
+        }
+        else if (lossName.equals("logistic")) {
+            lossFnc = new LogisticLoss();
+        }
+        else if (lossName.equals("absolute")) {
+            lossFnc = new AbsLoss();
+        }
+        else {
+            System.out.println("Unknown loss function.");
+            System.exit(0);
+        }
+        return lossFnc;
+    }
+
+    /*
+     * Prints the evaluation on the holdout set of the model after the given pass and returns true if the loss got worse.
+     */
+    private static boolean checkHoldout(HoldoutEvaluator.Result result, int pass, double lastHError) {
+        System.out.printf("AUC on holdout = %.6f\n", result.getBinaryMetrics().auc());
+        System.out.printf("Weighted loss on holdout on epoch %d = %.6f\n", pass, result.getLoss());
+        return result.getLoss() > lastHError;
+    }
+
+    /*
+     * Returns the learner wrapped by a RecalibratedLearner, or the learner itself.
+     */
+    private static Learner stripRecalibration(Learner learner) {
+        if (learner instanceof RecalibratedLearner)
+            return ((RecalibratedLearner) learner).getLearner();
+        return learner;
+    }
+
+    /*
+     * Returns the learner inside the recalibration and feature admission wrappers, if any.
+     */
+    private static Learner unwrap(Learner learner) {
+        learner = stripRecalibration(learner);
+        if (learner instanceof FeatureAdmission)
+            return ((FeatureAdmission) learner).getLearner();
+        return learner;
+    }
+
+    /*
+     * Saves the weights of the learner quantized in a prediction-only model.
+     */
+    private static void exportPredictor(String filename, int bits, LinkFunction link) {
+        Predictor predictor = Predictor.compile(learner, link, minPrediction, maxPrediction);
+        AdmissionPredictor admission = null;
+        if (predictor instanceof AdmissionPredictor) {
+            // the weights are quantized, the filter of the features is kept
+            admission = (AdmissionPredictor) predictor;
+            predictor = admission.getPredictor();
+        }
+        if (!(predictor instanceof LinearPredictor)) {
+            System.out.println("Only linear models can be exported as predictors");
+            return;
+        }
+        QuantizedPredictor quantized;
+        try {
+            quantized = new QuantizedPredictor((LinearPredictor) predictor, bits);
+        }
+        catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        IOLearner.savePredictor(admission != null ? admission.withPredictor(quantized) : quantized, filename);
+        System.out.printf("Predictor with %d-bit weights saved to %s, %d KB\n", bits, filename,
+                new File(filename).length() >> 10);
+    }
+
+    /*
+     * The learner is streamed to a file, so that saving it does not need a second copy of the weights in memory.
+     */
+    private static void snapshotLearner(Learner learner, File snapshot) throws IOException {
+        ObjectOutputStream oout = new ObjectOutputStream(
+                new BufferedOutputStream(new FileOutputStream(snapshot), 1 << 16));
+        oout.writeObject(learner);
+        oout.close();
+    }
+
+    private static Learner restoreLearner(File snapshot) throws IOException, ClassNotFoundException {
+        ObjectInputStream oin = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(snapshot), 1 << 16));
+        Learner restored = (Learner) oin.readObject();
         oin.close();
+        return restored;
+    }
 
-        return cumLoss / weightedSampleSum;
+    /*
+     * The evaluation of the previous pass did not stop the training: the predictions of the current pass are written
+     * and the model of the previous one is not needed anymore.
+     */
+    private static void confirmPass(File snapshot, ProgressReport report) throws IOException {
+        report.confirm();
+        if (snapshot != null)
+            snapshot.delete();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,76 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.spark;
+
+import java.util.Iterator;
+
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.function.FlatMapFunction;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Encoders;
+import org.apache.spark.sql.Row;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.parser.InstanceParser;
+
+/**
+ * Parsing of distributed datasets of text examples.
+ * <p>
+ * Each partition builds its own parser from a {@link ParserFactory} and parses its lines lazily, so the parsed
+ * instances are never all in memory unless the resulting RDD is persisted.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class Instances {
+
+    private Instances() {
+    }
+
+    /**
+     * Parses an RDD of lines.
+     *
+     * @param lines
+     *            one example per line, in the format of the parser.
+     * @param factory
+     *            configuration of the parser.
+     * @return the parsed instances, in the same order of the lines.
+     */
+    @SuppressWarnings("serial")
+    public static JavaRDD<Instance> parse(JavaRDD<String> lines, final ParserFactory factory) {
+        return lines.mapPartitions(new FlatMapFunction<Iterator<String>, Instance>() {
+            public Iterator<Instance> call(final Iterator<String> it) {
+                final InstanceParser parser = factory.create();
+                return new Iterator<Instance>() {
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    public Instance next() {
+                        return parser.parse(it.next());
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        });
+    }
+
+    /**
+     * Parses a string column of a DataFrame.
+     *
+     * @param df
+     *            the DataFrame.
+     * @param column
+     *            name of the column with one example per row, in the format of the parser.
+     * @param factory
+     *            configuration of the parser.
+     * @return the parsed instances, in the same order of the rows.
+     */
+    public static JavaRDD<Instance> parse(Dataset<Row> df, String column, ParserFactory factory) {
+        return parse(df.select(column).as(Encoders.STRING()).javaRDD(), factory);
+    }
+}
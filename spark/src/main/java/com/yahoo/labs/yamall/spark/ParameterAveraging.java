@@ -0,0 +1,160 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.spark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Iterator;
+
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.FlatMapFunction;
+import org.apache.spark.api.java.function.Function2;
+import org.apache.spark.broadcast.Broadcast;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.ml.SGD_VW;
+
+/**
+ * Distributed training by iterative parameter averaging.
+ * <p>
+ * In each iteration the current model is broadcast to the executors, each partition trains its own copy on its
+ * examples with one online pass, and the copies are averaged with a tree aggregation, weighting each one by the number
+ * of its examples. The average is the starting model of the next iteration. With one partition, the result is the
+ * same of the local learner with one pass per iteration.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class ParameterAveraging {
+
+    private final int depth;
+
+    /**
+     * Sum of the models of some partitions, each multiplied by the number of its examples.
+     */
+    @SuppressWarnings("serial")
+    static class ModelSum implements Serializable {
+        SGD_VW learner = null;
+        long examples = 0;
+        double cumLoss = 0;
+        double weightedSampleSum = 0;
+
+        ModelSum merge(ModelSum other) {
+            if (other.examples == 0)
+                return this;
+            if (examples == 0)
+                return other;
+            learner.addScaled(other.learner, 1);
+            examples += other.examples;
+            cumLoss += other.cumLoss;
+            weightedSampleSum += other.weightedSampleSum;
+            return this;
+        }
+    }
+
+    /**
+     * Trainer.
+     *
+     * @param depth
+     *            depth of the tree aggregation of the models, at least 2.
+     */
+    public ParameterAveraging(
+            int depth) {
+        this.depth = Math.max(depth, 2);
+    }
+
+    /**
+     * Trains a model.
+     *
+     * @param sc
+     *            Spark context.
+     * @param data
+     *            training examples, it should be persisted if iterations is larger than 1.
+     * @param learner
+     *            initial model, with loss and learning rate. It is not modified.
+     * @param iterations
+     *            number of iterations, each one a pass over the data.
+     * @return the averaged model after the last iteration.
+     * @throws IOException
+     *             if the model cannot be serialized.
+     * @throws ClassNotFoundException
+     *             if the model cannot be deserialized.
+     */
+    public SGD_VW train(JavaSparkContext sc, JavaRDD<Instance> data, SGD_VW learner, int iterations)
+            throws IOException, ClassNotFoundException {
+        byte[] current = serialize(learner);
+        for (int it = 0; it < iterations; it++) {
+            final Broadcast<byte[]> model = sc.broadcast(current);
+            ModelSum sum = data.mapPartitions(new TrainPartition(model)).treeAggregate(new ModelSum(), new Merge(),
+                    new Merge(), depth);
+            model.destroy();
+            if (sum.examples == 0)
+                break;
+            sum.learner.scale(1.0 / sum.examples);
+            System.out.printf("iteration %d: %d examples, average loss %.6f\n", it + 1, sum.examples,
+                    sum.cumLoss / sum.weightedSampleSum);
+            current = serialize(sum.learner);
+        }
+        return (SGD_VW) deserialize(current);
+    }
+
+    /*
+     * One pass of a copy of the broadcast model over the examples of a partition.
+     */
+    @SuppressWarnings("serial")
+    private static class TrainPartition implements FlatMapFunction<Iterator<Instance>, ModelSum> {
+        private final Broadcast<byte[]> model;
+
+        TrainPartition(
+                Broadcast<byte[]> model) {
+            this.model = model;
+        }
+
+        public Iterator<ModelSum> call(Iterator<Instance> it) throws IOException, ClassNotFoundException {
+            if (!it.hasNext())
+                return Collections.<ModelSum> emptyList().iterator();
+            // the broadcast value is shared by the tasks of the executor, each one trains its own copy
+            ModelSum partial = new ModelSum();
+            partial.learner = (SGD_VW) deserialize(model.value());
+            while (it.hasNext()) {
+                Instance sample = it.next();
+                double score = partial.learner.update(sample);
+                partial.cumLoss += partial.learner.getLoss().lossValue(score, sample.getLabel())
+                        * sample.getWeight();
+                partial.weightedSampleSum += sample.getWeight();
+                partial.examples++;
+            }
+            partial.learner.scale(partial.examples);
+            return Collections.singletonList(partial).iterator();
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class Merge implements Function2<ModelSum, ModelSum, ModelSum> {
+        public ModelSum call(ModelSum a, ModelSum b) {
+            return a.merge(b);
+        }
+    }
+
+    static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(bytes);
+        oout.writeObject(object);
+        oout.close();
+        return bytes.toByteArray();
+    }
+
+    static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        Object object = oin.readObject();
+        oin.close();
+        return object;
+    }
+}
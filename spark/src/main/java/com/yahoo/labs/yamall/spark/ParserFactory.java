@@ -0,0 +1,105 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.spark;
+
+import java.io.Serializable;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaSparkContext;
+
+import com.yahoo.labs.yamall.parser.InstanceParser;
+import com.yahoo.labs.yamall.parser.LIBSVMParser;
+import com.yahoo.labs.yamall.parser.TSVParser;
+import com.yahoo.labs.yamall.parser.VWParser;
+
+/**
+ * Configuration of an {@link InstanceParser}, sent to the executors to build the parser of each partition.
+ * <p>
+ * The parsers are not serializable, so the executors receive their configuration and build them locally.
+ *
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+@SuppressWarnings("serial")
+public class ParserFactory implements Serializable {
+    private final String name;
+    private final int bits;
+    private final String ignore;
+    private final String spec;
+    private final String[] interactions;
+
+    /**
+     * Configuration of a parser.
+     *
+     * @param name
+     *            name of the parser: vw, libsvm or tsv.
+     * @param bits
+     *            number of bits to use in the hashing.
+     * @param ignore
+     *            namespaces to ignore, null for none. Not used by the libsvm parser.
+     * @param spec
+     *            schema of the tsv parser, null for the other parsers.
+     * @param interactions
+     *            interactions between the namespaces of the vw parser, null for none.
+     */
+    public ParserFactory(
+            String name, int bits, String ignore, String spec, String[] interactions) {
+        if (!name.equals("vw") && !name.equals("libsvm") && !name.equals("tsv"))
+            throw new IllegalArgumentException("Unknown parser " + name);
+        if (name.equals("tsv") && spec == null)
+            throw new IllegalArgumentException("The tsv parser requires a schema");
+        this.name = name;
+        this.bits = bits;
+        this.ignore = ignore;
+        this.spec = spec;
+        this.interactions = interactions;
+    }
+
+    /**
+     * Configuration of the parser from the <tt>spark.yamall.*</tt> properties: <tt>parser</tt> (default vw),
+     * <tt>bit_precision</tt> (default 18), <tt>ignore</tt>, <tt>parser_spec</tt>, the path of the schema of the tsv
+     * parser on any file system supported by Spark, and <tt>quadratic</tt>, a comma separated list of pairs of
+     * namespaces to cross.
+     *
+     * @param sc
+     *            Spark context, used to read the schema.
+     * @return the configuration.
+     */
+    public static ParserFactory fromConf(JavaSparkContext sc) {
+        SparkConf conf = sc.getConf();
+        String name = conf.get("spark.yamall.parser", "vw");
+        String spec = null;
+        if (conf.contains("spark.yamall.parser_spec"))
+            spec = sc.wholeTextFiles(conf.get("spark.yamall.parser_spec")).first()._2();
+        String[] interactions = null;
+        if (conf.contains("spark.yamall.quadratic"))
+            interactions = conf.get("spark.yamall.quadratic").split(",");
+        return new ParserFactory(name, conf.getInt("spark.yamall.bit_precision", 18),
+                conf.get("spark.yamall.ignore", null), spec, interactions);
+    }
+
+    /**
+     * Builds a new parser.
+     *
+     * @return the parser.
+     */
+    public InstanceParser create() {
+        if (name.equals("vw"))
+            return new VWParser(bits, ignore, false, interactions);
+        if (name.equals("libsvm"))
+            return new LIBSVMParser(bits, false);
+        return new TSVParser(bits, ignore, false, spec);
+    }
+
+    /**
+     * @return the number of bits of the hashing.
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    public String toString() {
+        return "Parser " + name + ", " + bits + " bits" + (ignore != null ? ", ignoring " + ignore : "");
+    }
+}
@@ -0,0 +1,172 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.spark;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Serializable;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.Function2;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.storage.StorageLevel;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.ml.BinaryMetrics;
+import com.yahoo.labs.yamall.ml.IOLearner;
+import com.yahoo.labs.yamall.ml.IdentityLinkFunction;
+import com.yahoo.labs.yamall.ml.LinkFunction;
+import com.yahoo.labs.yamall.ml.LogisticLinkFunction;
+import com.yahoo.labs.yamall.ml.Predictor;
+
+/**
+ * Yamall - Spark version
+ * 
+ * Test a yamall model, broadcast to the executors as a read-only predictor.
+ * 
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class Test {
+
+    private static final String MODEL_BIN = "model.bin";
+
+    /**
+     * Score of an example, with its label, weight and tag.
+     */
+    @SuppressWarnings("serial")
+    public static class Scored implements Serializable {
+        private final double score;
+        private final double prediction;
+        private final double label;
+        private final double weight;
+        private final String tag;
+
+        Scored(
+                double score, double prediction, Instance sample) {
+            this.score = score;
+            this.prediction = prediction;
+            this.label = sample.getLabel();
+            this.weight = sample.getWeight();
+            this.tag = sample.getTag();
+        }
+
+        /**
+         * @return the score, before the link function.
+         */
+        public double getScore() {
+            return score;
+        }
+
+        /**
+         * @return the prediction, after the link function.
+         */
+        public double getPrediction() {
+            return prediction;
+        }
+
+        /**
+         * @return the label of the example.
+         */
+        public double getLabel() {
+            return label;
+        }
+
+        /**
+         * @return the weight of the example.
+         */
+        public double getWeight() {
+            return weight;
+        }
+
+        /**
+         * @return the tag of the example.
+         */
+        public String getTag() {
+            return tag;
+        }
+
+        public String toString() {
+            return String.format("%.6f %s", prediction, tag);
+        }
+    }
+
+    /**
+     * Scores the examples with a predictor broadcast to the executors.
+     *
+     * @param sc
+     *            Spark context.
+     * @param data
+     *            examples to score.
+     * @param predictor
+     *            the predictor, shared by all the tasks of an executor.
+     * @return the scores, in the same order of the examples.
+     */
+    @SuppressWarnings("serial")
+    public static JavaRDD<Scored> score(JavaSparkContext sc, JavaRDD<Instance> data, Predictor predictor) {
+        final Broadcast<Predictor> model = sc.broadcast(predictor);
+        return data.map(new Function<Instance, Scored>() {
+            public Scored call(Instance sample) {
+                Predictor p = model.value();
+                double score = p.score(sample);
+                return new Scored(score, p.link(score), sample);
+            }
+        });
+    }
+
+    @SuppressWarnings("serial")
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.out.println("Usage: Test TEST_PATH OUTPUT_DIR MODEL_FILE");
+            System.exit(0);
+        }
+        // local mode when not submitted to a cluster
+        SparkConf conf = new SparkConf().setAppName("Yamall Test on Spark").setIfMissing("spark.master", "local[*]");
+        JavaSparkContext sc = new JavaSparkContext(conf);
+        Train.printOptions(conf);
+
+        // move the model to the driver
+        Path modelPath = new Path(args[2]);
+        modelPath.getFileSystem(sc.hadoopConfiguration()).copyToLocalFile(modelPath, new Path(MODEL_BIN));
+        LinkFunction link = conf.get("spark.yamall.link", "identity").equals("logistic") ? new LogisticLinkFunction()
+                : new IdentityLinkFunction();
+        Predictor predictor = Predictor.compile(IOLearner.loadLearner(MODEL_BIN), link,
+                conf.getDouble("spark.yamall.min_prediction", -50), conf.getDouble("spark.yamall.max_prediction", 50));
+
+        ParserFactory factory = ParserFactory.fromConf(sc);
+        System.out.println(factory);
+        JavaRDD<Scored> scored = score(sc, Instances.parse(sc.textFile(args[0]), factory), predictor);
+        scored.persist(StorageLevel.MEMORY_AND_DISK());
+
+        Path output = new Path(args[1]);
+        scored.saveAsTextFile(new Path(output, "scores").toString());
+        BinaryMetrics metrics = scored.treeAggregate(new BinaryMetrics(),
+                new Function2<BinaryMetrics, Scored, BinaryMetrics>() {
+                    public BinaryMetrics call(BinaryMetrics m, Scored s) {
+                        m.add(s.getScore(), s.getLabel(), s.getWeight());
+                        return m;
+                    }
+                }, new Function2<BinaryMetrics, BinaryMetrics, BinaryMetrics>() {
+                    public BinaryMetrics call(BinaryMetrics a, BinaryMetrics b) {
+                        a.merge(b);
+                        return a;
+                    }
+                }, conf.getInt("spark.yamall.tree_depth", 2));
+        System.out.println(metrics);
+
+        // save the metrics next to the scores
+        FileSystem fileSystem = output.getFileSystem(sc.hadoopConfiguration());
+        PrintStream out = new PrintStream(fileSystem.create(new Path(output, "metrics.txt")));
+        out.println(metrics);
+        out.print(metrics.calibrationTable());
+        out.close();
+
+        sc.stop();
+    }
+}
@@ -0,0 +1,95 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.spark;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.storage.StorageLevel;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.ml.AbsLoss;
+import com.yahoo.labs.yamall.ml.HingeLoss;
+import com.yahoo.labs.yamall.ml.IOLearner;
+import com.yahoo.labs.yamall.ml.LogisticLoss;
+import com.yahoo.labs.yamall.ml.Loss;
+import com.yahoo.labs.yamall.ml.SGD_VW;
+import com.yahoo.labs.yamall.ml.SquareLoss;
+
+import scala.Tuple2;
+
+/**
+ * Yamall - Spark version
+ * 
+ * Train a yamall model with iterative parameter averaging over the partitions of the data.
+ * 
+ * @author Francesco Orabona
+ * @version 1.0
+ */
+public class Train {
+
+    private static final String MODEL_BIN = "model.bin";
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        if (args.length != 2) {
+            System.out.println("Usage: Train TRAIN_PATH OUTPUT_DIR");
+            System.exit(0);
+        }
+        // local mode when not submitted to a cluster
+        SparkConf conf = new SparkConf().setAppName("Yamall Train on Spark").setIfMissing("spark.master", "local[*]");
+        JavaSparkContext sc = new JavaSparkContext(conf);
+        printOptions(conf);
+
+        ParserFactory factory = ParserFactory.fromConf(sc);
+        System.out.println(factory);
+        int iterations = conf.getInt("spark.yamall.iterations", 5);
+
+        JavaRDD<String> lines = sc.textFile(args[0]);
+        if (conf.contains("spark.yamall.partitions"))
+            lines = lines.repartition(conf.getInt("spark.yamall.partitions", 1));
+        JavaRDD<Instance> data = Instances.parse(lines, factory);
+        if (iterations > 1)
+            // parsed once, used by all the iterations
+            data.persist(StorageLevel.MEMORY_AND_DISK());
+
+        SGD_VW learner = new SGD_VW(factory.getBits());
+        learner.setLoss(createLoss(conf.get("spark.yamall.loss_function", "logistic")));
+        if (conf.contains("spark.yamall.learning_rate"))
+            learner.setLearningRate(conf.getDouble("spark.yamall.learning_rate", 1));
+        System.out.println(learner);
+
+        ParameterAveraging trainer = new ParameterAveraging(conf.getInt("spark.yamall.tree_depth", 2));
+        SGD_VW model = trainer.train(sc, data, learner, iterations);
+
+        // save the model to a local file and move it to the output directory
+        IOLearner.saveLearner(model, MODEL_BIN);
+        Path output = new Path(args[1]);
+        FileSystem fileSystem = output.getFileSystem(sc.hadoopConfiguration());
+        fileSystem.mkdirs(output);
+        fileSystem.moveFromLocalFile(new Path(MODEL_BIN), new Path(output, MODEL_BIN));
+
+        sc.stop();
+    }
+
+    static void printOptions(SparkConf conf) {
+        for (Tuple2<String, String> entry : conf.getAllWithPrefix("spark.yamall."))
+            System.out.printf("spark.yamall.%s=%s\n", entry._1(), entry._2());
+    }
+
+    static Loss createLoss(String lossName) {
+        if (lossName.equals("squared"))
+            return new SquareLoss();
+        else if (lossName.equals("hinge"))
+            return new HingeLoss();
+        else if (lossName.equals("logistic"))
+            return new LogisticLoss();
+        else if (lossName.equals("absolute"))
+            return new AbsLoss();
+        throw new IllegalArgumentException("Unknown loss function " + lossName);
+    }
+}
@@ -0,0 +1,140 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the Apache 2.0 license.
+// Please see LICENSE file in the project root for terms.
+package com.yahoo.labs.yamall.spark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Encoders;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.yahoo.labs.yamall.core.Instance;
+import com.yahoo.labs.yamall.ml.IdentityLinkFunction;
+import com.yahoo.labs.yamall.ml.LogisticLoss;
+import com.yahoo.labs.yamall.ml.Predictor;
+import com.yahoo.labs.yamall.ml.SGD_VW;
+import com.yahoo.labs.yamall.parser.InstanceParser;
+
+public class SparkLocalTest {
+
+    private static final int BITS = 12;
+
+    private JavaSparkContext sc;
+    private ParserFactory factory;
+    private List<String> lines;
+
+    @BeforeClass
+    public void setUp() {
+        sc = new JavaSparkContext(new SparkConf().setAppName("yamall-test").setMaster("local[*]")
+                .set("spark.ui.enabled", "false").set("spark.driver.host", "localhost"));
+        factory = new ParserFactory("vw", BITS, null, null, new String[] { "ab" });
+        // the label is given by the feature of namespace a, namespace b is noise
+        Random rand = new Random(0);
+        lines = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            int a = rand.nextInt(20);
+            lines.add((a < 10 ? "1" : "-1") + " t" + i + "|a x" + a + " |b y" + rand.nextInt(5));
+        }
+    }
+
+    @AfterClass
+    public void tearDown() {
+        sc.stop();
+    }
+
+    private List<Instance> parseLocally() {
+        InstanceParser parser = factory.create();
+        List<Instance> samples = new ArrayList<Instance>();
+        for (String line : lines)
+            samples.add(parser.parse(line));
+        return samples;
+    }
+
+    private static void assertSame(Instance a, Instance b) {
+        Assert.assertEquals(a.getLabel(), b.getLabel());
+        Assert.assertEquals(a.getTag(), b.getTag());
+        Assert.assertEquals(a.getVector(), b.getVector());
+        Assert.assertEquals(a.numFeatures(), b.numFeatures());
+    }
+
+    @Test
+    public void instancesTest() {
+        List<Instance> expected = parseLocally();
+        List<Instance> parsed = Instances.parse(sc.parallelize(lines, 4), factory).collect();
+        Assert.assertEquals(parsed.size(), expected.size());
+        for (int i = 0; i < parsed.size(); i++)
+            assertSame(parsed.get(i), expected.get(i));
+        // 3 first order and 1 crossed feature
+        Assert.assertEquals(parsed.get(0).numFeatures(), 4);
+
+        SparkSession spark = SparkSession.builder().sparkContext(sc.sc()).getOrCreate();
+        Dataset<Row> df = spark.createDataset(lines, Encoders.STRING()).toDF("line");
+        List<Instance> fromDataFrame = Instances.parse(df, "line", factory).collect();
+        for (int i = 0; i < fromDataFrame.size(); i++)
+            assertSame(fromDataFrame.get(i), expected.get(i));
+    }
+
+    @Test
+    public void parameterAveragingTest() throws IOException, ClassNotFoundException {
+        List<Instance> samples = parseLocally();
+        SGD_VW learner = new SGD_VW(BITS);
+        learner.setLoss(new LogisticLoss());
+
+        // with one partition, the same of the local learner with one pass per iteration
+        SGD_VW local = new SGD_VW(BITS);
+        local.setLoss(new LogisticLoss());
+        for (int pass = 0; pass < 2; pass++)
+            for (Instance sample : samples)
+                local.update(sample);
+        JavaRDD<Instance> single = Instances.parse(sc.parallelize(lines, 1), factory);
+        SGD_VW model = new ParameterAveraging(2).train(sc, single, learner, 2);
+        double[] w = model.getWeights().toDenseVector(1 << BITS);
+        double[] localW = local.getWeights().toDenseVector(1 << BITS);
+        for (int i = 0; i < w.length; i++)
+            Assert.assertEquals(w[i], localW[i], 1e-9);
+        // the initial model is not modified
+        Assert.assertEquals(learner.getWeights().size(), 0);
+
+        // with many partitions, the average model still separates the classes
+        JavaRDD<Instance> data = Instances.parse(sc.parallelize(lines, 4), factory).cache();
+        model = new ParameterAveraging(2).train(sc, data, learner, 3);
+        int errors = 0;
+        for (Instance sample : samples)
+            if (Math.signum(model.predict(sample)) != sample.getLabel())
+                errors++;
+        Assert.assertEquals(errors, 0);
+    }
+
+    @Test
+    public void scoreTest() {
+        List<Instance> samples = parseLocally();
+        SGD_VW learner = new SGD_VW(BITS);
+        learner.setLoss(new LogisticLoss());
+        for (Instance sample : samples)
+            learner.update(sample);
+        Predictor predictor = Predictor.compile(learner, new IdentityLinkFunction(), -1, 1);
+
+        // the Test job of this package, not the annotation
+        List<com.yahoo.labs.yamall.spark.Test.Scored> scored = com.yahoo.labs.yamall.spark.Test
+                .score(sc, Instances.parse(sc.parallelize(lines, 4), factory), predictor).collect();
+        Assert.assertEquals(scored.size(), samples.size());
+        for (int i = 0; i < scored.size(); i++) {
+            Instance sample = samples.get(i);
+            Assert.assertEquals(scored.get(i).getScore(), predictor.score(sample), 1e-12);
+            Assert.assertEquals(scored.get(i).getLabel(), sample.getLabel());
+            Assert.assertEquals(scored.get(i).getTag(), sample.getTag());
+        }
+    }
+}